@@ -0,0 +1,131 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.content.res;
+
+import android.content.Context;
+import android.perftests.utils.BenchmarkState;
+import android.perftests.utils.PerfStatusReporter;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.filters.LargeTest;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.TypedValue;
+import android.view.LayoutInflater;
+import android.widget.FrameLayout;
+
+import com.android.perftests.core.R;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/**
+ * Measures reading framework resource values, resolving framework style attributes, and
+ * inflating common layouts.
+ */
+@RunWith(AndroidJUnit4.class)
+@LargeTest
+public class ResourcesPerfTest {
+    private static final int[] TEXT_APPEARANCE_ATTRS = new int[] {
+            android.R.attr.textSize,
+            android.R.attr.textColor,
+            android.R.attr.textStyle,
+            android.R.attr.typeface,
+            android.R.attr.fontFamily,
+    };
+
+    @Rule
+    public PerfStatusReporter mPerfStatusReporter = new PerfStatusReporter();
+
+    private Context mContext;
+    private Resources mResources;
+
+    @Before
+    public void setUp() {
+        mContext = InstrumentationRegistry.getInstrumentation().getTargetContext();
+        mResources = mContext.getResources();
+    }
+
+    @Test
+    public void timeGetValue_Preloaded() {
+        final TypedValue value = new TypedValue();
+        final BenchmarkState state = mPerfStatusReporter.getBenchmarkState();
+        while (state.keepRunning()) {
+            mResources.getValue(
+                    com.android.internal.R.dimen.config_viewConfigurationTouchSlop, value, true);
+        }
+    }
+
+    @Test
+    public void timeGetValue_NotPreloaded() {
+        final TypedValue value = new TypedValue();
+        final BenchmarkState state = mPerfStatusReporter.getBenchmarkState();
+        while (state.keepRunning()) {
+            mResources.getValue(android.R.dimen.app_icon_size, value, true);
+        }
+    }
+
+    @Test
+    public void timeGetDimensionPixelSize() {
+        final BenchmarkState state = mPerfStatusReporter.getBenchmarkState();
+        while (state.keepRunning()) {
+            mResources.getDimensionPixelSize(
+                    com.android.internal.R.dimen.config_viewConfigurationTouchSlop);
+        }
+    }
+
+    @Test
+    public void timeGetInteger() {
+        final BenchmarkState state = mPerfStatusReporter.getBenchmarkState();
+        while (state.keepRunning()) {
+            mResources.getInteger(android.R.integer.config_shortAnimTime);
+        }
+    }
+
+    @Test
+    public void timeObtainStyledAttributes() {
+        final BenchmarkState state = mPerfStatusReporter.getBenchmarkState();
+        while (state.keepRunning()) {
+            mContext.obtainStyledAttributes(null, TEXT_APPEARANCE_ATTRS,
+                    android.R.attr.textViewStyle, 0).recycle();
+        }
+    }
+
+    @Test
+    public void timeInflateLinearLayout() {
+        inflate(R.layout.test_linear_layout);
+    }
+
+    @Test
+    public void timeInflateRelativeLayout() {
+        inflate(R.layout.test_relative_layout);
+    }
+
+    @Test
+    public void timeInflateTextView() {
+        inflate(R.layout.test_basic_textview_layout);
+    }
+
+    private void inflate(int layoutId) {
+        final LayoutInflater inflater = LayoutInflater.from(mContext);
+        final FrameLayout root = new FrameLayout(mContext);
+        final BenchmarkState state = mPerfStatusReporter.getBenchmarkState();
+        while (state.keepRunning()) {
+            inflater.inflate(layoutId, root, false);
+        }
+    }
+}
@@ -20,7 +20,9 @@ import android.graphics.Canvas;
 import android.perftests.utils.BenchmarkState;
 import android.perftests.utils.PerfStatusReporter;
 import android.support.test.filters.LargeTest;
+import android.text.TextAdvanceCache;
 import android.text.TextPaint;
+import android.text.TextUtils;
 
 import org.junit.Rule;
 import org.junit.Test;
@@ -36,6 +38,7 @@ public class PaintMeasureTextTest {
 
     private static final int USE_CACHE = 0;
     private static final int DONT_USE_CACHE = 1;
+    private static final float ELLIPSIZE_WIDTH = 1000f;
 
     @Parameterized.Parameters(name = "{0}")
     public static Collection measureSpecs() {
@@ -54,6 +57,11 @@ public class PaintMeasureTextTest {
                 // U+1F368(\uD83C\uDF68) is ICE CREAM
                 { "emoji_surrogate_pairs_cached", USE_CACHE, "\uD83C\uDF68" },
                 { "emoji_surrogate_pairs_not_cached", DONT_USE_CACHE, "\uD83C\uDF68" },
+                // Words and labels as shown in lists, which are measured again and again.
+                { "word_cached", USE_CACHE, "Settings" },
+                { "word_not_cached", DONT_USE_CACHE, "Settings" },
+                { "label_cached", USE_CACHE, "Network & internet" },
+                { "label_not_cached", DONT_USE_CACHE, "Network & internet" },
         });
     }
 
@@ -89,4 +97,32 @@ public class PaintMeasureTextTest {
             paint.measureText(mText);
         }
     }
+
+    @Test
+    public void testEllipsizePerf() {
+        // Goes through MeasuredText, which also caches the advances of short runs in Java.
+        TextPaint paint = new TextPaint();
+        BenchmarkState state = mPerfStatusReporter.getBenchmarkState();
+
+        if (mCacheMode == USE_CACHE) {
+            TextUtils.ellipsize(mText, paint, ELLIPSIZE_WIDTH, TextUtils.TruncateAt.END);
+        } else {
+            clearCaches();
+        }
+
+        while (state.keepRunning()) {
+            state.pauseTiming();
+            if (mCacheMode == DONT_USE_CACHE) {
+                clearCaches();
+            }
+            state.resumeTiming();
+
+            TextUtils.ellipsize(mText, paint, ELLIPSIZE_WIDTH, TextUtils.TruncateAt.END);
+        }
+    }
+
+    private static void clearCaches() {
+        Canvas.freeTextLayoutCaches();
+        TextAdvanceCache.clear();
+    }
 }
@@ -30,6 +30,7 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import org.junit.Rule;
 import org.junit.Test;
@@ -40,6 +41,9 @@ import org.junit.runner.RunWith;
 public class TypefaceCreatePerfTest {
     // A font file name in asset directory.
     private static final String TEST_FONT_NAME = "DancingScript-Regular.ttf";
+    // Threads creating typefaces alongside the benchmark thread, as when views are inflated on
+    // several threads.
+    private static final int BACKGROUND_THREADS = 3;
 
     @Rule
     public PerfStatusReporter mPerfStatusReporter = new PerfStatusReporter();
@@ -103,4 +107,40 @@ public class TypefaceCreatePerfTest {
 
         outFile.delete();
     }
+
+    @Test
+    public void testCreate_fromFamily_withBackgroundThreads() throws Exception {
+        runWithBackgroundThreads(() -> Typeface.create(Typeface.SANS_SERIF, Typeface.BOLD));
+    }
+
+    @Test
+    public void testCreate_fromAsset_withBackgroundThreads() throws Exception {
+        final AssetManager am = InstrumentationRegistry.getContext().getAssets();
+        runWithBackgroundThreads(() -> Typeface.createFromAsset(am, TEST_FONT_NAME));
+    }
+
+    private void runWithBackgroundThreads(Runnable create) throws Exception {
+        final AtomicBoolean done = new AtomicBoolean();
+        final Thread[] threads = new Thread[BACKGROUND_THREADS];
+        for (int i = 0; i < threads.length; i++) {
+            threads[i] = new Thread(() -> {
+                while (!done.get()) {
+                    create.run();
+                }
+            });
+            threads[i].start();
+        }
+
+        try {
+            BenchmarkState state = mPerfStatusReporter.getBenchmarkState();
+            while (state.keepRunning()) {
+                create.run();
+            }
+        } finally {
+            done.set(true);
+            for (Thread thread : threads) {
+                thread.join();
+            }
+        }
+    }
 }
@@ -49,6 +49,7 @@ public class ParcelArrayPerfTest {
     private byte[] mByteArray;
     private int[] mIntArray;
     private long[] mLongArray;
+    private String[] mStrings;
 
     private Parcel mByteParcel;
     private Parcel mIntParcel;
@@ -65,6 +66,11 @@ public class ParcelArrayPerfTest {
         mByteArray = new byte[mSize];
         mIntArray = new int[mSize];
         mLongArray = new long[mSize];
+        mStrings = new String[mSize];
+        for (int i = 0; i < mSize; i++) {
+            // Shaped like the package names repeated across a list of PackageInfo.
+            mStrings[i] = "com.android.package" + (i % 16);
+        }
 
         mByteParcel = Parcel.obtain();
         mByteParcel.writeByteArray(mByteArray);
@@ -160,4 +166,68 @@ public class ParcelArrayPerfTest {
             mLongParcel.readLongArray(mLongArray);
         }
     }
+
+    @Test
+    public void timeWriteStrings() {
+        writeStrings(0);
+    }
+
+    @Test
+    public void timeWriteStrings_Pooled() {
+        writeStrings(Parcel.STRING_SECTION_POOLED);
+    }
+
+    @Test
+    public void timeWriteStrings_PooledUtf8() {
+        writeStrings(Parcel.STRING_SECTION_POOLED | Parcel.STRING_SECTION_UTF8);
+    }
+
+    @Test
+    public void timeReadStrings() {
+        readStrings(0);
+    }
+
+    @Test
+    public void timeReadStrings_Pooled() {
+        readStrings(Parcel.STRING_SECTION_POOLED);
+    }
+
+    @Test
+    public void timeReadStrings_PooledUtf8() {
+        readStrings(Parcel.STRING_SECTION_POOLED | Parcel.STRING_SECTION_UTF8);
+    }
+
+    private void writeStrings(int sectionFlags) {
+        final BenchmarkState state = mPerfStatusReporter.getBenchmarkState();
+        while (state.keepRunning()) {
+            mWriteParcel.setDataPosition(0);
+            writeStrings(mWriteParcel, sectionFlags);
+        }
+    }
+
+    private void readStrings(int sectionFlags) {
+        final Parcel parcel = Parcel.obtain();
+        writeStrings(parcel, sectionFlags);
+        try {
+            final BenchmarkState state = mPerfStatusReporter.getBenchmarkState();
+            while (state.keepRunning()) {
+                parcel.setDataPosition(0);
+                parcel.readStringSectionStart();
+                for (int i = 0; i < mSize; i++) {
+                    parcel.readString();
+                }
+                parcel.finishStringSection();
+            }
+        } finally {
+            parcel.recycle();
+        }
+    }
+
+    private void writeStrings(Parcel parcel, int sectionFlags) {
+        parcel.writeStringSectionStart(sectionFlags);
+        for (int i = 0; i < mSize; i++) {
+            parcel.writeString(mStrings[i]);
+        }
+        parcel.finishStringSection();
+    }
 }
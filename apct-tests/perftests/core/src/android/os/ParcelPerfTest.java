@@ -16,6 +16,7 @@
 
 package android.os;
 
+import android.graphics.Rect;
 import android.perftests.utils.BenchmarkState;
 import android.perftests.utils.PerfStatusReporter;
 import android.support.test.filters.LargeTest;
@@ -153,6 +154,51 @@ public class ParcelPerfTest {
         }
     }
 
+    @Test
+    public void timeWriteString() {
+        writeString(0);
+    }
+
+    @Test
+    public void timeWriteString_Utf8() {
+        writeString(Parcel.STRING_SECTION_UTF8);
+    }
+
+    @Test
+    public void timeReadString() {
+        readString(0);
+    }
+
+    @Test
+    public void timeReadString_Utf8() {
+        readString(Parcel.STRING_SECTION_UTF8);
+    }
+
+    private void writeString(int sectionFlags) {
+        final String val = "com.android.providers.settings";
+        final BenchmarkState state = mPerfStatusReporter.getBenchmarkState();
+        while (state.keepRunning()) {
+            mParcel.setDataPosition(0);
+            mParcel.writeStringSectionStart(sectionFlags);
+            mParcel.writeString(val);
+            mParcel.finishStringSection();
+        }
+    }
+
+    private void readString(int sectionFlags) {
+        mParcel.writeStringSectionStart(sectionFlags);
+        mParcel.writeString("com.android.providers.settings");
+        mParcel.finishStringSection();
+
+        final BenchmarkState state = mPerfStatusReporter.getBenchmarkState();
+        while (state.keepRunning()) {
+            mParcel.setDataPosition(0);
+            mParcel.readStringSectionStart();
+            mParcel.readString();
+            mParcel.finishStringSection();
+        }
+    }
+
     @Test
     public void timeObtainRecycle() {
         // Use up the pooled instances.
@@ -167,4 +213,84 @@ public class ParcelPerfTest {
             Parcel.obtain().recycle();
         }
     }
+
+    @Test
+    public void timeReadBundleFlag_Eager() {
+        readBundleFlag(false);
+    }
+
+    @Test
+    public void timeReadBundleFlag_Lazy() {
+        readBundleFlag(true);
+    }
+
+    @Test
+    public void timeForwardBundle_Eager() {
+        forwardBundle(false);
+    }
+
+    @Test
+    public void timeForwardBundle_Lazy() {
+        forwardBundle(true);
+    }
+
+    /**
+     * Read one flag out of a Bundle shaped like the extras of a large broadcast.
+     */
+    private void readBundleFlag(boolean lazy) {
+        writeLargeBundle(mParcel);
+        BaseBundle.setShouldLazyUnparcel(lazy);
+        try {
+            final BenchmarkState state = mPerfStatusReporter.getBenchmarkState();
+            while (state.keepRunning()) {
+                mParcel.setDataPosition(0);
+                final Bundle bundle = mParcel.readBundle();
+                bundle.getBoolean("flag");
+            }
+        } finally {
+            BaseBundle.setShouldLazyUnparcel(false);
+        }
+    }
+
+    /**
+     * Read one flag out of a Bundle and then write the Bundle out again, as system_server
+     * does when dispatching an Intent.
+     */
+    private void forwardBundle(boolean lazy) {
+        writeLargeBundle(mParcel);
+        final Parcel out = Parcel.obtain();
+        BaseBundle.setShouldLazyUnparcel(lazy);
+        try {
+            final BenchmarkState state = mPerfStatusReporter.getBenchmarkState();
+            while (state.keepRunning()) {
+                mParcel.setDataPosition(0);
+                final Bundle bundle = mParcel.readBundle();
+                bundle.getBoolean("flag");
+                out.setDataPosition(0);
+                out.writeBundle(bundle);
+            }
+        } finally {
+            BaseBundle.setShouldLazyUnparcel(false);
+            out.recycle();
+        }
+    }
+
+    private static void writeLargeBundle(Parcel parcel) {
+        final Bundle bundle = new Bundle();
+        bundle.putBoolean("flag", true);
+        bundle.putString("action", "android.intent.action.SOMETHING_HAPPENED");
+        bundle.putByteArray("payload", new byte[64 * 1024]);
+        final Rect[] rects = new Rect[32];
+        for (int i = 0; i < rects.length; i++) {
+            rects[i] = new Rect(i, i, i + 10, i + 10);
+            bundle.putParcelable("rect" + i, rects[i]);
+        }
+        bundle.putParcelableArray("rects", rects);
+        final Bundle nested = new Bundle();
+        nested.putStringArray("names", new String[] { "one", "two", "three" });
+        bundle.putBundle("nested", nested);
+
+        parcel.setDataPosition(0);
+        parcel.writeBundle(bundle);
+    }
 }
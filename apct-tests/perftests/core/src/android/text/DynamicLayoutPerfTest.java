@@ -89,12 +89,18 @@ public class DynamicLayoutPerfTest {
 
     private final static String ALPHABETS = "abcdefghijklmnopqrstuvwxyz";
 
+    // Gives a text of about 100k characters.
+    private final static int LONG_TEXT_PARAGRAPH_COUNT = 1000;
+
     private SpannableStringBuilder getText() {
+        return getText(100);
+    }
+
+    private SpannableStringBuilder getText(int paragraphCount) {
         final long seed = 1234567890;
         final Random r = new Random(seed);
         final SpannableStringBuilder builder = new SpannableStringBuilder();
 
-        final int paragraphCount = 100;
         for (int i = 0; i < paragraphCount; i++) {
             final int wordCount = 5 + r.nextInt(20);
             final boolean containsReplacementSpan = r.nextFloat() < mProbability;
@@ -139,4 +145,41 @@ public class DynamicLayoutPerfTest {
             }
         }
     }
+
+    @Test
+    public void testEditLongText() {
+        final SpannableStringBuilder text = getText(LONG_TEXT_PARAGRAPH_COUNT);
+        final DynamicLayout layout = new DynamicLayout(text, new TextPaint(), 1000,
+                ALIGN_NORMAL, 0, 0, false);
+
+        BenchmarkState state = mPerfStatusReporter.getBenchmarkState();
+        final int steps = 10;
+        while (state.keepRunning()) {
+            for (int i = 0; i < steps; i++) {
+                int offset = (text.length() * i) / steps;
+                text.insert(offset, "a");
+                text.delete(offset, offset + 1);
+            }
+        }
+    }
+
+    @Test
+    public void testReplaceParagraphsInLongText() {
+        final SpannableStringBuilder text = getText(LONG_TEXT_PARAGRAPH_COUNT);
+        final DynamicLayout layout = new DynamicLayout(text, new TextPaint(), 1000,
+                ALIGN_NORMAL, 0, 0, false);
+
+        final String copy = text.toString();
+        BenchmarkState state = mPerfStatusReporter.getBenchmarkState();
+        final int steps = 10;
+        while (state.keepRunning()) {
+            for (int i = 0; i < steps; i++) {
+                // Replace a tenth of the text with the same characters, as a paste over a large
+                // selection would. Every paragraph in the range is reflowed.
+                final int start = (copy.length() * i) / steps;
+                final int end = (copy.length() * (i + 1)) / steps;
+                text.replace(start, end, copy, start, end);
+            }
+        }
+    }
 }
@@ -0,0 +1,172 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.text;
+
+import static android.text.Layout.Alignment.ALIGN_NORMAL;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.graphics.Typeface;
+import android.perftests.utils.BenchmarkState;
+import android.perftests.utils.PerfStatusReporter;
+import android.support.test.filters.LargeTest;
+import android.support.test.runner.AndroidJUnit4;
+import android.text.style.CharacterStyle;
+import android.text.style.ForegroundColorSpan;
+import android.text.style.LineBackgroundSpan;
+import android.text.style.RelativeSizeSpan;
+import android.text.style.StyleSpan;
+import android.text.style.UnderlineSpan;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.Random;
+
+/**
+ * Span queries on a text where every word is styled, as done per line when such a text is
+ * measured and drawn.
+ */
+@LargeTest
+@RunWith(AndroidJUnit4.class)
+public class SpannableStringBuilderPerfTest {
+    private static final String ALPHABETS = "abcdefghijklmnopqrstuvwxyz";
+    private static final int PARAGRAPH_COUNT = 200;
+    private static final int WORDS_PER_PARAGRAPH = 20;
+    // Every that many paragraphs get a line background.
+    private static final int LINE_BACKGROUND_INTERVAL = 20;
+    private static final int QUERIES = 100;
+
+    @Rule
+    public PerfStatusReporter mPerfStatusReporter = new PerfStatusReporter();
+
+    private static class MockLineBackgroundSpan implements LineBackgroundSpan {
+        @Override
+        public void drawBackground(Canvas c, Paint p, int left, int right, int top, int baseline,
+                int bottom, CharSequence text, int start, int end, int lnum) {
+        }
+    }
+
+    private SpannableStringBuilder mText;
+
+    @Before
+    public void setUp() {
+        final Random r = new Random(1234567890);
+        mText = new SpannableStringBuilder();
+        for (int i = 0; i < PARAGRAPH_COUNT; i++) {
+            final int paragraphStart = mText.length();
+            for (int j = 0; j < WORDS_PER_PARAGRAPH; j++) {
+                final int wordStart = mText.length();
+                final int wordLength = 1 + r.nextInt(10);
+                for (int k = 0; k < wordLength; k++) {
+                    mText.append(ALPHABETS.charAt(r.nextInt(ALPHABETS.length())));
+                }
+                mText.setSpan(createStyle(r), wordStart, mText.length(),
+                        Spanned.SPAN_EXCLUSIVE_EXCLUSIVE);
+                mText.append(' ');
+            }
+            mText.append('\n');
+            if (i % LINE_BACKGROUND_INTERVAL == 0) {
+                mText.setSpan(new MockLineBackgroundSpan(), paragraphStart, mText.length(),
+                        Spanned.SPAN_PARAGRAPH);
+            }
+        }
+    }
+
+    private static Object createStyle(Random r) {
+        switch (r.nextInt(4)) {
+            case 0:
+                return new StyleSpan(Typeface.BOLD);
+            case 1:
+                return new ForegroundColorSpan(Color.RED);
+            case 2:
+                return new UnderlineSpan();
+            default:
+                return new RelativeSizeSpan(1.5f);
+        }
+    }
+
+    @Test
+    public void testGetSpans_rareKind() {
+        final BenchmarkState state = mPerfStatusReporter.getBenchmarkState();
+        final int length = mText.length();
+        while (state.keepRunning()) {
+            for (int i = 0; i < QUERIES; i++) {
+                final int start = (length * i) / QUERIES;
+                mText.getSpans(start, start + 50, LineBackgroundSpan.class);
+            }
+        }
+    }
+
+    @Test
+    public void testGetSpans_commonKind() {
+        final BenchmarkState state = mPerfStatusReporter.getBenchmarkState();
+        final int length = mText.length();
+        while (state.keepRunning()) {
+            for (int i = 0; i < QUERIES; i++) {
+                final int start = (length * i) / QUERIES;
+                mText.getSpans(start, start + 50, CharacterStyle.class);
+            }
+        }
+    }
+
+    @Test
+    public void testCopySpans_commonKind() {
+        final BenchmarkState state = mPerfStatusReporter.getBenchmarkState();
+        final int length = mText.length();
+        CharacterStyle[] spans = new CharacterStyle[0];
+        while (state.keepRunning()) {
+            for (int i = 0; i < QUERIES; i++) {
+                final int start = (length * i) / QUERIES;
+                final int count = mText.countSpans(start, start + 50, CharacterStyle.class);
+                if (count > spans.length) {
+                    spans = new CharacterStyle[count];
+                }
+                mText.copySpans(start, start + 50, CharacterStyle.class, spans);
+            }
+        }
+    }
+
+    @Test
+    public void testNextSpanTransition_rareKind() {
+        final BenchmarkState state = mPerfStatusReporter.getBenchmarkState();
+        final int length = mText.length();
+        while (state.keepRunning()) {
+            for (int i = 0; i < QUERIES; i++) {
+                final int start = (length * i) / QUERIES;
+                mText.nextSpanTransition(start, length, LineBackgroundSpan.class);
+            }
+        }
+    }
+
+    @Test
+    public void testDrawBackground() {
+        final StaticLayout layout = StaticLayout.Builder.obtain(mText, 0, mText.length(),
+                new TextPaint(), 1000).setAlignment(ALIGN_NORMAL).build();
+        final Canvas canvas = new Canvas(Bitmap.createBitmap(1, 1, Bitmap.Config.ARGB_8888));
+        final int lastLine = layout.getLineCount() - 1;
+        final BenchmarkState state = mPerfStatusReporter.getBenchmarkState();
+        while (state.keepRunning()) {
+            // As done for every frame; the spans of the text do not change between frames.
+            layout.drawBackground(canvas, null, null, 0, 0, lastLine);
+        }
+    }
+}
@@ -0,0 +1,99 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.text;
+
+import android.graphics.Typeface;
+import android.perftests.utils.BenchmarkState;
+import android.perftests.utils.PerfStatusReporter;
+import android.support.test.filters.LargeTest;
+import android.support.test.runner.AndroidJUnit4;
+import android.text.style.StyleSpan;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Measures styled text, which goes through the pooled TextLine and MeasuredText objects, on
+ * the benchmark thread alone and while other threads measure text too.
+ */
+@LargeTest
+@RunWith(AndroidJUnit4.class)
+public class TextMeasurePerfTest {
+    private static final int BACKGROUND_THREADS = 3;
+    private static final int WIDTH = 500;
+
+    @Rule
+    public PerfStatusReporter mPerfStatusReporter = new PerfStatusReporter();
+
+    private static CharSequence createText() {
+        final SpannableStringBuilder text = new SpannableStringBuilder();
+        for (int i = 0; i < 20; i++) {
+            final int start = text.length();
+            text.append("Lorem ipsum dolor sit amet. ");
+            text.setSpan(new StyleSpan(Typeface.BOLD), start, start + 5,
+                    Spanned.SPAN_EXCLUSIVE_EXCLUSIVE);
+        }
+        return text;
+    }
+
+    private static void measure(CharSequence text, TextPaint paint) {
+        Layout.getDesiredWidth(text, paint);
+        StaticLayout.Builder.obtain(text, 0, text.length(), paint, WIDTH).build();
+    }
+
+    @Test
+    public void testMeasure() {
+        final CharSequence text = createText();
+        final TextPaint paint = new TextPaint();
+        final BenchmarkState state = mPerfStatusReporter.getBenchmarkState();
+        while (state.keepRunning()) {
+            measure(text, paint);
+        }
+    }
+
+    @Test
+    public void testMeasure_withBackgroundThreads() throws Exception {
+        final CharSequence text = createText();
+        final AtomicBoolean done = new AtomicBoolean();
+        final Thread[] threads = new Thread[BACKGROUND_THREADS];
+        for (int i = 0; i < threads.length; i++) {
+            threads[i] = new Thread(() -> {
+                final TextPaint paint = new TextPaint();
+                while (!done.get()) {
+                    measure(text, paint);
+                }
+            });
+            threads[i].start();
+        }
+
+        try {
+            final TextPaint paint = new TextPaint();
+            final BenchmarkState state = mPerfStatusReporter.getBenchmarkState();
+            while (state.keepRunning()) {
+                measure(text, paint);
+            }
+        } finally {
+            done.set(true);
+            for (Thread thread : threads) {
+                thread.join();
+            }
+        }
+    }
+}
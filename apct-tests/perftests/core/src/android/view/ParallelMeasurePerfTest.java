@@ -0,0 +1,128 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.view;
+
+import static android.perftests.utils.LayoutUtils.gatherViewTree;
+import static android.perftests.utils.LayoutUtils.requestLayoutForAllNodes;
+import static android.view.View.MeasureSpec.AT_MOST;
+import static android.view.View.MeasureSpec.EXACTLY;
+
+import android.content.Context;
+import android.perftests.utils.BenchmarkState;
+import android.perftests.utils.PerfStatusReporter;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.filters.LargeTest;
+import android.widget.FrameLayout;
+import android.widget.LinearLayout;
+
+import org.junit.Rule;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Measures a FrameLayout holding several panes, like a multi-pane layout, with and without
+ * measuring the panes in parallel. The panes only hold views that keep the contract of
+ * {@link View#setMeasureThreadSafe(boolean)}.
+ */
+@LargeTest
+public class ParallelMeasurePerfTest {
+    private static final int PANE_COUNT = 8;
+    private static final int VIEWS_PER_PANE = 20;
+
+    @Rule
+    public PerfStatusReporter mPerfStatusReporter = new PerfStatusReporter();
+
+    @Test
+    public void testMeasure() {
+        measurePanes(false);
+    }
+
+    @Test
+    public void testMeasure_parallel() {
+        measurePanes(true);
+    }
+
+    private void measurePanes(boolean parallel) {
+        final Context context = InstrumentationRegistry.getInstrumentation().getTargetContext();
+        final FrameLayout root = new FrameLayout(context);
+        for (int i = 0; i < PANE_COUNT; i++) {
+            final LinearLayout pane = new LinearLayout(context);
+            pane.setOrientation(LinearLayout.VERTICAL);
+            for (int j = 0; j < VIEWS_PER_PANE; j++) {
+                pane.addView(new WordWrappingView(context, i * VIEWS_PER_PANE + j));
+            }
+            pane.setMeasureThreadSafe(true);
+            root.addView(pane);
+        }
+
+        final List<View> allNodes = gatherViewTree(root);
+        final int widthMeasureSpec = View.MeasureSpec.makeMeasureSpec(1920, EXACTLY);
+        final int heightMeasureSpec = View.MeasureSpec.makeMeasureSpec(1080, AT_MOST);
+        // The first measure resolves padding and layout direction, which may request a layout,
+        // so it has to happen before measuring in parallel.
+        root.measure(widthMeasureSpec, heightMeasureSpec);
+        root.setParallelMeasureEnabled(parallel);
+
+        final BenchmarkState state = mPerfStatusReporter.getBenchmarkState();
+        while (state.keepRunning()) {
+            requestLayoutForAllNodes(allNodes);
+            root.measure(widthMeasureSpec, heightMeasureSpec);
+            root.layout(0, 0, root.getMeasuredWidth(), root.getMeasuredHeight());
+        }
+    }
+
+    /**
+     * A custom view that wraps words of known widths into lines, the way a custom text or chart
+     * view would. Its measurement only reads and writes its own state.
+     */
+    private static class WordWrappingView extends View {
+        private static final int WORD_COUNT = 200;
+        private static final int SPACE_WIDTH = 8;
+        private static final int LINE_HEIGHT = 20;
+
+        private final int[] mWordWidths = new int[WORD_COUNT];
+
+        WordWrappingView(Context context, int seed) {
+            super(context);
+            final Random random = new Random(seed);
+            for (int i = 0; i < WORD_COUNT; i++) {
+                mWordWidths[i] = 10 + random.nextInt(90);
+            }
+        }
+
+        @Override
+        protected void onMeasure(int widthMeasureSpec, int heightMeasureSpec) {
+            final int maxWidth = MeasureSpec.getMode(widthMeasureSpec) == MeasureSpec.UNSPECIFIED
+                    ? Integer.MAX_VALUE : MeasureSpec.getSize(widthMeasureSpec);
+            int lineCount = 1;
+            int lineWidth = 0;
+            int width = 0;
+            for (int wordWidth : mWordWidths) {
+                if (lineWidth > 0 && lineWidth + SPACE_WIDTH + wordWidth > maxWidth) {
+                    lineCount++;
+                    lineWidth = 0;
+                }
+                lineWidth += (lineWidth > 0 ? SPACE_WIDTH : 0) + wordWidth;
+                width = Math.max(width, lineWidth);
+            }
+            setMeasuredDimension(resolveSize(width, widthMeasureSpec),
+                    resolveSize(lineCount * LINE_HEIGHT, heightMeasureSpec));
+        }
+    }
+}
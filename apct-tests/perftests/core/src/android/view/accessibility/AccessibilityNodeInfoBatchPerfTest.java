@@ -0,0 +1,169 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.view.accessibility;
+
+import android.graphics.Rect;
+import android.os.Parcel;
+import android.perftests.utils.BenchmarkState;
+import android.perftests.utils.PerfStatusReporter;
+import android.support.test.filters.LargeTest;
+import android.util.Log;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+import org.junit.runners.Parameterized.Parameters;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Compares sending the nodes of a window the way the app used to, as a list of nodes written
+ * one by one, with sending them as an {@link AccessibilityNodeInfoBatch}.
+ */
+@RunWith(Parameterized.class)
+@LargeTest
+public class AccessibilityNodeInfoBatchPerfTest {
+    private static final String TAG = "AccessibilityNodeInfoBatchPerfTest";
+
+    private static final String[] CLASS_NAMES = {
+            "android.widget.LinearLayout",
+            "android.widget.TextView",
+            "android.widget.ImageView",
+            "android.widget.Switch",
+    };
+
+    @Rule
+    public PerfStatusReporter mPerfStatusReporter = new PerfStatusReporter();
+
+    @Parameters(name = "nodeCount={0}")
+    public static Collection<Object[]> data() {
+        // The default batch size, and the size of a large window.
+        return Arrays.asList(new Object[][] { {50}, {500} });
+    }
+
+    private final int mNodeCount;
+
+    private Parcel mParcel;
+
+    public AccessibilityNodeInfoBatchPerfTest(int nodeCount) {
+        mNodeCount = nodeCount;
+    }
+
+    @Before
+    public void setUp() {
+        mParcel = Parcel.obtain();
+    }
+
+    @After
+    public void tearDown() {
+        mParcel.recycle();
+        mParcel = null;
+    }
+
+    /**
+     * Creates the nodes of rows in a list: each row is a layout with a few children, and the
+     * children of a row share their offset from parent to screen coordinates.
+     */
+    private List<AccessibilityNodeInfo> createNodes() {
+        final List<AccessibilityNodeInfo> infos = new ArrayList<>(mNodeCount);
+        for (int i = 0; i < mNodeCount; i++) {
+            final int row = i / CLASS_NAMES.length;
+            final int column = i % CLASS_NAMES.length;
+            final AccessibilityNodeInfo info = AccessibilityNodeInfo.obtain();
+            info.setPackageName("com.android.settings");
+            info.setClassName(CLASS_NAMES[column]);
+            info.setBoundsInParent(new Rect(column * 100, 0, column * 100 + 80, 120));
+            info.setBoundsInScreen(new Rect(column * 100, 200 + row * 120,
+                    column * 100 + 80, 320 + row * 120));
+            if (column == 1) {
+                info.setText("Item " + row);
+            }
+            info.setEnabled(true);
+            info.setVisibleToUser(true);
+            infos.add(info);
+        }
+        return infos;
+    }
+
+    private void writeNodes(List<AccessibilityNodeInfo> infos, boolean batched) {
+        if (batched) {
+            new AccessibilityNodeInfoBatch(infos).writeToParcel(mParcel, 0);
+        } else {
+            mParcel.writeTypedList(infos);
+        }
+    }
+
+    private List<AccessibilityNodeInfo> readNodes(boolean batched) {
+        if (batched) {
+            return AccessibilityNodeInfoBatch.CREATOR.createFromParcel(mParcel).getInfos();
+        }
+        return mParcel.createTypedArrayList(AccessibilityNodeInfo.CREATOR);
+    }
+
+    private void timeWrite(boolean batched) {
+        final BenchmarkState state = mPerfStatusReporter.getBenchmarkState();
+        while (state.keepRunning()) {
+            state.pauseTiming();
+            final List<AccessibilityNodeInfo> infos = createNodes();
+            mParcel.setDataPosition(0);
+            state.resumeTiming();
+
+            // Writing the nodes recycles them.
+            writeNodes(infos, batched);
+        }
+        Log.i(TAG, (batched ? "Batch" : "List") + " of " + mNodeCount + " nodes: "
+                + mParcel.dataPosition() + " bytes");
+    }
+
+    private void timeRead(boolean batched) {
+        writeNodes(createNodes(), batched);
+        final BenchmarkState state = mPerfStatusReporter.getBenchmarkState();
+        while (state.keepRunning()) {
+            mParcel.setDataPosition(0);
+            final List<AccessibilityNodeInfo> infos = readNodes(batched);
+            for (int i = 0; i < mNodeCount; i++) {
+                infos.get(i).recycle();
+            }
+        }
+    }
+
+    @Test
+    public void timeWriteList() {
+        timeWrite(false);
+    }
+
+    @Test
+    public void timeWriteBatch() {
+        timeWrite(true);
+    }
+
+    @Test
+    public void timeReadList() {
+        timeRead(false);
+    }
+
+    @Test
+    public void timeReadBatch() {
+        timeRead(true);
+    }
+}
@@ -52,6 +52,8 @@ public class EditTextLongTextPerfTest {
         return Arrays.asList(new Object[][] {
             { "10x30K", 10, 30000 },
             { "300x1K", 300, 1000 },
+            { "100x1K", 100, 1000 },
+            { "100Kx1", 100000, 1 },
         });
     }
 
@@ -24,6 +24,7 @@ import android.perftests.utils.StubActivity;
 import android.support.test.annotation.UiThreadTest;
 import android.support.test.filters.LargeTest;
 import android.support.test.rule.ActivityTestRule;
+import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
 
@@ -105,4 +106,32 @@ public class LayoutPerfTest {
             }
         });
     }
+
+    @Test
+    public void testInflate() throws Throwable {
+        inflateLayout(false);
+    }
+
+    @Test
+    public void testInflatePrecompiled() throws Throwable {
+        inflateLayout(true);
+    }
+
+    private void inflateLayout(boolean precompiled) throws Throwable {
+        mActivityRule.runOnUiThread(() -> {
+            final Activity activity = mActivityRule.getActivity();
+            final LayoutInflater inflater =
+                    LayoutInflater.from(activity).cloneInContext(activity);
+            inflater.setPrecompiledLayoutsEnabled(precompiled);
+            final FrameLayout root = new FrameLayout(activity);
+
+            // Warm up, which also records the plan when precompiled layouts are enabled.
+            inflater.inflate(mLayoutId, root, false);
+
+            final BenchmarkState state = mPerfStatusReporter.getBenchmarkState();
+            while (state.keepRunning()) {
+                inflater.inflate(mLayoutId, root, false);
+            }
+        });
+    }
 }
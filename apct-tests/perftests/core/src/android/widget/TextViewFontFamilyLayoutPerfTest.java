@@ -28,6 +28,7 @@ import com.android.perftests.core.R;
 
 import java.util.Collection;
 import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import org.junit.Test;
 import org.junit.Rule;
@@ -40,6 +41,10 @@ import static org.junit.Assert.assertTrue;
 @LargeTest
 @RunWith(Parameterized.class)
 public class TextViewFontFamilyLayoutPerfTest {
+    // Threads inflating the same layout alongside the benchmark thread, as when views are
+    // inflated ahead of time on worker threads.
+    private static final int BACKGROUND_THREADS = 3;
+
     @Parameters(name = "{0}")
     public static Collection layouts() {
         return Arrays.asList(new Object[][] {
@@ -69,4 +74,33 @@ public class TextViewFontFamilyLayoutPerfTest {
             inflator.inflate(mLayoutId, null, false);
         }
     }
+
+    @Test
+    public void testConstruction_withBackgroundThreads() throws Throwable {
+        final Context context = InstrumentationRegistry.getTargetContext();
+        final LayoutInflater inflator =
+                (LayoutInflater) context.getSystemService(Context.LAYOUT_INFLATER_SERVICE);
+        final AtomicBoolean done = new AtomicBoolean();
+        final Thread[] threads = new Thread[BACKGROUND_THREADS];
+        for (int i = 0; i < threads.length; i++) {
+            threads[i] = new Thread(() -> {
+                while (!done.get()) {
+                    inflator.inflate(mLayoutId, null, false);
+                }
+            });
+            threads[i].start();
+        }
+
+        try {
+            final BenchmarkState state = mPerfStatusReporter.getBenchmarkState();
+            while (state.keepRunning()) {
+                inflator.inflate(mLayoutId, null, false);
+            }
+        } finally {
+            done.set(true);
+            for (Thread thread : threads) {
+                thread.join();
+            }
+        }
+    }
 }
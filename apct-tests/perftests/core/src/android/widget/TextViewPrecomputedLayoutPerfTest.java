@@ -0,0 +1,143 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.widget;
+
+import static android.view.View.MeasureSpec.EXACTLY;
+import static android.view.View.MeasureSpec.UNSPECIFIED;
+
+import android.perftests.utils.BenchmarkState;
+import android.perftests.utils.PerfStatusReporter;
+import android.perftests.utils.StubActivity;
+import android.support.test.filters.LargeTest;
+import android.support.test.rule.ActivityTestRule;
+import android.text.PrecomputedLayout;
+import android.text.StaticLayout;
+import android.view.View;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+import org.junit.runners.Parameterized.Parameters;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Random;
+
+/**
+ * Compares the UI thread cost of showing a long text in a {@link TextView} with and without
+ * lines precomputed by {@link PrecomputedLayout}.
+ */
+@LargeTest
+@RunWith(Parameterized.class)
+public class TextViewPrecomputedLayoutPerfTest {
+    private static final int WIDTH = 1000;
+    private static final String[] WORDS = { "lorem", "ipsum", "dolor", "sit", "amet",
+            "consectetur", "adipiscing", "elit", "sed", "do", "eiusmod", "tempor",
+            "incididunt", "ut", "labore", "et", "dolore", "magna", "aliqua" };
+
+    @Parameters(name = "{0}")
+    public static Collection cases() {
+        return Arrays.asList(new Object[][] {
+                { "Paragraph", 1, 100 },
+                { "LongMessage", 10, 100 },
+                { "Article", 50, 150 },
+        });
+    }
+
+    private final int mParagraphs;
+    private final int mWordsPerParagraph;
+    private String mText;
+
+    public TextViewPrecomputedLayoutPerfTest(String key, int paragraphs, int wordsPerParagraph) {
+        mParagraphs = paragraphs;
+        mWordsPerParagraph = wordsPerParagraph;
+    }
+
+    @Rule
+    public ActivityTestRule<StubActivity> mActivityRule = new ActivityTestRule(StubActivity.class);
+
+    @Rule
+    public PerfStatusReporter mPerfStatusReporter = new PerfStatusReporter();
+
+    @Before
+    public void setUp() {
+        final Random random = new Random(0);
+        final StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < mParagraphs; i++) {
+            if (i > 0) {
+                sb.append('\n');
+            }
+            for (int j = 0; j < mWordsPerParagraph; j++) {
+                if (j > 0) {
+                    sb.append(' ');
+                }
+                sb.append(WORDS[random.nextInt(WORDS.length)]);
+            }
+        }
+        mText = sb.toString();
+    }
+
+    @Test
+    public void timeSetTextAndMeasure() {
+        final TextView textView = new TextView(mActivityRule.getActivity());
+        final BenchmarkState state = mPerfStatusReporter.getBenchmarkState();
+        while (state.keepRunning()) {
+            // A fresh copy so that nothing is reused from the previous iteration.
+            state.pauseTiming();
+            final String text = new String(mText);
+            state.resumeTiming();
+
+            textView.setText(text);
+            measure(textView);
+        }
+    }
+
+    @Test
+    public void timeSetTextAndMeasure_Precomputed() {
+        final TextView textView = new TextView(mActivityRule.getActivity());
+        final BenchmarkState state = mPerfStatusReporter.getBenchmarkState();
+        while (state.keepRunning()) {
+            // This part would run on a worker thread.
+            state.pauseTiming();
+            final String text = new String(mText);
+            final PrecomputedLayout precomputed = PrecomputedLayout.create(
+                    textView.obtainPrecomputeBuilder(text, WIDTH), null);
+            state.resumeTiming();
+
+            textView.setText(text);
+            textView.setPrecomputedLayout(precomputed);
+            measure(textView);
+        }
+    }
+
+    @Test
+    public void timePrecompute() {
+        final TextView textView = new TextView(mActivityRule.getActivity());
+        final BenchmarkState state = mPerfStatusReporter.getBenchmarkState();
+        while (state.keepRunning()) {
+            final StaticLayout.Builder builder = textView.obtainPrecomputeBuilder(mText, WIDTH);
+            PrecomputedLayout.create(builder, null);
+        }
+    }
+
+    private static void measure(TextView textView) {
+        textView.measure(View.MeasureSpec.makeMeasureSpec(WIDTH, EXACTLY),
+                View.MeasureSpec.makeMeasureSpec(0, UNSPECIFIED));
+    }
+}
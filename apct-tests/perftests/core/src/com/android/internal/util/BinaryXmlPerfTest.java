@@ -0,0 +1,179 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.internal.util;
+
+import android.perftests.utils.BenchmarkState;
+import android.perftests.utils.PerfStatusReporter;
+import android.support.test.filters.LargeTest;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Xml;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.xmlpull.v1.XmlPullParser;
+import org.xmlpull.v1.XmlSerializer;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Compares {@link FastXmlSerializer} and the platform pull parser against
+ * {@link BinaryXmlSerializer} and {@link BinaryXmlPullParser} on a document shaped like the
+ * app ops state file: a few hundred packages, each with a handful of numeric attributes.
+ */
+@RunWith(AndroidJUnit4.class)
+@LargeTest
+public class BinaryXmlPerfTest {
+    private static final int PACKAGES = 300;
+    private static final int OPS_PER_PACKAGE = 8;
+
+    @Rule
+    public PerfStatusReporter mPerfStatusReporter = new PerfStatusReporter();
+
+    @Test
+    public void timeWrite_Text() throws Exception {
+        final BenchmarkState state = mPerfStatusReporter.getBenchmarkState();
+        final ByteArrayOutputStream os = new ByteArrayOutputStream();
+        while (state.keepRunning()) {
+            os.reset();
+            final XmlSerializer out = new FastXmlSerializer();
+            out.setOutput(os, StandardCharsets.UTF_8.name());
+            writeDocument(out);
+        }
+    }
+
+    @Test
+    public void timeWrite_Binary() throws Exception {
+        final BenchmarkState state = mPerfStatusReporter.getBenchmarkState();
+        final ByteArrayOutputStream os = new ByteArrayOutputStream();
+        while (state.keepRunning()) {
+            os.reset();
+            final BinaryXmlSerializer out = new BinaryXmlSerializer();
+            out.setOutput(os, StandardCharsets.UTF_8.name());
+            writeDocument(out);
+        }
+    }
+
+    @Test
+    public void timeRead_Text() throws Exception {
+        final ByteArrayOutputStream os = new ByteArrayOutputStream();
+        final XmlSerializer out = new FastXmlSerializer();
+        out.setOutput(os, StandardCharsets.UTF_8.name());
+        writeDocument(out);
+        final byte[] data = os.toByteArray();
+
+        final BenchmarkState state = mPerfStatusReporter.getBenchmarkState();
+        while (state.keepRunning()) {
+            final XmlPullParser in = Xml.newPullParser();
+            in.setInput(new ByteArrayInputStream(data), StandardCharsets.UTF_8.name());
+            readDocument(in);
+        }
+    }
+
+    @Test
+    public void timeRead_Binary() throws Exception {
+        final ByteArrayOutputStream os = new ByteArrayOutputStream();
+        final BinaryXmlSerializer out = new BinaryXmlSerializer();
+        out.setOutput(os, StandardCharsets.UTF_8.name());
+        writeDocument(out);
+        final byte[] data = os.toByteArray();
+
+        final BenchmarkState state = mPerfStatusReporter.getBenchmarkState();
+        while (state.keepRunning()) {
+            final XmlPullParser in = new BinaryXmlPullParser();
+            in.setInput(new ByteArrayInputStream(data), StandardCharsets.UTF_8.name());
+            readDocument(in);
+        }
+    }
+
+    @Test
+    public void timeRead_Resolved() throws Exception {
+        final ByteArrayOutputStream os = new ByteArrayOutputStream();
+        final BinaryXmlSerializer out = new BinaryXmlSerializer();
+        out.setOutput(os, StandardCharsets.UTF_8.name());
+        writeDocument(out);
+        final byte[] data = os.toByteArray();
+
+        final BenchmarkState state = mPerfStatusReporter.getBenchmarkState();
+        while (state.keepRunning()) {
+            readDocument(XmlUtils.resolvePullParser(new ByteArrayInputStream(data)));
+        }
+    }
+
+    private static void writeDocument(XmlSerializer out) throws IOException {
+        final BinaryXmlSerializer binary = (out instanceof BinaryXmlSerializer)
+                ? (BinaryXmlSerializer) out : null;
+        out.startDocument(null, true);
+        out.startTag(null, "app-ops");
+        for (int i = 0; i < PACKAGES; i++) {
+            out.startTag(null, "pkg");
+            out.attribute(null, "n", "com.example.package" + i);
+            out.startTag(null, "uid");
+            if (binary != null) {
+                binary.attributeInt(null, "n", 10000 + i);
+                binary.attributeBoolean(null, "p", false);
+            } else {
+                out.attribute(null, "n", Integer.toString(10000 + i));
+                out.attribute(null, "p", "false");
+            }
+            for (int j = 0; j < OPS_PER_PACKAGE; j++) {
+                out.startTag(null, "op");
+                if (binary != null) {
+                    binary.attributeInt(null, "n", j);
+                    binary.attributeLong(null, "t", 1500000000000L + i * 1000 + j);
+                    binary.attributeInt(null, "d", j * 100);
+                } else {
+                    out.attribute(null, "n", Integer.toString(j));
+                    out.attribute(null, "t", Long.toString(1500000000000L + i * 1000 + j));
+                    out.attribute(null, "d", Integer.toString(j * 100));
+                }
+                out.endTag(null, "op");
+            }
+            out.endTag(null, "uid");
+            out.endTag(null, "pkg");
+        }
+        out.endTag(null, "app-ops");
+        out.endDocument();
+    }
+
+    private static void readDocument(XmlPullParser in) throws Exception {
+        final BinaryXmlPullParser binary = (in instanceof BinaryXmlPullParser)
+                ? (BinaryXmlPullParser) in : null;
+        long sum = 0;
+        int type;
+        while ((type = in.next()) != XmlPullParser.END_DOCUMENT) {
+            if (type != XmlPullParser.START_TAG || !"op".equals(in.getName())) {
+                continue;
+            }
+            if (binary != null) {
+                sum += binary.getAttributeInt(binary.getAttributeIndex(null, "n"));
+                sum += binary.getAttributeLong(binary.getAttributeIndex(null, "t"));
+                sum += binary.getAttributeInt(binary.getAttributeIndex(null, "d"));
+            } else {
+                sum += Integer.parseInt(in.getAttributeValue(null, "n"));
+                sum += Long.parseLong(in.getAttributeValue(null, "t"));
+                sum += Integer.parseInt(in.getAttributeValue(null, "d"));
+            }
+        }
+        if (sum == 0) {
+            throw new IllegalStateException();
+        }
+    }
+}
@@ -0,0 +1,188 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.internal.util;
+
+import android.app.Activity;
+import android.os.Bundle;
+import android.os.Debug;
+import android.perftests.utils.BenchmarkState;
+import android.perftests.utils.PerfStatusReporter;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.filters.LargeTest;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Xml;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.xmlpull.v1.XmlPullParser;
+import org.xmlpull.v1.XmlSerializer;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+
+@RunWith(AndroidJUnit4.class)
+@LargeTest
+public class XmlUtilsPerfTest {
+    private static final int ALLOC_ITERATIONS = 1000;
+
+    @Rule
+    public PerfStatusReporter mPerfStatusReporter = new PerfStatusReporter();
+
+    @Test
+    public void timeWriteIntAttribute_String() throws Exception {
+        final XmlSerializer out = newSerializer(new NullOutputStream());
+        final BenchmarkState state = mPerfStatusReporter.getBenchmarkState();
+        int i = 0;
+        while (state.keepRunning()) {
+            out.startTag(null, "tag");
+            out.attribute(null, "value", Integer.toString(i++));
+            out.endTag(null, "tag");
+        }
+    }
+
+    @Test
+    public void timeWriteIntAttribute_Typed() throws Exception {
+        final XmlSerializer out = newSerializer(new NullOutputStream());
+        final BenchmarkState state = mPerfStatusReporter.getBenchmarkState();
+        int i = 0;
+        while (state.keepRunning()) {
+            out.startTag(null, "tag");
+            XmlUtils.writeIntAttribute(out, "value", i++);
+            out.endTag(null, "tag");
+        }
+    }
+
+    @Test
+    public void timeReadMap_Text() throws Exception {
+        final ByteArrayOutputStream os = new ByteArrayOutputStream();
+        XmlUtils.writeMapXml(createMap(), os);
+        final byte[] data = os.toByteArray();
+
+        final BenchmarkState state = mPerfStatusReporter.getBenchmarkState();
+        while (state.keepRunning()) {
+            XmlUtils.readMapXml(new ByteArrayInputStream(data));
+        }
+    }
+
+    @Test
+    public void timeReadMap_Binary() throws Exception {
+        final ByteArrayOutputStream os = new ByteArrayOutputStream();
+        final BinaryXmlSerializer out = new BinaryXmlSerializer();
+        out.setOutput(os, StandardCharsets.UTF_8.name());
+        out.startDocument(null, true);
+        XmlUtils.writeMapXml(createMap(), null, out);
+        out.endDocument();
+        final byte[] data = os.toByteArray();
+
+        final BenchmarkState state = mPerfStatusReporter.getBenchmarkState();
+        while (state.keepRunning()) {
+            final XmlPullParser in = XmlUtils.resolvePullParser(new ByteArrayInputStream(data));
+            XmlUtils.beginDocument(in, "map");
+            XmlUtils.readThisMapXml(in, "map", new String[1]);
+        }
+    }
+
+    /**
+     * Reports how many objects the String and typed attribute paths allocate for
+     * {@link #ALLOC_ITERATIONS} int attributes, both when writing and when reading back.
+     */
+    @Test
+    public void testAllocations() throws Exception {
+        final Bundle status = new Bundle();
+
+        XmlSerializer out = newSerializer(new NullOutputStream());
+        Debug.resetThreadAllocCount();
+        Debug.startAllocCounting();
+        for (int i = 0; i < ALLOC_ITERATIONS; i++) {
+            out.attribute(null, "value", Integer.toString(i));
+        }
+        Debug.stopAllocCounting();
+        status.putInt("write_string_allocs", Debug.getThreadAllocCount());
+
+        out = newSerializer(new NullOutputStream());
+        Debug.resetThreadAllocCount();
+        Debug.startAllocCounting();
+        for (int i = 0; i < ALLOC_ITERATIONS; i++) {
+            XmlUtils.writeIntAttribute(out, "value", i);
+        }
+        Debug.stopAllocCounting();
+        status.putInt("write_typed_allocs", Debug.getThreadAllocCount());
+
+        final XmlPullParser text = Xml.newPullParser();
+        text.setInput(new ByteArrayInputStream(
+                "<tag value=\"12345\" />".getBytes(StandardCharsets.UTF_8)), null);
+        text.next();
+        Debug.resetThreadAllocCount();
+        Debug.startAllocCounting();
+        for (int i = 0; i < ALLOC_ITERATIONS; i++) {
+            XmlUtils.readIntAttribute(text, "value");
+        }
+        Debug.stopAllocCounting();
+        status.putInt("read_text_allocs", Debug.getThreadAllocCount());
+
+        final ByteArrayOutputStream os = new ByteArrayOutputStream();
+        final BinaryXmlSerializer binaryOut = new BinaryXmlSerializer();
+        binaryOut.setOutput(os, StandardCharsets.UTF_8.name());
+        binaryOut.startTag(null, "tag");
+        binaryOut.attributeInt(null, "value", 12345);
+        binaryOut.endTag(null, "tag");
+        binaryOut.endDocument();
+        final XmlPullParser binary = XmlUtils.resolvePullParser(
+                new ByteArrayInputStream(os.toByteArray()));
+        binary.next();
+        Debug.resetThreadAllocCount();
+        Debug.startAllocCounting();
+        for (int i = 0; i < ALLOC_ITERATIONS; i++) {
+            XmlUtils.readIntAttribute(binary, "value");
+        }
+        Debug.stopAllocCounting();
+        status.putInt("read_binary_allocs", Debug.getThreadAllocCount());
+
+        InstrumentationRegistry.getInstrumentation().sendStatus(Activity.RESULT_OK, status);
+    }
+
+    private static XmlSerializer newSerializer(OutputStream os) throws IOException {
+        final XmlSerializer out = new FastXmlSerializer();
+        out.setOutput(os, StandardCharsets.UTF_8.name());
+        return out;
+    }
+
+    private static HashMap<String, Object> createMap() {
+        final HashMap<String, Object> map = new HashMap<>();
+        for (int i = 0; i < 100; i++) {
+            map.put("int" + i, i * 1000);
+            map.put("long" + i, i * 100000000000L);
+            map.put("bool" + i, (i & 1) == 0);
+        }
+        return map;
+    }
+
+    private static class NullOutputStream extends OutputStream {
+        @Override
+        public void write(int b) {
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+        }
+    }
+}
@@ -1234,6 +1234,10 @@ public final class ActivityThread {
                 pw.print(assetAlloc);
             }
 
+            pw.println(" ");
+            pw.println(" Resources");
+            mResourcesManager.dump("  ", pw);
+
             // Unreachable native memory
             if (dumpUnreachable) {
                 boolean showContents = ((mBoundApplication != null)
@@ -42,10 +42,12 @@ import android.view.DisplayAdjustments;
 import com.android.internal.annotations.VisibleForTesting;
 import com.android.internal.util.ArrayUtils;
 
+import java.io.PrintWriter;
 import java.lang.ref.WeakReference;
 import java.util.ArrayList;
 import java.util.Objects;
 import java.util.WeakHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.Predicate;
 
 /** @hide */
@@ -84,6 +86,61 @@ public class ResourcesManager {
     private final ArrayMap<ResourcesKey, WeakReference<ResourcesImpl>> mResourceImpls =
             new ArrayMap<>();
 
+    /**
+     * How many of the most recently used ResourcesImpl objects are kept strongly reachable, so
+     * that flipping back and forth between configurations (multi-window resizes, overlay
+     * changes) doesn't recreate an impl as soon as the last Resources using it goes away.
+     */
+    private static final int MAX_RECENT_IMPLS = 4;
+
+    /**
+     * The most recently used ResourcesImpl objects, most recent first.
+     */
+    private final ArrayList<ResourcesImpl> mRecentImpls = new ArrayList<>(MAX_RECENT_IMPLS);
+
+    /**
+     * Size of {@link #mResourceImpls} below which entries whose ResourcesImpl has been
+     * collected are left in place rather than swept out when a new one is added.
+     */
+    private static final int MIN_IMPL_PRUNE_THRESHOLD = 16;
+
+    private int mImplPruneThreshold = MIN_IMPL_PRUNE_THRESHOLD;
+
+    private int mImplHits;
+    private int mImplMisses;
+    private int mImplCreations;
+    private int mImplPrunes;
+
+    /**
+     * Number of slots in {@link #mSharedResources}. Must be a power of two.
+     */
+    private static final int SHARED_RESOURCES_SLOTS = 16;
+
+    /**
+     * Direct-mapped cache of the Resources handed out for non-Activity requests, consulted
+     * without holding the lock. It is copied on write while holding the lock, and dropped
+     * whenever a ResourcesImpl is invalidated or redirected.
+     */
+    private volatile SharedResources[] mSharedResources =
+            new SharedResources[SHARED_RESOURCES_SLOTS];
+
+    private final AtomicInteger mSharedResourcesHits = new AtomicInteger();
+
+    /**
+     * An entry of {@link #mSharedResources}.
+     */
+    private static class SharedResources {
+        final ResourcesKey key;
+        final ClassLoader classLoader;
+        final WeakReference<Resources> resources;
+
+        SharedResources(ResourcesKey key, ClassLoader classLoader, Resources resources) {
+            this.key = key;
+            this.classLoader = classLoader;
+            this.resources = new WeakReference<>(resources);
+        }
+    }
+
     /**
      * A list of Resource references that can be reused.
      */
@@ -254,12 +311,37 @@ public class ResourcesManager {
     private void cleanupResourceImpl(ResourcesKey removedKey) {
         // Remove resource key to resource impl mapping and flush cache
         final ResourcesImpl res = mResourceImpls.remove(removedKey).get();
+        clearSharedResourcesLocked();
 
         if (res != null) {
+            mRecentImpls.remove(res);
             res.flushLayoutCache();
         }
     }
 
+    /**
+     * Dump the state of the ResourcesImpl cache.
+     */
+    public void dump(String prefix, PrintWriter pw) {
+        synchronized (this) {
+            int liveImpls = 0;
+            for (int i = mResourceImpls.size() - 1; i >= 0; i--) {
+                final WeakReference<ResourcesImpl> weakImplRef = mResourceImpls.valueAt(i);
+                if (weakImplRef != null && weakImplRef.get() != null) {
+                    liveImpls++;
+                }
+            }
+            pw.print(prefix); pw.print("ResourcesImpls: "); pw.print(liveImpls);
+                    pw.print(" live, "); pw.print(mResourceImpls.size()); pw.print(" keys, ");
+                    pw.print(mRecentImpls.size()); pw.println(" recently used");
+            pw.print(prefix); pw.print("Hits: "); pw.print(mImplHits);
+                    pw.print(" (+"); pw.print(mSharedResourcesHits.get());
+                    pw.print(" lock-free) Misses: "); pw.print(mImplMisses);
+                    pw.print(" Creations: "); pw.print(mImplCreations);
+                    pw.print(" Pruned: "); pw.println(mImplPrunes);
+        }
+    }
+
     /**
      * Creates an AssetManager from the paths within the ResourcesKey.
      *
@@ -357,6 +439,20 @@ public class ResourcesManager {
      * @return a ResourcesImpl if the key matches a cache entry, null otherwise.
      */
     private @Nullable ResourcesImpl findResourcesImplForKeyLocked(@NonNull ResourcesKey key) {
+        final ResourcesImpl impl = lookupResourcesImplLocked(key);
+        if (impl != null) {
+            mImplHits++;
+            touchRecentImplLocked(impl);
+        } else {
+            mImplMisses++;
+        }
+        return impl;
+    }
+
+    /**
+     * Like {@link #findResourcesImplForKeyLocked}, without counting it as a use.
+     */
+    private @Nullable ResourcesImpl lookupResourcesImplLocked(@NonNull ResourcesKey key) {
         WeakReference<ResourcesImpl> weakImplRef = mResourceImpls.get(key);
         ResourcesImpl impl = weakImplRef != null ? weakImplRef.get() : null;
         if (impl != null && impl.getAssets().isUpToDate()) {
@@ -365,6 +461,75 @@ public class ResourcesManager {
         return null;
     }
 
+    /**
+     * Adds a newly created ResourcesImpl to the cache, sweeping out the entries whose
+     * ResourcesImpl has been collected once enough of them may have built up.
+     */
+    private void putResourcesImplLocked(@NonNull ResourcesKey key,
+            @NonNull ResourcesImpl impl) {
+        mResourceImpls.put(key, new WeakReference<>(impl));
+        mImplCreations++;
+        touchRecentImplLocked(impl);
+
+        if (mResourceImpls.size() >= mImplPruneThreshold) {
+            for (int i = mResourceImpls.size() - 1; i >= 0; i--) {
+                final WeakReference<ResourcesImpl> weakImplRef = mResourceImpls.valueAt(i);
+                if (weakImplRef == null || weakImplRef.get() == null) {
+                    mResourceImpls.removeAt(i);
+                    mImplPrunes++;
+                }
+            }
+            mImplPruneThreshold = Math.max(MIN_IMPL_PRUNE_THRESHOLD, mResourceImpls.size() * 2);
+        }
+    }
+
+    /**
+     * Moves the given ResourcesImpl to the front of {@link #mRecentImpls}.
+     */
+    private void touchRecentImplLocked(@NonNull ResourcesImpl impl) {
+        if (!mRecentImpls.isEmpty() && mRecentImpls.get(0) == impl) {
+            return;
+        }
+        if (!mRecentImpls.remove(impl) && mRecentImpls.size() >= MAX_RECENT_IMPLS) {
+            mRecentImpls.remove(mRecentImpls.size() - 1);
+        }
+        mRecentImpls.add(0, impl);
+    }
+
+    /**
+     * Returns the Resources last handed out for this key and class loader outside of an
+     * Activity, if it is still in use and up to date. Does not take the lock.
+     */
+    private @Nullable Resources findSharedResources(@NonNull ResourcesKey key,
+            @NonNull ClassLoader classLoader) {
+        final SharedResources entry = mSharedResources[sharedResourcesSlot(key)];
+        if (entry == null || entry.classLoader != classLoader || !entry.key.equals(key)) {
+            return null;
+        }
+        final Resources resources = entry.resources.get();
+        if (resources == null || !resources.getImpl().getAssets().isUpToDate()) {
+            return null;
+        }
+        mSharedResourcesHits.incrementAndGet();
+        return resources;
+    }
+
+    private void putSharedResourcesLocked(@NonNull ResourcesKey key,
+            @NonNull ClassLoader classLoader, @NonNull Resources resources) {
+        final SharedResources[] shared = mSharedResources.clone();
+        shared[sharedResourcesSlot(key)] = new SharedResources(key, classLoader, resources);
+        mSharedResources = shared;
+    }
+
+    private void clearSharedResourcesLocked() {
+        mSharedResources = new SharedResources[SHARED_RESOURCES_SLOTS];
+    }
+
+    private static int sharedResourcesSlot(@NonNull ResourcesKey key) {
+        final int hash = key.hashCode();
+        return (hash ^ (hash >>> 16)) & (SHARED_RESOURCES_SLOTS - 1);
+    }
+
     /**
      * Finds a cached ResourcesImpl object that matches the given ResourcesKey, or
      * creates a new one and caches it for future use.
@@ -377,7 +542,7 @@ public class ResourcesManager {
         if (impl == null) {
             impl = createResourcesImpl(key);
             if (impl != null) {
-                mResourceImpls.put(key, new WeakReference<>(impl));
+                putResourcesImplLocked(key, impl);
             }
         }
         return impl;
@@ -581,6 +746,13 @@ public class ResourcesManager {
      */
     private @Nullable Resources getOrCreateResources(@Nullable IBinder activityToken,
             @NonNull ResourcesKey key, @NonNull ClassLoader classLoader) {
+        if (activityToken == null) {
+            final Resources resources = findSharedResources(key, classLoader);
+            if (resources != null) {
+                return resources;
+            }
+        }
+
         synchronized (this) {
             if (DEBUG) {
                 Throwable here = new Throwable();
@@ -625,7 +797,10 @@ public class ResourcesManager {
                     if (DEBUG) {
                         Slog.d(TAG, "- using existing impl=" + resourcesImpl);
                     }
-                    return getOrCreateResourcesLocked(classLoader, resourcesImpl, key.mCompatInfo);
+                    final Resources resources = getOrCreateResourcesLocked(classLoader,
+                            resourcesImpl, key.mCompatInfo);
+                    putSharedResourcesLocked(key, classLoader, resources);
+                    return resources;
                 }
 
                 // We will create the ResourcesImpl object outside of holding this lock.
@@ -639,7 +814,7 @@ public class ResourcesManager {
         }
 
         synchronized (this) {
-            ResourcesImpl existingResourcesImpl = findResourcesImplForKeyLocked(key);
+            ResourcesImpl existingResourcesImpl = lookupResourcesImplLocked(key);
             if (existingResourcesImpl != null) {
                 if (DEBUG) {
                     Slog.d(TAG, "- got beat! existing impl=" + existingResourcesImpl
@@ -649,7 +824,7 @@ public class ResourcesManager {
                 resourcesImpl = existingResourcesImpl;
             } else {
                 // Add this ResourcesImpl to the cache.
-                mResourceImpls.put(key, new WeakReference<>(resourcesImpl));
+                putResourcesImplLocked(key, resourcesImpl);
             }
 
             final Resources resources;
@@ -658,6 +833,7 @@ public class ResourcesManager {
                         resourcesImpl, key.mCompatInfo);
             } else {
                 resources = getOrCreateResourcesLocked(classLoader, resourcesImpl, key.mCompatInfo);
+                putSharedResourcesLocked(key, classLoader, resources);
             }
             return resources;
         }
@@ -818,7 +994,7 @@ public class ResourcesManager {
                     if (resourcesImpl == null) {
                         resourcesImpl = createResourcesImpl(newKey);
                         if (resourcesImpl != null) {
-                            mResourceImpls.put(newKey, new WeakReference<>(resourcesImpl));
+                            putResourcesImplLocked(newKey, resourcesImpl);
                         }
                     }
 
@@ -1000,6 +1176,9 @@ public class ResourcesManager {
             return;
         }
 
+        // Shared Resources are about to point at impls for different keys.
+        clearSharedResourcesLocked();
+
         // Update any references to ResourcesImpl that require reloading.
         final int resourcesCount = mResourceReferences.size();
         for (int i = 0; i < resourcesCount; i++) {
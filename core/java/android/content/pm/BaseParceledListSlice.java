@@ -52,6 +52,8 @@ abstract class BaseParceledListSlice<T> implements Parcelable {
 
     private int mInlineCountLimit = Integer.MAX_VALUE;
 
+    private int mStringSectionFlags;
+
     public BaseParceledListSlice(List<T> list) {
         mList = list;
     }
@@ -69,22 +71,29 @@ abstract class BaseParceledListSlice<T> implements Parcelable {
         Class<?> listElementClass = null;
 
         int i = 0;
-        while (i < N) {
-            if (p.readInt() == 0) {
-                break;
-            }
-
-            final T parcelable = readCreator(creator, p, loader);
-            if (listElementClass == null) {
-                listElementClass = parcelable.getClass();
-            } else {
-                verifySameType(listElementClass, parcelable.getClass());
-            }
+        final boolean inlineSection = p.readStringSectionStart();
+        try {
+            while (i < N) {
+                if (p.readInt() == 0) {
+                    break;
+                }
+
+                final T parcelable = readCreator(creator, p, loader);
+                if (listElementClass == null) {
+                    listElementClass = parcelable.getClass();
+                } else {
+                    verifySameType(listElementClass, parcelable.getClass());
+                }
 
-            mList.add(parcelable);
+                mList.add(parcelable);
 
-            if (DEBUG) Log.d(TAG, "Read inline #" + i + ": " + mList.get(mList.size()-1));
-            i++;
+                if (DEBUG) Log.d(TAG, "Read inline #" + i + ": " + mList.get(mList.size()-1));
+                i++;
+            }
+        } finally {
+            if (inlineSection) {
+                p.finishStringSection();
+            }
         }
         if (i >= N) {
             return;
@@ -101,6 +110,7 @@ abstract class BaseParceledListSlice<T> implements Parcelable {
                 Log.w(TAG, "Failure retrieving array; only received " + i + " of " + N, e);
                 return;
             }
+            reply.readStringSectionStart();
             while (i < N && reply.readInt() != 0) {
                 final T parcelable = readCreator(creator, reply, loader);
                 verifySameType(listElementClass, parcelable.getClass());
@@ -110,6 +120,7 @@ abstract class BaseParceledListSlice<T> implements Parcelable {
                 if (DEBUG) Log.d(TAG, "Read extra #" + i + ": " + mList.get(mList.size()-1));
                 i++;
             }
+            // recycle() drops the section along with the rest of the reply.
             reply.recycle();
             data.recycle();
         }
@@ -144,6 +155,15 @@ abstract class BaseParceledListSlice<T> implements Parcelable {
         mInlineCountLimit = maxCount;
     }
 
+    /**
+     * Set the {@link Parcel#STRING_SECTION_POOLED} and {@link Parcel#STRING_SECTION_UTF8}
+     * flags used for the strings of the parcelled entries. Worth it for lists whose entries
+     * repeat the same package, class or process names.
+     */
+    public void setStringSectionFlags(int flags) {
+        mStringSectionFlags = flags;
+    }
+
     /**
      * Write this to another Parcel. Note that this discards the internal Parcel
      * and should not be used anymore. This is so we can pass this to a Binder
@@ -158,16 +178,24 @@ abstract class BaseParceledListSlice<T> implements Parcelable {
         if (N > 0) {
             final Class<?> listElementClass = mList.get(0).getClass();
             writeParcelableCreator(mList.get(0), dest);
+            final int stringSectionFlags = mStringSectionFlags;
             int i = 0;
-            while (i < N && i < mInlineCountLimit && dest.dataSize() < MAX_IPC_SIZE) {
-                dest.writeInt(1);
-
-                final T parcelable = mList.get(i);
-                verifySameType(listElementClass, parcelable.getClass());
-                writeElement(parcelable, dest, callFlags);
-
-                if (DEBUG) Log.d(TAG, "Wrote inline #" + i + ": " + mList.get(i));
-                i++;
+            final boolean inlineSection = dest.writeStringSectionStart(stringSectionFlags);
+            try {
+                while (i < N && i < mInlineCountLimit && dest.dataSize() < MAX_IPC_SIZE) {
+                    dest.writeInt(1);
+
+                    final T parcelable = mList.get(i);
+                    verifySameType(listElementClass, parcelable.getClass());
+                    writeElement(parcelable, dest, callFlags);
+
+                    if (DEBUG) Log.d(TAG, "Wrote inline #" + i + ": " + mList.get(i));
+                    i++;
+                }
+            } finally {
+                if (inlineSection) {
+                    dest.finishStringSection();
+                }
             }
             if (i < N) {
                 dest.writeInt(0);
@@ -180,15 +208,22 @@ abstract class BaseParceledListSlice<T> implements Parcelable {
                         }
                         int i = data.readInt();
                         if (DEBUG) Log.d(TAG, "Writing more @" + i + " of " + N);
-                        while (i < N && reply.dataSize() < MAX_IPC_SIZE) {
-                            reply.writeInt(1);
-
-                            final T parcelable = mList.get(i);
-                            verifySameType(listElementClass, parcelable.getClass());
-                            writeElement(parcelable, reply, callFlags);
-
-                            if (DEBUG) Log.d(TAG, "Wrote extra #" + i + ": " + mList.get(i));
-                            i++;
+                        final boolean section = reply.writeStringSectionStart(stringSectionFlags);
+                        try {
+                            while (i < N && reply.dataSize() < MAX_IPC_SIZE) {
+                                reply.writeInt(1);
+
+                                final T parcelable = mList.get(i);
+                                verifySameType(listElementClass, parcelable.getClass());
+                                writeElement(parcelable, reply, callFlags);
+
+                                if (DEBUG) Log.d(TAG, "Wrote extra #" + i + ": " + mList.get(i));
+                                i++;
+                            }
+                        } finally {
+                            if (section) {
+                                reply.finishStringSection();
+                            }
                         }
                         if (i < N) {
                             if (DEBUG) Log.d(TAG, "Breaking @" + i + " of " + N);
@@ -28,6 +28,7 @@ import android.os.Environment;
 import android.os.Handler;
 import android.os.UserHandle;
 import android.os.UserManager;
+import android.util.ArrayMap;
 import android.util.AtomicFile;
 import android.util.AttributeSet;
 import android.util.IntArray;
@@ -422,17 +423,24 @@ public abstract class RegisteredServicesCache<V> {
      *                    or null to assume that everything is affected.
      * @param userId the user for whom to update the services map.
      */
-    private void generateServicesMap(int[] changedUids, int userId) {
+    @VisibleForTesting
+    void generateServicesMap(int[] changedUids, int userId) {
         if (DEBUG) {
             Slog.d(TAG, "generateServicesMap() for " + userId + ", changed UIDs = "
                     + Arrays.toString(changedUids));
         }
 
+        final ArrayMap<ComponentName, ServiceInfo<V>> reusableServices =
+                getReusableServices(changedUids, userId);
         final ArrayList<ServiceInfo<V>> serviceInfos = new ArrayList<>();
         final List<ResolveInfo> resolveInfos = queryIntentServices(userId);
         for (ResolveInfo resolveInfo : resolveInfos) {
             try {
-                ServiceInfo<V> info = parseServiceInfo(resolveInfo);
+                ServiceInfo<V> info = findReusableServiceInfo(reusableServices, changedUids,
+                        resolveInfo);
+                if (info == null) {
+                    info = parseServiceInfo(resolveInfo);
+                }
                 if (info == null) {
                     Log.w(TAG, "Unable to load service info " + resolveInfo.toString());
                     continue;
@@ -550,6 +558,56 @@ public abstract class RegisteredServicesCache<V> {
         // Feel free to override
     }
 
+    /**
+     * Returns the already parsed services of the given user, keyed by component, that may be
+     * reused when only the packages in {@code changedUids} have changed. Returns null if
+     * everything is affected or nothing has been parsed yet.
+     */
+    private ArrayMap<ComponentName, ServiceInfo<V>> getReusableServices(int[] changedUids,
+            int userId) {
+        if (changedUids == null) {
+            return null;
+        }
+        synchronized (mServicesLock) {
+            final UserServices<V> user = mUserServices.get(userId);
+            if (user == null || user.services == null) {
+                return null;
+            }
+            final ArrayMap<ComponentName, ServiceInfo<V>> reusable =
+                    new ArrayMap<>(user.services.size());
+            for (ServiceInfo<V> info : user.services.values()) {
+                if (info.componentName != null && info.componentInfo != null
+                        && !containsUid(changedUids, info.uid)) {
+                    reusable.put(info.componentName, info);
+                }
+            }
+            return reusable;
+        }
+    }
+
+    /**
+     * Returns a previously parsed {@link ServiceInfo} for the given service if its package
+     * isn't among the changed uids and hasn't been updated since it was parsed, so that its
+     * meta-data doesn't need to be loaded and parsed again.
+     */
+    private ServiceInfo<V> findReusableServiceInfo(
+            ArrayMap<ComponentName, ServiceInfo<V>> reusableServices, int[] changedUids,
+            ResolveInfo resolveInfo) {
+        final android.content.pm.ServiceInfo si = resolveInfo.serviceInfo;
+        if (reusableServices == null || si == null || si.applicationInfo == null
+                || containsUid(changedUids, si.applicationInfo.uid)) {
+            return null;
+        }
+        final ServiceInfo<V> info = reusableServices.get(new ComponentName(si.packageName,
+                si.name));
+        if (info == null || info.uid != si.applicationInfo.uid
+                || info.componentInfo.applicationInfo.versionCode
+                        != si.applicationInfo.versionCode) {
+            return null;
+        }
+        return info;
+    }
+
     /**
      * Returns true if the list of changed uids is null (wildcard) or the specified uid
      * is contained in the list of changed uids.
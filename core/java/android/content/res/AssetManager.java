@@ -84,6 +84,7 @@ public final class AssetManager implements AutoCloseable {
     
     private int mNumRefs = 1;
     private boolean mOpen = true;
+    private boolean mHasOverlays;
     private HashMap<Long, RuntimeException> mRefStacks;
  
     /**
@@ -707,10 +708,21 @@ public final class AssetManager implements AutoCloseable {
         synchronized (this) {
             int res = addOverlayPathNative(idmapPath);
             makeStringBlocks(mStringBlocks);
+            mHasOverlays = true;
             return res;
         }
     }
 
+    /**
+     * Whether {@link #addOverlayPath} has been called on this AssetManager, in which case
+     * even framework resources may resolve differently than they do in the zygote.
+     */
+    /*package*/ final boolean hasOverlays() {
+        synchronized (this) {
+            return mHasOverlays;
+        }
+    }
+
     /**
      * See addOverlayPath.
      *
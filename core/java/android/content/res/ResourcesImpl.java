@@ -45,6 +45,7 @@ import android.util.DisplayMetrics;
 import android.util.Log;
 import android.util.LongSparseArray;
 import android.util.Slog;
+import android.util.SparseArray;
 import android.util.TypedValue;
 import android.util.Xml;
 import android.view.DisplayAdjustments;
@@ -105,6 +106,18 @@ public class ResourcesImpl {
     private static final LongSparseArray<android.content.res.ConstantState<ComplexColor>>
             sPreloadedComplexColors = new LongSparseArray<>();
 
+    // Framework resource values resolved while preloading, and the configuration they were
+    // resolved against. Forked processes share these pages with the zygote, and use a value
+    // as long as their configuration only differs in ways that don't change it.
+    private static final SparseArray<TypedValue> sPreloadedValues = new SparseArray<>();
+    private static Configuration sPreloadedValuesConfig;
+
+    /**
+     * The ways in which this object's configuration differs from
+     * {@link #sPreloadedValuesConfig}, or all bits set if the preloaded values can't be used.
+     */
+    private volatile @Config int mPreloadedValuesConfigDiff = ~0;
+
     /** Lock object used to protect access to caches and configuration. */
     private final Object mAccessLock = new Object();
 
@@ -208,13 +221,46 @@ public class ResourcesImpl {
 
     void getValue(@AnyRes int id, TypedValue outValue, boolean resolveRefs)
             throws NotFoundException {
+        if (resolveRefs && getPreloadedValue(id, outValue)) {
+            return;
+        }
         boolean found = mAssets.getResourceValue(id, 0, outValue, resolveRefs);
         if (found) {
+            if (mPreloading && resolveRefs && isFrameworkResource(id)) {
+                final TypedValue value = new TypedValue();
+                value.setTo(outValue);
+                value.changingConfigurations = outValue.changingConfigurations;
+                sPreloadedValues.put(id, value);
+            }
             return;
         }
         throw new NotFoundException("Resource ID #0x" + Integer.toHexString(id));
     }
 
+    /**
+     * Fills in outValue from the values resolved by the zygote, without going through the
+     * AssetManager.
+     *
+     * @return whether a preloaded value could be used.
+     */
+    private boolean getPreloadedValue(@AnyRes int id, TypedValue outValue) {
+        final int configDiff = mPreloadedValuesConfigDiff;
+        if (configDiff == ~0 || !isFrameworkResource(id)) {
+            return false;
+        }
+        final TypedValue value = sPreloadedValues.get(id);
+        if (value == null || (value.changingConfigurations & configDiff) != 0) {
+            return false;
+        }
+        outValue.setTo(value);
+        outValue.changingConfigurations = value.changingConfigurations;
+        return true;
+    }
+
+    private static boolean isFrameworkResource(@AnyRes int id) {
+        return (id >>> 24) == 0x01;
+    }
+
     void getValueForDensity(@AnyRes int id, int density, TypedValue outValue,
             boolean resolveRefs) throws NotFoundException {
         boolean found = mAssets.getResourceValue(id, density, outValue, resolveRefs);
@@ -433,6 +479,13 @@ public class ResourcesImpl {
                     keyboardHidden = mConfiguration.keyboardHidden;
                 }
 
+                if (sPreloadedValuesConfig != null && !mPreloading && !mAssets.hasOverlays()) {
+                    mPreloadedValuesConfigDiff = sPreloadedValuesConfig.diff(mConfiguration,
+                            true /* compareUndefined */, false /* publicOnly */);
+                } else {
+                    mPreloadedValuesConfigDiff = ~0;
+                }
+
                 mAssets.setConfiguration(mConfiguration.mcc, mConfiguration.mnc,
                         adjustLanguageTag(mConfiguration.getLocales().get(0).toLanguageTag()),
                         mConfiguration.orientation,
@@ -1212,6 +1265,10 @@ public class ResourcesImpl {
             }
 
             mPreloading = false;
+            synchronized (mAccessLock) {
+                sPreloadedValuesConfig = new Configuration(mConfiguration);
+                mPreloadedValuesConfigDiff = 0;
+            }
             flushLayoutCache();
         }
     }
@@ -29,6 +29,7 @@ import com.android.internal.util.IndentingPrintWriter;
 
 import java.io.Serializable;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Set;
 
 /**
@@ -70,6 +71,19 @@ public class BaseBundle {
         sShouldDefuse = shouldDefuse;
     }
 
+    private static volatile boolean sShouldLazyUnparcel = false;
+
+    /**
+     * Set global variable indicating that Bundles parsed in this process should read
+     * individual values out of their parcelled data on demand, instead of unparcelling
+     * everything the first time any key is looked up.
+     *
+     * @hide
+     */
+    public static void setShouldLazyUnparcel(boolean shouldLazyUnparcel) {
+        sShouldLazyUnparcel = shouldLazyUnparcel;
+    }
+
     // A parcel cannot be obtained during compile-time initialization. Put the
     // empty parcel into an inner class that can be initialized separately. This
     // allows to initialize BaseBundle, and classes depending on it.
@@ -90,6 +104,17 @@ public class BaseBundle {
      */
     Parcel mParcelledData = null;
 
+    /*
+     * With lazy unparcelling, the keys of mParcelledData and the position of each value,
+     * indexed the first time a single key is looked up. mParcelledValues caches the values
+     * read so far, or holds NOT_READ. All three are dropped with mParcelledData.
+     */
+    private String[] mParcelledKeys;
+    private int[] mParcelledOffsets;
+    private Object[] mParcelledValues;
+
+    private static final Object NOT_READ = new Object();
+
     /**
      * The ClassLoader used when unparcelling data from mParcelledData.
      */
@@ -240,6 +265,7 @@ public class BaseBundle {
                     + "clobber all data inside!", new Throwable());
         }
 
+        clearParcelledIndexLocked();
         if (isEmptyParcel(parcelledData)) {
             if (DEBUG) {
                 Log.d(TAG, "unparcel "
@@ -291,6 +317,100 @@ public class BaseBundle {
         }
     }
 
+    private void clearParcelledIndexLocked() {
+        mParcelledKeys = null;
+        mParcelledOffsets = null;
+        mParcelledValues = null;
+    }
+
+    /**
+     * Index the keys of mParcelledData if lazy unparcelling is enabled and every value in it
+     * can be skipped over. Otherwise the data is fully unparcelled right away and false is
+     * returned.
+     */
+    private boolean ensureParcelledIndexLocked() {
+        final Parcel parcelledData = mParcelledData;
+        if (parcelledData == null || isEmptyParcel(parcelledData)) {
+            return false;
+        }
+        if (mParcelledKeys != null) {
+            return true;
+        }
+        boolean indexed = false;
+        String[] keys = null;
+        int[] offsets = null;
+        final int count = parcelledData.readInt();
+        if (count >= 0) {
+            keys = new String[count];
+            offsets = new int[count];
+            indexed = true;
+            for (int i = 0; i < count && indexed; i++) {
+                keys[i] = parcelledData.readString();
+                offsets[i] = parcelledData.dataPosition();
+                indexed = parcelledData.skipValue();
+            }
+        }
+        parcelledData.setDataPosition(0);
+        if (!indexed) {
+            initializeFromParcelLocked(parcelledData, /*recycleParcel=*/ true);
+            return false;
+        }
+        mParcelledKeys = keys;
+        mParcelledOffsets = offsets;
+        mParcelledValues = new Object[count];
+        Arrays.fill(mParcelledValues, NOT_READ);
+        return true;
+    }
+
+    private int indexOfParcelledKeyLocked(String key) {
+        final String[] keys = mParcelledKeys;
+        for (int i = 0; i < keys.length; i++) {
+            if (keys[i] == null ? key == null : keys[i].equals(key)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Return the value mapped to the given key. With lazy unparcelling, values the caller
+     * can't modify are read individually out of the parcelled data. Anything else still
+     * unparcels the whole Bundle, so that changes made through the returned object are
+     * reflected when this Bundle is written out again.
+     */
+    Object getValue(String key) {
+        if (sShouldLazyUnparcel) {
+            synchronized (this) {
+                if (ensureParcelledIndexLocked()) {
+                    final int index = indexOfParcelledKeyLocked(key);
+                    if (index < 0) {
+                        return null;
+                    }
+                    Object value = mParcelledValues[index];
+                    if (value != NOT_READ) {
+                        return value;
+                    }
+                    final Parcel parcelledData = mParcelledData;
+                    parcelledData.setDataPosition(mParcelledOffsets[index]);
+                    final int type = parcelledData.readInt();
+                    if (Parcel.isImmutableValueType(type)) {
+                        parcelledData.setDataPosition(mParcelledOffsets[index]);
+                        try {
+                            value = parcelledData.readValue(mClassLoader);
+                        } finally {
+                            parcelledData.setDataPosition(0);
+                        }
+                        mParcelledValues[index] = value;
+                        return value;
+                    }
+                    parcelledData.setDataPosition(0);
+                }
+            }
+        }
+        unparcel();
+        return mMap.get(key);
+    }
+
     /**
      * @hide
      */
@@ -383,6 +503,7 @@ public class BaseBundle {
 
     void copyInternal(BaseBundle from, boolean deep) {
         synchronized (from) {
+            clearParcelledIndexLocked();
             if (from.mParcelledData != null) {
                 if (from.isEmptyParcel()) {
                     mParcelledData = NoImagePreloadHolder.EMPTY_PARCEL;
@@ -464,6 +585,13 @@ public class BaseBundle {
      * @return true if the key is part of the mapping, false otherwise
      */
     public boolean containsKey(String key) {
+        if (sShouldLazyUnparcel) {
+            synchronized (this) {
+                if (ensureParcelledIndexLocked()) {
+                    return indexOfParcelledKeyLocked(key) >= 0;
+                }
+            }
+        }
         unparcel();
         return mMap.containsKey(key);
     }
@@ -476,8 +604,7 @@ public class BaseBundle {
      */
     @Nullable
     public Object get(String key) {
-        unparcel();
-        return mMap.get(key);
+        return getValue(key);
     }
 
     /**
@@ -854,8 +981,7 @@ public class BaseBundle {
      * @return a boolean value
      */
     public boolean getBoolean(String key, boolean defaultValue) {
-        unparcel();
-        Object o = mMap.get(key);
+        Object o = getValue(key);
         if (o == null) {
             return defaultValue;
         }
@@ -888,8 +1014,7 @@ public class BaseBundle {
      * @return a byte value
      */
     Byte getByte(String key, byte defaultValue) {
-        unparcel();
-        Object o = mMap.get(key);
+        Object o = getValue(key);
         if (o == null) {
             return defaultValue;
         }
@@ -922,8 +1047,7 @@ public class BaseBundle {
      * @return a char value
      */
     char getChar(String key, char defaultValue) {
-        unparcel();
-        Object o = mMap.get(key);
+        Object o = getValue(key);
         if (o == null) {
             return defaultValue;
         }
@@ -956,8 +1080,7 @@ public class BaseBundle {
      * @return a short value
      */
     short getShort(String key, short defaultValue) {
-        unparcel();
-        Object o = mMap.get(key);
+        Object o = getValue(key);
         if (o == null) {
             return defaultValue;
         }
@@ -990,8 +1113,7 @@ public class BaseBundle {
      * @return an int value
      */
    public int getInt(String key, int defaultValue) {
-        unparcel();
-        Object o = mMap.get(key);
+        Object o = getValue(key);
         if (o == null) {
             return defaultValue;
         }
@@ -1024,8 +1146,7 @@ public class BaseBundle {
      * @return a long value
      */
     public long getLong(String key, long defaultValue) {
-        unparcel();
-        Object o = mMap.get(key);
+        Object o = getValue(key);
         if (o == null) {
             return defaultValue;
         }
@@ -1058,8 +1179,7 @@ public class BaseBundle {
      * @return a float value
      */
     float getFloat(String key, float defaultValue) {
-        unparcel();
-        Object o = mMap.get(key);
+        Object o = getValue(key);
         if (o == null) {
             return defaultValue;
         }
@@ -1092,8 +1212,7 @@ public class BaseBundle {
      * @return a double value
      */
     public double getDouble(String key, double defaultValue) {
-        unparcel();
-        Object o = mMap.get(key);
+        Object o = getValue(key);
         if (o == null) {
             return defaultValue;
         }
@@ -1115,8 +1234,7 @@ public class BaseBundle {
      */
     @Nullable
     public String getString(@Nullable String key) {
-        unparcel();
-        final Object o = mMap.get(key);
+        final Object o = getValue(key);
         try {
             return (String) o;
         } catch (ClassCastException e) {
@@ -1151,8 +1269,7 @@ public class BaseBundle {
      */
     @Nullable
     CharSequence getCharSequence(@Nullable String key) {
-        unparcel();
-        final Object o = mMap.get(key);
+        final Object o = getValue(key);
         try {
             return (CharSequence) o;
         } catch (ClassCastException e) {
@@ -1187,8 +1304,7 @@ public class BaseBundle {
      */
     @Nullable
     Serializable getSerializable(@Nullable String key) {
-        unparcel();
-        Object o = mMap.get(key);
+        Object o = getValue(key);
         if (o == null) {
             return null;
         }
@@ -1210,8 +1326,7 @@ public class BaseBundle {
      */
     @Nullable
     ArrayList<Integer> getIntegerArrayList(@Nullable String key) {
-        unparcel();
-        Object o = mMap.get(key);
+        Object o = getValue(key);
         if (o == null) {
             return null;
         }
@@ -1233,8 +1348,7 @@ public class BaseBundle {
      */
     @Nullable
     ArrayList<String> getStringArrayList(@Nullable String key) {
-        unparcel();
-        Object o = mMap.get(key);
+        Object o = getValue(key);
         if (o == null) {
             return null;
         }
@@ -1256,8 +1370,7 @@ public class BaseBundle {
      */
     @Nullable
     ArrayList<CharSequence> getCharSequenceArrayList(@Nullable String key) {
-        unparcel();
-        Object o = mMap.get(key);
+        Object o = getValue(key);
         if (o == null) {
             return null;
         }
@@ -1279,8 +1392,7 @@ public class BaseBundle {
      */
     @Nullable
     public boolean[] getBooleanArray(@Nullable String key) {
-        unparcel();
-        Object o = mMap.get(key);
+        Object o = getValue(key);
         if (o == null) {
             return null;
         }
@@ -1302,8 +1414,7 @@ public class BaseBundle {
      */
     @Nullable
     byte[] getByteArray(@Nullable String key) {
-        unparcel();
-        Object o = mMap.get(key);
+        Object o = getValue(key);
         if (o == null) {
             return null;
         }
@@ -1325,8 +1436,7 @@ public class BaseBundle {
      */
     @Nullable
     short[] getShortArray(@Nullable String key) {
-        unparcel();
-        Object o = mMap.get(key);
+        Object o = getValue(key);
         if (o == null) {
             return null;
         }
@@ -1348,8 +1458,7 @@ public class BaseBundle {
      */
     @Nullable
     char[] getCharArray(@Nullable String key) {
-        unparcel();
-        Object o = mMap.get(key);
+        Object o = getValue(key);
         if (o == null) {
             return null;
         }
@@ -1371,8 +1480,7 @@ public class BaseBundle {
      */
     @Nullable
     public int[] getIntArray(@Nullable String key) {
-        unparcel();
-        Object o = mMap.get(key);
+        Object o = getValue(key);
         if (o == null) {
             return null;
         }
@@ -1394,8 +1502,7 @@ public class BaseBundle {
      */
     @Nullable
     public long[] getLongArray(@Nullable String key) {
-        unparcel();
-        Object o = mMap.get(key);
+        Object o = getValue(key);
         if (o == null) {
             return null;
         }
@@ -1417,8 +1524,7 @@ public class BaseBundle {
      */
     @Nullable
     float[] getFloatArray(@Nullable String key) {
-        unparcel();
-        Object o = mMap.get(key);
+        Object o = getValue(key);
         if (o == null) {
             return null;
         }
@@ -1440,8 +1546,7 @@ public class BaseBundle {
      */
     @Nullable
     public double[] getDoubleArray(@Nullable String key) {
-        unparcel();
-        Object o = mMap.get(key);
+        Object o = getValue(key);
         if (o == null) {
             return null;
         }
@@ -1463,8 +1568,7 @@ public class BaseBundle {
      */
     @Nullable
     public String[] getStringArray(@Nullable String key) {
-        unparcel();
-        Object o = mMap.get(key);
+        Object o = getValue(key);
         if (o == null) {
             return null;
         }
@@ -1486,8 +1590,7 @@ public class BaseBundle {
      */
     @Nullable
     CharSequence[] getCharSequenceArray(@Nullable String key) {
-        unparcel();
-        Object o = mMap.get(key);
+        Object o = getValue(key);
         if (o == null) {
             return null;
         }
@@ -1598,7 +1701,10 @@ public class BaseBundle {
                 + ": " + length + " bundle bytes starting at " + offset);
         p.setDataPosition(0);
 
-        mParcelledData = p;
+        synchronized (this) {
+            clearParcelledIndexLocked();
+            mParcelledData = p;
+        }
     }
 
     /** {@hide} */
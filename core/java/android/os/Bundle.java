@@ -873,8 +873,7 @@ public final class Bundle extends BaseBundle implements Cloneable, Parcelable {
      */
     @Nullable
     public Size getSize(@Nullable String key) {
-        unparcel();
-        final Object o = mMap.get(key);
+        final Object o = getValue(key);
         try {
             return (Size) o;
         } catch (ClassCastException e) {
@@ -893,8 +892,7 @@ public final class Bundle extends BaseBundle implements Cloneable, Parcelable {
      */
     @Nullable
     public SizeF getSizeF(@Nullable String key) {
-        unparcel();
-        final Object o = mMap.get(key);
+        final Object o = getValue(key);
         try {
             return (SizeF) o;
         } catch (ClassCastException e) {
@@ -913,8 +911,7 @@ public final class Bundle extends BaseBundle implements Cloneable, Parcelable {
      */
     @Nullable
     public Bundle getBundle(@Nullable String key) {
-        unparcel();
-        Object o = mMap.get(key);
+        Object o = getValue(key);
         if (o == null) {
             return null;
         }
@@ -936,8 +933,7 @@ public final class Bundle extends BaseBundle implements Cloneable, Parcelable {
      */
     @Nullable
     public <T extends Parcelable> T getParcelable(@Nullable String key) {
-        unparcel();
-        Object o = mMap.get(key);
+        Object o = getValue(key);
         if (o == null) {
             return null;
         }
@@ -959,8 +955,7 @@ public final class Bundle extends BaseBundle implements Cloneable, Parcelable {
      */
     @Nullable
     public Parcelable[] getParcelableArray(@Nullable String key) {
-        unparcel();
-        Object o = mMap.get(key);
+        Object o = getValue(key);
         if (o == null) {
             return null;
         }
@@ -982,8 +977,7 @@ public final class Bundle extends BaseBundle implements Cloneable, Parcelable {
      */
     @Nullable
     public <T extends Parcelable> ArrayList<T> getParcelableArrayList(@Nullable String key) {
-        unparcel();
-        Object o = mMap.get(key);
+        Object o = getValue(key);
         if (o == null) {
             return null;
         }
@@ -1006,8 +1000,7 @@ public final class Bundle extends BaseBundle implements Cloneable, Parcelable {
      */
     @Nullable
     public <T extends Parcelable> SparseArray<T> getSparseParcelableArray(@Nullable String key) {
-        unparcel();
-        Object o = mMap.get(key);
+        Object o = getValue(key);
         if (o == null) {
             return null;
         }
@@ -1155,8 +1148,7 @@ public final class Bundle extends BaseBundle implements Cloneable, Parcelable {
      */
     @Nullable
     public IBinder getBinder(@Nullable String key) {
-        unparcel();
-        Object o = mMap.get(key);
+        Object o = getValue(key);
         if (o == null) {
             return null;
         }
@@ -1182,8 +1174,7 @@ public final class Bundle extends BaseBundle implements Cloneable, Parcelable {
     @Deprecated
     @Nullable
     public IBinder getIBinder(@Nullable String key) {
-        unparcel();
-        Object o = mMap.get(key);
+        Object o = getValue(key);
         if (o == null) {
             return null;
         }
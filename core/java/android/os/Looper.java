@@ -80,6 +80,8 @@ public final class Looper {
     /* If set, the looper will show a warning log if a message dispatch takes longer than time. */
     private long mSlowDispatchThresholdMs;
 
+    private Observer mObserver;
+
      /** Initialize the current thread as a looper.
       * This gives you a chance to create handlers that then reference
       * this looper, before actually starting the loop. Be sure to call
@@ -153,12 +155,15 @@ public final class Looper {
             }
 
             final long slowDispatchThresholdMs = me.mSlowDispatchThresholdMs;
+            final Observer observer = me.mObserver;
 
             final long traceTag = me.mTraceTag;
             if (traceTag != 0 && Trace.isTagEnabled(traceTag)) {
                 Trace.traceBegin(traceTag, msg.target.getTraceName(msg));
             }
-            final long start = (slowDispatchThresholdMs == 0) ? 0 : SystemClock.uptimeMillis();
+            final long start = (slowDispatchThresholdMs == 0 && observer == null)
+                    ? 0 : SystemClock.uptimeMillis();
+            final long startNanos = (observer == null) ? 0 : System.nanoTime();
             final long end;
             try {
                 msg.target.dispatchMessage(msg);
@@ -177,6 +182,11 @@ public final class Looper {
                 }
             }
 
+            if (observer != null) {
+                observer.messageDispatched(msg, (msg.when == 0) ? 0 : start - msg.when,
+                        (System.nanoTime() - startNanos) / 1000);
+            }
+
             if (logging != null) {
                 logging.println("<<<<< Finished to " + msg.target + " " + msg.callback);
             }
@@ -238,6 +248,35 @@ public final class Looper {
         mLogging = printer;
     }
 
+    /**
+     * Set an observer that is told about every message this Looper dispatches.
+     * Unlike {@link #setMessageLogging}, nothing is allocated per message.
+     *
+     * @param observer The observer, or null to remove the current one.
+     *
+     * {@hide}
+     */
+    public void setObserver(@Nullable Observer observer) {
+        mObserver = observer;
+    }
+
+    /**
+     * Callback for observing message dispatch on a Looper.
+     *
+     * {@hide}
+     */
+    public interface Observer {
+        /**
+         * Called on the looper thread after a message has been dispatched.
+         *
+         * @param msg The message, which is recycled as soon as this returns.
+         * @param queueDelayMillis How long the message waited past the time it was due.
+         * @param dispatchMicros How long the handler took to process the message.
+         */
+        void messageDispatched(@NonNull Message msg, long queueDelayMillis,
+                long dispatchMicros);
+    }
+
     /** {@hide} */
     public void setTraceTag(long traceTag) {
         mTraceTag = traceTag;
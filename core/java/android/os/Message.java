@@ -100,6 +100,8 @@ public final class Message implements Parcelable {
 
     /*package*/ long when;
 
+    /*package*/ long enqueueTimeNanos;
+
     /*package*/ Bundle data;
 
     /*package*/ Handler target;
@@ -301,6 +303,7 @@ public final class Message implements Parcelable {
         replyTo = null;
         sendingUid = -1;
         when = 0;
+        enqueueTimeNanos = 0;
         target = null;
         callback = null;
         data = null;
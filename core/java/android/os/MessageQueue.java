@@ -28,6 +28,8 @@ import java.io.FileDescriptor;
 import java.lang.annotation.Retention;
 import java.lang.annotation.RetentionPolicy;
 import java.util.ArrayList;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
  * Low-level class holding the list of messages to be dispatched by a
@@ -51,10 +53,44 @@ public final class MessageQueue {
     private final ArrayList<IdleHandler> mIdleHandlers = new ArrayList<IdleHandler>();
     private SparseArray<FileDescriptorRecord> mFileDescriptorRecords;
     private IdleHandler[] mPendingIdleHandlers;
-    private boolean mQuitting;
-
-    // Indicates whether next() is blocked waiting in pollOnce() with a non-zero timeout.
-    private boolean mBlocked;
+    private volatile boolean mQuitting;
+
+    // Messages passed to enqueueMessage() that have not been merged into mMessages yet,
+    // newest first and linked through Message.next.  Producers push without taking the
+    // lock; anything that looks at mMessages drains it first.  Once the queue is quitting the
+    // intake holds INTAKE_CLOSED for good.
+    private final AtomicReference<Message> mIntake = new AtomicReference<Message>();
+
+    // Marks a closed intake.  Producers never push onto it, so its next is never written.
+    private static final Message INTAKE_CLOSED = new Message();
+
+    // The uptime at which next() will return from pollOnce() on its own, Long.MAX_VALUE if
+    // it is blocked indefinitely, or 0 while it is awake and will drain the intake before
+    // polling again.
+    private volatile long mPollDeadline;
+
+    // Indicates whether pollOnce() is stalled by a barrier, in which case only asynchronous
+    // messages and messages due before the barrier need to wake it.  Written before
+    // mPollDeadline.
+    private volatile boolean mPollStalledByBarrier;
+
+    // The time of the barrier at the head of the queue while pollOnce() is stalled by it.
+    // Written before mPollDeadline.
+    private volatile long mPollBarrierWhen;
+
+    // Set by the producer that wakes the queue so that concurrent producers do not wake it
+    // again.  Cleared when pollOnce() returns.
+    private final AtomicBoolean mWakePending = new AtomicBoolean();
+
+    // Queue metrics, guarded by this.
+    private long mMergedCount;
+    private int mMaxMergeBatch;
+    private long mEnqueueLatencyTotalNanos;
+    private long mEnqueueLatencyMaxNanos;
+    private long mDispatchCount;
+    private long mDispatchLatencyTotalMillis;
+    private long mDispatchLatencyMaxMillis;
+    private long mWakeCount;
 
     // The next barrier token.
     // Barriers are indicated by messages with a null target whose arg1 field carries the token.
@@ -99,6 +135,7 @@ public final class MessageQueue {
      */
     public boolean isIdle() {
         synchronized (this) {
+            drainIntakeLocked();
             final long now = SystemClock.uptimeMillis();
             return mMessages == null || now < mMessages.when;
         }
@@ -317,14 +354,30 @@ public final class MessageQueue {
 
         int pendingIdleHandlerCount = -1; // -1 only during first iteration
         int nextPollTimeoutMillis = 0;
+        long nextPollDeadline = 0;
+        boolean nextPollStalled = false;
+        long nextPollBarrierWhen = 0;
         for (;;) {
             if (nextPollTimeoutMillis != 0) {
                 Binder.flushPendingCommands();
+
+                // Publish the deadline before checking the intake one last time.  A producer
+                // racing with us either sees the deadline and wakes us, or is seen here.
+                mPollStalledByBarrier = nextPollStalled;
+                mPollBarrierWhen = nextPollBarrierWhen;
+                mPollDeadline = nextPollDeadline;
+                if (mIntake.get() != null) {
+                    nextPollTimeoutMillis = 0;
+                }
             }
 
             nativePollOnce(ptr, nextPollTimeoutMillis);
+            mPollDeadline = 0;
+            mWakePending.set(false);
 
             synchronized (this) {
+                drainIntakeLocked();
+
                 // Try to retrieve the next message.  Return if found.
                 final long now = SystemClock.uptimeMillis();
                 Message prevMsg = null;
@@ -340,9 +393,17 @@ public final class MessageQueue {
                     if (now < msg.when) {
                         // Next message is not ready.  Set a timeout to wake up when it is ready.
                         nextPollTimeoutMillis = (int) Math.min(msg.when - now, Integer.MAX_VALUE);
+                        nextPollDeadline = msg.when;
                     } else {
                         // Got a message.
-                        mBlocked = false;
+                        if (msg.when != 0) {
+                            final long latency = now - msg.when;
+                            mDispatchLatencyTotalMillis += latency;
+                            if (latency > mDispatchLatencyMaxMillis) {
+                                mDispatchLatencyMaxMillis = latency;
+                            }
+                        }
+                        mDispatchCount++;
                         if (prevMsg != null) {
                             prevMsg.next = msg.next;
                         } else {
@@ -356,7 +417,10 @@ public final class MessageQueue {
                 } else {
                     // No more messages.
                     nextPollTimeoutMillis = -1;
+                    nextPollDeadline = Long.MAX_VALUE;
                 }
+                nextPollStalled = prevMsg != null;
+                nextPollBarrierWhen = nextPollStalled ? mMessages.when : 0;
 
                 // Process the quit message now that all pending messages have been handled.
                 if (mQuitting) {
@@ -373,7 +437,6 @@ public final class MessageQueue {
                 }
                 if (pendingIdleHandlerCount <= 0) {
                     // No idle handlers to run.  Loop and wait some more.
-                    mBlocked = true;
                     continue;
                 }
 
@@ -421,6 +484,10 @@ public final class MessageQueue {
             if (mQuitting) {
                 return;
             }
+            // Close the intake and merge what was pushed before it closed.  Those messages
+            // were accepted; any producer that comes later finds the intake closed and drops
+            // its message, so nothing can slip in after the queue is quit.
+            mergeIntakeLocked(mIntake.getAndSet(INTAKE_CLOSED));
             mQuitting = true;
 
             if (safe) {
@@ -465,6 +532,7 @@ public final class MessageQueue {
         // Enqueue a new sync barrier token.
         // We don't need to wake the queue because the purpose of a barrier is to stall it.
         synchronized (this) {
+            drainIntakeLocked();
             final int token = mNextBarrierToken++;
             final Message msg = Message.obtain();
             msg.markInUse();
@@ -504,6 +572,7 @@ public final class MessageQueue {
         // Remove a sync barrier token from the queue.
         // If the queue is no longer stalled by a barrier then wake it.
         synchronized (this) {
+            drainIntakeLocked();
             Message prev = null;
             Message p = mMessages;
             while (p != null && (p.target != null || p.arg1 != token)) {
@@ -540,50 +609,128 @@ public final class MessageQueue {
             throw new IllegalStateException(msg + " This message is already in use.");
         }
 
-        synchronized (this) {
-            if (mQuitting) {
-                IllegalStateException e = new IllegalStateException(
-                        msg.target + " sending message to a Handler on a dead thread");
-                Log.w(TAG, e.getMessage(), e);
-                msg.recycle();
+        if (mQuitting) {
+            logDeadThread(msg);
+            msg.recycle();
+            return false;
+        }
+
+        msg.markInUse();
+        msg.when = when;
+        msg.enqueueTimeNanos = System.nanoTime();
+        Message head;
+        do {
+            head = mIntake.get();
+            if (head == INTAKE_CLOSED) {
+                // quit() closed the intake after the check above.
+                logDeadThread(msg);
+                msg.recycleUnchecked();
                 return false;
             }
-
-            msg.markInUse();
-            msg.when = when;
-            Message p = mMessages;
-            boolean needWake;
-            if (p == null || when == 0 || when < p.when) {
-                // New head, wake up the event queue if blocked.
-                msg.next = p;
-                mMessages = msg;
-                needWake = mBlocked;
-            } else {
-                // Inserted within the middle of the queue.  Usually we don't have to wake
-                // up the event queue unless there is a barrier at the head of the queue
-                // and the message is the earliest asynchronous message in the queue.
-                needWake = mBlocked && p.target == null && msg.isAsynchronous();
-                Message prev;
-                for (;;) {
-                    prev = p;
-                    p = p.next;
-                    if (p == null || when < p.when) {
-                        break;
-                    }
-                    if (needWake && p.isAsynchronous()) {
-                        needWake = false;
-                    }
+            msg.next = head;
+        } while (!mIntake.compareAndSet(head, msg));
+
+        // The looper merges the intake before it blocks again, so only wake it if it is
+        // already blocked past this message's time.  Behind a barrier, only asynchronous
+        // messages and messages that go in front of the barrier can end the wait.
+        final long deadline = mPollDeadline;
+        if (deadline != 0 && when < deadline
+                && (msg.isAsynchronous() || !mPollStalledByBarrier
+                        || when == 0 || when < mPollBarrierWhen)
+                && mWakePending.compareAndSet(false, true)) {
+            synchronized (this) {
+                // The queue may have been quit and disposed in the meantime.
+                if (!mQuitting) {
+                    mWakeCount++;
+                    nativeWake(mPtr);
                 }
-                msg.next = p; // invariant: p == prev.next
-                prev.next = msg;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Merges the messages waiting in the intake into {@link #mMessages}.  Messages with
+     * equal times keep the order in which they were enqueued, and a message with a time of
+     * zero goes to the front of the queue, as if each had been inserted under the lock.
+     */
+    private void drainIntakeLocked() {
+        if (mQuitting) {
+            // The intake was closed and merged by quit(); producers drop their messages since.
+            return;
+        }
+        mergeIntakeLocked(mIntake.getAndSet(null));
+    }
+
+    private void mergeIntakeLocked(Message batch) {
+        if (batch == null) {
+            return;
+        }
+
+        // The intake is newest first; reverse it into enqueue order.
+        Message msg = null;
+        int count = 0;
+        while (batch != null) {
+            final Message n = batch.next;
+            batch.next = msg;
+            msg = batch;
+            count++;
+            batch = n;
+        }
+
+        final long nowNanos = System.nanoTime();
+        Message last = null; // The previously merged message, if the scan can resume there.
+        while (msg != null) {
+            final Message n = msg.next;
+            final long when = msg.when;
+
+            final long latency = nowNanos - msg.enqueueTimeNanos;
+            mEnqueueLatencyTotalNanos += latency;
+            if (latency > mEnqueueLatencyMaxNanos) {
+                mEnqueueLatencyMaxNanos = latency;
             }
 
-            // We can assume mPtr != 0 because mQuitting is false.
-            if (needWake) {
-                nativeWake(mPtr);
+            Message prev = last;
+            if (prev == null || when == 0 || when < prev.when) {
+                final Message p = mMessages;
+                if (p == null || when == 0 || when < p.when) {
+                    // New head.
+                    msg.next = p;
+                    mMessages = msg;
+                    last = msg;
+                    msg = n;
+                    continue;
+                }
+                prev = p;
             }
+            // Everything up to prev is due no later than this message, so the scan can
+            // continue from there; consecutive messages in a batch rarely go backwards.
+            while (prev.next != null && prev.next.when <= when) {
+                prev = prev.next;
+            }
+            msg.next = prev.next;
+            prev.next = msg;
+            last = msg;
+            msg = n;
+        }
+
+        mMergedCount += count;
+        if (count > mMaxMergeBatch) {
+            mMaxMergeBatch = count;
+        }
+    }
+
+    private static void logDeadThread(Message msg) {
+        IllegalStateException e = new IllegalStateException(
+                msg.target + " sending message to a Handler on a dead thread");
+        Log.w(TAG, e.getMessage(), e);
+    }
+
+    // Used by TestLooper, which inspects mMessages directly.
+    private void drainIntake() {
+        synchronized (this) {
+            drainIntakeLocked();
         }
-        return true;
     }
 
     boolean hasMessages(Handler h, int what, Object object) {
@@ -592,6 +739,7 @@ public final class MessageQueue {
         }
 
         synchronized (this) {
+            drainIntakeLocked();
             Message p = mMessages;
             while (p != null) {
                 if (p.target == h && p.what == what && (object == null || p.obj == object)) {
@@ -609,6 +757,7 @@ public final class MessageQueue {
         }
 
         synchronized (this) {
+            drainIntakeLocked();
             Message p = mMessages;
             while (p != null) {
                 if (p.target == h && p.callback == r && (object == null || p.obj == object)) {
@@ -626,6 +775,7 @@ public final class MessageQueue {
         }
 
         synchronized (this) {
+            drainIntakeLocked();
             Message p = mMessages;
             while (p != null) {
                 if (p.target == h) {
@@ -643,6 +793,7 @@ public final class MessageQueue {
         }
 
         synchronized (this) {
+            drainIntakeLocked();
             Message p = mMessages;
 
             // Remove all messages at front.
@@ -677,6 +828,7 @@ public final class MessageQueue {
         }
 
         synchronized (this) {
+            drainIntakeLocked();
             Message p = mMessages;
 
             // Remove all messages at front.
@@ -711,6 +863,7 @@ public final class MessageQueue {
         }
 
         synchronized (this) {
+            drainIntakeLocked();
             Message p = mMessages;
 
             // Remove all messages at front.
@@ -778,6 +931,7 @@ public final class MessageQueue {
 
     void dump(Printer pw, String prefix, Handler h) {
         synchronized (this) {
+            drainIntakeLocked();
             long now = SystemClock.uptimeMillis();
             int n = 0;
             for (Message msg = mMessages; msg != null; msg = msg.next) {
@@ -788,12 +942,23 @@ public final class MessageQueue {
             }
             pw.println(prefix + "(Total messages: " + n + ", polling=" + isPollingLocked()
                     + ", quitting=" + mQuitting + ")");
+            pw.println(prefix + "(Enqueued: " + mMergedCount
+                    + ", max batch=" + mMaxMergeBatch
+                    + ", enqueue latency avg=" + (mMergedCount > 0
+                            ? mEnqueueLatencyTotalNanos / mMergedCount / 1000 : 0)
+                    + "us max=" + mEnqueueLatencyMaxNanos / 1000
+                    + "us, dispatched: " + mDispatchCount
+                    + ", dispatch latency avg=" + (mDispatchCount > 0
+                            ? mDispatchLatencyTotalMillis / mDispatchCount : 0)
+                    + "ms max=" + mDispatchLatencyMaxMillis
+                    + "ms, wakes: " + mWakeCount + ")");
         }
     }
 
     void writeToProto(ProtoOutputStream proto, long fieldId) {
         final long messageQueueToken = proto.start(fieldId);
         synchronized (this) {
+            drainIntakeLocked();
             for (Message msg = mMessages; msg != null; msg = msg.next) {
                 msg.writeToProto(proto, MessageQueueProto.MESSAGES);
             }
@@ -21,6 +21,7 @@ import android.text.TextUtils;
 import android.util.ArrayMap;
 import android.util.ArraySet;
 import android.util.Log;
+import android.util.MathUtils;
 import android.util.Size;
 import android.util.SizeF;
 import android.util.SparseArray;
@@ -45,6 +46,7 @@ import java.io.Serializable;
 import java.lang.reflect.Array;
 import java.lang.reflect.Field;
 import java.lang.reflect.Modifier;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
@@ -432,6 +434,147 @@ public final class Parcel {
         return (mReadWriteHelper != null) && (mReadWriteHelper != ReadWriteHelper.DEFAULT);
     }
 
+    /**
+     * Flag for {@link #writeStringSectionStart}: strings that were already written in the
+     * section are replaced by an index into the section's string pool.
+     *
+     * @hide
+     */
+    public static final int STRING_SECTION_POOLED = 1 << 0;
+
+    /**
+     * Flag for {@link #writeStringSectionStart}: strings are written as UTF-8 rather than
+     * UTF-16, which halves the size of ASCII-heavy payloads such as package and class names.
+     *
+     * @hide
+     */
+    public static final int STRING_SECTION_UTF8 = 1 << 1;
+
+    /**
+     * Start a section in which every {@link #writeString} is encoded according to
+     * {@code flags}, and must be read back inside a matching {@link #readStringSectionStart}.
+     * If this parcel already has a {@link ReadWriteHelper} the section falls back to the
+     * regular encoding.
+     *
+     * @return whether the section was started, in which case it must be closed with
+     *         {@link #finishStringSection}.
+     * @hide
+     */
+    public final boolean writeStringSectionStart(int flags) {
+        if (hasReadWriteHelper()) {
+            flags = 0;
+        }
+        writeInt(flags);
+        if (flags == 0) {
+            return false;
+        }
+        mReadWriteHelper = new StringSectionHelper(flags);
+        return true;
+    }
+
+    /**
+     * Start reading a section written by {@link #writeStringSectionStart}.
+     *
+     * @return whether the section was started, in which case it must be closed with
+     *         {@link #finishStringSection}.
+     * @hide
+     */
+    public final boolean readStringSectionStart() {
+        final int flags = readInt();
+        if (flags == 0) {
+            return false;
+        }
+        if (hasReadWriteHelper()) {
+            throw new BadParcelableException("Nested string section in parcel");
+        }
+        mReadWriteHelper = new StringSectionHelper(flags);
+        return true;
+    }
+
+    /**
+     * Finish a section started by {@link #writeStringSectionStart} or
+     * {@link #readStringSectionStart}, dropping its string pool.
+     *
+     * @hide
+     */
+    public final void finishStringSection() {
+        if (mReadWriteHelper instanceof StringSectionHelper) {
+            mReadWriteHelper = ReadWriteHelper.DEFAULT;
+        }
+    }
+
+    /**
+     * Encodes strings inside a section started by {@link #writeStringSectionStart}. Each
+     * string starts with an int that is either {@link #STRING_NULL}, an index into the pool
+     * of strings seen so far, or {@link #STRING_INLINE} followed by the string itself.
+     */
+    private static class StringSectionHelper extends ReadWriteHelper {
+        private static final int STRING_NULL = -1;
+        private static final int STRING_INLINE = -2;
+
+        private final boolean mUtf8;
+        private final HashMap<String, Integer> mWritePool;
+        private final ArrayList<String> mReadPool;
+
+        StringSectionHelper(int flags) {
+            mUtf8 = (flags & STRING_SECTION_UTF8) != 0;
+            if ((flags & STRING_SECTION_POOLED) != 0) {
+                mWritePool = new HashMap<>();
+                mReadPool = new ArrayList<>();
+            } else {
+                mWritePool = null;
+                mReadPool = null;
+            }
+        }
+
+        @Override
+        public void writeString(Parcel p, String s) {
+            if (s == null) {
+                p.writeInt(STRING_NULL);
+                return;
+            }
+            if (mWritePool != null) {
+                final Integer index = mWritePool.get(s);
+                if (index != null) {
+                    p.writeInt(index);
+                    return;
+                }
+                mWritePool.put(s, mWritePool.size());
+            }
+            p.writeInt(STRING_INLINE);
+            if (mUtf8) {
+                p.writeByteArray(s.getBytes(StandardCharsets.UTF_8));
+            } else {
+                p.writeStringNoHelper(s);
+            }
+        }
+
+        @Override
+        public String readString(Parcel p) {
+            final int index = p.readInt();
+            if (index == STRING_NULL) {
+                return null;
+            }
+            if (index != STRING_INLINE) {
+                if (mReadPool == null || index < 0 || index >= mReadPool.size()) {
+                    throw new BadParcelableException("Bad string pool index " + index);
+                }
+                return mReadPool.get(index);
+            }
+            final String s;
+            if (mUtf8) {
+                final byte[] bytes = p.createByteArray();
+                s = (bytes != null) ? new String(bytes, StandardCharsets.UTF_8) : null;
+            } else {
+                s = p.readStringNoHelper();
+            }
+            if (mReadPool != null) {
+                mReadPool.add(s);
+            }
+            return s;
+        }
+    }
+
     /** @hide */
     public static native long getGlobalAllocSize();
 
@@ -1695,7 +1838,9 @@ public final class Parcel {
             // come before the Parcelable case, so that their specific VAL_*
             // types will be written.
             writeInt(VAL_PARCELABLE);
+            final int lengthPos = startLengthPrefixedValue();
             writeParcelable((Parcelable) v, 0);
+            finishLengthPrefixedValue(lengthPos);
         } else if (v instanceof Short) {
             writeInt(VAL_SHORT);
             writeInt(((Short) v).intValue());
@@ -1739,7 +1884,9 @@ public final class Parcel {
             writeStrongBinder((IBinder) v);
         } else if (v instanceof Parcelable[]) {
             writeInt(VAL_PARCELABLEARRAY);
+            final int lengthPos = startLengthPrefixedValue();
             writeParcelableArray((Parcelable[]) v, 0);
+            finishLengthPrefixedValue(lengthPos);
         } else if (v instanceof int[]) {
             writeInt(VAL_INTARRAY);
             writeIntArray((int[]) v);
@@ -1775,6 +1922,33 @@ public final class Parcel {
         }
     }
 
+    /**
+     * Parcelables can only be skipped by unmarshalling them, so {@link #writeValue} stores their
+     * length up front. This lets {@link #skipValue} step over them, which is what allows a
+     * {@link BaseBundle} to read a single entry without instantiating all the others.
+     */
+    private int startLengthPrefixedValue() {
+        final int lengthPos = dataPosition();
+        writeInt(-1);
+        return lengthPos;
+    }
+
+    private void finishLengthPrefixedValue(int lengthPos) {
+        final int endPos = dataPosition();
+        setDataPosition(lengthPos);
+        writeInt(endPos - lengthPos - 4);
+        setDataPosition(endPos);
+    }
+
+    private int readLengthPrefixedValueEnd() {
+        final int length = readInt();
+        if (length < 0) {
+            throw new BadParcelableException("Invalid length " + length + " for value at "
+                    + (dataPosition() - 8));
+        }
+        return MathUtils.addOrThrow(dataPosition(), length);
+    }
+
     /**
      * Flatten the name of the class of the Parcelable and its contents
      * into the parcel.
@@ -2742,8 +2916,12 @@ public final class Parcel {
         case VAL_MAP:
             return readHashMap(loader);
 
-        case VAL_PARCELABLE:
-            return readParcelable(loader);
+        case VAL_PARCELABLE: {
+            final int end = readLengthPrefixedValueEnd();
+            final Object value = readParcelable(loader);
+            setDataPosition(end);
+            return value;
+        }
 
         case VAL_SHORT:
             return (short) readInt();
@@ -2796,8 +2974,12 @@ public final class Parcel {
         case VAL_SERIALIZABLE:
             return readSerializable(loader);
 
-        case VAL_PARCELABLEARRAY:
-            return readParcelableArray(loader);
+        case VAL_PARCELABLEARRAY: {
+            final int end = readLengthPrefixedValueEnd();
+            final Object value = readParcelableArray(loader);
+            setDataPosition(end);
+            return value;
+        }
 
         case VAL_SPARSEARRAY:
             return readSparseArray(loader);
@@ -3122,6 +3304,140 @@ public final class Parcel {
         outVal.validate();
     }
 
+    /**
+     * Skip over a value written by {@link #writeValue} without unmarshalling it.
+     *
+     * @return false if the value is of a type whose size is only known once it has been read,
+     * such as a CharSequence or IBinder, or if the data is malformed. The data position is
+     * undefined in that case.
+     */
+    /* package */ boolean skipValue() {
+        final int type = readInt();
+        int n;
+        switch (type) {
+            case VAL_NULL:
+                return true;
+            case VAL_STRING:
+                return skipString();
+            case VAL_INTEGER:
+            case VAL_SHORT:
+            case VAL_FLOAT:
+            case VAL_BOOLEAN:
+            case VAL_BYTE:
+                return skipBytes(4);
+            case VAL_LONG:
+            case VAL_DOUBLE:
+            case VAL_SIZE:
+            case VAL_SIZEF:
+                return skipBytes(8);
+            case VAL_BYTEARRAY:
+                n = readInt();
+                return n < 0 || skipBytes(n);
+            case VAL_BOOLEANARRAY:
+            case VAL_INTARRAY:
+                n = readInt();
+                return n < 0 || skipBytes(4L * n);
+            case VAL_LONGARRAY:
+            case VAL_DOUBLEARRAY:
+            case VAL_SPARSEBOOLEANARRAY:
+                n = readInt();
+                return n < 0 || skipBytes(8L * n);
+            case VAL_STRINGARRAY:
+                n = readInt();
+                for (int i = 0; i < n; i++) {
+                    if (!skipString()) {
+                        return false;
+                    }
+                }
+                return true;
+            case VAL_BUNDLE:
+            case VAL_PERSISTABLEBUNDLE:
+                // Length, then magic and contents when non-empty
+                n = readInt();
+                return n <= 0 || skipBytes(4L + n);
+            case VAL_PARCELABLE:
+            case VAL_PARCELABLEARRAY:
+                n = readInt();
+                return n >= 0 && skipBytes(n);
+            case VAL_SERIALIZABLE:
+                // Class name, then serialized bytes unless the name was null
+                n = readInt();
+                if (n < 0) {
+                    return true;
+                }
+                if (!skipBytes(2L * (n + 1))) {
+                    return false;
+                }
+                n = readInt();
+                return n < 0 || skipBytes(n);
+            case VAL_LIST:
+            case VAL_OBJECTARRAY:
+                n = readInt();
+                for (int i = 0; i < n; i++) {
+                    if (!skipValue()) {
+                        return false;
+                    }
+                }
+                return true;
+            case VAL_MAP:
+                n = readInt();
+                for (int i = 0; i < n; i++) {
+                    if (!skipValue() || !skipValue()) {
+                        return false;
+                    }
+                }
+                return true;
+            case VAL_SPARSEARRAY:
+                n = readInt();
+                for (int i = 0; i < n; i++) {
+                    if (!skipBytes(4) || !skipValue()) {
+                        return false;
+                    }
+                }
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * Return true if values of the given type, as read back by {@link #readValue}, can't be
+     * modified by the caller, so handing out the same instance more than once is safe.
+     */
+    /* package */ static boolean isImmutableValueType(int type) {
+        switch (type) {
+            case VAL_NULL:
+            case VAL_STRING:
+            case VAL_INTEGER:
+            case VAL_SHORT:
+            case VAL_LONG:
+            case VAL_FLOAT:
+            case VAL_DOUBLE:
+            case VAL_BOOLEAN:
+            case VAL_BYTE:
+            case VAL_SIZE:
+            case VAL_SIZEF:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    private boolean skipString() {
+        final int length = readInt();
+        // UTF-16 code units plus a terminator; null strings are written as -1
+        return length < 0 || skipBytes(2L * (length + 1));
+    }
+
+    private boolean skipBytes(long length) {
+        final long end = dataPosition() + ((length + 3) & ~3L);
+        if (length < 0 || end > dataSize()) {
+            return false;
+        }
+        setDataPosition((int) end);
+        return true;
+    }
+
     /* package */ void readArrayMapSafelyInternal(ArrayMap outVal, int N,
         ClassLoader loader) {
         if (DEBUG_ARRAY_MAP) {
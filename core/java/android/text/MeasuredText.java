@@ -22,6 +22,7 @@ import android.text.style.ReplacementSpan;
 import android.util.Log;
 
 import com.android.internal.util.ArrayUtils;
+import com.android.internal.util.ThreadLocalPool;
 
 /**
  * @hide
@@ -40,43 +41,33 @@ class MeasuredText {
     private int mPos;
     private TextPaint mWorkPaint;
     private StaticLayout.Builder mBuilder;
+    private final TextAdvanceCache.Key mAdvanceKey = new TextAdvanceCache.Key();
 
     private MeasuredText() {
         mWorkPaint = new TextPaint();
     }
 
-    private static final Object[] sLock = new Object[0];
-    private static final MeasuredText[] sCached = new MeasuredText[3];
-
-    static MeasuredText obtain() {
-        MeasuredText mt;
-        synchronized (sLock) {
-            for (int i = sCached.length; --i >= 0;) {
-                if (sCached[i] != null) {
-                    mt = sCached[i];
-                    sCached[i] = null;
-                    return mt;
-                }
+    // Every thread that lays out text keeps its own few instances, see TextLine.
+    private static final int POOL_SIZE = 3;
+    private static final ThreadLocalPool<MeasuredText> sPool =
+            new ThreadLocalPool<MeasuredText>(POOL_SIZE) {
+        @Override
+        protected MeasuredText create() {
+            final MeasuredText mt = new MeasuredText();
+            if (localLOGV) {
+                Log.v("MEAS", "new: " + mt);
             }
+            return mt;
         }
-        mt = new MeasuredText();
-        if (localLOGV) {
-            Log.v("MEAS", "new: " + mt);
-        }
-        return mt;
+    };
+
+    static MeasuredText obtain() {
+        return sPool.obtain();
     }
 
     static MeasuredText recycle(MeasuredText mt) {
         mt.finish();
-        synchronized(sLock) {
-            for (int i = 0; i < sCached.length; ++i) {
-                if (sCached[i] == null) {
-                    sCached[i] = mt;
-                    mt.mText = null;
-                    break;
-                }
-            }
-        }
+        sPool.release(mt);
         return null;
     }
 
@@ -178,7 +169,7 @@ class MeasuredText {
             boolean isRtl = mDir != Layout.DIR_LEFT_TO_RIGHT;
             float width = 0;
             if (widths != null) {
-                width = paint.getTextRunAdvances(mChars, p, len, p, len, isRtl, widths, p);
+                width = getRunAdvances(paint, p, len, isRtl, widths);
                 if (mBuilder != null) {
                     mBuilder.addMeasuredRun(p, p + len, widths);
                 }
@@ -194,8 +185,7 @@ class MeasuredText {
             if (i == e || mLevels[i] != level) {
                 boolean isRtl = (level & 0x1) != 0;
                 if (widths != null) {
-                    totalAdvance +=
-                            paint.getTextRunAdvances(mChars, q, i - q, q, i - q, isRtl, widths, q);
+                    totalAdvance += getRunAdvances(paint, q, i - q, isRtl, widths);
                     if (mBuilder != null) {
                         mBuilder.addMeasuredRun(q, i, widths);
                     }
@@ -212,6 +202,17 @@ class MeasuredText {
         return totalAdvance;
     }
 
+    private float getRunAdvances(TextPaint paint, int start, int count, boolean isRtl,
+            float[] widths) {
+        // Runs handed to the line breaker are measured natively for hyphenation anyway, and a
+        // subclass may measure differently than its attributes suggest.
+        if (mBuilder == null && paint.getClass() == TextPaint.class) {
+            return TextAdvanceCache.getRunAdvances(paint, mChars, start, count, isRtl, widths,
+                    mAdvanceKey);
+        }
+        return paint.getTextRunAdvances(mChars, start, count, start, count, isRtl, widths, start);
+    }
+
     float addStyleRun(TextPaint paint, MetricAffectingSpan[] spans, int len,
             Paint.FontMetricsInt fm) {
 
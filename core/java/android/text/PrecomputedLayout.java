@@ -0,0 +1,159 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.text;
+
+import android.annotation.NonNull;
+import android.annotation.Nullable;
+import android.annotation.WorkerThread;
+import android.os.CancellationSignal;
+import android.os.OperationCanceledException;
+
+import java.util.Arrays;
+
+/**
+ * Measurements and line breaks of a piece of text, computed ahead of time so that the
+ * expensive part of building a {@link StaticLayout} can happen off the UI thread.
+ * <p>
+ * Configure a {@link StaticLayout.Builder} exactly as the consumer will, and pass it to
+ * {@link #create} on a worker thread. Hand the result to
+ * {@link StaticLayout.Builder#setPrecomputed} or
+ * {@link android.widget.TextView#setPrecomputedLayout}. If the text, paint, width and
+ * options still match when the layout is built, the lines are copied rather than measured
+ * again; otherwise the layout is computed as usual.
+ * <p>
+ * Instances are immutable. The text must not be modified once it has been passed to
+ * {@link #create}.
+ *
+ * @hide
+ */
+public final class PrecomputedLayout {
+    private final StaticLayout mLayout;
+
+    private final CharSequence mText;
+    private final int mStart;
+    private final int mEnd;
+    private final TextPaint mPaint;
+    private final int mWidth;
+    private final Layout.Alignment mAlignment;
+    private final TextDirectionHeuristic mTextDir;
+    private final float mSpacingMult;
+    private final float mSpacingAdd;
+    private final boolean mIncludePad;
+    private final int mEllipsizedWidth;
+    private final TextUtils.TruncateAt mEllipsize;
+    private final int mMaxLines;
+    private final int mBreakStrategy;
+    private final int mHyphenationFrequency;
+    private final int[] mLeftIndents;
+    private final int[] mRightIndents;
+    private final int mJustificationMode;
+
+    private PrecomputedLayout(StaticLayout.Builder b) {
+        mText = b.mText;
+        mStart = b.mStart;
+        mEnd = b.mEnd;
+        mPaint = b.mPaint;
+        mWidth = b.mWidth;
+        mAlignment = b.mAlignment;
+        mTextDir = b.mTextDir;
+        mSpacingMult = b.mSpacingMult;
+        mSpacingAdd = b.mSpacingAdd;
+        mIncludePad = b.mIncludePad;
+        mEllipsizedWidth = b.mEllipsizedWidth;
+        mEllipsize = b.mEllipsize;
+        mMaxLines = b.mMaxLines;
+        mBreakStrategy = b.mBreakStrategy;
+        mHyphenationFrequency = b.mHyphenationFrequency;
+        mLeftIndents = b.mLeftIndents;
+        mRightIndents = b.mRightIndents;
+        mJustificationMode = b.mJustificationMode;
+        mLayout = b.build();
+    }
+
+    /**
+     * Lays out the text configured on {@code builder}, which is consumed as if
+     * {@link StaticLayout.Builder#build} had been called. The builder's paint is copied
+     * first, so the caller may keep using its own.
+     *
+     * @param builder The builder describing the layout that will be needed later.
+     * @param cancellationSignal Checked between paragraphs, or null.
+     * @return The precomputed layout.
+     * @throws OperationCanceledException if {@code cancellationSignal} was canceled.
+     */
+    @WorkerThread
+    public static @NonNull PrecomputedLayout create(@NonNull StaticLayout.Builder builder,
+            @Nullable CancellationSignal cancellationSignal) {
+        builder.mPaint = new TextPaint(builder.mPaint);
+        if (builder.mLeftIndents != null) {
+            builder.mLeftIndents = builder.mLeftIndents.clone();
+        }
+        if (builder.mRightIndents != null) {
+            builder.mRightIndents = builder.mRightIndents.clone();
+        }
+        builder.mCancellationSignal = cancellationSignal;
+        return new PrecomputedLayout(builder);
+    }
+
+    /**
+     * Returns the text this layout was computed for.
+     */
+    public @NonNull CharSequence getText() {
+        return mText;
+    }
+
+    /**
+     * Returns the number of lines of the precomputed layout.
+     */
+    public int getLineCount() {
+        return mLayout.getLineCount();
+    }
+
+    /**
+     * Returns the height of the precomputed layout.
+     */
+    public int getHeight() {
+        return mLayout.getHeight();
+    }
+
+    /* package */ StaticLayout getLayout() {
+        return mLayout;
+    }
+
+    /**
+     * Returns whether a layout built from {@code b} would be identical to this one.
+     */
+    /* package */ boolean matches(StaticLayout.Builder b) {
+        return mText == b.mText
+                && mStart == b.mStart
+                && mEnd == b.mEnd
+                && mWidth == b.mWidth
+                && mAlignment == b.mAlignment
+                && mTextDir == b.mTextDir
+                && mSpacingMult == b.mSpacingMult
+                && mSpacingAdd == b.mSpacingAdd
+                && mIncludePad == b.mIncludePad
+                && mEllipsizedWidth == b.mEllipsizedWidth
+                && mEllipsize == b.mEllipsize
+                && mMaxLines == b.mMaxLines
+                && mBreakStrategy == b.mBreakStrategy
+                && mHyphenationFrequency == b.mHyphenationFrequency
+                && mJustificationMode == b.mJustificationMode
+                && Arrays.equals(mLeftIndents, b.mLeftIndents)
+                && Arrays.equals(mRightIndents, b.mRightIndents)
+                && mPaint.hasEqualAttributes(b.mPaint);
+    }
+}
@@ -37,6 +37,13 @@ public class SpanSet<E> {
     int[] spanEnds;
     int[] spanFlags;
 
+    // The buffer, range and span generation of the last init() on a SpannableStringBuilder. The
+    // spans are not looked up again as long as they are the same.
+    private SpannableStringBuilder mBuilder;
+    private int mStart;
+    private int mLimit;
+    private int mGeneration;
+
     SpanSet(Class<? extends E> type) {
         classType = type;
         numberOfSpans = 0;
@@ -44,15 +51,32 @@ public class SpanSet<E> {
 
     @SuppressWarnings("unchecked")
     public void init(Spanned spanned, int start, int limit) {
-        final E[] allSpans = spanned.getSpans(start, limit, classType);
-        final int length = allSpans.length;
-
-        if (length > 0 && (spans == null || spans.length < length)) {
-            // These arrays may end up being too large because of the discarded empty spans
-            spans = (E[]) Array.newInstance(classType, length);
-            spanStarts = new int[length];
-            spanEnds = new int[length];
-            spanFlags = new int[length];
+        final E[] allSpans;
+        final int length;
+        if (spanned instanceof SpannableStringBuilder) {
+            final SpannableStringBuilder builder = (SpannableStringBuilder) spanned;
+            final int generation = builder.getSpanGeneration();
+            if (builder == mBuilder && start == mStart && limit == mLimit
+                    && generation == mGeneration) {
+                return;
+            }
+            mBuilder = builder;
+            mStart = start;
+            mLimit = limit;
+            mGeneration = generation;
+
+            // Copy the spans straight into our own array rather than into a new one.
+            length = builder.countSpans(start, limit, classType);
+            ensureCapacity(length);
+            if (length > 0) {
+                builder.copySpans(start, limit, (Class<E>) classType, spans);
+            }
+            allSpans = spans;
+        } else {
+            mBuilder = null;
+            allSpans = spanned.getSpans(start, limit, classType);
+            length = allSpans.length;
+            ensureCapacity(length);
         }
 
         int prevNumberOfSpans = numberOfSpans;
@@ -74,10 +98,23 @@ public class SpanSet<E> {
             numberOfSpans++;
         }
 
-        // cleanup extra spans left over from previous init() call
-        if (numberOfSpans < prevNumberOfSpans) {
-            // prevNumberofSpans was > 0, therefore spans != null
-            Arrays.fill(spans, numberOfSpans, prevNumberOfSpans, null);
+        // cleanup extra spans left over from previous init() call, or from the copy above
+        final int used = (allSpans == spans) ? Math.max(length, prevNumberOfSpans)
+                : prevNumberOfSpans;
+        if (numberOfSpans < used) {
+            // used was > 0, therefore spans != null
+            Arrays.fill(spans, numberOfSpans, used, null);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private void ensureCapacity(int length) {
+        if (length > 0 && (spans == null || spans.length < length)) {
+            // These arrays may end up being too large because of the discarded empty spans
+            spans = (E[]) Array.newInstance(classType, length);
+            spanStarts = new int[length];
+            spanEnds = new int[length];
+            spanFlags = new int[length];
         }
     }
 
@@ -114,5 +151,6 @@ public class SpanSet<E> {
         if (spans != null) {
             Arrays.fill(spans, 0, numberOfSpans, null);
         }
+        mBuilder = null;
     }
 }
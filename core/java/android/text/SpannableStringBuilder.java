@@ -19,6 +19,7 @@ package android.text;
 import android.annotation.Nullable;
 import android.graphics.BaseCanvas;
 import android.graphics.Paint;
+import android.util.ArrayMap;
 import android.util.Log;
 
 import com.android.internal.annotations.GuardedBy;
@@ -242,6 +243,7 @@ public class SpannableStringBuilder implements CharSequence, GetChars, Spannable
 
     // Documentation from interface
     public void clearSpans() {
+        mSpanGeneration++;
         for (int i = mSpanCount - 1; i >= 0; i--) {
             Object what = mSpans[i];
             int ostart = mSpanStarts[i];
@@ -322,6 +324,8 @@ public class SpannableStringBuilder implements CharSequence, GetChars, Spannable
     }
 
     private void change(int start, int end, CharSequence cs, int csStart, int csEnd) {
+        mSpanGeneration++;
+
         // Can be negative
         final int replacedLength = end - start;
         final int replacementLength = csEnd - csStart;
@@ -473,6 +477,7 @@ public class SpannableStringBuilder implements CharSequence, GetChars, Spannable
 
     // Note: caller is responsible for removing the mIndexOfSpan entry.
     private void removeSpan(int i) {
+        mSpanGeneration++;
         Object object = mSpans[i];
 
         int start = mSpanStarts[i];
@@ -710,6 +715,8 @@ public class SpannableStringBuilder implements CharSequence, GetChars, Spannable
             return;
         }
 
+        mSpanGeneration++;
+
         int nstart = start;
         int nend = end;
 
@@ -854,23 +861,183 @@ public class SpannableStringBuilder implements CharSequence, GetChars, Spannable
             boolean sortByInsertionOrder) {
         if (kind == null) return (T[]) ArrayUtils.emptyArray(Object.class);
         if (mSpanCount == 0) return ArrayUtils.emptyArray(kind);
-        int count = countSpans(queryStart, queryEnd, kind, treeRoot());
+        final int[] kindIndex = getKindIndex(kind, false);
+        int count = countSpans(queryStart, queryEnd, kind, kindIndex);
         if (count == 0) {
             return ArrayUtils.emptyArray(kind);
         }
 
         // Safe conversion, but requires a suppressWarning
         T[] ret = (T[]) Array.newInstance(kind, count);
-        final int[] prioSortBuffer = sortByInsertionOrder ? obtain(count) : EmptyArray.INT;
-        final int[] orderSortBuffer = sortByInsertionOrder ? obtain(count) : EmptyArray.INT;
-        getSpansRec(queryStart, queryEnd, kind, treeRoot(), ret, prioSortBuffer,
-                orderSortBuffer, 0, sortByInsertionOrder);
+        fillSpans(queryStart, queryEnd, kind, kindIndex, ret, sortByInsertionOrder);
+        return ret;
+    }
+
+    /**
+     * Return the number of spans of the specified type that overlap the specified range of the
+     * buffer, which is the length of the array {@link #getSpans(int, int, Class)} returns.
+     * Like {@link #copySpans}, this indexes the spans of a rare kind for the following queries.
+     *
+     * @hide
+     */
+    public int countSpans(int queryStart, int queryEnd, @Nullable Class kind) {
+        if (kind == null || mSpanCount == 0) return 0;
+        return countSpans(queryStart, queryEnd, kind, getKindIndex(kind, true));
+    }
+
+    /**
+     * Copy the spans {@link #getSpans(int, int, Class)} would return, in the same order, into
+     * the given array, which must be at least {@link #countSpans(int, int, Class)} long. Unlike
+     * getSpans(), this does not allocate, so callers that query the same kind of spans over and
+     * over can reuse the array. It also indexes the spans of a rare kind, which later queries
+     * use for as long as the spans do not change.
+     *
+     * @param queryStart Start index.
+     * @param queryEnd End index.
+     * @param kind Class type to search for.
+     * @param dest Array to copy the spans into.
+     * @param <T>
+     * @return The number of spans copied.
+     *
+     * @hide
+     */
+    public <T> int copySpans(int queryStart, int queryEnd, @Nullable Class<T> kind, T[] dest) {
+        if (kind == null || mSpanCount == 0) return 0;
+        return fillSpans(queryStart, queryEnd, kind, getKindIndex(kind, true), dest, true);
+    }
+
+    private <T> int fillSpans(int queryStart, int queryEnd, Class<T> kind, int[] kindIndex,
+            T[] ret, boolean sortByInsertionOrder) {
+        final int[] prioSortBuffer = sortByInsertionOrder ? obtain(ret.length) : EmptyArray.INT;
+        final int[] orderSortBuffer = sortByInsertionOrder ? obtain(ret.length) : EmptyArray.INT;
+        final int count;
+        if (kindIndex != null) {
+            count = getSpansIndexed(queryStart, queryEnd, kindIndex, ret, prioSortBuffer,
+                    orderSortBuffer, sortByInsertionOrder);
+        } else {
+            count = getSpansRec(queryStart, queryEnd, kind, treeRoot(), ret, prioSortBuffer,
+                    orderSortBuffer, 0, sortByInsertionOrder);
+        }
         if (sortByInsertionOrder) {
-            sort(ret, prioSortBuffer, orderSortBuffer);
+            sort(ret, count, prioSortBuffer, orderSortBuffer);
             recycle(prioSortBuffer);
             recycle(orderSortBuffer);
         }
-        return ret;
+        return count;
+    }
+
+    private int countSpans(int queryStart, int queryEnd, Class kind, int[] kindIndex) {
+        if (kindIndex == null) {
+            return countSpans(queryStart, queryEnd, kind, treeRoot());
+        }
+        int count = 0;
+        for (int j = 0; j < kindIndex.length; j++) {
+            final int i = kindIndex[j];
+            final int spanStart = resolveGap(mSpanStarts[i]);
+            if (spanStart > queryEnd) break;
+            if (isInQueryRange(spanStart, resolveGap(mSpanEnds[i]), queryStart, queryEnd)) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Same as {@link #getSpansRec}, for the spans listed in a kind index rather than the
+     * whole tree.
+     */
+    private <T> int getSpansIndexed(int queryStart, int queryEnd, int[] kindIndex, T[] ret,
+            int[] priority, int[] insertionOrder, boolean sort) {
+        int count = 0;
+        for (int j = 0; j < kindIndex.length; j++) {
+            final int i = kindIndex[j];
+            final int spanStart = resolveGap(mSpanStarts[i]);
+            if (spanStart > queryEnd) break;
+            if (isInQueryRange(spanStart, resolveGap(mSpanEnds[i]), queryStart, queryEnd)) {
+                count = addSpan(i, ret, priority, insertionOrder, count, sort);
+            }
+        }
+        return count;
+    }
+
+    // Same test as in countSpans() and getSpansRec(): empty spans and empty queries match at
+    // their boundaries, other spans must share at least one character with the query.
+    private static boolean isInQueryRange(int spanStart, int spanEnd, int queryStart,
+            int queryEnd) {
+        return spanEnd >= queryStart
+                && (spanStart == spanEnd || queryStart == queryEnd
+                        || (spanStart != queryEnd && spanEnd != queryStart));
+    }
+
+    /**
+     * Return the indices of the spans of the given kind in increasing order, or null if the
+     * kind is not indexed. Walking the spans of a rare kind is cheaper than walking the whole
+     * tree and checking the class of every span that overlaps the query.
+     * <p>
+     * Only {@link #countSpans} and {@link #copySpans}, which callers such as SpanSet use to run
+     * the same queries over and over, build an index, so that a loop that queries spans and
+     * then changes them does not rebuild it every time. The index is published as an
+     * immutable snapshot for the current span generation, so concurrent readers never see it
+     * change under them.
+     *
+     * @param build Whether to index the kind if it is not indexed for the current spans.
+     */
+    private int[] getKindIndex(Class kind, boolean build) {
+        if (kind == Object.class || mSpanCount < KIND_INDEX_MIN_SPAN_COUNT) {
+            return null;
+        }
+        final KindIndices published = mKindIndices;
+        final boolean current = published != null && published.mGeneration == mSpanGeneration;
+        if (current) {
+            final int[] kindIndex = published.mIndices.get(kind);
+            if (kindIndex != null) {
+                return kindIndex == NO_KIND_INDEX ? null : kindIndex;
+            }
+        }
+        if (!build) {
+            return null;
+        }
+
+        int count = 0;
+        for (int i = 0; i < mSpanCount; i++) {
+            if (kind.isInstance(mSpans[i])) count++;
+        }
+        final int[] kindIndex;
+        if (count * KIND_INDEX_MAX_RATIO > mSpanCount) {
+            kindIndex = NO_KIND_INDEX;
+        } else {
+            kindIndex = count == 0 ? EmptyArray.INT : new int[count];
+            for (int i = 0, j = 0; j < count; i++) {
+                if (kind.isInstance(mSpans[i])) kindIndex[j++] = i;
+            }
+        }
+        final ArrayMap<Class, int[]> indices =
+                current ? new ArrayMap<>(published.mIndices) : new ArrayMap<>();
+        indices.put(kind, kindIndex);
+        mKindIndices = new KindIndices(mSpanGeneration, indices);
+        return kindIndex == NO_KIND_INDEX ? null : kindIndex;
+    }
+
+    /**
+     * The kind indices built for one span generation. Never changed once published; indexing
+     * another kind publishes a copy.
+     */
+    private static final class KindIndices {
+        final int mGeneration;
+        final ArrayMap<Class, int[]> mIndices;
+
+        KindIndices(int generation, ArrayMap<Class, int[]> indices) {
+            mGeneration = generation;
+            mIndices = indices;
+        }
+    }
+
+    /**
+     * Return a number that changes whenever the text or the spans of this buffer change, so
+     * that the result of a span query can be kept for as long as it stays the same.
+     */
+    /* package */ int getSpanGeneration() {
+        return mSpanGeneration;
     }
 
     private int countSpans(int queryStart, int queryEnd, Class kind, int i) {
@@ -955,23 +1122,7 @@ public class SpannableStringBuilder implements CharSequence, GetChars, Spannable
                     (spanStart == spanEnd || queryStart == queryEnd ||
                         (spanStart != queryEnd && spanEnd != queryStart)) &&
                         (Object.class == kind || kind.isInstance(mSpans[i]))) {
-                int spanPriority = mSpanFlags[i] & SPAN_PRIORITY;
-                int target = count;
-                if (sort) {
-                    priority[target] = spanPriority;
-                    insertionOrder[target] = mSpanOrder[i];
-                } else if (spanPriority != 0) {
-                    //insertion sort for elements with priority
-                    int j = 0;
-                    for (; j < count; j++) {
-                        int p = getSpanFlags(ret[j]) & SPAN_PRIORITY;
-                        if (spanPriority > p) break;
-                    }
-                    System.arraycopy(ret, j, ret, j + 1, count - j);
-                    target = j;
-                }
-                ret[target] = (T) mSpans[i];
-                count++;
+                count = addSpan(i, ret, priority, insertionOrder, count, sort);
             }
             if (count < ret.length && (i & 1) != 0) {
                 count = getSpansRec(queryStart, queryEnd, kind, rightChild(i), ret, priority,
@@ -981,6 +1132,33 @@ public class SpannableStringBuilder implements CharSequence, GetChars, Spannable
         return count;
     }
 
+    /**
+     * Adds the span at tree index i to the results of a query.
+     *
+     * @return The new number of found spans.
+     */
+    @SuppressWarnings("unchecked")
+    private <T> int addSpan(int i, T[] ret, int[] priority, int[] insertionOrder, int count,
+            boolean sort) {
+        int spanPriority = mSpanFlags[i] & SPAN_PRIORITY;
+        int target = count;
+        if (sort) {
+            priority[target] = spanPriority;
+            insertionOrder[target] = mSpanOrder[i];
+        } else if (spanPriority != 0) {
+            //insertion sort for elements with priority
+            int j = 0;
+            for (; j < count; j++) {
+                int p = getSpanFlags(ret[j]) & SPAN_PRIORITY;
+                if (spanPriority > p) break;
+            }
+            System.arraycopy(ret, j, ret, j + 1, count - j);
+            target = j;
+        }
+        ret[target] = (T) mSpans[i];
+        return count + 1;
+    }
+
     /**
      * Obtain a temporary sort buffer.
      *
@@ -1051,13 +1229,13 @@ public class SpannableStringBuilder implements CharSequence, GetChars, Spannable
      * span with a lower insertion order will be before a span with a higher insertion order.
      *
      * @param array Span array to be sorted.
+     * @param size Number of spans in the array.
      * @param priority Priorities of the spans
      * @param insertionOrder Insertion orders of the spans
      * @param <T> Span object type.
      * @param <T>
      */
-    private final <T> void sort(T[] array, int[] priority, int[] insertionOrder) {
-        int size = array.length;
+    private final <T> void sort(T[] array, int size, int[] priority, int[] insertionOrder) {
         for (int i = size / 2 - 1; i >= 0; i--) {
             siftDown(i, array, size, priority, insertionOrder);
         }
@@ -1149,6 +1327,18 @@ public class SpannableStringBuilder implements CharSequence, GetChars, Spannable
         if (kind == null) {
             kind = Object.class;
         }
+        final int[] kindIndex = getKindIndex(kind, false);
+        if (kindIndex != null) {
+            for (int j = 0; j < kindIndex.length; j++) {
+                final int i = kindIndex[j];
+                final int st = resolveGap(mSpanStarts[i]);
+                if (st >= limit) break;
+                final int en = resolveGap(mSpanEnds[i]);
+                if (st > start) limit = st;
+                if (en > start && en < limit) limit = en;
+            }
+            return limit;
+        }
         return nextSpanTransitionRec(start, limit, kind, treeRoot());
     }
 
@@ -1749,6 +1939,13 @@ public class SpannableStringBuilder implements CharSequence, GetChars, Spannable
 
     private static final InputFilter[] NO_FILTERS = new InputFilter[0];
 
+    // Kind indices are only built for buffers with at least this many spans, and only for kinds
+    // that match at most one in KIND_INDEX_MAX_RATIO of them.
+    private static final int KIND_INDEX_MIN_SPAN_COUNT = 32;
+    private static final int KIND_INDEX_MAX_RATIO = 4;
+    // Marks a kind that matches too many spans to be worth indexing.
+    private static final int[] NO_KIND_INDEX = new int[0];
+
     @GuardedBy("sCachedIntBuffer")
     private static final int[][] sCachedIntBuffer = new int[6][0];
 
@@ -1769,6 +1966,8 @@ public class SpannableStringBuilder implements CharSequence, GetChars, Spannable
     private int mSpanCount;
     private IdentityHashMap<Object, Integer> mIndexOfSpan;
     private int mLowWaterMark;  // indices below this have not been touched
+    private volatile KindIndices mKindIndices;  // see getKindIndex()
+    private int mSpanGeneration;  // see getSpanGeneration()
 
     // TextWatcher callbacks may trigger changes that trigger more callbacks. This keeps track of
     // how deep the callbacks go.
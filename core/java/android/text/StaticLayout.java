@@ -18,6 +18,7 @@ package android.text;
 
 import android.annotation.Nullable;
 import android.graphics.Paint;
+import android.os.CancellationSignal;
 import android.os.LocaleList;
 import android.text.style.LeadingMarginSpan;
 import android.text.style.LeadingMarginSpan.LeadingMarginSpan2;
@@ -104,6 +105,8 @@ public class StaticLayout extends Layout {
         private static void recycle(Builder b) {
             b.mPaint = null;
             b.mText = null;
+            b.mPrecomputed = null;
+            b.mCancellationSignal = null;
             MeasuredText.recycle(b.mMeasuredText);
             b.mMeasuredText = null;
             b.mLeftIndents = null;
@@ -396,11 +399,31 @@ public class StaticLayout extends Layout {
          * @return the newly constructed {@link StaticLayout} object
          */
         public StaticLayout build() {
-            StaticLayout result = new StaticLayout(this);
+            final StaticLayout result;
+            if (mPrecomputed != null && mPrecomputed.matches(this)) {
+                result = new StaticLayout(this, mPrecomputed.getLayout());
+            } else {
+                result = new StaticLayout(this);
+            }
             Builder.recycle(this);
             return result;
         }
 
+        /**
+         * Supply lines computed ahead of time by {@link PrecomputedLayout#create}. They are
+         * used by {@link #build} if they were computed for the same text and with the same
+         * parameters as this builder has; otherwise the text is laid out as usual.
+         *
+         * @param precomputed The precomputed layout, or null.
+         * @return this builder, useful for chaining
+         *
+         * @hide
+         */
+        public Builder setPrecomputed(@Nullable PrecomputedLayout precomputed) {
+            mPrecomputed = precomputed;
+            return this;
+        }
+
         @Override
         protected void finalize() throws Throwable {
             try {
@@ -438,6 +461,9 @@ public class StaticLayout extends Layout {
 
         LocaleList mLocales;
 
+        PrecomputedLayout mPrecomputed;
+        CancellationSignal mCancellationSignal;
+
         private static final SynchronizedPool<Builder> sPool = new SynchronizedPool<Builder>(3);
     }
 
@@ -588,6 +614,42 @@ public class StaticLayout extends Layout {
         generate(b, b.mIncludePad, b.mIncludePad);
     }
 
+    /**
+     * Creates a layout from {@code b} whose lines are copied from {@code precomputed}, which
+     * was built from a builder with the same parameters.
+     */
+    private StaticLayout(Builder b, StaticLayout precomputed) {
+        super((b.mEllipsize == null)
+                ? b.mText
+                : (b.mText instanceof Spanned)
+                    ? new SpannedEllipsizer(b.mText)
+                    : new Ellipsizer(b.mText),
+                b.mPaint, b.mWidth, b.mAlignment, b.mSpacingMult, b.mSpacingAdd);
+
+        if (b.mEllipsize != null) {
+            Ellipsizer e = (Ellipsizer) getText();
+
+            e.mLayout = this;
+            e.mWidth = b.mEllipsizedWidth;
+            e.mMethod = b.mEllipsize;
+        }
+        mEllipsizedWidth = precomputed.mEllipsizedWidth;
+        mColumns = precomputed.mColumns;
+
+        mLineDirections = precomputed.mLineDirections.clone();
+        mLines = precomputed.mLines.clone();
+        mLineCount = precomputed.mLineCount;
+        mTopPadding = precomputed.mTopPadding;
+        mBottomPadding = precomputed.mBottomPadding;
+        mEllipsized = precomputed.mEllipsized;
+        mMaxLineHeight = precomputed.mMaxLineHeight;
+        mMaximumVisibleLineCount = b.mMaxLines;
+
+        mLeftIndents = b.mLeftIndents;
+        mRightIndents = b.mRightIndents;
+        setJustificationMode(b.mJustificationMode);
+    }
+
     /* package */ void generate(Builder b, boolean includepad, boolean trackpad) {
         CharSequence source = b.mText;
         int bufStart = b.mStart;
@@ -625,6 +687,10 @@ public class StaticLayout extends Layout {
 
         int paraEnd;
         for (int paraStart = bufStart; paraStart <= bufEnd; paraStart = paraEnd) {
+            if (b.mCancellationSignal != null) {
+                b.mCancellationSignal.throwIfCanceled();
+            }
+
             paraEnd = TextUtils.indexOf(source, CHAR_NEW_LINE, paraStart, bufEnd);
             if (paraEnd < 0)
                 paraEnd = bufEnd;
@@ -994,12 +1060,7 @@ public class StaticLayout extends Layout {
         }
 
         if (needMultiply && !lastLine) {
-            double ex = (below - above) * (spacingmult - 1) + spacingadd;
-            if (ex >= 0) {
-                extra = (int)(ex + EXTRA_ROUNDING);
-            } else {
-                extra = -(int)(-ex + EXTRA_ROUNDING);
-            }
+            extra = getExtraSpacing(below - above, spacingmult, spacingadd);
         } else {
             extra = 0;
         }
@@ -1042,6 +1103,19 @@ public class StaticLayout extends Layout {
         return v;
     }
 
+    /**
+     * Returns the spacing added below a line of the given height, other than the last line of
+     * the layout.
+     */
+    /* package */ static int getExtraSpacing(int height, float spacingmult, float spacingadd) {
+        double ex = height * (spacingmult - 1) + spacingadd;
+        if (ex >= 0) {
+            return (int)(ex + EXTRA_ROUNDING);
+        } else {
+            return -(int)(-ex + EXTRA_ROUNDING);
+        }
+    }
+
     private void calculateEllipsis(int lineStart, int lineEnd,
                                    float[] widths, int widthStart,
                                    float avail, TextUtils.TruncateAt where,
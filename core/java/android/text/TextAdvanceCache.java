@@ -0,0 +1,202 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.text;
+
+import android.graphics.Typeface;
+import android.os.LocaleList;
+import android.util.LruCache;
+
+import java.util.Arrays;
+import java.util.Objects;
+
+/**
+ * A process wide cache of the advances of short text runs. Labels and list items are measured
+ * over and over again with the same paint, and a hit here saves the JNI call and the lookup in
+ * the native layout cache.
+ *
+ * @hide
+ */
+public class TextAdvanceCache {
+    /** Longer runs are rarely measured again and would evict many labels. */
+    static final int MAX_RUN_LENGTH = 64;
+    private static final int MAX_ENTRIES = 512;
+
+    // The advances of each char of the run, followed by the advance of the whole run.
+    private static final LruCache<Key, float[]> sCache = new LruCache<>(MAX_ENTRIES);
+
+    private TextAdvanceCache() {}
+
+    /**
+     * Measures a run the way {@link TextPaint#getTextRunAdvances(char[], int, int, int, int,
+     * boolean, float[], int)} does with the run as its own context, and stores the advances of
+     * each char at the run's offset in {@code advances}.
+     *
+     * @param lookupKey A key owned by the caller that is reused for the lookup, so that a hit
+     *        does not allocate.
+     * @return The advance of the whole run.
+     */
+    static float getRunAdvances(TextPaint paint, char[] chars, int start, int count,
+            boolean isRtl, float[] advances, Key lookupKey) {
+        if (count > MAX_RUN_LENGTH) {
+            return paint.getTextRunAdvances(chars, start, count, start, count, isRtl, advances,
+                    start);
+        }
+
+        lookupKey.set(paint, chars, start, count, isRtl);
+        float[] cached = sCache.get(lookupKey);
+        if (cached == null) {
+            cached = new float[count + 1];
+            cached[count] = paint.getTextRunAdvances(chars, start, count, start, count, isRtl,
+                    cached, 0);
+            sCache.put(lookupKey.copy(), cached);
+        }
+        lookupKey.clearText();
+        System.arraycopy(cached, 0, advances, start, count);
+        return cached[count];
+    }
+
+    /**
+     * Drops all cached advances.
+     */
+    public static void clear() {
+        sCache.evictAll();
+    }
+
+    /**
+     * The text of a run and the paint attributes that affect its advances.
+     */
+    static final class Key {
+        private Typeface mTypeface;
+        private float mTextSize;
+        private float mTextScaleX;
+        private float mTextSkewX;
+        private float mLetterSpacing;
+        private float mWordSpacing;
+        private float mCompatScaling;
+        private int mFlags;
+        private int mHinting;
+        private int mHyphenEdit;
+        private boolean mElegantTextHeight;
+        private boolean mIsRtl;
+        private LocaleList mLocales;
+        private String mFontFeatureSettings;
+        private char[] mChars;
+        private int mStart;
+        private int mCount;
+        private int mHashCode;
+
+        void set(TextPaint paint, char[] chars, int start, int count, boolean isRtl) {
+            mTypeface = paint.getTypeface();
+            mTextSize = paint.getTextSize();
+            mTextScaleX = paint.getTextScaleX();
+            mTextSkewX = paint.getTextSkewX();
+            mLetterSpacing = paint.getLetterSpacing();
+            mWordSpacing = paint.getWordSpacing();
+            mCompatScaling = paint.getCompatibilityScaling();
+            mFlags = paint.getFlags();
+            mHinting = paint.getHinting();
+            mHyphenEdit = paint.getHyphenEdit();
+            mElegantTextHeight = paint.isElegantTextHeight();
+            mIsRtl = isRtl;
+            mLocales = paint.getTextLocales();
+            mFontFeatureSettings = paint.getFontFeatureSettings();
+            mChars = chars;
+            mStart = start;
+            mCount = count;
+
+            int hash = Objects.hashCode(mTypeface);
+            hash = 31 * hash + Float.floatToIntBits(mTextSize);
+            hash = 31 * hash + Float.floatToIntBits(mTextScaleX);
+            hash = 31 * hash + Float.floatToIntBits(mLetterSpacing);
+            hash = 31 * hash + mFlags;
+            hash = 31 * hash + (mIsRtl ? 1 : 0);
+            hash = 31 * hash + mLocales.hashCode();
+            for (int i = start, e = start + count; i < e; i++) {
+                hash = 31 * hash + chars[i];
+            }
+            mHashCode = hash;
+        }
+
+        /** Drops the reference to the caller's buffer once the lookup is done. */
+        void clearText() {
+            mChars = null;
+        }
+
+        Key copy() {
+            final Key key = new Key();
+            key.mTypeface = mTypeface;
+            key.mTextSize = mTextSize;
+            key.mTextScaleX = mTextScaleX;
+            key.mTextSkewX = mTextSkewX;
+            key.mLetterSpacing = mLetterSpacing;
+            key.mWordSpacing = mWordSpacing;
+            key.mCompatScaling = mCompatScaling;
+            key.mFlags = mFlags;
+            key.mHinting = mHinting;
+            key.mHyphenEdit = mHyphenEdit;
+            key.mElegantTextHeight = mElegantTextHeight;
+            key.mIsRtl = mIsRtl;
+            key.mLocales = mLocales;
+            key.mFontFeatureSettings = mFontFeatureSettings;
+            key.mChars = Arrays.copyOfRange(mChars, mStart, mStart + mCount);
+            key.mStart = 0;
+            key.mCount = mCount;
+            key.mHashCode = mHashCode;
+            return key;
+        }
+
+        @Override
+        public int hashCode() {
+            return mHashCode;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            final Key other = (Key) o;
+            if (mHashCode != other.mHashCode
+                    || mCount != other.mCount
+                    || mTypeface != other.mTypeface
+                    || mTextSize != other.mTextSize
+                    || mTextScaleX != other.mTextScaleX
+                    || mTextSkewX != other.mTextSkewX
+                    || mLetterSpacing != other.mLetterSpacing
+                    || mWordSpacing != other.mWordSpacing
+                    || mCompatScaling != other.mCompatScaling
+                    || mFlags != other.mFlags
+                    || mHinting != other.mHinting
+                    || mHyphenEdit != other.mHyphenEdit
+                    || mElegantTextHeight != other.mElegantTextHeight
+                    || mIsRtl != other.mIsRtl
+                    || !mLocales.equals(other.mLocales)
+                    || !TextUtils.equals(mFontFeatureSettings, other.mFontFeatureSettings)) {
+                return false;
+            }
+            for (int i = 0; i < mCount; i++) {
+                if (mChars[mStart + i] != other.mChars[other.mStart + i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+}
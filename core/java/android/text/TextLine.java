@@ -29,6 +29,7 @@ import android.text.style.ReplacementSpan;
 import android.util.Log;
 
 import com.android.internal.util.ArrayUtils;
+import com.android.internal.util.ThreadLocalPool;
 
 import java.util.ArrayList;
 
@@ -75,33 +76,32 @@ class TextLine {
     private final DecorationInfo mDecorationInfo = new DecorationInfo();
     private final ArrayList<DecorationInfo> mDecorations = new ArrayList();
 
-    private static final TextLine[] sCached = new TextLine[3];
+    // Every thread that lays out text keeps its own few instances, so that text can be
+    // measured on several threads at once without contention or allocation.
+    private static final int POOL_SIZE = 3;
+    private static final ThreadLocalPool<TextLine> sPool =
+            new ThreadLocalPool<TextLine>(POOL_SIZE) {
+        @Override
+        protected TextLine create() {
+            final TextLine tl = new TextLine();
+            if (DEBUG) {
+                Log.v("TLINE", "new: " + tl);
+            }
+            return tl;
+        }
+    };
 
     /**
-     * Returns a new TextLine from the shared pool.
+     * Returns a new TextLine from the pool of the calling thread.
      *
      * @return an uninitialized TextLine
      */
     static TextLine obtain() {
-        TextLine tl;
-        synchronized (sCached) {
-            for (int i = sCached.length; --i >= 0;) {
-                if (sCached[i] != null) {
-                    tl = sCached[i];
-                    sCached[i] = null;
-                    return tl;
-                }
-            }
-        }
-        tl = new TextLine();
-        if (DEBUG) {
-            Log.v("TLINE", "new: " + tl);
-        }
-        return tl;
+        return sPool.obtain();
     }
 
     /**
-     * Puts a TextLine back into the shared pool. Do not use this TextLine once
+     * Puts a TextLine back into the pool. Do not use this TextLine once
      * it has been returned.
      * @param tl the textLine
      * @return null, as a convenience from clearing references to the provided
@@ -119,14 +119,7 @@ class TextLine {
         tl.mCharacterStyleSpanSet.recycle();
         tl.mReplacementSpanSpanSet.recycle();
 
-        synchronized(sCached) {
-            for (int i = 0; i < sCached.length; ++i) {
-                if (sCached[i] == null) {
-                    sCached[i] = tl;
-                    break;
-                }
-            }
-        }
+        sPool.release(tl);
         return null;
     }
 
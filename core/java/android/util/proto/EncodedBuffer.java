@@ -19,6 +19,8 @@ package android.util.proto;
 import android.annotation.TestApi;
 import android.util.Log;
 
+import java.io.IOException;
+import java.io.OutputStream;
 import java.util.ArrayList;
 
 /**
@@ -37,6 +39,16 @@ import java.util.ArrayList;
 public final class EncodedBuffer {
     private static final String TAG = "EncodedBuffer";
 
+    private static final int DEFAULT_CHUNK_SIZE = 8 * 1024;
+
+    /**
+     * Maximum number of default sized chunks kept around for reuse by the next
+     * EncodedBuffer, so that back to back dumps don't each allocate their chunks again.
+     */
+    private static final int MAX_POOLED_CHUNKS = 32;
+
+    private static final ArrayList<byte[]> sChunkPool = new ArrayList<byte[]>();
+
     private final ArrayList<byte[]> mBuffers = new ArrayList<byte[]>();
 
     private final int mChunkSize;
@@ -103,10 +115,10 @@ public final class EncodedBuffer {
      */
     public EncodedBuffer(int chunkSize) {
         if (chunkSize <= 0) {
-            chunkSize = 8 * 1024;
+            chunkSize = DEFAULT_CHUNK_SIZE;
         }
         mChunkSize = chunkSize;
-        mWriteBuffer = new byte[mChunkSize];
+        mWriteBuffer = obtainChunk();
         mBuffers.add(mWriteBuffer);
         mBufferCount = 1;
     }
@@ -131,6 +143,58 @@ public final class EncodedBuffer {
         mReadIndex = 0;
     }
 
+    /**
+     * Throw away all of the data, keeping the chunks that have been allocated so far
+     * for the next writes.
+     */
+    public void reset() {
+        mWriteBuffer = mBuffers.get(0);
+        mWriteIndex = 0;
+        mWriteBufIndex = 0;
+
+        mReadBuffer = null;
+        mReadBufIndex = 0;
+        mReadIndex = 0;
+        mReadLimit = -1;
+        mReadableSize = -1;
+    }
+
+    /**
+     * Throw away all of the data, and hand every chunk but the first back to the shared
+     * pool.
+     */
+    public void releaseChunks() {
+        reset();
+        if (mBufferCount <= 1 || mChunkSize != DEFAULT_CHUNK_SIZE) {
+            return;
+        }
+        synchronized (sChunkPool) {
+            for (int i = mBufferCount - 1; i > 0; i--) {
+                final byte[] chunk = mBuffers.remove(i);
+                if (sChunkPool.size() < MAX_POOLED_CHUNKS) {
+                    sChunkPool.add(chunk);
+                }
+            }
+        }
+        mBufferCount = 1;
+    }
+
+    /**
+     * Take a chunk from the shared pool, or allocate one if the pool is empty.
+     */
+    private byte[] obtainChunk() {
+        if (mChunkSize == DEFAULT_CHUNK_SIZE) {
+            synchronized (sChunkPool) {
+                final int size = sChunkPool.size();
+                if (size > 0) {
+                    // Stale contents are fine: every byte is written before it is read.
+                    return sChunkPool.remove(size - 1);
+                }
+            }
+        }
+        return new byte[mChunkSize];
+    }
+
     /**
      * Rewind the read pointer. Don't touch the write pointer.
      */
@@ -248,7 +312,7 @@ public final class EncodedBuffer {
     private void nextWriteBuffer() {
         mWriteBufIndex++;
         if (mWriteBufIndex >= mBufferCount) {
-            mWriteBuffer = new byte[mChunkSize];
+            mWriteBuffer = obtainChunk();
             mBuffers.add(mWriteBuffer);
             mBufferCount++;
         } else {
@@ -583,6 +647,20 @@ public final class EncodedBuffer {
         return result;
     }
 
+    /**
+     * Write the first _size_ bytes of data to the given stream, one chunk at a time,
+     * without first copying them into a single array as {@link #getBytes} does.
+     */
+    public void writeTo(OutputStream stream, int size) throws IOException {
+        int bufIndex = 0;
+        while (size > 0) {
+            final int amt = size < mChunkSize ? size : mChunkSize;
+            stream.write(mBuffers.get(bufIndex), 0, amt);
+            size -= amt;
+            bufIndex++;
+        }
+    }
+
     /**
      * Get the number of chunks allocated.
      */
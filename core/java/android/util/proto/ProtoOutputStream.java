@@ -35,10 +35,9 @@ import java.io.UnsupportedEncodingException;
  * The ID codes have type information embedded into them, so if you call
  * the incorrect function you will get an IllegalArgumentException.
  *
- * To retrieve the encoded protobuf stream, call getBytes().
- *
- * TODO: Add a constructor that takes an OutputStream and write to that
- * stream as the top-level objects are finished.
+ * To retrieve the encoded protobuf stream, call getBytes(). Alternatively, construct
+ * it on top of an OutputStream or FileDescriptor, in which case the finished top-level
+ * objects are written out as the buffer fills up, and flush() writes the rest.
  *
  * @hide
  */
@@ -176,6 +175,12 @@ public final class ProtoOutputStream {
     public static final long FIELD_COUNT_REPEATED = 2L << FIELD_COUNT_SHIFT;
     public static final long FIELD_COUNT_PACKED = 5L << FIELD_COUNT_SHIFT;
 
+    /**
+     * When writing to a stream, how much encoded data is allowed to build up before the
+     * finished top-level objects are written out.
+     */
+    private static final int STREAM_FLUSH_SIZE = 32 * 1024;
+
     /**
      * Our buffer.
      */
@@ -2207,6 +2212,12 @@ public final class ProtoOutputStream {
             // The object has no data.  Don't include it.
             mBuffer.rewindWriteTo(sizePos - getTagSizeFromToken(token));
         }
+
+        // Nothing in the buffer refers to an open object any more, so what we have so far
+        // can be written out, keeping only the largest top-level object in memory.
+        if (mDepth == 0 && mStream != null && mBuffer.getWritePos() >= STREAM_FLUSH_SIZE) {
+            writeToStream();
+        }
     }
 
     /**
@@ -2419,8 +2430,6 @@ public final class ProtoOutputStream {
 
     /**
      * Assert that the compact call has not already occured.
-     *
-     * TODO: Will change when we add the OutputStream version of ProtoOutputStream.
      */
     private void assertNotCompacted() {
         if (mCompacted) {
@@ -2612,7 +2621,8 @@ public final class ProtoOutputStream {
      * have not had endObject called for them will not be written).  Whether this
      * writes objects that are closed if there are remaining open objects is
      * undefined (current implementation does not write it, future ones will).
-     * For now, can either call getBytes() or flush(), but not both.
+     * Writing may continue after flush(), and the new data is written by the next
+     * flush(). Can either call getBytes() or flush(), but not both.
      */
     public void flush() {
         if (mStream == null) {
@@ -2627,14 +2637,31 @@ public final class ProtoOutputStream {
             // If we're compacted, we already wrote it finished.
             return;
         }
-        compactIfNecessary();
-        final byte[] data = mBuffer.getBytes(mBuffer.getReadableSize());
+        writeToStream();
         try {
-            mStream.write(data);
             mStream.flush();
         } catch (IOException ex) {
             throw new RuntimeException("Error flushing proto to stream", ex);
         }
+        // Most streams are flushed once, at the end of a dump, so let the next one
+        // reuse our chunks.
+        mBuffer.releaseChunks();
+    }
+
+    /**
+     * Compact everything written so far, write it to the output stream, and start over
+     * with an empty buffer. Must only be called when there are no open objects.
+     */
+    private void writeToStream() {
+        compactIfNecessary();
+        try {
+            mBuffer.writeTo(mStream, mBuffer.getReadableSize());
+        } catch (IOException ex) {
+            throw new RuntimeException("Error flushing proto to stream", ex);
+        }
+        mBuffer.reset();
+        mCopyBegin = 0;
+        mCompacted = false;
     }
 
     /**
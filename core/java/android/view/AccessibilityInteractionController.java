@@ -19,6 +19,7 @@ package android.view;
 import static android.view.accessibility.AccessibilityNodeInfo.ACTION_ARGUMENT_ACCESSIBLE_CLICKABLE_SPAN;
 import static android.view.accessibility.AccessibilityNodeInfo.EXTRA_DATA_REQUESTED_KEY;
 import static android.view.accessibility.AccessibilityNodeInfo.EXTRA_DATA_TEXT_CHARACTER_LOCATION_KEY;
+import static android.view.accessibility.AccessibilityNodeInfo.EXTRA_PREFETCH_BATCH_SIZE_KEY;
 
 import android.graphics.Point;
 import android.graphics.Rect;
@@ -35,11 +36,13 @@ import android.os.RemoteException;
 import android.text.style.AccessibilityClickableSpan;
 import android.text.style.ClickableSpan;
 import android.util.LongSparseArray;
+import android.util.MathUtils;
 import android.util.Slog;
 import android.view.View.AttachInfo;
 import android.view.accessibility.AccessibilityInteractionClient;
 import android.view.accessibility.AccessibilityManager;
 import android.view.accessibility.AccessibilityNodeInfo;
+import android.view.accessibility.AccessibilityNodeInfoBatch;
 import android.view.accessibility.AccessibilityNodeProvider;
 import android.view.accessibility.AccessibilityRequestPreparer;
 import android.view.accessibility.IAccessibilityInteractionConnectionCallback;
@@ -866,9 +869,12 @@ final class AccessibilityInteractionController {
             mViewRootImpl.mAttachInfo.mAccessibilityFetchFlags = 0;
             applyAppScaleAndMagnificationSpecIfNeeded(infos, spec);
             adjustIsVisibleToUserIfNeeded(infos, interactiveRegion);
-            callback.setFindAccessibilityNodeInfosResult(infos, interactionId);
             if (infos != null) {
+                callback.setFindAccessibilityNodeInfoBatchResult(
+                        new AccessibilityNodeInfoBatch(infos), interactionId);
                 infos.clear();
+            } else {
+                callback.setFindAccessibilityNodeInfosResult(null, interactionId);
             }
         } catch (RemoteException re) {
             /* ignore - the other side will time out */
@@ -948,8 +954,16 @@ final class AccessibilityInteractionController {
 
         private final ArrayList<View> mTempViewList = new ArrayList<View>();
 
+        // The most nodes to send for the current request, at most
+        // MAX_ACCESSIBILITY_NODE_INFO_BATCH_SIZE.
+        private int mBatchSize;
+
         public void prefetchAccessibilityNodeInfos(View view, int virtualViewId, int fetchFlags,
                 List<AccessibilityNodeInfo> outInfos, Bundle arguments) {
+            mBatchSize = (arguments == null) ? MAX_ACCESSIBILITY_NODE_INFO_BATCH_SIZE
+                    : MathUtils.constrain(arguments.getInt(EXTRA_PREFETCH_BATCH_SIZE_KEY,
+                            MAX_ACCESSIBILITY_NODE_INFO_BATCH_SIZE),
+                            1, MAX_ACCESSIBILITY_NODE_INFO_BATCH_SIZE);
             AccessibilityNodeProvider provider = view.getAccessibilityNodeProvider();
             // Determine if we'll be populating extra data
             final String extraDataRequested = (arguments == null) ? null
@@ -1077,7 +1091,7 @@ final class AccessibilityInteractionController {
                 List<AccessibilityNodeInfo> outInfos) {
             ViewParent parent = view.getParentForAccessibility();
             while (parent instanceof View
-                    && outInfos.size() < MAX_ACCESSIBILITY_NODE_INFO_BATCH_SIZE) {
+                    && outInfos.size() < mBatchSize) {
                 View parentView = (View) parent;
                 AccessibilityNodeInfo info = parentView.createAccessibilityNodeInfo();
                 if (info != null) {
@@ -1098,7 +1112,7 @@ final class AccessibilityInteractionController {
                     parentGroup.addChildrenForAccessibility(children);
                     final int childCount = children.size();
                     for (int i = 0; i < childCount; i++) {
-                        if (outInfos.size() >= MAX_ACCESSIBILITY_NODE_INFO_BATCH_SIZE) {
+                        if (outInfos.size() >= mBatchSize) {
                             return;
                         }
                         View child = children.get(i);
@@ -1137,7 +1151,7 @@ final class AccessibilityInteractionController {
                 root.addChildrenForAccessibility(children);
                 final int childCount = children.size();
                 for (int i = 0; i < childCount; i++) {
-                    if (outInfos.size() >= MAX_ACCESSIBILITY_NODE_INFO_BATCH_SIZE) {
+                    if (outInfos.size() >= mBatchSize) {
                         return;
                     }
                     View child = children.get(i);
@@ -1162,7 +1176,7 @@ final class AccessibilityInteractionController {
             } finally {
                 children.clear();
             }
-            if (outInfos.size() < MAX_ACCESSIBILITY_NODE_INFO_BATCH_SIZE) {
+            if (outInfos.size() < mBatchSize) {
                 for (Map.Entry<View, AccessibilityNodeInfo> entry : addedChildren.entrySet()) {
                     View addedChild = entry.getKey();
                     AccessibilityNodeInfo virtualRoot = entry.getValue();
@@ -1184,7 +1198,7 @@ final class AccessibilityInteractionController {
             long parentNodeId = root.getParentNodeId();
             int accessibilityViewId = AccessibilityNodeInfo.getAccessibilityViewId(parentNodeId);
             while (accessibilityViewId != AccessibilityNodeInfo.UNDEFINED_ITEM_ID) {
-                if (outInfos.size() >= MAX_ACCESSIBILITY_NODE_INFO_BATCH_SIZE) {
+                if (outInfos.size() >= mBatchSize) {
                     return;
                 }
                 final int virtualDescendantId =
@@ -1229,7 +1243,7 @@ final class AccessibilityInteractionController {
                 if (parent != null) {
                     final int childCount = parent.getChildCount();
                     for (int i = 0; i < childCount; i++) {
-                        if (outInfos.size() >= MAX_ACCESSIBILITY_NODE_INFO_BATCH_SIZE) {
+                        if (outInfos.size() >= mBatchSize) {
                             return;
                         }
                         final long childNodeId = parent.getChildId(i);
@@ -1254,7 +1268,7 @@ final class AccessibilityInteractionController {
             final int initialOutInfosSize = outInfos.size();
             final int childCount = root.getChildCount();
             for (int i = 0; i < childCount; i++) {
-                if (outInfos.size() >= MAX_ACCESSIBILITY_NODE_INFO_BATCH_SIZE) {
+                if (outInfos.size() >= mBatchSize) {
                     return;
                 }
                 final long childNodeId = root.getChildId(i);
@@ -1264,7 +1278,7 @@ final class AccessibilityInteractionController {
                     outInfos.add(child);
                 }
             }
-            if (outInfos.size() < MAX_ACCESSIBILITY_NODE_INFO_BATCH_SIZE) {
+            if (outInfos.size() < mBatchSize) {
                 final int addedChildCount = outInfos.size() - initialOutInfosSize;
                 for (int i = 0; i < addedChildCount; i++) {
                     AccessibilityNodeInfo child = outInfos.get(initialOutInfosSize + i);
@@ -0,0 +1,239 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.view;
+
+import android.util.ArrayMap;
+import android.util.TimeUtils;
+
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * How long the callbacks run by a {@link Choreographer} took, per phase of the frame and per
+ * class of callback, so that the callbacks that make frames late can be found without tracing.
+ * <p>
+ * Recording a callback does not allocate once its class has been seen in its phase. The
+ * durations are kept as a histogram with buckets doubling from 1 ms, so that a callback that is
+ * usually quick but sometimes takes a whole frame stands out.
+ * </p>
+ *
+ * @see Choreographer#setCallbackTimingEnabled(boolean)
+ * @hide
+ */
+public final class CallbackTimingStats {
+    /** The exclusive upper bounds of the buckets but the last, which has none. */
+    private static final long[] BUCKET_UPPER_BOUNDS_NANOS = {
+            1 * TimeUtils.NANOS_PER_MS,
+            2 * TimeUtils.NANOS_PER_MS,
+            4 * TimeUtils.NANOS_PER_MS,
+            8 * TimeUtils.NANOS_PER_MS,
+            16 * TimeUtils.NANOS_PER_MS,
+            32 * TimeUtils.NANOS_PER_MS,
+            64 * TimeUtils.NANOS_PER_MS,
+    };
+
+    /** The number of buckets of each histogram. */
+    public static final int BUCKET_COUNT = BUCKET_UPPER_BOUNDS_NANOS.length + 1;
+
+    // Classes of callbacks seen in a phase past this many are counted together, so that the
+    // stats stay small when callbacks are lambdas of many classes.
+    private static final int MAX_CLASSES_PER_PHASE = 64;
+
+    private final String[] mPhaseNames;
+
+    // The entries of each phase, by class of callback. The entry of a null class counts the
+    // classes past MAX_CLASSES_PER_PHASE.
+    private final ArrayMap<Class<?>, Entry>[] mEntries;
+
+    /**
+     * @param phaseNames The names of the phases, indexed by callback type.
+     */
+    @SuppressWarnings("unchecked")
+    CallbackTimingStats(String[] phaseNames) {
+        mPhaseNames = phaseNames;
+        mEntries = new ArrayMap[phaseNames.length];
+        for (int i = 0; i < phaseNames.length; i++) {
+            mEntries[i] = new ArrayMap<>();
+        }
+    }
+
+    /**
+     * Returns the exclusive upper bound of a bucket of the histograms, in nanoseconds, or
+     * {@link Long#MAX_VALUE} for the last bucket.
+     */
+    public static long getBucketUpperBoundNanos(int bucket) {
+        return (bucket < BUCKET_UPPER_BOUNDS_NANOS.length)
+                ? BUCKET_UPPER_BOUNDS_NANOS[bucket] : Long.MAX_VALUE;
+    }
+
+    void record(int callbackType, Class<?> callbackClass, long durationNanos) {
+        synchronized (this) {
+            final ArrayMap<Class<?>, Entry> entries = mEntries[callbackType];
+            Entry entry = entries.get(callbackClass);
+            if (entry == null) {
+                if (entries.size() >= MAX_CLASSES_PER_PHASE) {
+                    callbackClass = null;
+                    entry = entries.get(null);
+                }
+                if (entry == null) {
+                    entry = new Entry(callbackType, callbackClass);
+                    entries.put(callbackClass, entry);
+                }
+            }
+            entry.add(durationNanos);
+        }
+    }
+
+    /**
+     * Returns a copy of the stats of each class of callback run in a phase.
+     *
+     * @param callbackType The phase, one of the Choreographer.CALLBACK_* types.
+     */
+    public List<Entry> getEntries(int callbackType) {
+        synchronized (this) {
+            final ArrayMap<Class<?>, Entry> entries = mEntries[callbackType];
+            final int entryCount = entries.size();
+            final List<Entry> result = new ArrayList<>(entryCount);
+            for (int i = 0; i < entryCount; i++) {
+                result.add(new Entry(entries.valueAt(i)));
+            }
+            return result;
+        }
+    }
+
+    /**
+     * Forgets every recorded callback.
+     */
+    public void reset() {
+        synchronized (this) {
+            for (ArrayMap<Class<?>, Entry> entries : mEntries) {
+                entries.clear();
+            }
+        }
+    }
+
+    void dump(String prefix, PrintWriter pw) {
+        final String innerPrefix = prefix + "  ";
+        for (int type = 0; type < mEntries.length; type++) {
+            final List<Entry> entries = getEntries(type);
+            if (entries.isEmpty()) {
+                continue;
+            }
+            // The callbacks that took the most time in total first.
+            entries.sort((a, b) -> Long.compare(b.mTotalNanos, a.mTotalNanos));
+            pw.print(prefix); pw.print(mPhaseNames[type]); pw.println(":");
+            for (int i = 0; i < entries.size(); i++) {
+                final Entry entry = entries.get(i);
+                pw.print(innerPrefix);
+                pw.print(entry.mCallbackClass != null
+                        ? entry.mCallbackClass.getName() : "(other)");
+                pw.printf(": %d calls, %.2f ms total, %.2f ms max, histogram:", entry.mCount,
+                        entry.mTotalNanos / (float) TimeUtils.NANOS_PER_MS,
+                        entry.mMaxNanos / (float) TimeUtils.NANOS_PER_MS);
+                for (int bucket = 0; bucket < BUCKET_COUNT; bucket++) {
+                    if (bucket < BUCKET_UPPER_BOUNDS_NANOS.length) {
+                        pw.print(" <");
+                        pw.print(BUCKET_UPPER_BOUNDS_NANOS[bucket] / TimeUtils.NANOS_PER_MS);
+                    } else {
+                        pw.print(" >=");
+                        pw.print(BUCKET_UPPER_BOUNDS_NANOS[bucket - 1] / TimeUtils.NANOS_PER_MS);
+                    }
+                    pw.print("ms=");
+                    pw.print(entry.mBucketCounts[bucket]);
+                }
+                pw.println();
+            }
+        }
+    }
+
+    /**
+     * The stats of one class of callback in one phase.
+     */
+    public static final class Entry {
+        private final int mCallbackType;
+        private final Class<?> mCallbackClass;
+        private final int[] mBucketCounts;
+        private int mCount;
+        private long mTotalNanos;
+        private long mMaxNanos;
+
+        Entry(int callbackType, Class<?> callbackClass) {
+            mCallbackType = callbackType;
+            mCallbackClass = callbackClass;
+            mBucketCounts = new int[BUCKET_COUNT];
+        }
+
+        Entry(Entry other) {
+            mCallbackType = other.mCallbackType;
+            mCallbackClass = other.mCallbackClass;
+            mBucketCounts = other.mBucketCounts.clone();
+            mCount = other.mCount;
+            mTotalNanos = other.mTotalNanos;
+            mMaxNanos = other.mMaxNanos;
+        }
+
+        void add(long durationNanos) {
+            int bucket = 0;
+            while (bucket < BUCKET_UPPER_BOUNDS_NANOS.length
+                    && durationNanos >= BUCKET_UPPER_BOUNDS_NANOS[bucket]) {
+                bucket++;
+            }
+            mBucketCounts[bucket]++;
+            mCount++;
+            mTotalNanos += durationNanos;
+            mMaxNanos = Math.max(mMaxNanos, durationNanos);
+        }
+
+        /** Returns the phase the callbacks ran in, one of the Choreographer.CALLBACK_* types. */
+        public int getCallbackType() {
+            return mCallbackType;
+        }
+
+        /**
+         * Returns the class of the callbacks, or null for the callbacks of the classes seen
+         * after too many others in the same phase.
+         */
+        public Class<?> getCallbackClass() {
+            return mCallbackClass;
+        }
+
+        /** Returns how many callbacks ran. */
+        public int getCount() {
+            return mCount;
+        }
+
+        /** Returns how long the callbacks took in total. */
+        public long getTotalNanos() {
+            return mTotalNanos;
+        }
+
+        /** Returns how long the slowest callback took. */
+        public long getMaxNanos() {
+            return mMaxNanos;
+        }
+
+        /**
+         * Returns how many callbacks took a time in a bucket.
+         *
+         * @see #getBucketUpperBoundNanos(int)
+         */
+        public int getBucketCount(int bucket) {
+            return mBucketCounts[bucket];
+        }
+    }
+}
@@ -135,6 +135,10 @@ public final class Choreographer {
     private static final int SKIPPED_FRAME_WARNING_LIMIT = SystemProperties.getInt(
             "debug.choreographer.skipwarning", 30);
 
+    // Enable/disable timing each callback, see setCallbackTimingEnabled().
+    private static final boolean TIME_CALLBACKS = SystemProperties.getBoolean(
+            "debug.choreographer.callbacktiming", false);
+
     private static final int MSG_DO_FRAME = 0;
     private static final int MSG_DO_SCHEDULE_VSYNC = 1;
     private static final int MSG_DO_SCHEDULE_CALLBACK = 2;
@@ -164,6 +168,9 @@ public final class Choreographer {
     private long mFrameIntervalNanos;
     private boolean mDebugPrintNextFrameTimeDelta;
 
+    // How long callbacks took, or null if they are not timed.
+    private volatile CallbackTimingStats mCallbackTimingStats;
+
     /**
      * Contains information about the current frame for jank-tracking,
      * mainly timings of key events along with a bit of metadata about
@@ -232,6 +239,9 @@ public final class Choreographer {
         for (int i = 0; i <= CALLBACK_LAST; i++) {
             mCallbackQueues[i] = new CallbackQueue();
         }
+        if (TIME_CALLBACKS) {
+            mCallbackTimingStats = new CallbackTimingStats(CALLBACK_TRACE_TITLES);
+        }
     }
 
     private static float getRefreshRate() {
@@ -344,6 +354,41 @@ public final class Choreographer {
         return mFrameIntervalNanos;
     }
 
+    /**
+     * Enables or disables timing each callback run by this choreographer. The times are
+     * aggregated per phase of the frame and per class of callback, can be queried with
+     * {@link #getCallbackTimingStats()}, and are dumped by {@code dumpsys gfxinfo}. They are
+     * enabled for every choreographer when the {@code debug.choreographer.callbacktiming}
+     * property is set.
+     * <p>
+     * Timing costs two reads of the clock per callback. Disabling it drops the times recorded so
+     * far.
+     * </p>
+     *
+     * @param enabled Whether to time callbacks.
+     * @hide
+     */
+    public void setCallbackTimingEnabled(boolean enabled) {
+        synchronized (mLock) {
+            if (enabled && mCallbackTimingStats == null) {
+                mCallbackTimingStats = new CallbackTimingStats(CALLBACK_TRACE_TITLES);
+            } else if (!enabled) {
+                mCallbackTimingStats = null;
+            }
+        }
+    }
+
+    /**
+     * Returns how long the callbacks run by this choreographer took, or null if they are not
+     * timed.
+     *
+     * @see #setCallbackTimingEnabled(boolean)
+     * @hide
+     */
+    public CallbackTimingStats getCallbackTimingStats() {
+        return mCallbackTimingStats;
+    }
+
     void dump(String prefix, PrintWriter writer) {
         String innerPrefix = prefix + "  ";
         writer.print(prefix); writer.println("Choreographer:");
@@ -353,6 +398,24 @@ public final class Choreographer {
                 writer.println(TimeUtils.formatUptime(mLastFrameTimeNanos / 1000000));
     }
 
+    /**
+     * Prints how long callbacks took, if they are timed.
+     *
+     * @param reset Whether to forget the times once printed.
+     */
+    void dumpCallbackTimings(String prefix, PrintWriter writer, boolean reset) {
+        final CallbackTimingStats stats = mCallbackTimingStats;
+        if (stats == null) {
+            return;
+        }
+        writer.print(prefix); writer.print("Choreographer callbacks on ");
+                writer.print(mLooper.getThread().getName()); writer.println(":");
+        stats.dump(prefix + "  ", writer);
+        if (reset) {
+            stats.reset();
+        }
+    }
+
     /**
      * Posts a callback to run on the next frame.
      * <p>
@@ -714,13 +777,21 @@ public final class Choreographer {
         }
         try {
             Trace.traceBegin(Trace.TRACE_TAG_VIEW, CALLBACK_TRACE_TITLES[callbackType]);
+            final CallbackTimingStats timingStats = mCallbackTimingStats;
             for (CallbackRecord c = callbacks; c != null; c = c.next) {
                 if (DEBUG_FRAMES) {
                     Log.d(TAG, "RunCallback: type=" + callbackType
                             + ", action=" + c.action + ", token=" + c.token
                             + ", latencyMillis=" + (SystemClock.uptimeMillis() - c.dueTime));
                 }
-                c.run(frameTimeNanos);
+                if (timingStats != null) {
+                    final long startNanos = System.nanoTime();
+                    c.run(frameTimeNanos);
+                    timingStats.record(callbackType, c.action.getClass(),
+                            System.nanoTime() - startNanos);
+                } else {
+                    c.run(frameTimeNanos);
+                }
             }
         } finally {
             synchronized (mLock) {
@@ -20,6 +20,8 @@ import android.annotation.LayoutRes;
 import android.annotation.Nullable;
 import android.annotation.SystemService;
 import android.content.Context;
+import android.content.res.AssetManager;
+import android.content.res.Configuration;
 import android.content.res.Resources;
 import android.content.res.TypedArray;
 import android.content.res.XmlResourceParser;
@@ -29,18 +31,23 @@ import android.os.Message;
 import android.os.Trace;
 import android.util.AttributeSet;
 import android.util.Log;
+import android.util.LruCache;
 import android.util.TypedValue;
 import android.util.Xml;
 import android.widget.FrameLayout;
 
 import com.android.internal.R;
+import com.android.internal.annotations.VisibleForTesting;
 
 import org.xmlpull.v1.XmlPullParser;
 import org.xmlpull.v1.XmlPullParserException;
 
 import java.io.IOException;
+import java.lang.ref.WeakReference;
 import java.lang.reflect.Constructor;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.WeakHashMap;
 
 /**
  * Instantiates a layout XML file into its corresponding {@link android.view.View}
@@ -97,6 +104,28 @@ public abstract class LayoutInflater {
 
     private TypedValue mTempValue;
 
+    /** Maximum number of inflation plans kept for each class loader. */
+    private static final int MAX_COMPILED_LAYOUTS = 64;
+
+    /**
+     * Inflation plans for layout resources, keyed by the class loader they were recorded
+     * against and then by resource id. Plans only hold their constructors weakly, so they go
+     * away along with the class loader. Guarded by itself.
+     */
+    private static final WeakHashMap<ClassLoader, LruCache<Integer, CompiledLayout>>
+            sCompiledLayouts = new WeakHashMap<>();
+
+    private boolean mPrecompiledLayouts;
+
+    /** Plan for the layout currently being inflated, or null. */
+    private LayoutCursor mCursor;
+
+    /** Constructor used by the most recent call to {@link #createView}. */
+    private Constructor<? extends View> mLastConstructor;
+
+    private Context mThemeCheckedContext;
+    private boolean mThemeCheckedResult;
+
     private static final String TAG_MERGE = "merge";
     private static final String TAG_INCLUDE = "include";
     private static final String TAG_1995 = "blink";
@@ -218,6 +247,7 @@ public abstract class LayoutInflater {
         mFactory = original.mFactory;
         mFactory2 = original.mFactory2;
         mPrivateFactory = original.mPrivateFactory;
+        mPrecompiledLayouts = original.mPrecompiledLayouts;
         setFilter(original.mFilter);
     }
 
@@ -359,6 +389,31 @@ public abstract class LayoutInflater {
         }
     }
 
+    /**
+     * Enables inflation plans for layouts inflated by resource id. The first inflation of a
+     * layout for a given configuration records, for every element, the constructor that
+     * created it and whether it can carry an {@code android:theme}; later inflations reuse
+     * that plan instead of resolving the class and the theme attribute again. The XML is
+     * still parsed, since the views themselves read their attributes from it.
+     * <p>
+     * Only the framework's own {@link #onCreateView} implementations are skipped on replay;
+     * an inflater that overrides it elsewhere still has it called for every element whose
+     * name is not fully qualified. Factories set on this inflater are consulted for every
+     * element.
+     *
+     * @hide
+     */
+    public void setPrecompiledLayoutsEnabled(boolean enabled) {
+        mPrecompiledLayouts = enabled;
+    }
+
+    /**
+     * @hide
+     */
+    public boolean isPrecompiledLayoutsEnabled() {
+        return mPrecompiledLayouts;
+    }
+
     /**
      * Inflate a new view hierarchy from the specified xml resource. Throws
      * {@link InflateException} if there is an error.
@@ -420,6 +475,9 @@ public abstract class LayoutInflater {
 
         final XmlResourceParser parser = res.getLayout(resource);
         try {
+            if (mPrecompiledLayouts) {
+                return inflate(parser, root, attachToRoot, obtainCursor(res, resource));
+            }
             return inflate(parser, root, attachToRoot);
         } finally {
             parser.close();
@@ -449,6 +507,11 @@ public abstract class LayoutInflater {
      *         the inflated XML file.
      */
     public View inflate(XmlPullParser parser, @Nullable ViewGroup root, boolean attachToRoot) {
+        return inflate(parser, root, attachToRoot, null);
+    }
+
+    private View inflate(XmlPullParser parser, @Nullable ViewGroup root, boolean attachToRoot,
+            LayoutCursor cursor) {
         synchronized (mConstructorArgs) {
             Trace.traceBegin(Trace.TRACE_TAG_VIEW, "inflate");
 
@@ -456,6 +519,8 @@ public abstract class LayoutInflater {
             final AttributeSet attrs = Xml.asAttributeSet(parser);
             Context lastContext = (Context) mConstructorArgs[0];
             mConstructorArgs[0] = inflaterContext;
+            final LayoutCursor lastCursor = mCursor;
+            mCursor = cursor;
             View result = root;
 
             try {
@@ -531,6 +596,9 @@ public abstract class LayoutInflater {
                     }
                 }
 
+                if (cursor != null) {
+                    cursor.finish();
+                }
             } catch (XmlPullParserException e) {
                 final InflateException ie = new InflateException(e.getMessage(), e);
                 ie.setStackTrace(EMPTY_STACK_TRACE);
@@ -544,6 +612,8 @@ public abstract class LayoutInflater {
                 // Don't retain static reference on context.
                 mConstructorArgs[0] = lastContext;
                 mConstructorArgs[1] = null;
+                mCursor = lastCursor;
+                mThemeCheckedContext = null;
 
                 Trace.traceEnd(Trace.TRACE_TAG_VIEW);
             }
@@ -645,6 +715,7 @@ public abstract class LayoutInflater {
             args[1] = attrs;
 
             final View view = constructor.newInstance(args);
+            mLastConstructor = constructor;
             if (view instanceof ViewStub) {
                 // Use the same context when inflating ViewStub later.
                 final ViewStub viewStub = (ViewStub) view;
@@ -751,8 +822,12 @@ public abstract class LayoutInflater {
             name = attrs.getAttributeValue(null, "class");
         }
 
+        final LayoutCursor cursor = mCursor;
+        final Step step = cursor != null ? cursor.next(name, attrs) : null;
+
         // Apply a theme wrapper, if allowed and one is specified.
-        if (!ignoreThemeAttr) {
+        if (!ignoreThemeAttr && (step == null || step.mNeedsTheme
+                || themeDefinesThemeAttr(context))) {
             final TypedArray ta = context.obtainStyledAttributes(attrs, ATTRS_THEME);
             final int themeResId = ta.getResourceId(0, 0);
             if (themeResId != 0) {
@@ -784,10 +859,20 @@ public abstract class LayoutInflater {
                 final Object lastContext = mConstructorArgs[0];
                 mConstructorArgs[0] = context;
                 try {
-                    if (-1 == name.indexOf('.')) {
-                        view = onCreateView(parent, name, attrs);
+                    if (step != null && cursor.canReplay(step) && mFilter == null
+                            && verifyClassLoader(step.mConstructor.get())) {
+                        view = createViewFromStep(step, context, attrs);
                     } else {
-                        view = createView(name, null, attrs);
+                        mLastConstructor = null;
+                        if (-1 == name.indexOf('.')) {
+                            view = onCreateView(parent, name, attrs);
+                        } else {
+                            view = createView(name, null, attrs);
+                        }
+                        if (cursor != null && view != null && mLastConstructor != null
+                                && mLastConstructor.getDeclaringClass() == view.getClass()) {
+                            cursor.recordConstructor(name, mLastConstructor);
+                        }
                     }
                 } finally {
                     mConstructorArgs[0] = lastContext;
@@ -941,6 +1026,10 @@ public abstract class LayoutInflater {
                         + "reference. The layout ID " + value + " is not valid.");
             } else {
                 final XmlResourceParser childParser = context.getResources().getLayout(layout);
+                final LayoutCursor lastCursor = mCursor;
+                final LayoutCursor cursor = mPrecompiledLayouts
+                        ? obtainCursor(context.getResources(), layout) : null;
+                mCursor = cursor;
 
                 try {
                     final AttributeSet childAttrs = Xml.asAttributeSet(childParser);
@@ -1012,7 +1101,12 @@ public abstract class LayoutInflater {
 
                         group.addView(view);
                     }
+
+                    if (cursor != null) {
+                        cursor.finish();
+                    }
                 } finally {
+                    mCursor = lastCursor;
                     childParser.close();
                 }
             }
@@ -1037,6 +1131,226 @@ public abstract class LayoutInflater {
         }
     }
 
+    /**
+     * Instantiates the view recorded in an inflation plan, bypassing the class lookup done by
+     * {@link #createView}. The caller has already placed the inflation context in
+     * {@link #mConstructorArgs}.
+     */
+    private View createViewFromStep(Step step, Context context, AttributeSet attrs)
+            throws Exception {
+        Trace.traceBegin(Trace.TRACE_TAG_VIEW, step.mName);
+        try {
+            final Object[] args = mConstructorArgs;
+            args[1] = attrs;
+            final View view = step.mConstructor.get().newInstance(args);
+            if (view instanceof ViewStub) {
+                // Use the same context when inflating ViewStub later.
+                final ViewStub viewStub = (ViewStub) view;
+                viewStub.setLayoutInflater(cloneInContext(context));
+            }
+            return view;
+        } finally {
+            Trace.traceEnd(Trace.TRACE_TAG_VIEW);
+        }
+    }
+
+    /**
+     * Returns whether the theme of {@code context} itself supplies {@code android:theme}, in
+     * which case every element gets a theme wrapper regardless of its own attributes.
+     */
+    private boolean themeDefinesThemeAttr(Context context) {
+        if (context != mThemeCheckedContext) {
+            if (mTempValue == null) {
+                mTempValue = new TypedValue();
+            }
+            mThemeCheckedResult = context.getTheme().resolveAttribute(
+                    R.attr.theme, mTempValue, false);
+            mThemeCheckedContext = context;
+        }
+        return mThemeCheckedResult;
+    }
+
+    /**
+     * Returns the plan to follow while inflating {@code resource}: the cached one if it was
+     * recorded against the same class loader, assets and configuration, otherwise an empty
+     * plan that records this inflation.
+     */
+    private LayoutCursor obtainCursor(Resources res, int resource) {
+        final AssetManager assets = res.getAssets();
+        final Configuration config = res.getConfiguration();
+        final ClassLoader classLoader = mContext.getClassLoader();
+        // Subclasses from outside the framework may pick a different class for a short name
+        // on every call, so their onCreateView() is never replayed.
+        final boolean frameworkOnCreateView = getClass().getClassLoader() == BOOT_CLASS_LOADER;
+        final CompiledLayout layout = getCompiledLayout(classLoader, resource);
+        if (layout != null && layout.mAssets.get() == assets && layout.mConfig.equals(config)) {
+            return new LayoutCursor(resource, layout, null, null, classLoader,
+                    frameworkOnCreateView);
+        }
+        return new LayoutCursor(resource, null, assets, new Configuration(config), classLoader,
+                frameworkOnCreateView);
+    }
+
+    /**
+     * Inflates {@code parser} following the plan of {@code resource}, as if it were the XML
+     * of that resource.
+     */
+    @VisibleForTesting
+    View inflate(XmlPullParser parser, @LayoutRes int resource, @Nullable ViewGroup root,
+            boolean attachToRoot) {
+        return inflate(parser, root, attachToRoot,
+                obtainCursor(getContext().getResources(), resource));
+    }
+
+    @VisibleForTesting
+    static CompiledLayout getCompiledLayout(ClassLoader classLoader, @LayoutRes int resource) {
+        synchronized (sCompiledLayouts) {
+            final LruCache<Integer, CompiledLayout> layouts = sCompiledLayouts.get(classLoader);
+            return layouts != null ? layouts.get(resource) : null;
+        }
+    }
+
+    /**
+     * What an inflation plan knows about one element of a layout.
+     */
+    @VisibleForTesting
+    static final class Step {
+        final String mName;
+        /** Whether the element has a theme or style attribute that may set a theme. */
+        final boolean mNeedsTheme;
+        /**
+         * Constructor that created the element, or null if it must be resolved by name. Held
+         * weakly so that the plan does not keep its class loader alive.
+         */
+        WeakReference<Constructor<? extends View>> mConstructor;
+
+        Step(String name, boolean needsTheme) {
+            mName = name;
+            mNeedsTheme = needsTheme;
+        }
+    }
+
+    /**
+     * Inflation plan for one layout resource: its elements in document order, along with the
+     * assets and configuration they were recorded against.
+     */
+    @VisibleForTesting
+    static final class CompiledLayout {
+        final WeakReference<AssetManager> mAssets;
+        final Configuration mConfig;
+        final Step[] mSteps;
+
+        CompiledLayout(AssetManager assets, Configuration config, Step[] steps) {
+            mAssets = new WeakReference<>(assets);
+            mConfig = config;
+            mSteps = steps;
+        }
+    }
+
+    /**
+     * Position within a layout being inflated. Either replays a {@link CompiledLayout} or
+     * records a new one, which is published by {@link #finish} once inflation succeeds.
+     */
+    private static final class LayoutCursor {
+        private final int mResource;
+        private final CompiledLayout mLayout;
+        private final AssetManager mAssets;
+        private final Configuration mConfig;
+        private final ClassLoader mClassLoader;
+        private final boolean mFrameworkOnCreateView;
+        private final ArrayList<Step> mRecorded;
+        private int mIndex;
+        private boolean mMismatch;
+
+        LayoutCursor(int resource, CompiledLayout layout, AssetManager assets,
+                Configuration config, ClassLoader classLoader, boolean frameworkOnCreateView) {
+            mResource = resource;
+            mLayout = layout;
+            mAssets = assets;
+            mConfig = config;
+            mClassLoader = classLoader;
+            mFrameworkOnCreateView = frameworkOnCreateView;
+            mRecorded = layout == null ? new ArrayList<>() : null;
+        }
+
+        /**
+         * Returns whether an element named {@code name} is created the same way by every
+         * inflater that shares the plan: either createView() resolves it directly, or the
+         * framework's onCreateView() adds a package to it.
+         */
+        private boolean isReplayable(String name) {
+            return mFrameworkOnCreateView || name.indexOf('.') != -1;
+        }
+
+        /** Returns whether the recorded constructor of {@code step} may be used. */
+        boolean canReplay(Step step) {
+            return step.mConstructor != null && step.mConstructor.get() != null
+                    && isReplayable(step.mName);
+        }
+
+        /**
+         * Advances to the next element. Returns its recorded step when replaying, or null
+         * when recording or once the layout no longer matches its plan.
+         */
+        Step next(String name, AttributeSet attrs) {
+            if (mRecorded != null) {
+                mRecorded.add(new Step(name, hasThemeOrStyle(attrs)));
+                return null;
+            }
+            if (mMismatch) {
+                return null;
+            }
+            final Step[] steps = mLayout.mSteps;
+            if (mIndex < steps.length && steps[mIndex].mName.equals(name)) {
+                return steps[mIndex++];
+            }
+            mMismatch = true;
+            return null;
+        }
+
+        void recordConstructor(String name, Constructor<? extends View> constructor) {
+            if (mRecorded != null && !mRecorded.isEmpty() && isReplayable(name)) {
+                mRecorded.get(mRecorded.size() - 1).mConstructor =
+                        new WeakReference<Constructor<? extends View>>(constructor);
+            }
+        }
+
+        void finish() {
+            if (mRecorded != null) {
+                final CompiledLayout layout = new CompiledLayout(mAssets, mConfig,
+                        mRecorded.toArray(new Step[mRecorded.size()]));
+                synchronized (sCompiledLayouts) {
+                    LruCache<Integer, CompiledLayout> layouts = sCompiledLayouts.get(mClassLoader);
+                    if (layouts == null) {
+                        layouts = new LruCache<>(MAX_COMPILED_LAYOUTS);
+                        sCompiledLayouts.put(mClassLoader, layouts);
+                    }
+                    layouts.put(mResource, layout);
+                }
+            } else if (mMismatch || mIndex != mLayout.mSteps.length) {
+                synchronized (sCompiledLayouts) {
+                    final LruCache<Integer, CompiledLayout> layouts =
+                            sCompiledLayouts.get(mClassLoader);
+                    if (layouts != null && layouts.get(mResource) == mLayout) {
+                        layouts.remove(mResource);
+                    }
+                }
+            }
+        }
+
+        private static boolean hasThemeOrStyle(AttributeSet attrs) {
+            if (attrs.getStyleAttribute() != 0) {
+                return true;
+            }
+            for (int i = attrs.getAttributeCount() - 1; i >= 0; i--) {
+                if (attrs.getAttributeNameResource(i) == R.attr.theme) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
     private static class BlinkLayout extends FrameLayout {
         private static final int MESSAGE_BLINK = 0x42;
         private static final int BLINK_DELAY = 500;
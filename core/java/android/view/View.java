@@ -3167,6 +3167,14 @@ public class View implements Drawable.Callback, KeyEvent.Callback,
      */
     static final int PFLAG3_NOTIFY_AUTOFILL_ENTER_ON_LAYOUT = 0x8000000;
 
+    /**
+     * Flag indicating that this view and its descendants may be measured on a thread other than
+     * the UI thread, concurrently with their siblings.
+     *
+     * @see #setMeasureThreadSafe(boolean)
+     */
+    private static final int PFLAG3_MEASURE_THREAD_SAFE = 0x10000000;
+
     /* End of masks for mPrivateFlags3 */
 
     /**
@@ -15504,6 +15512,7 @@ public class View implements Drawable.Callback, KeyEvent.Callback,
 
     void invalidateInternal(int l, int t, int r, int b, boolean invalidateCache,
             boolean fullInvalidate) {
+        ViewGroup.checkNotMeasuringInParallel("invalidate()");
         if (mGhostView != null) {
             mGhostView.invalidate(true);
             return;
@@ -19601,6 +19610,37 @@ public class View implements Drawable.Callback, KeyEvent.Callback,
         return (mPrivateFlags & PFLAG_FORCE_LAYOUT) == PFLAG_FORCE_LAYOUT;
     }
 
+    /**
+     * Declares whether this view and its descendants can be measured off the UI thread, in
+     * parallel with their siblings, by a parent that has parallel measurement enabled. This is
+     * the case when measuring the subtree only changes the state of the views in it: it must not
+     * request a layout, invalidate, or touch state shared with other views, such as the view
+     * tree observer. TextView, for one, does not qualify. In debuggable builds, doing any of
+     * these on a worker thread throws an {@link IllegalStateException}.
+     *
+     * @param measureThreadSafe Whether the subtree can be measured in parallel.
+     *
+     * @see ViewGroup#setParallelMeasureEnabled(boolean)
+     * @hide
+     */
+    public void setMeasureThreadSafe(boolean measureThreadSafe) {
+        if (measureThreadSafe) {
+            mPrivateFlags3 |= PFLAG3_MEASURE_THREAD_SAFE;
+        } else {
+            mPrivateFlags3 &= ~PFLAG3_MEASURE_THREAD_SAFE;
+        }
+    }
+
+    /**
+     * @return Whether this view and its descendants can be measured off the UI thread.
+     *
+     * @see #setMeasureThreadSafe(boolean)
+     * @hide
+     */
+    public boolean isMeasureThreadSafe() {
+        return (mPrivateFlags3 & PFLAG3_MEASURE_THREAD_SAFE) != 0;
+    }
+
     /**
      * Return true if o is a ViewGroup that is laying out using optical bounds.
      * @hide
@@ -21974,6 +22014,7 @@ public class View implements Drawable.Callback, KeyEvent.Callback,
      */
     @CallSuper
     public void requestLayout() {
+        ViewGroup.checkNotMeasuringInParallel("requestLayout()");
         if (mMeasureCache != null) mMeasureCache.clear();
 
         if (mAttachInfo != null && mAttachInfo.mViewRequestingLayout == null) {
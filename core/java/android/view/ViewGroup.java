@@ -43,6 +43,7 @@ import android.graphics.Region;
 import android.os.Build;
 import android.os.Bundle;
 import android.os.Parcelable;
+import android.os.Process;
 import android.os.SystemClock;
 import android.util.AttributeSet;
 import android.util.Log;
@@ -66,6 +67,11 @@ import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.Predicate;
 
 /**
@@ -412,6 +418,13 @@ public abstract class ViewGroup extends View implements ViewParent, ViewManager
      */
     private static final int FLAG_SHOW_CONTEXT_MENU_WITH_COORDS = 0x20000000;
 
+    /**
+     * When set, the children that declared thread safe measurement are measured in parallel.
+     *
+     * @see #setParallelMeasureEnabled(boolean)
+     */
+    private static final int FLAG_PARALLEL_MEASURE = 0x40000000;
+
     /**
      * Indicates which types of drawing caches are to be kept in memory.
      * This field should be made private, so it is hidden from the SDK.
@@ -492,6 +505,14 @@ public abstract class ViewGroup extends View implements ViewParent, ViewManager
 
     private static float[] sDebugLines;
 
+    // Measures children for parallel measurement. The UI thread measures one of the children
+    // itself, so a few threads are enough to keep it from waiting on the others.
+    private static final int MAX_PARALLEL_MEASURE_THREADS = 3;
+    private static ExecutorService sParallelMeasureExecutor;
+
+    // Whether to fail views that break the parallel measurement contract on a worker thread.
+    private static final boolean CHECK_PARALLEL_MEASURE = Build.IS_DEBUGGABLE;
+
     // Used to draw cached views
     Paint mCachePaint;
 
@@ -6532,6 +6553,168 @@ public abstract class ViewGroup extends View implements ViewParent, ViewManager
         return mChildren[index];
     }
 
+    /**
+     * Enables or disables measuring the children that declared thread safe measurement with
+     * {@link View#setMeasureThreadSafe(boolean)} in parallel, on a small pool of worker threads.
+     * Only layouts that give every child the same space regardless of its siblings, such as
+     * FrameLayout, take advantage of it; this is worth it when such a layout holds several
+     * expensive subtrees, like the panes of a multi-pane layout.
+     *
+     * @param enabled Whether to measure children in parallel.
+     *
+     * @see #measureChildrenWithMarginsInParallel(int, int, boolean)
+     * @hide
+     */
+    public void setParallelMeasureEnabled(boolean enabled) {
+        setBooleanFlag(FLAG_PARALLEL_MEASURE, enabled);
+    }
+
+    /**
+     * @return Whether the children that declared thread safe measurement are measured in
+     *         parallel.
+     *
+     * @see #setParallelMeasureEnabled(boolean)
+     * @hide
+     */
+    public boolean isParallelMeasureEnabled() {
+        return (mGroupFlags & FLAG_PARALLEL_MEASURE) == FLAG_PARALLEL_MEASURE;
+    }
+
+    /**
+     * Measures the children that declared thread safe measurement the way
+     * {@link #measureChildWithMargins(View, int, int, int, int)} does with no space used, in
+     * parallel if it is enabled. One of the children is measured on the calling thread, and this
+     * returns once all of them are measured. If measuring children throws, the exception of the
+     * first of them in child order is rethrown.
+     *
+     * @param widthMeasureSpec The width requirements for this view
+     * @param heightMeasureSpec The height requirements for this view
+     * @param measureGoneChildren Whether children in the GONE state are measured too
+     * @return Whether the children that declared thread safe measurement were measured, in which
+     *         case the caller must not measure them again. This is false if parallel
+     *         measurement is disabled, if fewer than two children can be measured in parallel,
+     *         or if this is called from a worker thread, since nested parallel measurement
+     *         could leave the pool waiting on itself.
+     *
+     * @hide
+     */
+    protected boolean measureChildrenWithMarginsInParallel(int widthMeasureSpec,
+            int heightMeasureSpec, boolean measureGoneChildren) {
+        if ((mGroupFlags & FLAG_PARALLEL_MEASURE) == 0
+                || Thread.currentThread() instanceof ParallelMeasureThread) {
+            return false;
+        }
+        final int count = mChildrenCount;
+        final View[] children = mChildren;
+        int parallelCount = 0;
+        for (int i = 0; i < count; i++) {
+            if (canMeasureInParallel(children[i], measureGoneChildren)) {
+                parallelCount++;
+            }
+        }
+        if (parallelCount < 2) {
+            return false;
+        }
+
+        final ExecutorService executor = getParallelMeasureExecutor();
+        final Future<?>[] futures = new Future<?>[parallelCount - 1];
+        View firstChild = null;
+        int futureCount = 0;
+        for (int i = 0; i < count; i++) {
+            final View child = children[i];
+            if (!canMeasureInParallel(child, measureGoneChildren)) {
+                continue;
+            }
+            if (firstChild == null) {
+                firstChild = child;
+            } else {
+                futures[futureCount++] = executor.submit(() -> measureChildWithMargins(child,
+                        widthMeasureSpec, 0, heightMeasureSpec, 0));
+            }
+        }
+
+        Throwable failure = null;
+        try {
+            measureChildWithMargins(firstChild, widthMeasureSpec, 0, heightMeasureSpec, 0);
+        } catch (RuntimeException | Error e) {
+            failure = e;
+        }
+        // Wait for every child, even after a failure, so that none is still being measured
+        // once this returns.
+        boolean interrupted = false;
+        for (int i = 0; i < futureCount; i++) {
+            while (true) {
+                try {
+                    futures[i].get();
+                    break;
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                } catch (ExecutionException e) {
+                    if (failure == null) {
+                        failure = e.getCause();
+                    }
+                    break;
+                }
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        if (failure instanceof RuntimeException) {
+            throw (RuntimeException) failure;
+        }
+        if (failure instanceof Error) {
+            throw (Error) failure;
+        }
+        return true;
+    }
+
+    private static boolean canMeasureInParallel(View child, boolean measureGoneChildren) {
+        return child.isMeasureThreadSafe()
+                && (measureGoneChildren || (child.mViewFlags & VISIBILITY_MASK) != GONE);
+    }
+
+    private static synchronized ExecutorService getParallelMeasureExecutor() {
+        if (sParallelMeasureExecutor == null) {
+            final int threadCount = Math.max(1, Math.min(MAX_PARALLEL_MEASURE_THREADS,
+                    Runtime.getRuntime().availableProcessors() - 1));
+            final AtomicInteger threadIndex = new AtomicInteger();
+            sParallelMeasureExecutor = Executors.newFixedThreadPool(threadCount,
+                    r -> new ParallelMeasureThread(r, threadIndex.incrementAndGet()));
+        }
+        return sParallelMeasureExecutor;
+    }
+
+    /**
+     * In debuggable builds, throws if called while measuring in parallel on a worker thread.
+     * Views that declared thread safe measurement must not change state shared with the rest of
+     * the tree while they are measured.
+     *
+     * @param operation What was attempted, for the exception message.
+     */
+    static void checkNotMeasuringInParallel(String operation) {
+        if (CHECK_PARALLEL_MEASURE && Thread.currentThread() instanceof ParallelMeasureThread) {
+            throw new IllegalStateException(operation + " while measuring in parallel; a view"
+                    + " that does this must not be set to measure thread safe");
+        }
+    }
+
+    /**
+     * A worker of {@link #measureChildrenWithMarginsInParallel(int, int, boolean)}. It runs at
+     * display priority, since the UI thread waits on it to draw a frame.
+     */
+    private static final class ParallelMeasureThread extends Thread {
+        ParallelMeasureThread(Runnable runnable, int index) {
+            super(runnable, "ParallelMeasure" + index);
+        }
+
+        @Override
+        public void run() {
+            Process.setThreadPriority(Process.THREAD_PRIORITY_DISPLAY);
+            super.run();
+        }
+    }
+
     /**
      * Ask all of the children of this view to measure themselves, taking into
      * account both the MeasureSpec requirements for this view and its padding.
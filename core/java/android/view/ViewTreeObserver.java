@@ -846,6 +846,8 @@ public final class ViewTreeObserver {
     }
 
     private void checkIsAlive() {
+        // Every listener change goes through here, and the listeners are shared by the tree.
+        ViewGroup.checkNotMeasuringInParallel("Changing ViewTreeObserver listeners");
         if (!mAlive) {
             throw new IllegalStateException("This ViewTreeObserver is not alive, call "
                     + "getViewTreeObserver() again");
@@ -31,6 +31,7 @@ import android.util.ArraySet;
 import android.util.Log;
 import android.view.inputmethod.InputMethodManager;
 
+import com.android.internal.util.ArrayUtils;
 import com.android.internal.util.FastPrintWriter;
 
 import java.io.FileDescriptor;
@@ -591,6 +592,19 @@ public final class WindowManagerGlobal {
                 pw.printf("\nTotal ViewRootImpl: %d\n", count);
                 pw.printf("Total Views:        %d\n", viewsCount);
                 pw.printf("Total DisplayList:  %.2f kB\n\n", displayListsSize / 1024.0f);
+
+                // Windows on the same thread share their choreographer.
+                final boolean reset = ArrayUtils.contains(args, "reset");
+                for (int i = 0; i < count; i++) {
+                    final Choreographer choreographer = mRoots.get(i).mChoreographer;
+                    boolean dumped = false;
+                    for (int j = 0; j < i && !dumped; j++) {
+                        dumped = mRoots.get(j).mChoreographer == choreographer;
+                    }
+                    if (!dumped) {
+                        choreographer.dumpCallbackTimings("", pw, reset);
+                    }
+                }
             }
         } finally {
             pw.flush();
@@ -66,6 +66,18 @@ public final class AccessibilityCache {
 
     private final AccessibilityNodeRefresher mAccessibilityNodeRefresher;
 
+    private final boolean mIncrementalSubtreeUpdates;
+
+    // The subtrees being fetched again, which is done without holding mLock.
+    private final ArrayList<SubtreeRefresh> mSubtreeRefreshes = new ArrayList<>();
+
+    // The roots of the subtrees that changed since they were cached, by window. They are
+    // fetched again when a node in them is next asked for.
+    private final SparseArray<LongArray> mStaleSubtreeRoots = new SparseArray<>();
+
+    private int mNodeHitCount;
+    private int mNodeMissCount;
+
     private long mAccessibilityFocus = AccessibilityNodeInfo.UNDEFINED_ITEM_ID;
     private long mInputFocus = AccessibilityNodeInfo.UNDEFINED_ITEM_ID;
 
@@ -81,7 +93,21 @@ public final class AccessibilityCache {
             new SparseArray<>();
 
     public AccessibilityCache(AccessibilityNodeRefresher nodeRefresher) {
+        this(nodeRefresher, false);
+    }
+
+    /**
+     * @param nodeRefresher Fetches the latest state of nodes.
+     * @param incrementalSubtreeUpdates Whether a subtree that changed is fetched again in one
+     *        batch and updated in place, rather than evicted to be fetched node by node as the
+     *        service asks for it. The subtree is only marked stale when it changes, and is
+     *        fetched again the next time a node in it is asked for, so that a burst of changes
+     *        costs one fetch. Only the nodes that are not part of the new batch are evicted.
+     */
+    public AccessibilityCache(AccessibilityNodeRefresher nodeRefresher,
+            boolean incrementalSubtreeUpdates) {
         mAccessibilityNodeRefresher = nodeRefresher;
+        mIncrementalSubtreeUpdates = incrementalSubtreeUpdates;
     }
 
     public void setWindows(List<AccessibilityWindowInfo> windows) {
@@ -165,7 +191,7 @@ public final class AccessibilityCache {
                         final long sourceId = event.getSourceNodeId();
                         if ((event.getContentChangeTypes()
                                 & AccessibilityEvent.CONTENT_CHANGE_TYPE_SUBTREE) != 0) {
-                            clearSubTreeLocked(windowId, sourceId);
+                            updateSubTreeLocked(windowId, sourceId);
                         } else {
                             refreshCachedNodeLocked(windowId, sourceId);
                         }
@@ -173,7 +199,7 @@ public final class AccessibilityCache {
                 } break;
 
                 case AccessibilityEvent.TYPE_VIEW_SCROLLED: {
-                    clearSubTreeLocked(event.getWindowId(), event.getSourceNodeId());
+                    updateSubTreeLocked(event.getWindowId(), event.getSourceNodeId());
                 } break;
 
                 case AccessibilityEvent.TYPE_WINDOWS_CHANGED:
@@ -210,6 +236,150 @@ public final class AccessibilityCache {
         clearSubTreeLocked(windowId, sourceId);
     }
 
+    /**
+     * Notes that the structure of a subtree changed, either by marking it stale so that it is
+     * fetched again when it is next read, or by evicting it.
+     */
+    private void updateSubTreeLocked(int windowId, long rootNodeId) {
+        if (!mIncrementalSubtreeUpdates) {
+            clearSubTreeLocked(windowId, rootNodeId);
+            return;
+        }
+        LongSparseArray<AccessibilityNodeInfo> nodes = mNodeCache.get(windowId);
+        // If the root is not in the cache - nothing to do.
+        if (nodes == null || nodes.get(rootNodeId) == null) {
+            return;
+        }
+        LongArray staleRoots = mStaleSubtreeRoots.get(windowId);
+        if (staleRoots == null) {
+            staleRoots = new LongArray();
+            mStaleSubtreeRoots.put(windowId, staleRoots);
+        }
+        if (staleRoots.indexOf(rootNodeId) < 0) {
+            staleRoots.add(rootNodeId);
+        }
+        for (int i = mSubtreeRefreshes.size() - 1; i >= 0; i--) {
+            final SubtreeRefresh refresh = mSubtreeRefreshes.get(i);
+            if (refresh.mWindowId == windowId) {
+                refresh.mChangedRootIds.add(rootNodeId);
+            }
+        }
+    }
+
+    /**
+     * Returns the outermost stale subtree root that is the given node or one of its cached
+     * ancestors, or {@link AccessibilityNodeInfo#UNDEFINED_NODE_ID} if the node is up to date.
+     */
+    private long findStaleSubtreeRootLocked(int windowId,
+            LongSparseArray<AccessibilityNodeInfo> nodes, long nodeId) {
+        final LongArray staleRoots = mStaleSubtreeRoots.get(windowId);
+        long staleRootId = AccessibilityNodeInfo.UNDEFINED_NODE_ID;
+        if (staleRoots == null) {
+            return staleRootId;
+        }
+        AccessibilityNodeInfo current = nodes.get(nodeId);
+        // Bounded by the cache size in case the app gave us a cycle.
+        for (int i = nodes.size(); current != null && i > 0; i--) {
+            final long currentId = current.getSourceNodeId();
+            if (staleRoots.indexOf(currentId) >= 0) {
+                staleRootId = currentId;
+            }
+            current = nodes.get(current.getParentNodeId());
+        }
+        return staleRootId;
+    }
+
+    /**
+     * Returns the refresh in progress of the given subtree, or null if there is none.
+     */
+    private SubtreeRefresh findSubtreeRefreshLocked(int windowId, long rootNodeId) {
+        for (int i = mSubtreeRefreshes.size() - 1; i >= 0; i--) {
+            final SubtreeRefresh refresh = mSubtreeRefreshes.get(i);
+            if (refresh.mWindowId == windowId && refresh.mRootNodeId == rootNodeId) {
+                return refresh;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Fetches a stale subtree again in one batch. Must not be called with mLock held, as the
+     * fetch is a blocking call to the app. The fetched nodes come back through {@link #add}.
+     */
+    private void refreshStaleSubTree(SubtreeRefresh refresh, AccessibilityNodeInfo root) {
+        if (DEBUG) {
+            Log.i(LOG_TAG, "Refreshing cached subtree.");
+        }
+        boolean refreshed = false;
+        try {
+            refreshed = mAccessibilityNodeRefresher.refreshSubtree(root);
+        } finally {
+            root.recycle();
+            synchronized (mLock) {
+                mSubtreeRefreshes.remove(refresh);
+                finishStaleSubTreeRefreshLocked(refresh, refreshed);
+            }
+        }
+    }
+
+    /**
+     * Updates a refreshed subtree in place, or evicts it if it could not be fetched, and clears
+     * the stale markers the refresh covered.
+     */
+    private void finishStaleSubTreeRefreshLocked(SubtreeRefresh refresh, boolean refreshed) {
+        final LongSparseArray<AccessibilityNodeInfo> nodes = mNodeCache.get(refresh.mWindowId);
+        if (nodes == null) {
+            return;
+        }
+        final long rootNodeId = refresh.mRootNodeId;
+        final LongArray refreshedNodeIds = refresh.mAddedNodeIds;
+        if (!refreshed || refreshedNodeIds.indexOf(rootNodeId) < 0) {
+            clearSubTreeRecursiveLocked(nodes, rootNodeId);
+        } else {
+            // Nodes too deep to fit in the batch may be stale.
+            clearStaleDescendantsLocked(nodes, rootNodeId, refreshedNodeIds);
+        }
+
+        // The subtrees that were fetched again or evicted are no longer stale, unless they
+        // changed again while they were being fetched.
+        final LongArray staleRoots = mStaleSubtreeRoots.get(refresh.mWindowId);
+        if (staleRoots == null) {
+            return;
+        }
+        for (int i = staleRoots.size() - 1; i >= 0; i--) {
+            final long staleRootId = staleRoots.get(i);
+            if (refresh.mChangedRootIds.indexOf(staleRootId) >= 0) {
+                continue;
+            }
+            if (nodes.get(staleRootId) == null || refreshedNodeIds.indexOf(staleRootId) >= 0) {
+                staleRoots.remove(i);
+            }
+        }
+        if (staleRoots.size() == 0) {
+            mStaleSubtreeRoots.remove(refresh.mWindowId);
+        }
+    }
+
+    /**
+     * Evicts the descendants of a refreshed node that were not refreshed along with it.
+     */
+    private void clearStaleDescendantsLocked(LongSparseArray<AccessibilityNodeInfo> nodes,
+            long nodeId, LongArray refreshedNodeIds) {
+        AccessibilityNodeInfo current = nodes.get(nodeId);
+        if (current == null) {
+            return;
+        }
+        final int childCount = current.getChildCount();
+        for (int i = 0; i < childCount; i++) {
+            final long childNodeId = current.getChildId(i);
+            if (refreshedNodeIds.indexOf(childNodeId) < 0) {
+                clearSubTreeRecursiveLocked(nodes, childNodeId);
+            } else {
+                clearStaleDescendantsLocked(nodes, childNodeId, refreshedNodeIds);
+            }
+        }
+    }
+
     /**
      * Gets a cached {@link AccessibilityNodeInfo} given the id of the hosting
      * window and the accessibility id of the node.
@@ -219,21 +389,84 @@ public final class AccessibilityCache {
      * @return The cached {@link AccessibilityNodeInfo} or null if such not found.
      */
     public AccessibilityNodeInfo getNode(int windowId, long accessibilityNodeId) {
+        final SubtreeRefresh refresh;
+        final AccessibilityNodeInfo staleRoot;
         synchronized(mLock) {
             LongSparseArray<AccessibilityNodeInfo> nodes = mNodeCache.get(windowId);
             if (nodes == null) {
+                mNodeMissCount++;
                 return null;
             }
-            AccessibilityNodeInfo info = nodes.get(accessibilityNodeId);
-            if (info != null) {
-                // Return a copy since the client calls to AccessibilityNodeInfo#recycle()
-                // will wipe the data of the cached info.
-                info = AccessibilityNodeInfo.obtain(info);
+            final long staleRootId =
+                    findStaleSubtreeRootLocked(windowId, nodes, accessibilityNodeId);
+            if (staleRootId == AccessibilityNodeInfo.UNDEFINED_NODE_ID) {
+                return getNodeLocked(nodes, accessibilityNodeId, true);
             }
-            if (DEBUG) {
-                Log.i(LOG_TAG, "get(" + accessibilityNodeId + ") = " + info);
+            // The node may have changed since it was cached, so it has to be fetched from the
+            // app either way.
+            mNodeMissCount++;
+            if (findSubtreeRefreshLocked(windowId, staleRootId) != null) {
+                // Already being fetched by another thread.
+                return null;
+            }
+            refresh = new SubtreeRefresh(windowId, staleRootId);
+            mSubtreeRefreshes.add(refresh);
+            staleRoot = AccessibilityNodeInfo.obtain(nodes.get(staleRootId));
+        }
+
+        refreshStaleSubTree(refresh, staleRoot);
+
+        synchronized (mLock) {
+            final LongSparseArray<AccessibilityNodeInfo> nodes = mNodeCache.get(windowId);
+            if (nodes == null) {
+                return null;
             }
-            return info;
+            return getNodeLocked(nodes, accessibilityNodeId, false);
+        }
+    }
+
+    /**
+     * Returns a copy of a cached node, or null if it is not cached.
+     *
+     * @param count Whether to count the lookup as a hit or a miss.
+     */
+    private AccessibilityNodeInfo getNodeLocked(LongSparseArray<AccessibilityNodeInfo> nodes,
+            long accessibilityNodeId, boolean count) {
+        AccessibilityNodeInfo info = nodes.get(accessibilityNodeId);
+        if (info != null) {
+            // Return a copy since the client calls to AccessibilityNodeInfo#recycle()
+            // will wipe the data of the cached info.
+            info = AccessibilityNodeInfo.obtain(info);
+        }
+        if (count) {
+            if (info != null) {
+                mNodeHitCount++;
+            } else {
+                mNodeMissCount++;
+            }
+        }
+        if (DEBUG) {
+            Log.i(LOG_TAG, "get(" + accessibilityNodeId + ") = " + info);
+        }
+        return info;
+    }
+
+    /**
+     * Returns how many {@link #getNode} calls found the node in the cache.
+     */
+    public int getNodeHitCount() {
+        synchronized (mLock) {
+            return mNodeHitCount;
+        }
+    }
+
+    /**
+     * Returns how many {@link #getNode} calls did not find the node in the cache, and so had to
+     * fetch it from the app.
+     */
+    public int getNodeMissCount() {
+        synchronized (mLock) {
+            return mNodeMissCount;
         }
     }
 
@@ -336,6 +569,12 @@ public final class AccessibilityCache {
             // will wipe the data of the cached info.
             AccessibilityNodeInfo clone = AccessibilityNodeInfo.obtain(info);
             nodes.put(sourceId, clone);
+            for (int i = mSubtreeRefreshes.size() - 1; i >= 0; i--) {
+                final SubtreeRefresh refresh = mSubtreeRefreshes.get(i);
+                if (refresh.mWindowId == windowId) {
+                    refresh.mAddedNodeIds.add(sourceId);
+                }
+            }
             if (clone.isAccessibilityFocused()) {
                 mAccessibilityFocus = sourceId;
             }
@@ -394,6 +633,7 @@ public final class AccessibilityCache {
             info.recycle();
         }
         mNodeCache.remove(windowId);
+        mStaleSubtreeRoots.remove(windowId);
     }
 
     /**
@@ -556,10 +796,45 @@ public final class AccessibilityCache {
         }
     }
 
+    /**
+     * A stale subtree being fetched again.
+     */
+    private static final class SubtreeRefresh {
+        final int mWindowId;
+        final long mRootNodeId;
+        // The ids of the nodes of the window added to the cache since the fetch started.
+        final LongArray mAddedNodeIds = new LongArray();
+        // The roots of the subtrees of the window that changed since the fetch started.
+        final LongArray mChangedRootIds = new LongArray();
+
+        SubtreeRefresh(int windowId, long rootNodeId) {
+            mWindowId = windowId;
+            mRootNodeId = rootNodeId;
+        }
+    }
+
     // Layer of indirection included to break dependency chain for testing
     public static class AccessibilityNodeRefresher {
         public boolean refreshNode(AccessibilityNodeInfo info, boolean bypassCache) {
             return info.refresh(null, bypassCache);
         }
+
+        /**
+         * Fetches a node along with as many of its descendants as fit in one batch. The fetched
+         * nodes are added to the cache.
+         *
+         * @return Whether the node is still in the view tree.
+         */
+        public boolean refreshSubtree(AccessibilityNodeInfo root) {
+            AccessibilityNodeInfo refreshedRoot = AccessibilityInteractionClient.getInstance()
+                    .findAccessibilityNodeInfoByAccessibilityId(root.getConnectionId(),
+                            root.getWindowId(), root.getSourceNodeId(), true,
+                            AccessibilityNodeInfo.FLAG_PREFETCH_DESCENDANTS, null);
+            if (refreshedRoot == null) {
+                return false;
+            }
+            refreshedRoot.recycle();
+            return true;
+        }
     }
 }
@@ -24,6 +24,7 @@ import android.os.Message;
 import android.os.Process;
 import android.os.RemoteException;
 import android.os.SystemClock;
+import android.os.SystemProperties;
 import android.util.Log;
 import android.util.LongSparseArray;
 import android.util.SparseArray;
@@ -103,8 +104,29 @@ public final class AccessibilityInteractionClient
     private static final SparseArray<IAccessibilityServiceConnection> sConnectionCache =
         new SparseArray<>();
 
+    // Whether subtrees that change are fetched again in one batch when they are next read,
+    // rather than evicted and fetched node by node as the service walks them again. Off by
+    // default.
+    private static final boolean INCREMENTAL_SUBTREE_UPDATES =
+            SystemProperties.getBoolean("debug.accessibility.incremental_subtree", false);
+
     private static final AccessibilityCache sAccessibilityCache =
-        new AccessibilityCache(new AccessibilityCache.AccessibilityNodeRefresher());
+        new AccessibilityCache(new AccessibilityCache.AccessibilityNodeRefresher(),
+                INCREMENTAL_SUBTREE_UPDATES);
+
+    // The app sends a requested node along with some of its predecessors, siblings and
+    // descendants. How many is adjusted to the fraction of them that the service goes on to read
+    // from the cache: nodes that are sent but never read make every request slower.
+    private static final int MIN_PREFETCH_BATCH_SIZE = 10;
+    private static final int MAX_PREFETCH_BATCH_SIZE = 50;
+    private static final int PREFETCH_SAMPLE_SIZE = 100;
+    private static final float MIN_PREFETCH_USED_FRACTION = 0.25f;
+    private static final float MAX_PREFETCH_USED_FRACTION = 0.75f;
+
+    private static final Object sPrefetchLock = new Object();
+    private static int sPrefetchBatchSize = MAX_PREFETCH_BATCH_SIZE;
+    private static int sPrefetchedNodeCount;
+    private static int sNodeHitCountAtSampleStart;
 
     /**
      * @return The client for the current thread.
@@ -281,6 +303,9 @@ public final class AccessibilityInteractionClient
                         Log.i(LOG_TAG, "Node cache miss");
                     }
                 }
+                if (prefetchFlags != 0) {
+                    arguments = addPrefetchBatchSize(arguments);
+                }
                 final int interactionId = mInteractionIdCounter.getAndIncrement();
                 final long identityToken = Binder.clearCallingIdentity();
                 final boolean success = connection.findAccessibilityNodeInfoByAccessibilityId(
@@ -292,6 +317,9 @@ public final class AccessibilityInteractionClient
                             interactionId);
                     finalizeAndCacheAccessibilityNodeInfos(infos, connectionId);
                     if (infos != null && !infos.isEmpty()) {
+                        if (prefetchFlags != 0) {
+                            onNodesPrefetched(infos.size() - 1);
+                        }
                         for (int i = 1; i < infos.size(); i++) {
                             infos.get(i).recycle();
                         }
@@ -619,6 +647,15 @@ public final class AccessibilityInteractionClient
         }
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    public void setFindAccessibilityNodeInfoBatchResult(AccessibilityNodeInfoBatch batch,
+            int interactionId) {
+        setFindAccessibilityNodeInfosResult((batch != null) ? batch.getInfos() : null,
+                interactionId);
+    }
+
     /**
      * Gets the result of a request to perform an accessibility action.
      *
@@ -691,6 +728,55 @@ public final class AccessibilityInteractionClient
         }
     }
 
+    /**
+     * Asks the app for fewer prefetched nodes than it sends by default, if the service has not
+     * been reading most of them.
+     *
+     * @param arguments The arguments of the request, which are not modified.
+     * @return The arguments to send.
+     */
+    private static Bundle addPrefetchBatchSize(Bundle arguments) {
+        final int batchSize;
+        synchronized (sPrefetchLock) {
+            batchSize = sPrefetchBatchSize;
+        }
+        if (batchSize == MAX_PREFETCH_BATCH_SIZE) {
+            return arguments;
+        }
+        final Bundle result = (arguments != null) ? new Bundle(arguments) : new Bundle();
+        result.putInt(AccessibilityNodeInfo.EXTRA_PREFETCH_BATCH_SIZE_KEY, batchSize);
+        return result;
+    }
+
+    /**
+     * Records that nodes were prefetched into the cache, and once enough were, halves or doubles
+     * the batch size depending on how many nodes the cache returned in the meantime.
+     *
+     * @param prefetchedNodeCount The number of nodes sent along with the requested one.
+     */
+    private static void onNodesPrefetched(int prefetchedNodeCount) {
+        synchronized (sPrefetchLock) {
+            sPrefetchedNodeCount += prefetchedNodeCount;
+            if (sPrefetchedNodeCount < PREFETCH_SAMPLE_SIZE) {
+                return;
+            }
+            final int nodeHitCount = sAccessibilityCache.getNodeHitCount();
+            final float usedFraction =
+                    (nodeHitCount - sNodeHitCountAtSampleStart) / (float) sPrefetchedNodeCount;
+            if (usedFraction < MIN_PREFETCH_USED_FRACTION) {
+                sPrefetchBatchSize = Math.max(sPrefetchBatchSize / 2, MIN_PREFETCH_BATCH_SIZE);
+            } else if (usedFraction > MAX_PREFETCH_USED_FRACTION) {
+                sPrefetchBatchSize = Math.min(sPrefetchBatchSize * 2, MAX_PREFETCH_BATCH_SIZE);
+            }
+            if (DEBUG) {
+                Log.i(LOG_TAG, "Used " + usedFraction + " of prefetched nodes, batch size: "
+                        + sPrefetchBatchSize);
+            }
+            sPrefetchedNodeCount = 0;
+            sNodeHitCountAtSampleStart = nodeHitCount;
+        }
+    }
+
     /**
      * Finalize an {@link AccessibilityNodeInfo} before passing it to the client.
      *
@@ -595,6 +595,15 @@ public class AccessibilityNodeInfo implements Parcelable {
     public static final String EXTRA_DATA_REQUESTED_KEY =
             "android.view.accessibility.AccessibilityNodeInfo.extra_data_requested";
 
+    /**
+     * Key in the arguments of a request for a node that bounds how many nodes are prefetched
+     * along with it.
+     *
+     * @hide
+     */
+    public static final String EXTRA_PREFETCH_BATCH_SIZE_KEY =
+            "android.view.accessibility.AccessibilityNodeInfo.prefetch_batch_size";
+
     // Boolean attributes.
 
     private static final int BOOLEAN_PROPERTY_CHECKABLE = 0x00000001;
@@ -3052,6 +3061,16 @@ public class AccessibilityNodeInfo implements Parcelable {
      */
     @Override
     public void writeToParcel(Parcel parcel, int flags) {
+        writeToParcel(parcel, flags, null);
+    }
+
+    /**
+     * Writes this instance, sharing strings and bounds with the nodes written before it when it
+     * is part of a batch.
+     *
+     * @param batch The batch being written, or null if the node is written on its own.
+     */
+    void writeToParcel(Parcel parcel, int flags, @Nullable AccessibilityNodeInfoBatch batch) {
         // Write bit set of indices of fields with values differing from default
         long nonDefaultFields = 0;
         int fieldIndex = 0; // index of the current field
@@ -3184,10 +3203,14 @@ public class AccessibilityNodeInfo implements Parcelable {
         }
 
         if (isBitSet(nonDefaultFields, fieldIndex++)) {
-            parcel.writeInt(mBoundsInScreen.top);
-            parcel.writeInt(mBoundsInScreen.bottom);
-            parcel.writeInt(mBoundsInScreen.left);
-            parcel.writeInt(mBoundsInScreen.right);
+            if (batch != null) {
+                batch.writeBoundsInScreen(parcel, mBoundsInParent, mBoundsInScreen);
+            } else {
+                parcel.writeInt(mBoundsInScreen.top);
+                parcel.writeInt(mBoundsInScreen.bottom);
+                parcel.writeInt(mBoundsInScreen.left);
+                parcel.writeInt(mBoundsInScreen.right);
+            }
         }
 
         if (isBitSet(nonDefaultFields, fieldIndex++)) {
@@ -3224,8 +3247,20 @@ public class AccessibilityNodeInfo implements Parcelable {
         if (isBitSet(nonDefaultFields, fieldIndex++)) parcel.writeInt(mMovementGranularities);
         if (isBitSet(nonDefaultFields, fieldIndex++)) parcel.writeInt(mBooleanProperties);
 
-        if (isBitSet(nonDefaultFields, fieldIndex++)) parcel.writeCharSequence(mPackageName);
-        if (isBitSet(nonDefaultFields, fieldIndex++)) parcel.writeCharSequence(mClassName);
+        if (isBitSet(nonDefaultFields, fieldIndex++)) {
+            if (batch != null) {
+                batch.writeCharSequence(parcel, mPackageName);
+            } else {
+                parcel.writeCharSequence(mPackageName);
+            }
+        }
+        if (isBitSet(nonDefaultFields, fieldIndex++)) {
+            if (batch != null) {
+                batch.writeCharSequence(parcel, mClassName);
+            } else {
+                parcel.writeCharSequence(mClassName);
+            }
+        }
         if (isBitSet(nonDefaultFields, fieldIndex++)) parcel.writeCharSequence(mText);
         if (isBitSet(nonDefaultFields, fieldIndex++)) parcel.writeCharSequence(mHintText);
         if (isBitSet(nonDefaultFields, fieldIndex++)) parcel.writeCharSequence(mError);
@@ -3357,6 +3392,15 @@ public class AccessibilityNodeInfo implements Parcelable {
      * @param parcel A parcel containing the state of a {@link AccessibilityNodeInfo}.
      */
     private void initFromParcel(Parcel parcel) {
+        initFromParcel(parcel, null);
+    }
+
+    /**
+     * Reads an instance written by {@link #writeToParcel(Parcel, int, AccessibilityNodeInfoBatch)}.
+     *
+     * @param batch The batch being read, or null if the node was written on its own.
+     */
+    void initFromParcel(Parcel parcel, @Nullable AccessibilityNodeInfoBatch batch) {
         // Bit mask of non-default-valued field indices
         long nonDefaultFields = parcel.readLong();
         int fieldIndex = 0;
@@ -3394,10 +3438,14 @@ public class AccessibilityNodeInfo implements Parcelable {
         }
 
         if (isBitSet(nonDefaultFields, fieldIndex++)) {
-            mBoundsInScreen.top = parcel.readInt();
-            mBoundsInScreen.bottom = parcel.readInt();
-            mBoundsInScreen.left = parcel.readInt();
-            mBoundsInScreen.right = parcel.readInt();
+            if (batch != null) {
+                batch.readBoundsInScreen(parcel, mBoundsInParent, mBoundsInScreen);
+            } else {
+                mBoundsInScreen.top = parcel.readInt();
+                mBoundsInScreen.bottom = parcel.readInt();
+                mBoundsInScreen.left = parcel.readInt();
+                mBoundsInScreen.right = parcel.readInt();
+            }
         }
 
         if (isBitSet(nonDefaultFields, fieldIndex++)) {
@@ -3415,8 +3463,16 @@ public class AccessibilityNodeInfo implements Parcelable {
         if (isBitSet(nonDefaultFields, fieldIndex++)) mMovementGranularities = parcel.readInt();
         if (isBitSet(nonDefaultFields, fieldIndex++)) mBooleanProperties = parcel.readInt();
 
-        if (isBitSet(nonDefaultFields, fieldIndex++)) mPackageName = parcel.readCharSequence();
-        if (isBitSet(nonDefaultFields, fieldIndex++)) mClassName = parcel.readCharSequence();
+        if (isBitSet(nonDefaultFields, fieldIndex++)) {
+            mPackageName = (batch != null)
+                    ? batch.readCharSequence(parcel)
+                    : parcel.readCharSequence();
+        }
+        if (isBitSet(nonDefaultFields, fieldIndex++)) {
+            mClassName = (batch != null)
+                    ? batch.readCharSequence(parcel)
+                    : parcel.readCharSequence();
+        }
         if (isBitSet(nonDefaultFields, fieldIndex++)) mText = parcel.readCharSequence();
         if (isBitSet(nonDefaultFields, fieldIndex++)) mHintText = parcel.readCharSequence();
         if (isBitSet(nonDefaultFields, fieldIndex++)) mError = parcel.readCharSequence();
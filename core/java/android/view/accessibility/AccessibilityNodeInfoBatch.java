@@ -0,0 +1,186 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.view.accessibility;
+
+import android.graphics.Rect;
+import android.os.Parcel;
+import android.os.Parcelable;
+import android.util.ArrayMap;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The nodes returned by an app for one request, such as a node and the nodes prefetched along
+ * with it. They mostly share their package and class names, so a name is written once and then
+ * referred to by its index. The bounds in screen of a node are written as an offset from its
+ * bounds in parent, and siblings share that offset, so usually only a marker is written.
+ * <p>
+ * Like {@link AccessibilityNodeInfo#writeToParcel}, writing the batch recycles its nodes.
+ * </p>
+ *
+ * @hide
+ */
+public final class AccessibilityNodeInfoBatch implements Parcelable {
+    // Written before a name: an index into the names written so far, or one of these.
+    private static final int NAME_NEW = -1;
+    private static final int NAME_NOT_SHARED = -2;
+
+    // Written before the bounds in screen.
+    private static final int BOUNDS_FULL = 0;
+    private static final int BOUNDS_OFFSET = 1;
+    private static final int BOUNDS_SAME_OFFSET = 2;
+
+    private final List<AccessibilityNodeInfo> mInfos;
+
+    // State shared by the nodes of the batch while it is written or read.
+    private ArrayMap<String, Integer> mNameIndices;
+    private ArrayList<String> mNames;
+    private boolean mHasOffset;
+    private int mOffsetX;
+    private int mOffsetY;
+
+    public AccessibilityNodeInfoBatch(List<AccessibilityNodeInfo> infos) {
+        mInfos = infos;
+    }
+
+    public List<AccessibilityNodeInfo> getInfos() {
+        return mInfos;
+    }
+
+    void writeCharSequence(Parcel parcel, CharSequence name) {
+        if (!(name instanceof String)) {
+            // May carry spans, which only Parcel#writeCharSequence keeps.
+            parcel.writeInt(NAME_NOT_SHARED);
+            parcel.writeCharSequence(name);
+            return;
+        }
+        final Integer index = mNameIndices.get(name);
+        if (index != null) {
+            parcel.writeInt(index);
+        } else {
+            parcel.writeInt(NAME_NEW);
+            parcel.writeString((String) name);
+            mNameIndices.put((String) name, mNameIndices.size());
+        }
+    }
+
+    CharSequence readCharSequence(Parcel parcel) {
+        final int index = parcel.readInt();
+        if (index == NAME_NOT_SHARED) {
+            return parcel.readCharSequence();
+        }
+        if (index == NAME_NEW) {
+            final String name = parcel.readString();
+            mNames.add(name);
+            return name;
+        }
+        return mNames.get(index);
+    }
+
+    void writeBoundsInScreen(Parcel parcel, Rect boundsInParent, Rect boundsInScreen) {
+        final int offsetX = boundsInScreen.left - boundsInParent.left;
+        final int offsetY = boundsInScreen.top - boundsInParent.top;
+        if (boundsInScreen.right - boundsInParent.right != offsetX
+                || boundsInScreen.bottom - boundsInParent.bottom != offsetY) {
+            // Scaled, for instance.
+            parcel.writeInt(BOUNDS_FULL);
+            parcel.writeInt(boundsInScreen.top);
+            parcel.writeInt(boundsInScreen.bottom);
+            parcel.writeInt(boundsInScreen.left);
+            parcel.writeInt(boundsInScreen.right);
+            return;
+        }
+        if (mHasOffset && offsetX == mOffsetX && offsetY == mOffsetY) {
+            parcel.writeInt(BOUNDS_SAME_OFFSET);
+        } else {
+            parcel.writeInt(BOUNDS_OFFSET);
+            parcel.writeInt(offsetX);
+            parcel.writeInt(offsetY);
+            mHasOffset = true;
+            mOffsetX = offsetX;
+            mOffsetY = offsetY;
+        }
+    }
+
+    void readBoundsInScreen(Parcel parcel, Rect boundsInParent, Rect boundsInScreen) {
+        final int encoding = parcel.readInt();
+        if (encoding == BOUNDS_FULL) {
+            boundsInScreen.top = parcel.readInt();
+            boundsInScreen.bottom = parcel.readInt();
+            boundsInScreen.left = parcel.readInt();
+            boundsInScreen.right = parcel.readInt();
+            return;
+        }
+        if (encoding == BOUNDS_OFFSET) {
+            mOffsetX = parcel.readInt();
+            mOffsetY = parcel.readInt();
+        }
+        boundsInScreen.set(boundsInParent);
+        boundsInScreen.offset(mOffsetX, mOffsetY);
+    }
+
+    @Override
+    public int describeContents() {
+        return 0;
+    }
+
+    @Override
+    public void writeToParcel(Parcel parcel, int flags) {
+        mNameIndices = new ArrayMap<>();
+        mHasOffset = false;
+        final int infoCount = mInfos.size();
+        parcel.writeInt(infoCount);
+        for (int i = 0; i < infoCount; i++) {
+            final AccessibilityNodeInfo info = mInfos.get(i);
+            if (info != null) {
+                parcel.writeInt(1);
+                info.writeToParcel(parcel, flags, this);
+            } else {
+                parcel.writeInt(0);
+            }
+        }
+        mNameIndices = null;
+    }
+
+    public static final Parcelable.Creator<AccessibilityNodeInfoBatch> CREATOR =
+            new Parcelable.Creator<AccessibilityNodeInfoBatch>() {
+        @Override
+        public AccessibilityNodeInfoBatch createFromParcel(Parcel parcel) {
+            final int infoCount = parcel.readInt();
+            final AccessibilityNodeInfoBatch batch =
+                    new AccessibilityNodeInfoBatch(new ArrayList<>(infoCount));
+            batch.mNames = new ArrayList<>();
+            for (int i = 0; i < infoCount; i++) {
+                if (parcel.readInt() != 0) {
+                    final AccessibilityNodeInfo info = AccessibilityNodeInfo.obtain();
+                    info.initFromParcel(parcel, batch);
+                    batch.mInfos.add(info);
+                } else {
+                    batch.mInfos.add(null);
+                }
+            }
+            batch.mNames = null;
+            return batch;
+        }
+
+        @Override
+        public AccessibilityNodeInfoBatch[] newArray(int size) {
+            return new AccessibilityNodeInfoBatch[size];
+        }
+    };
+}
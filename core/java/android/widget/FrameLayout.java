@@ -179,10 +179,16 @@ public class FrameLayout extends ViewGroup {
         int maxWidth = 0;
         int childState = 0;
 
+        // Every child gets the same space, so they can be measured independently of each other.
+        final boolean measuredInParallel = measureChildrenWithMarginsInParallel(
+                widthMeasureSpec, heightMeasureSpec, mMeasureAllChildren);
+
         for (int i = 0; i < count; i++) {
             final View child = getChildAt(i);
             if (mMeasureAllChildren || child.getVisibility() != GONE) {
-                measureChildWithMargins(child, widthMeasureSpec, 0, heightMeasureSpec, 0);
+                if (!measuredInParallel || !child.isMeasureThreadSafe()) {
+                    measureChildWithMargins(child, widthMeasureSpec, 0, heightMeasureSpec, 0);
+                }
                 final LayoutParams lp = (LayoutParams) child.getLayoutParams();
                 maxWidth = Math.max(maxWidth,
                         child.getMeasuredWidth() + lp.leftMargin + lp.rightMargin);
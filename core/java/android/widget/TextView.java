@@ -76,6 +76,7 @@ import android.text.InputFilter;
 import android.text.InputType;
 import android.text.Layout;
 import android.text.ParcelableSpan;
+import android.text.PrecomputedLayout;
 import android.text.Selection;
 import android.text.SpanWatcher;
 import android.text.Spannable;
@@ -618,6 +619,7 @@ public class TextView extends View implements ViewTreeObserver.OnPreDrawListener
     private CharSequence mText;
     private CharSequence mTransformed;
     private BufferType mBufferType = BufferType.NORMAL;
+    private PrecomputedLayout mPrecomputedLayout;
 
     private CharSequence mHint;
     private Layout mHintLayout;
@@ -5254,6 +5256,51 @@ public class TextView extends View implements ViewTreeObserver.OnPreDrawListener
         }
     }
 
+    /**
+     * Supplies lines for the current text that were computed ahead of time, typically on a
+     * worker thread, so that the next layout pass does not have to measure the text again.
+     * The precomputed lines are only used if they were created for this view's displayed
+     * text, paint and layout parameters at the width the view ends up with; they are
+     * dropped when the text changes.
+     *
+     * @param layout The precomputed layout, or null to clear it.
+     *
+     * @hide
+     */
+    public void setPrecomputedLayout(@Nullable PrecomputedLayout layout) {
+        mPrecomputedLayout = layout;
+    }
+
+    /**
+     * Returns a {@link StaticLayout.Builder} configured the way this view would lay out
+     * {@code text}, for use with {@link PrecomputedLayout#create}. The builder gets its own
+     * copy of the paint, so it can be handed to another thread.
+     *
+     * @param text The text that will be passed to {@link #setText(CharSequence)}.
+     * @param width The width available to the text, excluding the compound paddings.
+     *
+     * @hide
+     */
+    public StaticLayout.Builder obtainPrecomputeBuilder(@NonNull CharSequence text, int width) {
+        final StaticLayout.Builder builder = StaticLayout.Builder.obtain(text, 0, text.length(),
+                new TextPaint(mTextPaint), width)
+                .setAlignment(getLayoutAlignment())
+                .setTextDirection(mTextDir != null ? mTextDir : getTextDirectionHeuristic())
+                .setLineSpacing(mSpacingAdd, mSpacingMult)
+                .setIncludePad(mIncludePad)
+                .setBreakStrategy(mBreakStrategy)
+                .setHyphenationFrequency(mHyphenationFrequency)
+                .setJustificationMode(mJustificationMode)
+                .setMaxLines(mMaxMode == LINES ? mMaximum : Integer.MAX_VALUE);
+        if (mEllipsize != null && getKeyListener() == null) {
+            final TruncateAt effectiveEllipsize = (mEllipsize == TruncateAt.MARQUEE
+                    && mMarqueeFadeMode == MARQUEE_FADE_SWITCH_SHOW_ELLIPSIS)
+                    ? TruncateAt.END_SMALL : mEllipsize;
+            builder.setEllipsize(effectiveEllipsize).setEllipsizedWidth(width);
+        }
+        return builder;
+    }
+
     private void setText(CharSequence text, BufferType type,
                          boolean notifyBefore, int oldlen) {
         mTextFromResource = false;
@@ -5354,6 +5401,9 @@ public class TextView extends View implements ViewTreeObserver.OnPreDrawListener
         } else {
             mTransformed = mTransformation.getTransformation(text, this);
         }
+        if (mPrecomputedLayout != null && mPrecomputedLayout.getText() != mTransformed) {
+            mPrecomputedLayout = null;
+        }
 
         final int textLength = text.length();
 
@@ -8009,6 +8059,7 @@ public class TextView extends View implements ViewTreeObserver.OnPreDrawListener
                 builder.setEllipsize(effectiveEllipsize)
                         .setEllipsizedWidth(ellipsisWidth);
             }
+            builder.setPrecomputed(mPrecomputedLayout);
             // TODO: explore always setting maxLines
             result = builder.build();
         }
@@ -0,0 +1,205 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.internal.os;
+
+import android.os.Looper;
+import android.os.Message;
+
+import com.android.internal.util.ExponentiallyBucketedHistogram;
+
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+
+/**
+ * {@link Looper.Observer} that attributes dispatch time and queue delay to the handler class,
+ * callback class and what code of each message. Nothing is allocated once a message kind has
+ * been seen, so it can stay installed on busy loopers.
+ */
+public class LooperDispatchStats implements Looper.Observer {
+    /** Number of distinct message kinds tracked; anything beyond is counted as "other". */
+    private static final int MAX_ENTRIES = 128;
+    private static final int TABLE_SIZE = 256;
+
+    /** Dispatch histogram buckets, in microseconds; the last one holds everything >= ~0.5s. */
+    private static final int DISPATCH_BUCKETS = 20;
+    /** Queue delay histogram buckets, in milliseconds; the last one holds everything >= ~2s. */
+    private static final int DELAY_BUCKETS = 12;
+
+    private final Entry[] mTable = new Entry[TABLE_SIZE];
+    private final Entry mOther = new Entry(null, null, 0);
+    private int mEntryCount;
+    private long mDispatchCount;
+
+    @Override
+    public void messageDispatched(Message msg, long queueDelayMillis, long dispatchMicros) {
+        final Class<?> handlerClass = msg.getTarget().getClass();
+        final Runnable callback = msg.getCallback();
+        final Class<?> callbackClass = (callback != null) ? callback.getClass() : null;
+        synchronized (this) {
+            mDispatchCount++;
+            findEntryLocked(handlerClass, callbackClass, msg.what)
+                    .add(queueDelayMillis, dispatchMicros);
+        }
+    }
+
+    private Entry findEntryLocked(Class<?> handlerClass, Class<?> callbackClass, int what) {
+        int hash = System.identityHashCode(handlerClass);
+        hash = hash * 31 + System.identityHashCode(callbackClass);
+        hash = hash * 31 + what;
+        hash ^= hash >>> 16;
+        for (int i = 0; i < TABLE_SIZE; i++) {
+            final int index = (hash + i) & (TABLE_SIZE - 1);
+            final Entry entry = mTable[index];
+            if (entry == null) {
+                if (mEntryCount >= MAX_ENTRIES) {
+                    return mOther;
+                }
+                mEntryCount++;
+                return mTable[index] = new Entry(handlerClass, callbackClass, what);
+            }
+            if (entry.mHandlerClass == handlerClass && entry.mCallbackClass == callbackClass
+                    && entry.mWhat == what) {
+                return entry;
+            }
+        }
+        return mOther;
+    }
+
+    /**
+     * Clears all recorded data.
+     */
+    public void reset() {
+        synchronized (this) {
+            for (int i = 0; i < TABLE_SIZE; i++) {
+                mTable[i] = null;
+            }
+            mOther.reset();
+            mEntryCount = 0;
+            mDispatchCount = 0;
+        }
+    }
+
+    /**
+     * Prints the recorded message kinds, the ones with the largest total dispatch time first.
+     */
+    public void dump(PrintWriter pw, String prefix) {
+        // Print copies, so that messageDispatched() does not wait for the writer.
+        final ArrayList<Entry> entries = new ArrayList<>();
+        final long dispatchCount;
+        synchronized (this) {
+            dispatchCount = mDispatchCount;
+            for (int i = 0; i < TABLE_SIZE; i++) {
+                if (mTable[i] != null) {
+                    entries.add(new Entry(mTable[i]));
+                }
+            }
+            if (mOther.mCount > 0) {
+                entries.add(new Entry(mOther));
+            }
+        }
+        pw.print(prefix); pw.print("Dispatched messages: "); pw.println(dispatchCount);
+        Collections.sort(entries, TOTAL_DISPATCH_ORDER);
+        for (int i = 0; i < entries.size(); i++) {
+            entries.get(i).dump(pw, prefix + "  ");
+        }
+    }
+
+    private static final Comparator<Entry> TOTAL_DISPATCH_ORDER = new Comparator<Entry>() {
+        @Override
+        public int compare(Entry a, Entry b) {
+            return Long.compare(b.mTotalDispatchMicros, a.mTotalDispatchMicros);
+        }
+    };
+
+    private static final class Entry {
+        final Class<?> mHandlerClass;
+        final Class<?> mCallbackClass;
+        final int mWhat;
+        final ExponentiallyBucketedHistogram mDispatchMicros;
+        final ExponentiallyBucketedHistogram mQueueDelayMillis;
+        long mCount;
+        long mTotalDispatchMicros;
+        long mMaxDispatchMicros;
+        long mTotalQueueDelayMillis;
+        long mMaxQueueDelayMillis;
+
+        Entry(Class<?> handlerClass, Class<?> callbackClass, int what) {
+            mHandlerClass = handlerClass;
+            mCallbackClass = callbackClass;
+            mWhat = what;
+            mDispatchMicros = new ExponentiallyBucketedHistogram(DISPATCH_BUCKETS);
+            mQueueDelayMillis = new ExponentiallyBucketedHistogram(DELAY_BUCKETS);
+        }
+
+        Entry(Entry other) {
+            mHandlerClass = other.mHandlerClass;
+            mCallbackClass = other.mCallbackClass;
+            mWhat = other.mWhat;
+            mDispatchMicros = new ExponentiallyBucketedHistogram(other.mDispatchMicros);
+            mQueueDelayMillis = new ExponentiallyBucketedHistogram(other.mQueueDelayMillis);
+            mCount = other.mCount;
+            mTotalDispatchMicros = other.mTotalDispatchMicros;
+            mMaxDispatchMicros = other.mMaxDispatchMicros;
+            mTotalQueueDelayMillis = other.mTotalQueueDelayMillis;
+            mMaxQueueDelayMillis = other.mMaxQueueDelayMillis;
+        }
+
+        void add(long queueDelayMillis, long dispatchMicros) {
+            mCount++;
+            mTotalDispatchMicros += dispatchMicros;
+            mMaxDispatchMicros = Math.max(mMaxDispatchMicros, dispatchMicros);
+            mTotalQueueDelayMillis += queueDelayMillis;
+            mMaxQueueDelayMillis = Math.max(mMaxQueueDelayMillis, queueDelayMillis);
+            mDispatchMicros.add((int) Math.min(dispatchMicros, Integer.MAX_VALUE));
+            mQueueDelayMillis.add((int) Math.min(queueDelayMillis, Integer.MAX_VALUE));
+        }
+
+        void reset() {
+            mCount = 0;
+            mTotalDispatchMicros = 0;
+            mMaxDispatchMicros = 0;
+            mTotalQueueDelayMillis = 0;
+            mMaxQueueDelayMillis = 0;
+            mDispatchMicros.reset();
+            mQueueDelayMillis.reset();
+        }
+
+        void dump(PrintWriter pw, String prefix) {
+            pw.print(prefix);
+            if (mHandlerClass == null) {
+                pw.print("(other)");
+            } else {
+                pw.print(mHandlerClass.getName());
+                if (mCallbackClass != null) {
+                    pw.print(" callback="); pw.print(mCallbackClass.getName());
+                } else {
+                    pw.print(" what="); pw.print(mWhat);
+                }
+            }
+            pw.print(": count="); pw.print(mCount);
+            pw.print(" total="); pw.print(mTotalDispatchMicros / 1000); pw.print("ms");
+            pw.print(" avg="); pw.print(mTotalDispatchMicros / mCount); pw.print("us");
+            pw.print(" max="); pw.print(mMaxDispatchMicros); pw.print("us");
+            pw.print(" delay avg="); pw.print(mTotalQueueDelayMillis / mCount); pw.print("ms");
+            pw.print(" max="); pw.print(mMaxQueueDelayMillis); pw.println("ms");
+            mDispatchMicros.dump(pw, prefix + "  dispatch us ");
+            mQueueDelayMillis.dump(pw, prefix + "  delay ms ");
+        }
+    }
+}
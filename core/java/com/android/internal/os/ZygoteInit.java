@@ -47,6 +47,7 @@ import android.util.TimingsTraceLog;
 import android.util.EventLog;
 import android.util.Log;
 import android.util.Slog;
+import android.util.TypedValue;
 import android.webkit.WebViewFactory;
 import android.widget.TextView;
 
@@ -374,6 +375,14 @@ public class ZygoteInit {
                 Log.i(TAG, "...preloaded " + N + " resources in "
                         + (SystemClock.uptimeMillis()-startTime) + "ms.");
 
+                startTime = SystemClock.uptimeMillis();
+                ar = mResources.obtainTypedArray(
+                        com.android.internal.R.array.preloaded_values);
+                N = preloadValues(ar);
+                ar.recycle();
+                Log.i(TAG, "...preloaded " + N + " resources in "
+                        + (SystemClock.uptimeMillis()-startTime) + "ms.");
+
                 if (mResources.getBoolean(
                         com.android.internal.R.bool.config_freeformWindowManagement)) {
                     startTime = SystemClock.uptimeMillis();
@@ -411,6 +420,19 @@ public class ZygoteInit {
     }
 
 
+    private static int preloadValues(TypedArray ar) {
+        final TypedValue value = new TypedValue();
+        int N = ar.length();
+        for (int i=0; i<N; i++) {
+            int id = ar.getResourceId(i, 0);
+            if (id != 0) {
+                // Resolving the value while preloading records it for all forked processes.
+                mResources.getValue(id, value, true);
+            }
+        }
+        return N;
+    }
+
     private static int preloadDrawables(TypedArray ar) {
         int N = ar.length();
         for (int i=0; i<N; i++) {
@@ -0,0 +1,710 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.internal.util;
+
+import static com.android.internal.util.BinaryXmlSerializer.ATTRIBUTE;
+import static com.android.internal.util.BinaryXmlSerializer.INTERNED_NEW;
+import static com.android.internal.util.BinaryXmlSerializer.LENGTH_LONG;
+import static com.android.internal.util.BinaryXmlSerializer.PROTOCOL_MAGIC;
+import static com.android.internal.util.BinaryXmlSerializer.TYPE_BOOLEAN_FALSE;
+import static com.android.internal.util.BinaryXmlSerializer.TYPE_BOOLEAN_TRUE;
+import static com.android.internal.util.BinaryXmlSerializer.TYPE_BYTES_BASE64;
+import static com.android.internal.util.BinaryXmlSerializer.TYPE_BYTES_HEX;
+import static com.android.internal.util.BinaryXmlSerializer.TYPE_DOUBLE;
+import static com.android.internal.util.BinaryXmlSerializer.TYPE_FLOAT;
+import static com.android.internal.util.BinaryXmlSerializer.TYPE_INT;
+import static com.android.internal.util.BinaryXmlSerializer.TYPE_INT_HEX;
+import static com.android.internal.util.BinaryXmlSerializer.TYPE_LONG;
+import static com.android.internal.util.BinaryXmlSerializer.TYPE_LONG_HEX;
+import static com.android.internal.util.BinaryXmlSerializer.TYPE_NULL;
+import static com.android.internal.util.BinaryXmlSerializer.TYPE_STRING;
+import static com.android.internal.util.BinaryXmlSerializer.TYPE_STRING_INTERNED;
+
+import android.util.Base64;
+
+import org.xmlpull.v1.XmlPullParser;
+import org.xmlpull.v1.XmlPullParserException;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * {@link XmlPullParser} for streams written by {@link BinaryXmlSerializer}.
+ * <p>
+ * All attributes of a tag are decoded when the tag is reached. Attributes that were written
+ * with one of the typed {@code attribute*()} methods can be read back without any string
+ * conversion through the matching {@code getAttribute*()} method; they are also still visible
+ * as strings through {@link #getAttributeValue} so that existing parsing code keeps working.
+ *
+ * {@hide}
+ */
+public class BinaryXmlPullParser implements XmlPullParser {
+    private static final int BUFFER_SIZE = 32 * 1024;
+
+    private static final int NO_COMMAND = -1;
+
+    private DataInputStream mIn;
+    private final ArrayList<String> mInterned = new ArrayList<>();
+    private byte[] mScratch = new byte[256];
+
+    private int mEventType = START_DOCUMENT;
+    private int mPendingCommand = NO_COMMAND;
+    private int mDepth;
+    private String mName;
+    private String mText;
+
+    private int mAttributeCount;
+    private Attribute[] mAttributes = new Attribute[8];
+
+    /**
+     * Return true if the stream starts with the binary XML magic. The stream must support
+     * {@link InputStream#mark}; its position is left unchanged.
+     */
+    public static boolean isBinaryXml(InputStream in) throws IOException {
+        final byte[] magic = new byte[PROTOCOL_MAGIC.length];
+        in.mark(magic.length);
+        try {
+            int read = 0;
+            while (read < magic.length) {
+                final int n = in.read(magic, read, magic.length - read);
+                if (n < 0) {
+                    return false;
+                }
+                read += n;
+            }
+            return Arrays.equals(magic, PROTOCOL_MAGIC);
+        } finally {
+            in.reset();
+        }
+    }
+
+    public void setInput(InputStream inputStream, String inputEncoding)
+            throws XmlPullParserException {
+        if (inputStream == null) {
+            throw new IllegalArgumentException();
+        }
+        mIn = new DataInputStream(new BufferedInputStream(inputStream, BUFFER_SIZE));
+        mInterned.clear();
+        mEventType = START_DOCUMENT;
+        mPendingCommand = NO_COMMAND;
+        mDepth = 0;
+        mName = null;
+        mText = null;
+        mAttributeCount = 0;
+        try {
+            final byte[] magic = new byte[PROTOCOL_MAGIC.length];
+            mIn.readFully(magic);
+            if (!Arrays.equals(magic, PROTOCOL_MAGIC)) {
+                throw new XmlPullParserException("Unexpected magic "
+                        + HexDump.toHexString(magic));
+            }
+        } catch (IOException e) {
+            throw new XmlPullParserException("Failed to read magic", this, e);
+        }
+    }
+
+    public void setInput(Reader in) throws XmlPullParserException {
+        throw new UnsupportedOperationException();
+    }
+
+    public int next() throws XmlPullParserException, IOException {
+        while (true) {
+            final int type = nextToken();
+            switch (type) {
+                case START_TAG:
+                case END_TAG:
+                case END_DOCUMENT:
+                    return type;
+                case TEXT:
+                case CDSECT:
+                case ENTITY_REF:
+                    mergeAdjacentText();
+                    mEventType = TEXT;
+                    return TEXT;
+                default:
+                    // Comments, whitespace and declarations are not reported by next()
+                    break;
+            }
+        }
+    }
+
+    public int nextToken() throws XmlPullParserException, IOException {
+        if (mEventType == END_TAG) {
+            mDepth--;
+        } else if (mEventType == END_DOCUMENT) {
+            return END_DOCUMENT;
+        }
+        mAttributeCount = 0;
+        mName = null;
+        mText = null;
+
+        final int command = readCommand();
+        if (command == NO_COMMAND) {
+            mEventType = END_DOCUMENT;
+            return mEventType;
+        }
+        final int token = command & 0x0f;
+        final int type = command & 0xf0;
+        switch (token) {
+            case START_DOCUMENT:
+                mEventType = START_DOCUMENT;
+                break;
+            case END_DOCUMENT:
+                mEventType = END_DOCUMENT;
+                break;
+            case START_TAG:
+                mEventType = START_TAG;
+                mName = readInternedString();
+                mDepth++;
+                readAttributes();
+                break;
+            case END_TAG:
+                mEventType = END_TAG;
+                mName = readInternedString();
+                break;
+            case TEXT:
+            case CDSECT:
+            case ENTITY_REF:
+            case IGNORABLE_WHITESPACE:
+            case PROCESSING_INSTRUCTION:
+            case COMMENT:
+            case DOCDECL:
+                mEventType = token;
+                mText = (type == TYPE_NULL) ? null : readString();
+                break;
+            default:
+                throw new XmlPullParserException("Unexpected token " + token, this, null);
+        }
+        return mEventType;
+    }
+
+    public void require(int type, String namespace, String name)
+            throws XmlPullParserException, IOException {
+        if (type != mEventType || (name != null && !name.equals(mName))) {
+            throw new XmlPullParserException("Expected " + TYPES[type] + " " + name
+                    + " but found " + getPositionDescription(), this, null);
+        }
+    }
+
+    public String nextText() throws XmlPullParserException, IOException {
+        if (mEventType != START_TAG) {
+            throw new XmlPullParserException("Precondition START_TAG not met", this, null);
+        }
+        int type = next();
+        if (type == TEXT) {
+            final String result = mText;
+            type = next();
+            if (type != END_TAG) {
+                throw new XmlPullParserException("Expected END_TAG", this, null);
+            }
+            return result;
+        } else if (type == END_TAG) {
+            return "";
+        }
+        throw new XmlPullParserException("Expected TEXT or END_TAG", this, null);
+    }
+
+    public int nextTag() throws XmlPullParserException, IOException {
+        int type = next();
+        if (type == TEXT && isWhitespace()) {
+            type = next();
+        }
+        if (type != START_TAG && type != END_TAG) {
+            throw new XmlPullParserException("Expected START_TAG or END_TAG", this, null);
+        }
+        return type;
+    }
+
+    public int getEventType() throws XmlPullParserException {
+        return mEventType;
+    }
+
+    public int getDepth() {
+        return mDepth;
+    }
+
+    public String getName() {
+        return mName;
+    }
+
+    public String getText() {
+        return mText;
+    }
+
+    public char[] getTextCharacters(int[] holderForStartAndLength) {
+        if (mText == null) {
+            holderForStartAndLength[0] = -1;
+            holderForStartAndLength[1] = -1;
+            return null;
+        }
+        holderForStartAndLength[0] = 0;
+        holderForStartAndLength[1] = mText.length();
+        return mText.toCharArray();
+    }
+
+    public boolean isWhitespace() throws XmlPullParserException {
+        switch (mEventType) {
+            case IGNORABLE_WHITESPACE:
+                return true;
+            case TEXT:
+            case CDSECT:
+                if (mText != null) {
+                    for (int i = mText.length() - 1; i >= 0; i--) {
+                        if (!Character.isWhitespace(mText.charAt(i))) {
+                            return false;
+                        }
+                    }
+                }
+                return true;
+            default:
+                throw new XmlPullParserException("Not applicable for " + TYPES[mEventType],
+                        this, null);
+        }
+    }
+
+    public boolean isEmptyElementTag() throws XmlPullParserException {
+        return false;
+    }
+
+    public int getAttributeCount() {
+        return mEventType == START_TAG ? mAttributeCount : -1;
+    }
+
+    public String getAttributeName(int index) {
+        return mAttributes[checkAttributeIndex(index)].name;
+    }
+
+    public String getAttributeValue(int index) {
+        return mAttributes[checkAttributeIndex(index)].getValueString();
+    }
+
+    public String getAttributeValue(String namespace, String name) {
+        final int index = getAttributeIndex(namespace, name);
+        return index >= 0 ? mAttributes[index].getValueString() : null;
+    }
+
+    /**
+     * Return the index of the named attribute of the current tag, or -1 if it is not present.
+     */
+    public int getAttributeIndex(String namespace, String name) {
+        for (int i = 0; i < mAttributeCount; i++) {
+            if (mAttributes[i].name.equals(name)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    public byte[] getAttributeBytesHex(int index) throws XmlPullParserException {
+        final Attribute attr = mAttributes[checkAttributeIndex(index)];
+        if (attr.type == TYPE_BYTES_HEX) {
+            return attr.bytes;
+        }
+        try {
+            return HexDump.hexStringToByteArray(attr.getValueString());
+        } catch (RuntimeException e) {
+            throw new XmlPullParserException("Invalid attribute " + attr.name, this, e);
+        }
+    }
+
+    public byte[] getAttributeBytesBase64(int index) throws XmlPullParserException {
+        final Attribute attr = mAttributes[checkAttributeIndex(index)];
+        if (attr.type == TYPE_BYTES_BASE64) {
+            return attr.bytes;
+        }
+        try {
+            return Base64.decode(attr.getValueString(), Base64.DEFAULT);
+        } catch (RuntimeException e) {
+            throw new XmlPullParserException("Invalid attribute " + attr.name, this, e);
+        }
+    }
+
+    public int getAttributeInt(int index) throws XmlPullParserException {
+        final Attribute attr = mAttributes[checkAttributeIndex(index)];
+        if (attr.type == TYPE_INT || attr.type == TYPE_INT_HEX) {
+            return (int) attr.longValue;
+        }
+        try {
+            return Integer.parseInt(attr.getValueString());
+        } catch (RuntimeException e) {
+            throw new XmlPullParserException("Invalid attribute " + attr.name, this, e);
+        }
+    }
+
+    public int getAttributeIntHex(int index) throws XmlPullParserException {
+        final Attribute attr = mAttributes[checkAttributeIndex(index)];
+        if (attr.type == TYPE_INT || attr.type == TYPE_INT_HEX) {
+            return (int) attr.longValue;
+        }
+        try {
+            return Integer.parseUnsignedInt(attr.getValueString(), 16);
+        } catch (RuntimeException e) {
+            throw new XmlPullParserException("Invalid attribute " + attr.name, this, e);
+        }
+    }
+
+    public long getAttributeLong(int index) throws XmlPullParserException {
+        final Attribute attr = mAttributes[checkAttributeIndex(index)];
+        switch (attr.type) {
+            case TYPE_INT:
+            case TYPE_INT_HEX:
+            case TYPE_LONG:
+            case TYPE_LONG_HEX:
+                return attr.longValue;
+        }
+        try {
+            return Long.parseLong(attr.getValueString());
+        } catch (RuntimeException e) {
+            throw new XmlPullParserException("Invalid attribute " + attr.name, this, e);
+        }
+    }
+
+    public long getAttributeLongHex(int index) throws XmlPullParserException {
+        final Attribute attr = mAttributes[checkAttributeIndex(index)];
+        switch (attr.type) {
+            case TYPE_INT:
+            case TYPE_INT_HEX:
+            case TYPE_LONG:
+            case TYPE_LONG_HEX:
+                return attr.longValue;
+        }
+        try {
+            return Long.parseUnsignedLong(attr.getValueString(), 16);
+        } catch (RuntimeException e) {
+            throw new XmlPullParserException("Invalid attribute " + attr.name, this, e);
+        }
+    }
+
+    public float getAttributeFloat(int index) throws XmlPullParserException {
+        final Attribute attr = mAttributes[checkAttributeIndex(index)];
+        if (attr.type == TYPE_FLOAT || attr.type == TYPE_DOUBLE) {
+            return (float) attr.doubleValue;
+        }
+        try {
+            return Float.parseFloat(attr.getValueString());
+        } catch (RuntimeException e) {
+            throw new XmlPullParserException("Invalid attribute " + attr.name, this, e);
+        }
+    }
+
+    public double getAttributeDouble(int index) throws XmlPullParserException {
+        final Attribute attr = mAttributes[checkAttributeIndex(index)];
+        if (attr.type == TYPE_FLOAT || attr.type == TYPE_DOUBLE) {
+            return attr.doubleValue;
+        }
+        try {
+            return Double.parseDouble(attr.getValueString());
+        } catch (RuntimeException e) {
+            throw new XmlPullParserException("Invalid attribute " + attr.name, this, e);
+        }
+    }
+
+    public boolean getAttributeBoolean(int index) throws XmlPullParserException {
+        final Attribute attr = mAttributes[checkAttributeIndex(index)];
+        if (attr.type == TYPE_BOOLEAN_TRUE) {
+            return true;
+        } else if (attr.type == TYPE_BOOLEAN_FALSE) {
+            return false;
+        }
+        final String value = attr.getValueString();
+        if ("true".equalsIgnoreCase(value)) {
+            return true;
+        } else if ("false".equalsIgnoreCase(value)) {
+            return false;
+        }
+        throw new XmlPullParserException("Invalid attribute " + attr.name + ": " + value,
+                this, null);
+    }
+
+    public String getAttributeNamespace(int index) {
+        checkAttributeIndex(index);
+        return NO_NAMESPACE;
+    }
+
+    public String getAttributePrefix(int index) {
+        checkAttributeIndex(index);
+        return null;
+    }
+
+    public String getAttributeType(int index) {
+        checkAttributeIndex(index);
+        return "CDATA";
+    }
+
+    public boolean isAttributeDefault(int index) {
+        checkAttributeIndex(index);
+        return false;
+    }
+
+    public String getNamespace() {
+        return (mEventType == START_TAG || mEventType == END_TAG) ? NO_NAMESPACE : null;
+    }
+
+    public String getNamespace(String prefix) {
+        return null;
+    }
+
+    public int getNamespaceCount(int depth) throws XmlPullParserException {
+        return 0;
+    }
+
+    public String getNamespacePrefix(int pos) throws XmlPullParserException {
+        throw new IndexOutOfBoundsException();
+    }
+
+    public String getNamespaceUri(int pos) throws XmlPullParserException {
+        throw new IndexOutOfBoundsException();
+    }
+
+    public String getPrefix() {
+        return null;
+    }
+
+    public String getInputEncoding() {
+        return null;
+    }
+
+    public int getLineNumber() {
+        return -1;
+    }
+
+    public int getColumnNumber() {
+        return -1;
+    }
+
+    public String getPositionDescription() {
+        return "Binary XML " + TYPES[mEventType] + (mName != null ? " " + mName : "")
+                + " at depth " + mDepth;
+    }
+
+    public void defineEntityReplacementText(String entityName, String replacementText)
+            throws XmlPullParserException {
+        throw new UnsupportedOperationException();
+    }
+
+    public boolean getFeature(String name) {
+        return false;
+    }
+
+    public void setFeature(String name, boolean state) throws XmlPullParserException {
+        if (FEATURE_PROCESS_NAMESPACES.equals(name) || FEATURE_PROCESS_DOCDECL.equals(name)) {
+            // Neither has any meaning for the binary format.
+            return;
+        }
+        throw new XmlPullParserException("Unsupported feature " + name);
+    }
+
+    public Object getProperty(String name) {
+        return null;
+    }
+
+    public void setProperty(String name, Object value) throws XmlPullParserException {
+        throw new XmlPullParserException("Unsupported property " + name);
+    }
+
+    private int checkAttributeIndex(int index) {
+        if (mEventType != START_TAG) {
+            throw new IndexOutOfBoundsException("Attributes are only available on START_TAG");
+        }
+        if (index < 0 || index >= mAttributeCount) {
+            throw new IndexOutOfBoundsException(Integer.toString(index));
+        }
+        return index;
+    }
+
+    private int readCommand() throws IOException {
+        if (mPendingCommand != NO_COMMAND) {
+            final int command = mPendingCommand;
+            mPendingCommand = NO_COMMAND;
+            return command;
+        }
+        final int command = mIn.read();
+        return command < 0 ? NO_COMMAND : command;
+    }
+
+    private int peekCommand() throws IOException {
+        if (mPendingCommand == NO_COMMAND) {
+            final int command = mIn.read();
+            mPendingCommand = command < 0 ? NO_COMMAND : command;
+        }
+        return mPendingCommand;
+    }
+
+    private void mergeAdjacentText() throws IOException {
+        while (true) {
+            final int command = peekCommand();
+            if (command == NO_COMMAND) {
+                return;
+            }
+            final int token = command & 0x0f;
+            if (token != TEXT && token != CDSECT && token != ENTITY_REF) {
+                return;
+            }
+            mPendingCommand = NO_COMMAND;
+            if ((command & 0xf0) != TYPE_NULL) {
+                final String more = readString();
+                mText = (mText == null) ? more : mText + more;
+            }
+        }
+    }
+
+    private void readAttributes() throws XmlPullParserException, IOException {
+        while (true) {
+            final int command = peekCommand();
+            if (command == NO_COMMAND || (command & 0x0f) != ATTRIBUTE) {
+                return;
+            }
+            mPendingCommand = NO_COMMAND;
+            if (mAttributeCount == mAttributes.length) {
+                mAttributes = Arrays.copyOf(mAttributes,
+                        GrowingArrayUtils.growSize(mAttributeCount));
+            }
+            Attribute attr = mAttributes[mAttributeCount];
+            if (attr == null) {
+                attr = mAttributes[mAttributeCount] = new Attribute();
+            }
+            mAttributeCount++;
+            attr.reset(command & 0xf0, readInternedString());
+            switch (attr.type) {
+                case TYPE_NULL:
+                    break;
+                case TYPE_STRING:
+                    attr.string = readString();
+                    break;
+                case TYPE_STRING_INTERNED:
+                    attr.string = readInternedString();
+                    break;
+                case TYPE_BYTES_HEX:
+                case TYPE_BYTES_BASE64:
+                    attr.bytes = new byte[readLength()];
+                    mIn.readFully(attr.bytes);
+                    break;
+                case TYPE_INT:
+                case TYPE_INT_HEX:
+                    attr.longValue = mIn.readInt();
+                    break;
+                case TYPE_LONG:
+                case TYPE_LONG_HEX:
+                    attr.longValue = mIn.readLong();
+                    break;
+                case TYPE_FLOAT:
+                    attr.doubleValue = mIn.readFloat();
+                    break;
+                case TYPE_DOUBLE:
+                    attr.doubleValue = mIn.readDouble();
+                    break;
+                case TYPE_BOOLEAN_TRUE:
+                case TYPE_BOOLEAN_FALSE:
+                    break;
+                default:
+                    throw new XmlPullParserException("Unexpected attribute type " + attr.type,
+                            this, null);
+            }
+        }
+    }
+
+    private int readLength() throws IOException {
+        final int length = mIn.readUnsignedShort();
+        if (length != LENGTH_LONG) {
+            return length;
+        }
+        final int longLength = mIn.readInt();
+        if (longLength < 0) {
+            throw new EOFException("Invalid length " + longLength);
+        }
+        return longLength;
+    }
+
+    private String readString() throws IOException {
+        final int length = readLength();
+        if (mScratch.length < length) {
+            mScratch = new byte[Math.max(length, mScratch.length * 2)];
+        }
+        mIn.readFully(mScratch, 0, length);
+        return new String(mScratch, 0, length, StandardCharsets.UTF_8);
+    }
+
+    private String readInternedString() throws IOException {
+        final int index = mIn.readUnsignedShort();
+        if (index != INTERNED_NEW) {
+            if (index >= mInterned.size()) {
+                throw new IOException("Invalid interned string index " + index);
+            }
+            return mInterned.get(index);
+        }
+        final String value = readString();
+        if (mInterned.size() < INTERNED_NEW) {
+            mInterned.add(value);
+        }
+        return value;
+    }
+
+    private static final class Attribute {
+        String name;
+        int type;
+        String string;
+        byte[] bytes;
+        long longValue;
+        double doubleValue;
+
+        void reset(int type, String name) {
+            this.type = type;
+            this.name = name;
+            string = null;
+            bytes = null;
+        }
+
+        String getValueString() {
+            switch (type) {
+                case TYPE_NULL:
+                    return null;
+                case TYPE_STRING:
+                case TYPE_STRING_INTERNED:
+                    return string;
+                case TYPE_BYTES_HEX:
+                    return HexDump.toHexString(bytes);
+                case TYPE_BYTES_BASE64:
+                    return Base64.encodeToString(bytes, Base64.NO_WRAP);
+                case TYPE_INT:
+                    return Integer.toString((int) longValue);
+                case TYPE_INT_HEX:
+                    return Integer.toHexString((int) longValue);
+                case TYPE_LONG:
+                    return Long.toString(longValue);
+                case TYPE_LONG_HEX:
+                    return Long.toHexString(longValue);
+                case TYPE_FLOAT:
+                    return Float.toString((float) doubleValue);
+                case TYPE_DOUBLE:
+                    return Double.toString(doubleValue);
+                case TYPE_BOOLEAN_TRUE:
+                    return "true";
+                case TYPE_BOOLEAN_FALSE:
+                    return "false";
+                default:
+                    return null;
+            }
+        }
+    }
+}
@@ -0,0 +1,345 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.internal.util;
+
+import org.xmlpull.v1.XmlPullParser;
+import org.xmlpull.v1.XmlSerializer;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+
+/**
+ * Binary implementation of {@link XmlSerializer} that can be used in place of
+ * {@link FastXmlSerializer} for files that are only ever read back by
+ * {@link BinaryXmlPullParser}.
+ * <p>
+ * The stream starts with {@link #PROTOCOL_MAGIC}, followed by a sequence of tokens. Each token
+ * is a single command byte whose low nibble is the {@link XmlPullParser} event type (or
+ * {@link #ATTRIBUTE}) and whose high nibble is the type of the value that follows. Tag and
+ * attribute names are interned so that each distinct name is only written once per file, and
+ * the typed {@code attribute*()} methods store numbers and booleans natively instead of
+ * formatting them as strings.
+ * <p>
+ * Like {@link FastXmlSerializer}, namespaces and prefixes are ignored and the indent feature is
+ * accepted but has no effect.
+ *
+ * {@hide}
+ */
+public class BinaryXmlSerializer implements XmlSerializer {
+    /** Magic written at the beginning of every binary XML stream: "ABX" followed by version 0. */
+    public static final byte[] PROTOCOL_MAGIC = new byte[] { 0x41, 0x42, 0x58, 0x00 };
+
+    static final int ATTRIBUTE = 15;
+
+    static final int TYPE_NULL = 1 << 4;
+    static final int TYPE_STRING = 2 << 4;
+    static final int TYPE_STRING_INTERNED = 3 << 4;
+    static final int TYPE_BYTES_HEX = 4 << 4;
+    static final int TYPE_BYTES_BASE64 = 5 << 4;
+    static final int TYPE_INT = 6 << 4;
+    static final int TYPE_INT_HEX = 7 << 4;
+    static final int TYPE_LONG = 8 << 4;
+    static final int TYPE_LONG_HEX = 9 << 4;
+    static final int TYPE_FLOAT = 10 << 4;
+    static final int TYPE_DOUBLE = 11 << 4;
+    static final int TYPE_BOOLEAN_TRUE = 12 << 4;
+    static final int TYPE_BOOLEAN_FALSE = 13 << 4;
+
+    /** Interned string index marking that the string itself follows. */
+    static final int INTERNED_NEW = 0xffff;
+    /** Short length marking that the real length follows as an int. */
+    static final int LENGTH_LONG = 0xffff;
+
+    private static final int BUFFER_SIZE = 32 * 1024;
+
+    private DataOutputStream mOut;
+    private final HashMap<String, Integer> mInterned = new HashMap<>();
+    private int mTagCount;
+    private String[] mTagNames = new String[8];
+
+    public void setOutput(OutputStream os, String encoding) throws IOException,
+            IllegalArgumentException, IllegalStateException {
+        if (os == null) {
+            throw new IllegalArgumentException();
+        }
+        mOut = new DataOutputStream(new BufferedOutputStream(os, BUFFER_SIZE));
+        mOut.write(PROTOCOL_MAGIC);
+        mInterned.clear();
+        mTagCount = 0;
+    }
+
+    public void setOutput(Writer writer) throws IOException, IllegalArgumentException,
+            IllegalStateException {
+        throw new UnsupportedOperationException();
+    }
+
+    public void startDocument(String encoding, Boolean standalone) throws IOException,
+            IllegalArgumentException, IllegalStateException {
+        mOut.writeByte(XmlPullParser.START_DOCUMENT | TYPE_NULL);
+    }
+
+    public void endDocument() throws IOException, IllegalArgumentException,
+            IllegalStateException {
+        mOut.writeByte(XmlPullParser.END_DOCUMENT | TYPE_NULL);
+        flush();
+    }
+
+    public XmlSerializer startTag(String namespace, String name) throws IOException,
+            IllegalArgumentException, IllegalStateException {
+        if (mTagCount == mTagNames.length) {
+            mTagNames = GrowingArrayUtils.append(mTagNames, mTagCount, name);
+        } else {
+            mTagNames[mTagCount] = name;
+        }
+        mTagCount++;
+        mOut.writeByte(XmlPullParser.START_TAG | TYPE_STRING_INTERNED);
+        writeInternedString(name);
+        return this;
+    }
+
+    public XmlSerializer endTag(String namespace, String name) throws IOException,
+            IllegalArgumentException, IllegalStateException {
+        mTagCount--;
+        mOut.writeByte(XmlPullParser.END_TAG | TYPE_STRING_INTERNED);
+        writeInternedString(name);
+        return this;
+    }
+
+    public XmlSerializer attribute(String namespace, String name, String value)
+            throws IOException, IllegalArgumentException, IllegalStateException {
+        mOut.writeByte(ATTRIBUTE | TYPE_STRING);
+        writeInternedString(name);
+        writeString(value);
+        return this;
+    }
+
+    /**
+     * Write an attribute whose value is drawn from a small set of repeated strings, such as
+     * package names or enum-like values, so that it is only stored once per file.
+     */
+    public XmlSerializer attributeInterned(String namespace, String name, String value)
+            throws IOException {
+        mOut.writeByte(ATTRIBUTE | TYPE_STRING_INTERNED);
+        writeInternedString(name);
+        writeInternedString(value);
+        return this;
+    }
+
+    public XmlSerializer attributeBytesHex(String namespace, String name, byte[] value)
+            throws IOException {
+        mOut.writeByte(ATTRIBUTE | TYPE_BYTES_HEX);
+        writeInternedString(name);
+        writeBytes(value);
+        return this;
+    }
+
+    public XmlSerializer attributeBytesBase64(String namespace, String name, byte[] value)
+            throws IOException {
+        mOut.writeByte(ATTRIBUTE | TYPE_BYTES_BASE64);
+        writeInternedString(name);
+        writeBytes(value);
+        return this;
+    }
+
+    public XmlSerializer attributeInt(String namespace, String name, int value)
+            throws IOException {
+        mOut.writeByte(ATTRIBUTE | TYPE_INT);
+        writeInternedString(name);
+        mOut.writeInt(value);
+        return this;
+    }
+
+    public XmlSerializer attributeIntHex(String namespace, String name, int value)
+            throws IOException {
+        mOut.writeByte(ATTRIBUTE | TYPE_INT_HEX);
+        writeInternedString(name);
+        mOut.writeInt(value);
+        return this;
+    }
+
+    public XmlSerializer attributeLong(String namespace, String name, long value)
+            throws IOException {
+        mOut.writeByte(ATTRIBUTE | TYPE_LONG);
+        writeInternedString(name);
+        mOut.writeLong(value);
+        return this;
+    }
+
+    public XmlSerializer attributeLongHex(String namespace, String name, long value)
+            throws IOException {
+        mOut.writeByte(ATTRIBUTE | TYPE_LONG_HEX);
+        writeInternedString(name);
+        mOut.writeLong(value);
+        return this;
+    }
+
+    public XmlSerializer attributeFloat(String namespace, String name, float value)
+            throws IOException {
+        mOut.writeByte(ATTRIBUTE | TYPE_FLOAT);
+        writeInternedString(name);
+        mOut.writeFloat(value);
+        return this;
+    }
+
+    public XmlSerializer attributeDouble(String namespace, String name, double value)
+            throws IOException {
+        mOut.writeByte(ATTRIBUTE | TYPE_DOUBLE);
+        writeInternedString(name);
+        mOut.writeDouble(value);
+        return this;
+    }
+
+    public XmlSerializer attributeBoolean(String namespace, String name, boolean value)
+            throws IOException {
+        mOut.writeByte(ATTRIBUTE | (value ? TYPE_BOOLEAN_TRUE : TYPE_BOOLEAN_FALSE));
+        writeInternedString(name);
+        return this;
+    }
+
+    public XmlSerializer text(char[] buf, int start, int len) throws IOException,
+            IllegalArgumentException, IllegalStateException {
+        return text(new String(buf, start, len));
+    }
+
+    public XmlSerializer text(String text) throws IOException, IllegalArgumentException,
+            IllegalStateException {
+        writeToken(XmlPullParser.TEXT, text);
+        return this;
+    }
+
+    public void cdsect(String text) throws IOException, IllegalArgumentException,
+            IllegalStateException {
+        writeToken(XmlPullParser.CDSECT, text);
+    }
+
+    public void entityRef(String text) throws IOException, IllegalArgumentException,
+            IllegalStateException {
+        writeToken(XmlPullParser.ENTITY_REF, text);
+    }
+
+    public void processingInstruction(String text) throws IOException, IllegalArgumentException,
+            IllegalStateException {
+        writeToken(XmlPullParser.PROCESSING_INSTRUCTION, text);
+    }
+
+    public void comment(String text) throws IOException, IllegalArgumentException,
+            IllegalStateException {
+        writeToken(XmlPullParser.COMMENT, text);
+    }
+
+    public void docdecl(String text) throws IOException, IllegalArgumentException,
+            IllegalStateException {
+        writeToken(XmlPullParser.DOCDECL, text);
+    }
+
+    public void ignorableWhitespace(String text) throws IOException, IllegalArgumentException,
+            IllegalStateException {
+        writeToken(XmlPullParser.IGNORABLE_WHITESPACE, text);
+    }
+
+    public void flush() throws IOException {
+        mOut.flush();
+    }
+
+    public int getDepth() {
+        return mTagCount;
+    }
+
+    public String getName() {
+        return mTagCount > 0 ? mTagNames[mTagCount - 1] : null;
+    }
+
+    public String getNamespace() {
+        return XmlPullParser.NO_NAMESPACE;
+    }
+
+    public String getPrefix(String namespace, boolean generatePrefix)
+            throws IllegalArgumentException {
+        throw new UnsupportedOperationException();
+    }
+
+    public void setPrefix(String prefix, String namespace) throws IOException,
+            IllegalArgumentException, IllegalStateException {
+        throw new UnsupportedOperationException();
+    }
+
+    public boolean getFeature(String name) {
+        throw new UnsupportedOperationException();
+    }
+
+    public void setFeature(String name, boolean state) throws IllegalArgumentException,
+            IllegalStateException {
+        if (name.equals("http://xmlpull.org/v1/doc/features.html#indent-output")) {
+            // Whitespace has no meaning in the binary format.
+            return;
+        }
+        throw new UnsupportedOperationException();
+    }
+
+    public Object getProperty(String name) {
+        throw new UnsupportedOperationException();
+    }
+
+    public void setProperty(String name, Object value) throws IllegalArgumentException,
+            IllegalStateException {
+        throw new UnsupportedOperationException();
+    }
+
+    private void writeToken(int token, String text) throws IOException {
+        if (text != null) {
+            mOut.writeByte(token | TYPE_STRING);
+            writeString(text);
+        } else {
+            mOut.writeByte(token | TYPE_NULL);
+        }
+    }
+
+    private void writeString(String value) throws IOException {
+        final byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        writeBytes(bytes);
+    }
+
+    private void writeBytes(byte[] value) throws IOException {
+        if (value.length < LENGTH_LONG) {
+            mOut.writeShort(value.length);
+        } else {
+            mOut.writeShort(LENGTH_LONG);
+            mOut.writeInt(value.length);
+        }
+        mOut.write(value);
+    }
+
+    private void writeInternedString(String value) throws IOException {
+        final Integer index = mInterned.get(value);
+        if (index != null) {
+            mOut.writeShort(index);
+            return;
+        }
+        mOut.writeShort(INTERNED_NEW);
+        writeString(value);
+        // Keep the table addressable by an unsigned short; anything past that is simply
+        // written inline every time.
+        if (mInterned.size() < INTERNED_NEW) {
+            mInterned.put(value, mInterned.size());
+        }
+    }
+}
@@ -20,6 +20,7 @@ import android.annotation.NonNull;
 import android.annotation.Nullable;
 import android.util.Log;
 
+import java.io.PrintWriter;
 import java.util.Arrays;
 
 /**
@@ -41,6 +42,15 @@ public class ExponentiallyBucketedHistogram {
         mData = new int[numBuckets];
     }
 
+    /**
+     * Create a copy of a histogram.
+     *
+     * @param other The histogram to copy
+     */
+    public ExponentiallyBucketedHistogram(@NonNull ExponentiallyBucketedHistogram other) {
+        mData = other.mData.clone();
+    }
+
     /**
      * Add a new value to the histogram.
      *
@@ -71,6 +81,20 @@ public class ExponentiallyBucketedHistogram {
      * @param prefix A custom prefix that is printed in front of the histogram
      */
     public void log(@NonNull String tag, @Nullable CharSequence prefix) {
+        Log.d(tag, format(prefix));
+    }
+
+    /**
+     * Write the histogram to a {@link PrintWriter}, in the same format as {@link #log}.
+     *
+     * @param pw     The writer to print to
+     * @param prefix A custom prefix that is printed in front of the histogram
+     */
+    public void dump(@NonNull PrintWriter pw, @Nullable CharSequence prefix) {
+        pw.println(format(prefix));
+    }
+
+    private String format(@Nullable CharSequence prefix) {
         StringBuilder builder = new StringBuilder(prefix);
         builder.append('[');
 
@@ -92,6 +116,6 @@ public class ExponentiallyBucketedHistogram {
         }
         builder.append("]");
 
-        Log.d(tag, builder.toString());
+        return builder.toString();
     }
 }
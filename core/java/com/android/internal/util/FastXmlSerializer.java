@@ -55,6 +55,8 @@ public class FastXmlSerializer implements XmlSerializer {
 
     private final int mBufferLen;
     private final char[] mText;
+    /** Scratch space for formatting a long, including its sign. */
+    private final char[] mDigits = new char[20];
     private int mPos;
 
     private Writer mWriter;
@@ -181,8 +183,7 @@ public class FastXmlSerializer implements XmlSerializer {
         if (lastPos < pos) append(buf, lastPos, pos-lastPos);
     }
 
-    public XmlSerializer attribute(String namespace, String name, String value) throws IOException,
-            IllegalArgumentException, IllegalStateException {
+    private void appendAttributeStart(String namespace, String name) throws IOException {
         append(' ');
         if (namespace != null) {
             append(namespace);
@@ -190,13 +191,70 @@ public class FastXmlSerializer implements XmlSerializer {
         }
         append(name);
         append("=\"");
+    }
+
+    private void appendDecimal(long value) throws IOException {
+        if (value == Long.MIN_VALUE) {
+            // Can't be negated below.
+            append(Long.toString(value));
+            return;
+        }
+        final char[] digits = mDigits;
+        final boolean negative = value < 0;
+        if (negative) {
+            value = -value;
+        }
+        int pos = digits.length;
+        do {
+            digits[--pos] = (char) ('0' + (value % 10));
+            value /= 10;
+        } while (value != 0);
+        if (negative) {
+            digits[--pos] = '-';
+        }
+        append(digits, pos, digits.length - pos);
+    }
 
+    public XmlSerializer attribute(String namespace, String name, String value) throws IOException,
+            IllegalArgumentException, IllegalStateException {
+        appendAttributeStart(namespace, name);
         escapeAndAppendString(value);
         append('"');
         mLineStart = false;
         return this;
     }
 
+    /**
+     * Write an int attribute, formatting the digits directly into the output buffer
+     * rather than through a temporary String.
+     */
+    public XmlSerializer attributeInt(String namespace, String name, int value)
+            throws IOException {
+        return attributeLong(namespace, name, value);
+    }
+
+    /**
+     * Write a long attribute, formatting the digits directly into the output buffer
+     * rather than through a temporary String.
+     */
+    public XmlSerializer attributeLong(String namespace, String name, long value)
+            throws IOException {
+        appendAttributeStart(namespace, name);
+        appendDecimal(value);
+        append('"');
+        mLineStart = false;
+        return this;
+    }
+
+    public XmlSerializer attributeBoolean(String namespace, String name, boolean value)
+            throws IOException {
+        appendAttributeStart(namespace, name);
+        append(value ? "true" : "false");
+        append('"');
+        mLineStart = false;
+        return this;
+    }
+
     public void cdsect(String text) throws IOException, IllegalArgumentException,
             IllegalStateException {
         throw new UnsupportedOperationException();
@@ -0,0 +1,110 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.internal.util;
+
+/**
+ * A pool of reusable objects kept separately for each thread. Threads that obtain and release
+ * objects at the same time neither contend on a lock nor run out of instances because another
+ * thread took them. Each thread keeps at most {@code maxSize} released objects, and objects
+ * released on a thread other than the one that obtained them join the pool of the releasing
+ * thread.
+ *
+ * @param <T> The type of the pooled objects.
+ */
+public abstract class ThreadLocalPool<T> {
+    private final int mMaxSize;
+
+    private final ThreadLocal<Pool> mPools = new ThreadLocal<Pool>() {
+        @Override
+        protected Pool initialValue() {
+            return new Pool(mMaxSize);
+        }
+    };
+
+    /**
+     * @param maxSize The maximum number of objects kept by each thread.
+     */
+    public ThreadLocalPool(int maxSize) {
+        if (maxSize <= 0) {
+            throw new IllegalArgumentException("The max pool size must be > 0");
+        }
+        mMaxSize = maxSize;
+    }
+
+    /**
+     * Creates a new object when the pool of the calling thread is empty.
+     */
+    protected abstract T create();
+
+    /**
+     * Returns an object from the pool of the calling thread, or a new one if it is empty.
+     */
+    @SuppressWarnings("unchecked")
+    public T obtain() {
+        final Pool pool = mPools.get();
+        if (pool.mSize > 0) {
+            final int last = --pool.mSize;
+            final T instance = (T) pool.mItems[last];
+            pool.mItems[last] = null;
+            pool.mHits++;
+            return instance;
+        }
+        pool.mMisses++;
+        return create();
+    }
+
+    /**
+     * Puts an object into the pool of the calling thread.
+     *
+     * @return Whether the object was kept, rather than dropped because the pool was full.
+     */
+    public boolean release(T instance) {
+        final Pool pool = mPools.get();
+        if (pool.mSize < mMaxSize) {
+            pool.mItems[pool.mSize++] = instance;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Returns how many calls to {@link #obtain()} on the calling thread were served from the
+     * pool. The counts are kept per thread so that updating them is free of contention.
+     */
+    public long getHitCount() {
+        return mPools.get().mHits;
+    }
+
+    /**
+     * Returns how many calls to {@link #obtain()} on the calling thread had to create a new
+     * object.
+     */
+    public long getMissCount() {
+        return mPools.get().mMisses;
+    }
+
+    private static final class Pool {
+        final Object[] mItems;
+        int mSize;
+        long mHits;
+        long mMisses;
+
+        Pool(int maxSize) {
+            mItems = new Object[maxSize];
+        }
+    }
+}
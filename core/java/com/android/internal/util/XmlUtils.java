@@ -20,6 +20,7 @@ import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
 import android.graphics.Bitmap.CompressFormat;
 import android.net.Uri;
+import android.os.SystemProperties;
 import android.text.TextUtils;
 import android.util.ArrayMap;
 import android.util.Base64;
@@ -29,6 +30,7 @@ import org.xmlpull.v1.XmlPullParser;
 import org.xmlpull.v1.XmlPullParserException;
 import org.xmlpull.v1.XmlSerializer;
 
+import java.io.BufferedInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
@@ -48,6 +50,48 @@ public class XmlUtils {
 
     private static final String STRING_ARRAY_SEPARATOR = ":";
 
+    /**
+     * When set, {@link #resolveSerializer} writes binary XML instead of text. Readers going
+     * through {@link #resolvePullParser} accept both, so the flag can be flipped either way
+     * without losing existing data.
+     */
+    private static final String PROP_BINARY_XML = "persist.sys.binary_xml";
+
+    /**
+     * Return a parser positioned at the start of the given stream, which may contain either
+     * text XML or binary XML written by {@link BinaryXmlSerializer}.
+     */
+    public static XmlPullParser resolvePullParser(InputStream in)
+            throws IOException, XmlPullParserException {
+        if (!in.markSupported()) {
+            in = new BufferedInputStream(in);
+        }
+        final XmlPullParser parser;
+        if (BinaryXmlPullParser.isBinaryXml(in)) {
+            parser = new BinaryXmlPullParser();
+        } else {
+            parser = Xml.newPullParser();
+        }
+        parser.setInput(in, StandardCharsets.UTF_8.name());
+        return parser;
+    }
+
+    /**
+     * Return a serializer writing to the given stream. This is a {@link FastXmlSerializer}
+     * unless binary XML has been enabled on the device, in which case the output must be read
+     * back through {@link #resolvePullParser}.
+     */
+    public static XmlSerializer resolveSerializer(OutputStream out) throws IOException {
+        final XmlSerializer serializer;
+        if (SystemProperties.getBoolean(PROP_BINARY_XML, false)) {
+            serializer = new BinaryXmlSerializer();
+        } else {
+            serializer = new FastXmlSerializer();
+        }
+        serializer.setOutput(out, StandardCharsets.UTF_8.name());
+        return serializer;
+    }
+
     public static void skipCurrentTag(XmlPullParser parser)
             throws XmlPullParserException, IOException {
         int outerDepth = parser.getDepth();
@@ -714,7 +758,19 @@ public class XmlUtils {
         if (name != null) {
             out.attribute(null, "name", name);
         }
-        out.attribute(null, "value", v.toString());
+        // The typed helpers produce the same text as toString(), but let the serializer
+        // store the value without building a String first.
+        if (v instanceof Integer) {
+            writeIntAttribute(out, "value", (Integer) v);
+        } else if (v instanceof Long) {
+            writeLongAttribute(out, "value", (Long) v);
+        } else if (v instanceof Boolean) {
+            writeBooleanAttribute(out, "value", (Boolean) v);
+        } else if (v instanceof Float) {
+            writeFloatAttribute(out, "value", (Float) v);
+        } else {
+            out.attribute(null, "value", v.toString());
+        }
         out.endTag(null, typeStr);
     }
 
@@ -1528,6 +1584,9 @@ public class XmlUtils {
     private static final Object readThisPrimitiveValueXml(XmlPullParser parser, String tagName)
     throws XmlPullParserException, java.io.IOException
     {
+        if (parser instanceof BinaryXmlPullParser) {
+            return readThisPrimitiveValueXml((BinaryXmlPullParser) parser, tagName);
+        }
         try {
             if (tagName.equals("int")) {
                 return Integer.parseInt(parser.getAttributeValue(null, "value"));
@@ -1550,6 +1609,38 @@ public class XmlUtils {
         }
     }
 
+    /**
+     * Variant of {@link #readThisPrimitiveValueXml(XmlPullParser, String)} that reads typed
+     * values straight out of a binary parser without going through a String.
+     */
+    private static Object readThisPrimitiveValueXml(BinaryXmlPullParser parser, String tagName)
+            throws XmlPullParserException {
+        final boolean known = tagName.equals("int") || tagName.equals("long")
+                || tagName.equals("float") || tagName.equals("double")
+                || tagName.equals("boolean");
+        if (!known) {
+            return null;
+        }
+        final int index = parser.getAttributeIndex(null, "value");
+        if (index < 0) {
+            throw new XmlPullParserException("Need value attribute in <" + tagName + ">");
+        }
+        switch (tagName) {
+            case "int":
+                return parser.getAttributeInt(index);
+            case "long":
+                return parser.getAttributeLong(index);
+            case "float":
+                return parser.getAttributeFloat(index);
+            case "double":
+                return parser.getAttributeDouble(index);
+            default:
+                // Boolean.valueOf() treats anything other than "true" as false
+                final String value = parser.getAttributeValue(index);
+                return "true".equalsIgnoreCase(value);
+        }
+    }
+
     public static final void beginDocument(XmlPullParser parser, String firstElementName) throws XmlPullParserException, IOException
     {
         int type;
@@ -1593,6 +1684,18 @@ public class XmlUtils {
     }
 
     public static int readIntAttribute(XmlPullParser in, String name, int defaultValue) {
+        if (in instanceof BinaryXmlPullParser) {
+            final BinaryXmlPullParser binary = (BinaryXmlPullParser) in;
+            final int index = binary.getAttributeIndex(null, name);
+            if (index < 0) {
+                return defaultValue;
+            }
+            try {
+                return binary.getAttributeInt(index);
+            } catch (XmlPullParserException e) {
+                return defaultValue;
+            }
+        }
         final String value = in.getAttributeValue(null, name);
         if (TextUtils.isEmpty(value)) {
             return defaultValue;
@@ -1605,6 +1708,14 @@ public class XmlUtils {
     }
 
     public static int readIntAttribute(XmlPullParser in, String name) throws IOException {
+        if (in instanceof BinaryXmlPullParser) {
+            final BinaryXmlPullParser binary = (BinaryXmlPullParser) in;
+            try {
+                return binary.getAttributeInt(requireAttributeIndex(binary, name));
+            } catch (XmlPullParserException e) {
+                throw new ProtocolException("problem parsing " + name + " as int");
+            }
+        }
         final String value = in.getAttributeValue(null, name);
         try {
             return Integer.parseInt(value);
@@ -1615,10 +1726,28 @@ public class XmlUtils {
 
     public static void writeIntAttribute(XmlSerializer out, String name, int value)
             throws IOException {
-        out.attribute(null, name, Integer.toString(value));
+        if (out instanceof BinaryXmlSerializer) {
+            ((BinaryXmlSerializer) out).attributeInt(null, name, value);
+        } else if (out instanceof FastXmlSerializer) {
+            ((FastXmlSerializer) out).attributeInt(null, name, value);
+        } else {
+            out.attribute(null, name, Integer.toString(value));
+        }
     }
 
     public static long readLongAttribute(XmlPullParser in, String name, long defaultValue) {
+        if (in instanceof BinaryXmlPullParser) {
+            final BinaryXmlPullParser binary = (BinaryXmlPullParser) in;
+            final int index = binary.getAttributeIndex(null, name);
+            if (index < 0) {
+                return defaultValue;
+            }
+            try {
+                return binary.getAttributeLong(index);
+            } catch (XmlPullParserException e) {
+                return defaultValue;
+            }
+        }
         final String value = in.getAttributeValue(null, name);
         if (TextUtils.isEmpty(value)) {
             return defaultValue;
@@ -1631,6 +1760,14 @@ public class XmlUtils {
     }
 
     public static long readLongAttribute(XmlPullParser in, String name) throws IOException {
+        if (in instanceof BinaryXmlPullParser) {
+            final BinaryXmlPullParser binary = (BinaryXmlPullParser) in;
+            try {
+                return binary.getAttributeLong(requireAttributeIndex(binary, name));
+            } catch (XmlPullParserException e) {
+                throw new ProtocolException("problem parsing " + name + " as long");
+            }
+        }
         final String value = in.getAttributeValue(null, name);
         try {
             return Long.parseLong(value);
@@ -1641,10 +1778,24 @@ public class XmlUtils {
 
     public static void writeLongAttribute(XmlSerializer out, String name, long value)
             throws IOException {
-        out.attribute(null, name, Long.toString(value));
+        if (out instanceof BinaryXmlSerializer) {
+            ((BinaryXmlSerializer) out).attributeLong(null, name, value);
+        } else if (out instanceof FastXmlSerializer) {
+            ((FastXmlSerializer) out).attributeLong(null, name, value);
+        } else {
+            out.attribute(null, name, Long.toString(value));
+        }
     }
 
     public static float readFloatAttribute(XmlPullParser in, String name) throws IOException {
+        if (in instanceof BinaryXmlPullParser) {
+            final BinaryXmlPullParser binary = (BinaryXmlPullParser) in;
+            try {
+                return binary.getAttributeFloat(requireAttributeIndex(binary, name));
+            } catch (XmlPullParserException e) {
+                throw new ProtocolException("problem parsing " + name + " as float");
+            }
+        }
         final String value = in.getAttributeValue(null, name);
         try {
             return Float.parseFloat(value);
@@ -1655,16 +1806,32 @@ public class XmlUtils {
 
     public static void writeFloatAttribute(XmlSerializer out, String name, float value)
             throws IOException {
-        out.attribute(null, name, Float.toString(value));
+        if (out instanceof BinaryXmlSerializer) {
+            ((BinaryXmlSerializer) out).attributeFloat(null, name, value);
+        } else {
+            out.attribute(null, name, Float.toString(value));
+        }
     }
 
     public static boolean readBooleanAttribute(XmlPullParser in, String name) {
-        final String value = in.getAttributeValue(null, name);
-        return Boolean.parseBoolean(value);
+        return readBooleanAttribute(in, name, false);
     }
 
     public static boolean readBooleanAttribute(XmlPullParser in, String name,
             boolean defaultValue) {
+        if (in instanceof BinaryXmlPullParser) {
+            final BinaryXmlPullParser binary = (BinaryXmlPullParser) in;
+            final int index = binary.getAttributeIndex(null, name);
+            if (index < 0) {
+                return defaultValue;
+            }
+            try {
+                return binary.getAttributeBoolean(index);
+            } catch (XmlPullParserException e) {
+                // Matches Boolean.parseBoolean() for anything other than "true"
+                return false;
+            }
+        }
         final String value = in.getAttributeValue(null, name);
         if (value == null) {
             return defaultValue;
@@ -1675,7 +1842,13 @@ public class XmlUtils {
 
     public static void writeBooleanAttribute(XmlSerializer out, String name, boolean value)
             throws IOException {
-        out.attribute(null, name, Boolean.toString(value));
+        if (out instanceof BinaryXmlSerializer) {
+            ((BinaryXmlSerializer) out).attributeBoolean(null, name, value);
+        } else if (out instanceof FastXmlSerializer) {
+            ((FastXmlSerializer) out).attributeBoolean(null, name, value);
+        } else {
+            out.attribute(null, name, Boolean.toString(value));
+        }
     }
 
     public static Uri readUriAttribute(XmlPullParser in, String name) {
@@ -1702,6 +1875,18 @@ public class XmlUtils {
     }
 
     public static byte[] readByteArrayAttribute(XmlPullParser in, String name) {
+        if (in instanceof BinaryXmlPullParser) {
+            final BinaryXmlPullParser binary = (BinaryXmlPullParser) in;
+            final int index = binary.getAttributeIndex(null, name);
+            if (index < 0) {
+                return null;
+            }
+            try {
+                return binary.getAttributeBytesBase64(index);
+            } catch (XmlPullParserException e) {
+                throw new IllegalArgumentException(e);
+            }
+        }
         final String value = in.getAttributeValue(null, name);
         if (value != null) {
             return Base64.decode(value, Base64.DEFAULT);
@@ -1712,11 +1897,25 @@ public class XmlUtils {
 
     public static void writeByteArrayAttribute(XmlSerializer out, String name, byte[] value)
             throws IOException {
-        if (value != null) {
+        if (value == null) {
+            return;
+        }
+        if (out instanceof BinaryXmlSerializer) {
+            ((BinaryXmlSerializer) out).attributeBytesBase64(null, name, value);
+        } else {
             out.attribute(null, name, Base64.encodeToString(value, Base64.DEFAULT));
         }
     }
 
+    private static int requireAttributeIndex(BinaryXmlPullParser in, String name)
+            throws ProtocolException {
+        final int index = in.getAttributeIndex(null, name);
+        if (index < 0) {
+            throw new ProtocolException("missing attribute " + name);
+        }
+        return index;
+    }
+
     public static Bitmap readBitmapAttribute(XmlPullParser in, String name) {
         final byte[] value = readByteArrayAttribute(in, name);
         if (value != null) {
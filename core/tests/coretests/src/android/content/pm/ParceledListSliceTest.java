@@ -94,11 +94,17 @@ public class ParceledListSliceTest extends TestCase {
     }
 
     private void sendParcelStringList(List<String> list) {
+        sendParcelStringList(list, 0);
+    }
+
+    private void sendParcelStringList(List<String> list, int stringSectionFlags) {
         StringParceledListSlice slice;
         Parcel parcel = Parcel.obtain();
 
         try {
-            parcel.writeParcelable(new StringParceledListSlice(list), 0);
+            final StringParceledListSlice out = new StringParceledListSlice(list);
+            out.setStringSectionFlags(stringSectionFlags);
+            parcel.writeParcelable(out, 0);
             parcel.setDataPosition(0);
             slice = parcel.readParcelable(getClass().getClassLoader());
         } finally {
@@ -129,6 +135,28 @@ public class ParceledListSliceTest extends TestCase {
         sendParcelStringList(list);
     }
 
+    public void testPooledStringList() throws Exception {
+        final List<String> list = new ArrayList<String>();
+        for (int i = 0; i < 400; i++) {
+            list.add((i % 7 == 0) ? null : "com.example.\u00e9t\u00e9" + (i % 10));
+        }
+
+        sendParcelStringList(list, Parcel.STRING_SECTION_POOLED);
+        sendParcelStringList(list, Parcel.STRING_SECTION_UTF8);
+        sendParcelStringList(list, Parcel.STRING_SECTION_POOLED | Parcel.STRING_SECTION_UTF8);
+    }
+
+    public void testLargePooledStringList() throws Exception {
+        final int thresholdBytes = 256 * 1024;
+        final List<String> list = new ArrayList<String>();
+        for (int i = 0; list.size() * 4 < 2 * thresholdBytes; i++) {
+            // Mostly new strings so the list still spans several transactions.
+            list.add(Long.toString(Long.MAX_VALUE - i / 2));
+        }
+
+        sendParcelStringList(list, Parcel.STRING_SECTION_POOLED | Parcel.STRING_SECTION_UTF8);
+    }
+
 
     /**
      * Test that only homogeneous elements may be unparceled.
@@ -170,6 +198,9 @@ public class ParceledListSliceTest extends TestCase {
         // to simulate an attack on ParceledListSlice.
         dest.writeString(BaseObject.class.getName());
 
+        // No string section.
+        dest.writeInt(0);
+
         for (int i = 0; i < listCount; i++) {
             // 1 means the item is present.
             dest.writeInt(1);
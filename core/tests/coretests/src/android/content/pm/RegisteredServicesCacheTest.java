@@ -16,6 +16,7 @@
 
 package android.content.pm;
 
+import android.content.ComponentName;
 import android.content.res.Resources;
 import android.os.FileUtils;
 import android.os.Parcel;
@@ -186,6 +187,66 @@ public class RegisteredServicesCacheTest extends AndroidTestCase {
         assertEquals(0, cache.getPersistentServicesSize(u1));
     }
 
+    public void testGenerateServicesMap_unchangedPackageReused() {
+        TestServicesCache cache = new TestServicesCache();
+        ResolveInfo resolveInfo = newResolveInfo(UID1, 1);
+        cache.addServiceForQuerying(U0, resolveInfo, newServiceInfo(t1, resolveInfo));
+        assertEquals(1, cache.getAllServicesSize(U0));
+        assertEquals(1, cache.getParseCount());
+        // Another package changed, so the service is taken over without parsing it again
+        cache.generateServicesMap(new int[] {UID2}, U0);
+        assertEquals(1, cache.getParseCount());
+        assertEquals(1, cache.getAllServicesSize(U0));
+    }
+
+    public void testGenerateServicesMap_versionCodeChanged_parsedAgain() {
+        TestServicesCache cache = new TestServicesCache();
+        ResolveInfo resolveInfo = newResolveInfo(UID1, 1);
+        cache.addServiceForQuerying(U0, resolveInfo, newServiceInfo(t1, resolveInfo));
+        assertEquals(1, cache.getAllServicesSize(U0));
+        assertEquals(1, cache.getParseCount());
+        // Package updated, but the broadcast named another uid
+        cache.clearServicesForQuerying();
+        ResolveInfo updated = newResolveInfo(UID1, 2);
+        cache.addServiceForQuerying(U0, updated, newServiceInfo(t1, updated));
+        cache.generateServicesMap(new int[] {UID2}, U0);
+        assertEquals(2, cache.getParseCount());
+        assertEquals(2, cache.getServiceInfo(t1, U0).componentInfo.applicationInfo.versionCode);
+    }
+
+    public void testGenerateServicesMap_uidChanged_parsedAgain() {
+        TestServicesCache cache = new TestServicesCache();
+        ResolveInfo resolveInfo = newResolveInfo(UID1, 1);
+        cache.addServiceForQuerying(U0, resolveInfo, newServiceInfo(t1, resolveInfo));
+        assertEquals(1, cache.getAllServicesSize(U0));
+        assertEquals(1, cache.getParseCount());
+        // Same component and version, now provided by a system image package
+        cache.clearServicesForQuerying();
+        ResolveInfo replaced = newResolveInfo(SYSTEM_IMAGE_UID, 1);
+        cache.addServiceForQuerying(U0, replaced, newServiceInfo(t1, replaced));
+        cache.generateServicesMap(new int[] {UID2}, U0);
+        assertEquals(2, cache.getParseCount());
+        assertEquals(SYSTEM_IMAGE_UID, cache.getServiceInfo(t1, U0).uid);
+    }
+
+    private static ResolveInfo newResolveInfo(int uid, int versionCode) {
+        final ResolveInfo resolveInfo = new ResolveInfo();
+        resolveInfo.serviceInfo = new ServiceInfo();
+        resolveInfo.serviceInfo.packageName = "com.example.test";
+        resolveInfo.serviceInfo.name = "com.example.test.TestService";
+        resolveInfo.serviceInfo.applicationInfo = new ApplicationInfo();
+        resolveInfo.serviceInfo.applicationInfo.uid = uid;
+        resolveInfo.serviceInfo.applicationInfo.versionCode = versionCode;
+        return resolveInfo;
+    }
+
+    private static RegisteredServicesCache.ServiceInfo<TestServiceType> newServiceInfo(
+            TestServiceType type, ResolveInfo resolveInfo) {
+        final ServiceInfo info = resolveInfo.serviceInfo;
+        return new RegisteredServicesCache.ServiceInfo<>(type, info,
+                new ComponentName(info.packageName, info.name));
+    }
+
     private static RegisteredServicesCache.ServiceInfo<TestServiceType> newServiceInfo(
             TestServiceType type, int uid) {
         final ComponentInfo info = new ComponentInfo();
@@ -210,6 +271,7 @@ public class RegisteredServicesCacheTest extends AndroidTestCase {
         static final String ATTRIBUTES_NAME = "test";
         private SparseArray<Map<ResolveInfo, ServiceInfo<TestServiceType>>> mServices
                 = new SparseArray<>();
+        private int mParseCount;
 
         public TestServicesCache() {
             super(RegisteredServicesCacheTest.this.mContext,
@@ -278,6 +340,10 @@ public class RegisteredServicesCacheTest extends AndroidTestCase {
             return getAllServices(user).size();
         }
 
+        int getParseCount() {
+            return mParseCount;
+        }
+
         @Override
         protected boolean inSystemImage(int callerUid) {
             return callerUid == SYSTEM_IMAGE_UID;
@@ -286,6 +352,7 @@ public class RegisteredServicesCacheTest extends AndroidTestCase {
         @Override
         protected ServiceInfo<TestServiceType> parseServiceInfo(
                 ResolveInfo resolveInfo) throws XmlPullParserException, IOException {
+            mParseCount++;
             int size = mServices.size();
             for (int i = 0; i < size; i++) {
                 Map<ResolveInfo, ServiceInfo<TestServiceType>> map = mServices.valueAt(i);
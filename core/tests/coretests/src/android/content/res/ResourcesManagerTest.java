@@ -96,6 +96,23 @@ public class ResourcesManagerTest extends TestCase {
         assertNotSame(resources, newResources);
     }
 
+    @SmallTest
+    public void testInvalidatePathCreatesNewImpl() {
+        Resources resources = mResourcesManager.getResources(
+                null, APP_ONE_RES_DIR, null, null, null, Display.DEFAULT_DISPLAY, null,
+                CompatibilityInfo.DEFAULT_COMPATIBILITY_INFO, null);
+        assertNotNull(resources);
+
+        mResourcesManager.invalidatePath(APP_ONE_RES_DIR);
+
+        Resources newResources = mResourcesManager.getResources(
+                null, APP_ONE_RES_DIR, null, null, null, Display.DEFAULT_DISPLAY, null,
+                CompatibilityInfo.DEFAULT_COMPATIBILITY_INFO, null);
+        assertNotNull(newResources);
+        assertNotSame(resources, newResources);
+        assertNotSame(resources.getImpl(), newResources.getImpl());
+    }
+
     @SmallTest
     public void testAddingASplitCreatesANewImpl() {
         Resources resources1 = mResourcesManager.getResources(
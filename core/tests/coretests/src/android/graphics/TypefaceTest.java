@@ -89,4 +89,56 @@ public class TypefaceTest extends TestCase {
         }
     }
 
+    @SmallTest
+    public void testCreate_sameInstanceFromManyThreads() throws Exception {
+        final Typeface expected = Typeface.create(Typeface.SERIF, Typeface.BOLD_ITALIC);
+        final Typeface[] results = new Typeface[4];
+        final Thread[] threads = new Thread[results.length];
+        for (int i = 0; i < threads.length; i++) {
+            final int index = i;
+            threads[i] = new Thread(() -> {
+                results[index] = Typeface.create(Typeface.SERIF, Typeface.BOLD_ITALIC);
+            });
+            threads[i].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        for (Typeface result : results) {
+            assertSame(expected, result);
+        }
+    }
+
+    @SmallTest
+    public void testDynamicTypefaceCache_growsWhenEvictedKeyIsRequested() throws Exception {
+        final Typeface.DynamicTypefaceCache cache = new Typeface.DynamicTypefaceCache();
+        final int initialSize = Typeface.DynamicTypefaceCache.INITIAL_SIZE;
+        for (int i = 0; i <= initialSize; i++) {
+            cache.put("font" + i, Typeface.DEFAULT);
+        }
+        assertEquals(1, cache.evictionCount());
+        assertEquals(initialSize, cache.maxSize());
+
+        // A key that was never cached does not make the cache grow.
+        assertNull(cache.get("other"));
+        assertEquals(initialSize, cache.maxSize());
+
+        // The evicted one does.
+        assertNull(cache.get("font0"));
+        assertEquals(initialSize * 2, cache.maxSize());
+        assertEquals(1, cache.getGrowCount());
+    }
+
+    @SmallTest
+    public void testDynamicTypefaceCache_growthIsBounded() throws Exception {
+        final Typeface.DynamicTypefaceCache cache = new Typeface.DynamicTypefaceCache();
+        for (int round = 0; round < 10; round++) {
+            final int size = cache.maxSize();
+            for (int i = 0; i <= size; i++) {
+                cache.put("font" + i, Typeface.DEFAULT);
+            }
+            cache.get("font0");
+        }
+        assertEquals(Typeface.DynamicTypefaceCache.MAX_SIZE, cache.maxSize());
+    }
 }
@@ -20,8 +20,10 @@ import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 
+import android.graphics.Rect;
 import android.support.test.runner.AndroidJUnit4;
 import android.test.suitebuilder.annotation.SmallTest;
+import android.text.SpannableString;
 
 import org.junit.Test;
 import org.junit.runner.RunWith;
@@ -137,4 +139,73 @@ public class BundleTest {
         checkBundle(b, withFd);
         p.recycle();
     }
+
+    @Test
+    public void testLazyUnparcel() throws Exception {
+        final Bundle source = new Bundle();
+        source.putInt("int", 7);
+        source.putString("string", "abc");
+        source.putByteArray("bytes", new byte[1024]);
+        source.putParcelable("rect", new Rect(1, 2, 3, 4));
+        source.putParcelableArray("rects", new Rect[] { new Rect(), null });
+        final Bundle nested = new Bundle();
+        nested.putLong("long", 42L);
+        source.putBundle("nested", nested);
+
+        final Parcel p = Parcel.obtain();
+        source.writeToParcel(p, 0);
+        p.setDataPosition(0);
+
+        BaseBundle.setShouldLazyUnparcel(true);
+        try {
+            final Bundle b = Bundle.CREATOR.createFromParcel(p);
+            assertEquals(7, b.getInt("int"));
+            assertEquals("abc", b.getString("string"));
+            assertTrue(b.containsKey("rect"));
+            assertFalse(b.containsKey("missing"));
+            assertEquals(0, b.getInt("missing"));
+            assertTrue("Reading immutable values shouldn't unparcel", b.isParcelled());
+
+            // Untouched data is copied through as is
+            final Parcel copy = Parcel.obtain();
+            b.writeToParcel(copy, 0);
+            assertEquals(p.dataSize(), copy.dataSize());
+            copy.setDataPosition(0);
+            final Bundle c = Bundle.CREATOR.createFromParcel(copy);
+            copy.recycle();
+
+            // Values the caller could modify unparcel everything
+            assertEquals(new Rect(1, 2, 3, 4), c.getParcelable("rect"));
+            assertFalse(c.isParcelled());
+            assertEquals(2, c.getParcelableArray("rects").length);
+            assertEquals(42L, c.getBundle("nested").getLong("long"));
+            assertEquals(1024, c.getByteArray("bytes").length);
+            assertEquals(7, c.getInt("int"));
+        } finally {
+            BaseBundle.setShouldLazyUnparcel(false);
+            p.recycle();
+        }
+    }
+
+    @Test
+    public void testLazyUnparcel_unskippableValue() throws Exception {
+        final Bundle source = new Bundle();
+        source.putCharSequence("text", new SpannableString("text"));
+        source.putInt("int", 7);
+
+        final Parcel p = Parcel.obtain();
+        source.writeToParcel(p, 0);
+        p.setDataPosition(0);
+
+        BaseBundle.setShouldLazyUnparcel(true);
+        try {
+            final Bundle b = Bundle.CREATOR.createFromParcel(p);
+            assertEquals(7, b.getInt("int"));
+            assertFalse(b.isParcelled());
+            assertEquals("text", b.getCharSequence("text").toString());
+        } finally {
+            BaseBundle.setShouldLazyUnparcel(false);
+            p.recycle();
+        }
+    }
 }
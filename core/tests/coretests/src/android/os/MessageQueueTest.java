@@ -23,6 +23,10 @@ import android.test.suitebuilder.annotation.MediumTest;
 import android.test.suitebuilder.annotation.Suppress;
 import junit.framework.TestCase;
 
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
 @Suppress  // Failing.
 public class MessageQueueTest extends TestCase {
 
@@ -275,4 +279,127 @@ public class MessageQueueTest extends TestCase {
 
         tester.doTest(1000);
     }
+
+    private static void waitUntilPolling(MessageQueue queue) throws Exception {
+        final long deadline = SystemClock.uptimeMillis() + 1000;
+        while (!queue.isPolling()) {
+            if (SystemClock.uptimeMillis() > deadline) {
+                fail("Looper never went back to polling");
+            }
+            Thread.sleep(5);
+        }
+    }
+
+    @MediumTest
+    public void testMessagesInFrontOfBarrierWakeStalledLooper() throws Exception {
+        final HandlerThread thread = new HandlerThread("MessageQueueTest");
+        thread.start();
+        try {
+            final CountDownLatch delivered = new CountDownLatch(2);
+            final Handler handler = new Handler(thread.getLooper()) {
+                public void handleMessage(Message msg) {
+                    if (msg.what != 0) {
+                        delivered.countDown();
+                    }
+                }
+            };
+            final MessageQueue queue = thread.getLooper().getQueue();
+            final long beforeBarrier = SystemClock.uptimeMillis() - 1;
+            final int token = queue.postSyncBarrier();
+            try {
+                // Wake the looper behind the barrier so that it blocks again, stalled by it.
+                handler.sendEmptyMessage(0);
+                waitUntilPolling(queue);
+                Thread.sleep(50);
+
+                handler.sendMessageAtFrontOfQueue(handler.obtainMessage(1));
+                handler.sendMessageAtTime(handler.obtainMessage(2), beforeBarrier);
+                assertTrue(delivered.await(1, TimeUnit.SECONDS));
+            } finally {
+                queue.removeSyncBarrier(token);
+            }
+        } finally {
+            thread.quit();
+        }
+    }
+
+    @MediumTest
+    public void testConcurrentProducersKeepOrder() throws Exception {
+        final int producerCount = 4;
+        final int messagesPerProducer = 1000;
+        final HandlerThread thread = new HandlerThread("MessageQueueTest");
+        thread.start();
+        try {
+            final CountDownLatch delivered =
+                    new CountDownLatch(producerCount * messagesPerProducer);
+            final int[] lastSequence = new int[producerCount];
+            final AtomicInteger outOfOrder = new AtomicInteger();
+            final Handler handler = new Handler(thread.getLooper()) {
+                public void handleMessage(Message msg) {
+                    // what is the producer and arg1 its sequence number, from 1.
+                    if (msg.arg1 != lastSequence[msg.what] + 1) {
+                        outOfOrder.incrementAndGet();
+                    }
+                    lastSequence[msg.what] = msg.arg1;
+                    delivered.countDown();
+                }
+            };
+
+            final Thread[] producers = new Thread[producerCount];
+            for (int i = 0; i < producerCount; i++) {
+                final int producer = i;
+                producers[i] = new Thread(() -> {
+                    for (int sequence = 1; sequence <= messagesPerProducer; sequence++) {
+                        handler.sendMessage(handler.obtainMessage(producer, sequence, 0));
+                    }
+                });
+                producers[i].start();
+            }
+            for (Thread producer : producers) {
+                producer.join();
+            }
+
+            assertTrue(delivered.await(5, TimeUnit.SECONDS));
+            assertEquals(0, outOfOrder.get());
+        } finally {
+            thread.quit();
+        }
+    }
+
+    @MediumTest
+    public void testEnqueueRacingQuit() throws Exception {
+        final int producerCount = 4;
+        final HandlerThread thread = new HandlerThread("MessageQueueTest");
+        thread.start();
+        final AtomicInteger handled = new AtomicInteger();
+        final Handler handler = new Handler(thread.getLooper()) {
+            public void handleMessage(Message msg) {
+                handled.incrementAndGet();
+            }
+        };
+
+        final AtomicInteger accepted = new AtomicInteger();
+        final Thread[] producers = new Thread[producerCount];
+        for (int i = 0; i < producerCount; i++) {
+            producers[i] = new Thread(() -> {
+                while (handler.sendEmptyMessage(0)) {
+                    accepted.incrementAndGet();
+                }
+            });
+            producers[i].start();
+        }
+        Thread.sleep(20);
+
+        // Every message accepted before the queue quit is due by then, so quitting safely
+        // delivers all of them, and every other message is refused.
+        thread.quitSafely();
+        for (Thread producer : producers) {
+            producer.join();
+        }
+        thread.join(1000);
+
+        assertFalse(thread.isAlive());
+        assertEquals(accepted.get(), handled.get());
+        assertFalse(handler.sendEmptyMessage(0));
+    }
 }
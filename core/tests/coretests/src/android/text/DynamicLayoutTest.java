@@ -18,6 +18,7 @@ package android.text;
 
 import static android.text.Layout.Alignment.ALIGN_NORMAL;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
@@ -27,7 +28,10 @@ import android.graphics.Canvas;
 import android.graphics.Paint;
 import android.support.test.filters.SmallTest;
 import android.support.test.runner.AndroidJUnit4;
+import android.text.style.LineHeightSpan;
+import android.text.style.MetricAffectingSpan;
 import android.text.style.ReplacementSpan;
+import android.text.style.UpdateLayout;
 
 import org.junit.Test;
 import org.junit.runner.RunWith;
@@ -112,4 +116,125 @@ public class DynamicLayoutTest {
         assertFalse(layout.getBlocksAlwaysNeedToBeRedrawn().contains(0));
         assertTrue(layout.getBlocksAlwaysNeedToBeRedrawn().isEmpty());
     }
+
+    /** A text size span that lays out again when it is set again after a change. */
+    private static class MutableSizeSpan extends MetricAffectingSpan implements UpdateLayout {
+        float mSize;
+
+        MutableSizeSpan(float size) {
+            mSize = size;
+        }
+
+        @Override
+        public void updateMeasureState(TextPaint p) {
+            p.setTextSize(mSize);
+        }
+
+        @Override
+        public void updateDrawState(TextPaint tp) {
+            tp.setTextSize(mSize);
+        }
+    }
+
+    private static class TallerLineSpan implements LineHeightSpan {
+        @Override
+        public void chooseHeight(CharSequence text, int start, int end, int spanstartv, int v,
+                Paint.FontMetricsInt fm) {
+            fm.descent += 7;
+            fm.bottom += 7;
+        }
+    }
+
+    private static void assertLayoutMatchesStaticLayout(DynamicLayout layout,
+            CharSequence text, TextPaint paint, int width, float spacingMult, float spacingAdd,
+            boolean includePad) {
+        final StaticLayout expected = StaticLayout.Builder
+                .obtain(text, 0, text.length(), paint, width)
+                .setLineSpacing(spacingAdd, spacingMult)
+                .setIncludePad(includePad)
+                .build();
+
+        assertEquals(expected.getLineCount(), layout.getLineCount());
+        for (int i = 0; i < expected.getLineCount(); i++) {
+            assertEquals("start of line " + i, expected.getLineStart(i), layout.getLineStart(i));
+            assertEquals("top of line " + i, expected.getLineTop(i), layout.getLineTop(i));
+            assertEquals("descent of line " + i, expected.getLineDescent(i),
+                    layout.getLineDescent(i));
+        }
+        assertEquals(expected.getHeight(), layout.getHeight());
+        assertEquals(expected.getTopPadding(), layout.getTopPadding());
+        assertEquals(expected.getBottomPadding(), layout.getBottomPadding());
+    }
+
+    @Test
+    public void testReflow_longText_matchesStaticLayout() {
+        final TextPaint paint = new TextPaint();
+        paint.setTextSize(20);
+        final int width = 300;
+        final float spacingMult = 1.5f;
+        final float spacingAdd = 3;
+
+        // A long text with paragraphs that wrap, ending with a newline.
+        final SpannableStringBuilder builder = new SpannableStringBuilder();
+        for (int i = 0; builder.length() < 12 * 1024; i++) {
+            builder.append("Paragraph ").append(String.valueOf(i))
+                    .append(" has a few words that wrap onto more lines\n");
+        }
+        final DynamicLayout layout = new DynamicLayout(builder, paint, width, ALIGN_NORMAL,
+                spacingMult, spacingAdd, true /* includepad */);
+        assertLayoutMatchesStaticLayout(layout, builder, paint, width, spacingMult, spacingAdd,
+                true);
+
+        // Edit one paragraph, then one at the start and one at the end.
+        final int middle = TextUtils.indexOf(builder, '\n', builder.length() / 2) + 1;
+        builder.insert(middle + 5, "more words ");
+        assertLayoutMatchesStaticLayout(layout, builder, paint, width, spacingMult, spacingAdd,
+                true);
+        builder.insert(0, "First ");
+        builder.insert(builder.length() - 1, " last");
+        assertLayoutMatchesStaticLayout(layout, builder, paint, width, spacingMult, spacingAdd,
+                true);
+
+        // A span that is changed and set again on the same paragraph, the way a span that
+        // implements UpdateLayout asks for the paragraph to be laid out again.
+        final MutableSizeSpan sizeSpan = new MutableSizeSpan(30);
+        builder.setSpan(sizeSpan, middle, middle + 20, Spanned.SPAN_EXCLUSIVE_EXCLUSIVE);
+        assertLayoutMatchesStaticLayout(layout, builder, paint, width, spacingMult, spacingAdd,
+                true);
+        sizeSpan.mSize = 50;
+        builder.setSpan(sizeSpan, middle, middle + 20, Spanned.SPAN_EXCLUSIVE_EXCLUSIVE);
+        assertLayoutMatchesStaticLayout(layout, builder, paint, width, spacingMult, spacingAdd,
+                true);
+
+        // A LineHeightSpan that runs over a paragraph end, then an edit inside it.
+        final int next = TextUtils.indexOf(builder, '\n', middle) + 1;
+        builder.setSpan(new TallerLineSpan(), next - 10, next + 10,
+                Spanned.SPAN_EXCLUSIVE_EXCLUSIVE);
+        builder.insert(next + 2, "x");
+        assertLayoutMatchesStaticLayout(layout, builder, paint, width, spacingMult, spacingAdd,
+                true);
+
+        // Remove the trailing newline.
+        builder.delete(builder.length() - 1, builder.length());
+        assertLayoutMatchesStaticLayout(layout, builder, paint, width, spacingMult, spacingAdd,
+                true);
+    }
+
+    @Test
+    public void testReflow_longText_withoutPaddingOrSpacing() {
+        final TextPaint paint = new TextPaint();
+        paint.setTextSize(20);
+        final int width = 300;
+
+        final SpannableStringBuilder builder = new SpannableStringBuilder();
+        for (int i = 0; builder.length() < 12 * 1024; i++) {
+            builder.append("Line ").append(String.valueOf(i)).append(" of the text\n");
+        }
+        final DynamicLayout layout = new DynamicLayout(builder, paint, width, ALIGN_NORMAL,
+                1, 0, false /* includepad */);
+
+        builder.insert(builder.length() / 2, "edited ");
+        builder.append("no newline at the end");
+        assertLayoutMatchesStaticLayout(layout, builder, paint, width, 1, 0, false);
+    }
 }
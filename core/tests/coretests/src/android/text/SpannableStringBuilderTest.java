@@ -17,6 +17,7 @@
 package android.text;
 
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
 
@@ -27,6 +28,8 @@ import android.text.style.UnderlineSpan;
 
 import org.junit.Test;
 
+import java.util.Arrays;
+
 public class SpannableStringBuilderTest extends SpannableTest {
 
     protected Spannable newSpannableWithText(String text) {
@@ -58,4 +61,67 @@ public class SpannableStringBuilderTest extends SpannableTest {
         assertEquals(second, spans[2]);
         assertEquals(first, spans[3]);
     }
+
+    @Test
+    public void testGetSpans_rareKindAmongManySpans() {
+        final SpannableStringBuilder builder = new SpannableStringBuilder();
+        final QuoteSpan[] quotes = new QuoteSpan[3];
+        for (int i = 0; i < 100; i++) {
+            final int start = builder.length();
+            builder.append("word ");
+            builder.setSpan(new UnderlineSpan(), start, start + 4,
+                    Spanned.SPAN_EXCLUSIVE_EXCLUSIVE);
+            if (i % 40 == 0) {
+                quotes[i / 40] = new QuoteSpan();
+                builder.setSpan(quotes[i / 40], start, start + 4,
+                        Spanned.SPAN_EXCLUSIVE_EXCLUSIVE);
+            }
+        }
+
+        assertArrayEquals(quotes, builder.getSpans(0, builder.length(), QuoteSpan.class));
+        // Index the kind, as SpanSet does, for the queries that follow.
+        assertEquals(3, builder.countSpans(0, builder.length(), QuoteSpan.class));
+        assertArrayEquals(quotes, builder.getSpans(0, builder.length(), QuoteSpan.class));
+        assertArrayEquals(new QuoteSpan[] { quotes[1] },
+                builder.getSpans(200, 210, QuoteSpan.class));
+        assertEquals(4, builder.nextSpanTransition(1, builder.length(), QuoteSpan.class));
+        assertEquals(200, builder.nextSpanTransition(4, builder.length(), QuoteSpan.class));
+        assertEquals(204, builder.nextSpanTransition(200, builder.length(), QuoteSpan.class));
+
+        // The index must follow changes to the spans.
+        builder.removeSpan(quotes[1]);
+        assertArrayEquals(new QuoteSpan[] { quotes[0], quotes[2] },
+                builder.getSpans(0, builder.length(), QuoteSpan.class));
+        final QuoteSpan[] copied = new QuoteSpan[2];
+        assertEquals(2, builder.copySpans(0, builder.length(), QuoteSpan.class, copied));
+        assertArrayEquals(new QuoteSpan[] { quotes[0], quotes[2] }, copied);
+        builder.insert(0, "x");
+        assertEquals(401, builder.nextSpanTransition(5, builder.length(), QuoteSpan.class));
+
+        // A span added after the kind was indexed is found, although only copySpans() and
+        // countSpans() index the kind again.
+        final QuoteSpan added = new QuoteSpan();
+        builder.setSpan(added, 101, 105, Spanned.SPAN_EXCLUSIVE_EXCLUSIVE);
+        assertArrayEquals(new QuoteSpan[] { quotes[0], quotes[2], added },
+                builder.getSpans(0, builder.length(), QuoteSpan.class));
+        assertEquals(101, builder.nextSpanTransition(5, builder.length(), QuoteSpan.class));
+    }
+
+    @Test
+    public void testCopySpans() {
+        final SpannableStringBuilder builder = new SpannableStringBuilder("p_in_s");
+        final Object first = new UnderlineSpan();
+        final Object second = new SubscriptSpan();
+        final Object third = new QuoteSpan();
+        builder.setSpan(first, 0, 4, Spanned.SPAN_EXCLUSIVE_EXCLUSIVE);
+        builder.setSpan(second, 1, 6, Spanned.SPAN_EXCLUSIVE_EXCLUSIVE);
+        builder.setSpan(third, 2, 6, 1 << Spanned.SPAN_PRIORITY_SHIFT);
+
+        assertEquals(3, builder.countSpans(0, 6, Object.class));
+        final Object[] spans = new Object[4];
+        assertEquals(3, builder.copySpans(0, 6, Object.class, spans));
+        assertArrayEquals(new Object[] { third, first, second, null }, spans);
+        assertArrayEquals(builder.getSpans(4, 6, Object.class),
+                Arrays.copyOf(spans, builder.copySpans(4, 6, Object.class, spans)));
+    }
 }
@@ -18,11 +18,16 @@ package android.text;
 
 import static android.text.Layout.Alignment.ALIGN_NORMAL;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 import android.graphics.Paint.FontMetricsInt;
+import android.os.CancellationSignal;
 import android.os.LocaleList;
+import android.os.OperationCanceledException;
 import android.support.test.filters.SmallTest;
 import android.support.test.runner.AndroidJUnit4;
 import android.text.Layout.Alignment;
@@ -757,4 +762,106 @@ public class StaticLayoutTest {
         assertEquals(0, layout.getHeight(true));
         assertEquals(2, layout.getLineCount());
     }
+
+    private static final CharSequence PRECOMPUTED_TEXT = "CharSequence \u05e9\u05dc\u05d5\u05dd"
+            + " \u05e2\u05d5\u05dc\u05dd with\ttabs\nand a second paragraph that is long"
+            + " enough to be broken and then ellipsized\nthird";
+
+    private static StaticLayout.Builder obtainPrecomputeBuilder(TextPaint paint, int width) {
+        return StaticLayout.Builder.obtain(PRECOMPUTED_TEXT, 0, PRECOMPUTED_TEXT.length(),
+                paint, width)
+                .setAlignment(DEFAULT_ALIGN)
+                .setLineSpacing(2.0f, 1.5f)
+                .setIncludePad(true)
+                .setEllipsize(TextUtils.TruncateAt.END)
+                .setEllipsizedWidth(width)
+                .setMaxLines(4);
+    }
+
+    private static void assertLayoutsEqual(StaticLayout expected, StaticLayout actual) {
+        assertEquals(expected.getText().toString(), actual.getText().toString());
+        assertEquals(expected.getLineCount(), actual.getLineCount());
+        assertEquals(expected.getHeight(), actual.getHeight());
+        assertEquals(expected.getTopPadding(), actual.getTopPadding());
+        assertEquals(expected.getBottomPadding(), actual.getBottomPadding());
+        assertEquals(expected.getEllipsizedWidth(), actual.getEllipsizedWidth());
+        for (int line = 0; line < expected.getLineCount(); line++) {
+            assertEquals(expected.getLineStart(line), actual.getLineStart(line));
+            assertEquals(expected.getLineTop(line), actual.getLineTop(line));
+            assertEquals(expected.getLineDescent(line), actual.getLineDescent(line));
+            assertEquals(expected.getParagraphDirection(line), actual.getParagraphDirection(line));
+            assertArrayEquals(expected.getLineDirections(line).mDirections,
+                    actual.getLineDirections(line).mDirections);
+            assertEquals(expected.getLineContainsTab(line), actual.getLineContainsTab(line));
+            assertEquals(expected.getHyphen(line), actual.getHyphen(line));
+            assertEquals(expected.getEllipsisStart(line), actual.getEllipsisStart(line));
+            assertEquals(expected.getEllipsisCount(line), actual.getEllipsisCount(line));
+        }
+    }
+
+    @Test
+    public void testPrecomputed_matchesLayoutBuiltNormally() {
+        final TextPaint paint = new TextPaint();
+        paint.setTextSize(16);
+        final PrecomputedLayout precomputed = PrecomputedLayout.create(
+                obtainPrecomputeBuilder(paint, DEFAULT_OUTER_WIDTH), null);
+
+        final StaticLayout expected = obtainPrecomputeBuilder(paint, DEFAULT_OUTER_WIDTH).build();
+        final StaticLayout actual = obtainPrecomputeBuilder(paint, DEFAULT_OUTER_WIDTH)
+                .setPrecomputed(precomputed)
+                .build();
+
+        assertEquals(precomputed.getLineCount(), actual.getLineCount());
+        assertLayoutsEqual(expected, actual);
+        // There is ellipsis data to copy.
+        assertTrue(actual.getEllipsisCount(actual.getLineCount() - 1) > 0);
+    }
+
+    @Test
+    public void testPrecomputed_differentWidth_fallsBack() {
+        final TextPaint paint = new TextPaint();
+        paint.setTextSize(16);
+        final PrecomputedLayout precomputed = PrecomputedLayout.create(
+                obtainPrecomputeBuilder(paint, DEFAULT_OUTER_WIDTH), null);
+        final int width = DEFAULT_OUTER_WIDTH * 2;
+
+        final StaticLayout expected = obtainPrecomputeBuilder(paint, width).build();
+        final StaticLayout actual = obtainPrecomputeBuilder(paint, width)
+                .setPrecomputed(precomputed)
+                .build();
+
+        assertNotEquals(precomputed.getLayout().getLineStart(1), actual.getLineStart(1));
+        assertLayoutsEqual(expected, actual);
+    }
+
+    @Test
+    public void testPrecomputed_differentPaint_fallsBack() {
+        final TextPaint paint = new TextPaint();
+        paint.setTextSize(16);
+        final PrecomputedLayout precomputed = PrecomputedLayout.create(
+                obtainPrecomputeBuilder(paint, DEFAULT_OUTER_WIDTH), null);
+        // The builder copied the paint, so changing it afterwards is a mismatch.
+        paint.setTextSize(24);
+
+        final StaticLayout expected = obtainPrecomputeBuilder(paint, DEFAULT_OUTER_WIDTH).build();
+        final StaticLayout actual = obtainPrecomputeBuilder(paint, DEFAULT_OUTER_WIDTH)
+                .setPrecomputed(precomputed)
+                .build();
+
+        assertNotEquals(precomputed.getHeight(), actual.getHeight());
+        assertLayoutsEqual(expected, actual);
+    }
+
+    @Test
+    public void testPrecomputed_canceled_throws() {
+        final CancellationSignal cancellationSignal = new CancellationSignal();
+        cancellationSignal.cancel();
+
+        try {
+            PrecomputedLayout.create(obtainPrecomputeBuilder(new TextPaint(),
+                    DEFAULT_OUTER_WIDTH), cancellationSignal);
+            fail("Expected OperationCanceledException");
+        } catch (OperationCanceledException expected) {
+        }
+    }
 }
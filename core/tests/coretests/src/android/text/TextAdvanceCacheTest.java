@@ -0,0 +1,102 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.text;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+
+import android.graphics.Typeface;
+import android.support.test.filters.SmallTest;
+import android.support.test.runner.AndroidJUnit4;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+@SmallTest
+@RunWith(AndroidJUnit4.class)
+public class TextAdvanceCacheTest {
+    private static final char[] TEXT = "xxNetwork & internetxx".toCharArray();
+    private static final int START = 2;
+    private static final int COUNT = TEXT.length - 4;
+
+    @Before
+    public void setUp() {
+        TextAdvanceCache.clear();
+    }
+
+    private static float measureDirectly(TextPaint paint, float[] advances) {
+        return paint.getTextRunAdvances(TEXT, START, COUNT, START, COUNT, false, advances, START);
+    }
+
+    private static float measureCached(TextPaint paint, float[] advances) {
+        return TextAdvanceCache.getRunAdvances(paint, TEXT, START, COUNT, false, advances,
+                new TextAdvanceCache.Key());
+    }
+
+    @Test
+    public void testGetRunAdvances_matchesPaint() {
+        final TextPaint paint = new TextPaint();
+        paint.setTextSize(32);
+        final float[] expected = new float[TEXT.length];
+        final float expectedWidth = measureDirectly(paint, expected);
+
+        for (int i = 0; i < 2; i++) {
+            final float[] advances = new float[TEXT.length];
+            assertEquals(expectedWidth, measureCached(paint, advances), 0.0f);
+            assertArrayEquals(expected, advances, 0.0f);
+        }
+    }
+
+    @Test
+    public void testGetRunAdvances_paintAttributesAreKeys() {
+        final TextPaint paint = new TextPaint();
+        paint.setTextSize(32);
+        final float width = measureCached(paint, new float[TEXT.length]);
+
+        paint.setTextSize(64);
+        final float[] expected = new float[TEXT.length];
+        final float[] advances = new float[TEXT.length];
+        assertNotEquals(width, measureCached(paint, advances), 0.0f);
+        measureDirectly(paint, expected);
+        assertArrayEquals(expected, advances, 0.0f);
+
+        paint.setTypeface(Typeface.DEFAULT_BOLD);
+        assertEquals(measureDirectly(paint, expected), measureCached(paint, advances), 0.0f);
+        assertArrayEquals(expected, advances, 0.0f);
+
+        paint.setLetterSpacing(0.5f);
+        assertEquals(measureDirectly(paint, expected), measureCached(paint, advances), 0.0f);
+        assertArrayEquals(expected, advances, 0.0f);
+    }
+
+    @Test
+    public void testKey_equalsComparesRunOnly() {
+        final TextPaint paint = new TextPaint();
+        final TextAdvanceCache.Key a = new TextAdvanceCache.Key();
+        a.set(paint, "Wi-Fi".toCharArray(), 0, 5, false);
+        final TextAdvanceCache.Key b = new TextAdvanceCache.Key();
+        b.set(paint, "[Wi-Fi]".toCharArray(), 1, 5, false);
+        assertEquals(a, b);
+        assertEquals(a.hashCode(), b.hashCode());
+        assertEquals(a, b.copy());
+
+        b.set(paint, "[Wi-Fi]".toCharArray(), 1, 5, true);
+        assertNotEquals(a, b);
+    }
+}
@@ -0,0 +1,95 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.util.proto;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import android.support.test.filters.SmallTest;
+import android.support.test.runner.AndroidJUnit4;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+@SmallTest
+@RunWith(AndroidJUnit4.class)
+public class EncodedBufferTest {
+    private static byte[] createData(int size, int seed) {
+        final byte[] data = new byte[size];
+        for (int i = 0; i < size; i++) {
+            data[i] = (byte) (i * 31 + seed);
+        }
+        return data;
+    }
+
+    private static byte[] writeTo(EncodedBuffer buffer, int size) throws IOException {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        buffer.writeTo(out, size);
+        return out.toByteArray();
+    }
+
+    @Test
+    public void testWriteTo_matchesGetBytes() throws IOException {
+        final EncodedBuffer buffer = new EncodedBuffer(16);
+        final byte[] data = createData(100, 1);
+        buffer.writeRawBuffer(data);
+
+        assertArrayEquals(data, buffer.getBytes(data.length));
+        assertArrayEquals(data, writeTo(buffer, data.length));
+        // A size that ends on a chunk boundary.
+        assertArrayEquals(buffer.getBytes(32), writeTo(buffer, 32));
+    }
+
+    @Test
+    public void testReset_keepsChunksForNextWrites() throws IOException {
+        final EncodedBuffer buffer = new EncodedBuffer(16);
+        buffer.writeRawBuffer(createData(100, 1));
+        final int chunkCount = buffer.getChunkCount();
+
+        buffer.reset();
+        final byte[] data = createData(40, 2);
+        buffer.writeRawBuffer(data);
+
+        assertEquals(chunkCount, buffer.getChunkCount());
+        assertEquals(data.length, buffer.getWritePos());
+        assertArrayEquals(data, writeTo(buffer, data.length));
+    }
+
+    @Test
+    public void testReleaseChunks_nextBufferReusesThem() throws IOException {
+        final EncodedBuffer first = new EncodedBuffer();
+        first.writeRawBuffer(createData(50 * 1024, 1));
+        first.releaseChunks();
+        assertEquals(1, first.getChunkCount());
+
+        // The second buffer may get the chunks the first released, with its data still in
+        // them, and must only ever read what it wrote.
+        final EncodedBuffer second = new EncodedBuffer();
+        final byte[] data = createData(30 * 1024, 2);
+        second.writeRawBuffer(data);
+        assertArrayEquals(data, second.getBytes(data.length));
+        assertArrayEquals(data, writeTo(second, data.length));
+
+        // The released buffer can still be written to.
+        final byte[] more = createData(20 * 1024, 3);
+        first.writeRawBuffer(more);
+        assertArrayEquals(more, first.getBytes(more.length));
+    }
+}
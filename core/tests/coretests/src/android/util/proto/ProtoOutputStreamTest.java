@@ -0,0 +1,160 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.util.proto;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertTrue;
+
+import android.support.test.filters.SmallTest;
+import android.support.test.runner.AndroidJUnit4;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.ByteArrayOutputStream;
+
+/**
+ * Checks that a ProtoOutputStream on top of an OutputStream, which writes the finished
+ * top-level objects as it goes, writes the same bytes as getBytes() returns.
+ */
+@SmallTest
+@RunWith(AndroidJUnit4.class)
+public class ProtoOutputStreamTest {
+    private static final long FIELD_NAME = ProtoOutputStream.makeFieldId(1,
+            ProtoOutputStream.FIELD_COUNT_SINGLE | ProtoOutputStream.FIELD_TYPE_STRING);
+    private static final long FIELD_VALUE = ProtoOutputStream.makeFieldId(2,
+            ProtoOutputStream.FIELD_COUNT_SINGLE | ProtoOutputStream.FIELD_TYPE_INT64);
+    private static final long FIELD_CHILD = ProtoOutputStream.makeFieldId(3,
+            ProtoOutputStream.FIELD_COUNT_SINGLE | ProtoOutputStream.FIELD_TYPE_OBJECT);
+    private static final long FIELD_ITEMS = ProtoOutputStream.makeFieldId(4,
+            ProtoOutputStream.FIELD_COUNT_REPEATED | ProtoOutputStream.FIELD_TYPE_OBJECT);
+
+    private interface Writer {
+        void write(ProtoOutputStream proto);
+    }
+
+    private static byte[] getBytes(Writer... writers) {
+        final ProtoOutputStream proto = new ProtoOutputStream();
+        for (Writer writer : writers) {
+            writer.write(proto);
+        }
+        return proto.getBytes();
+    }
+
+    /** Writes to a stream, flushing after each writer. */
+    private static byte[] stream(Writer... writers) {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        final ProtoOutputStream proto = new ProtoOutputStream(out);
+        for (Writer writer : writers) {
+            writer.write(proto);
+            proto.flush();
+        }
+        return out.toByteArray();
+    }
+
+    private static void writeItems(ProtoOutputStream proto, int first, int count) {
+        for (int i = first; i < first + count; i++) {
+            final long token = proto.start(FIELD_ITEMS);
+            proto.write(FIELD_NAME, "item #" + i + " with a name long enough to add up");
+            proto.write(FIELD_VALUE, i * 1000003L);
+            proto.end(token);
+        }
+    }
+
+    private static void writeNested(ProtoOutputStream proto, int depth, int first) {
+        final long token = proto.start(FIELD_CHILD);
+        proto.write(FIELD_VALUE, (long) depth);
+        if (depth > 0) {
+            writeNested(proto, depth - 1, first);
+        } else {
+            writeItems(proto, first, 50);
+        }
+        proto.write(FIELD_NAME, "depth " + depth);
+        proto.end(token);
+    }
+
+    private static void writeEmptyObjects(ProtoOutputStream proto) {
+        // An empty object, and an object that only holds an empty object, are both dropped.
+        proto.end(proto.start(FIELD_CHILD));
+        final long token = proto.start(FIELD_CHILD);
+        proto.end(proto.start(FIELD_CHILD));
+        proto.end(token);
+        // An empty repeated object is kept, with a size of zero.
+        proto.end(proto.start(FIELD_ITEMS));
+    }
+
+    @Test
+    public void testStream_moreThanFlushSize() {
+        final Writer writer = proto -> writeItems(proto, 0, 2000);
+        final byte[] expected = getBytes(writer);
+        assertTrue(expected.length > 3 * 32 * 1024);
+
+        assertArrayEquals(expected, stream(writer));
+    }
+
+    @Test
+    public void testStream_nestedObjects() {
+        final Writer writer = proto -> {
+            for (int i = 0; i < 40; i++) {
+                writeNested(proto, 1 + i % 5, i * 50);
+            }
+        };
+
+        assertArrayEquals(getBytes(writer), stream(writer));
+    }
+
+    @Test
+    public void testStream_rewoundEmptyObjects() {
+        final Writer writer = proto -> {
+            writeEmptyObjects(proto);
+            // Enough to be written out early, and then an empty object once the buffer has
+            // been rewound.
+            writeItems(proto, 0, 1000);
+            writeEmptyObjects(proto);
+            proto.write(FIELD_NAME, "last");
+            writeEmptyObjects(proto);
+        };
+
+        assertArrayEquals(getBytes(writer), stream(writer));
+    }
+
+    @Test
+    public void testStream_flushThenContinueWriting() {
+        final Writer first = proto -> writeItems(proto, 0, 10);
+        final Writer second = proto -> writeNested(proto, 3, 10);
+        final Writer third = proto -> writeItems(proto, 60, 1500);
+
+        assertArrayEquals(getBytes(first, second, third), stream(first, second, third));
+    }
+
+    @Test
+    public void testStream_backToBackStreamsReusePooledChunks() {
+        final Writer writer = proto -> {
+            writeNested(proto, 2, 0);
+            writeItems(proto, 50, 1500);
+        };
+        final Writer other = proto -> writeItems(proto, 7, 1200);
+        final byte[] expected = getBytes(writer);
+        final byte[] otherExpected = getBytes(other);
+
+        // The second stream starts with the chunks the first one released, which still hold
+        // its data.
+        assertArrayEquals(expected, stream(writer));
+        assertArrayEquals(otherExpected, stream(other));
+        assertArrayEquals(expected, stream(writer));
+    }
+}
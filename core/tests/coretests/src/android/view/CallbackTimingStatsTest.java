@@ -0,0 +1,95 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.view;
+
+import android.test.AndroidTestCase;
+import android.test.suitebuilder.annotation.SmallTest;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.List;
+
+public class CallbackTimingStatsTest extends AndroidTestCase {
+    private static final long MS = 1000000;
+
+    private static final String[] PHASE_NAMES = { "input", "animation", "traversal", "commit" };
+
+    @SmallTest
+    public void testRecord_aggregatesByPhaseAndClass() {
+        final CallbackTimingStats stats = new CallbackTimingStats(PHASE_NAMES);
+        stats.record(Choreographer.CALLBACK_TRAVERSAL, Runnable.class, 500_000);
+        stats.record(Choreographer.CALLBACK_TRAVERSAL, Runnable.class, 3 * MS);
+        stats.record(Choreographer.CALLBACK_TRAVERSAL, Runnable.class, 100 * MS);
+        stats.record(Choreographer.CALLBACK_ANIMATION, Runnable.class, 2 * MS);
+
+        final List<CallbackTimingStats.Entry> entries =
+                stats.getEntries(Choreographer.CALLBACK_TRAVERSAL);
+        assertEquals(1, entries.size());
+        final CallbackTimingStats.Entry entry = entries.get(0);
+        assertEquals(Choreographer.CALLBACK_TRAVERSAL, entry.getCallbackType());
+        assertSame(Runnable.class, entry.getCallbackClass());
+        assertEquals(3, entry.getCount());
+        assertEquals(103 * MS + 500_000, entry.getTotalNanos());
+        assertEquals(100 * MS, entry.getMaxNanos());
+        assertEquals(1, entry.getBucketCount(0));
+        assertEquals(1, entry.getBucketCount(2));
+        assertEquals(1, entry.getBucketCount(CallbackTimingStats.BUCKET_COUNT - 1));
+
+        assertEquals(1, stats.getEntries(Choreographer.CALLBACK_ANIMATION).get(0).getCount());
+        assertTrue(stats.getEntries(Choreographer.CALLBACK_INPUT).isEmpty());
+    }
+
+    @SmallTest
+    public void testGetEntries_returnsCopies() {
+        final CallbackTimingStats stats = new CallbackTimingStats(PHASE_NAMES);
+        stats.record(Choreographer.CALLBACK_INPUT, Runnable.class, MS);
+        final CallbackTimingStats.Entry entry = stats.getEntries(Choreographer.CALLBACK_INPUT)
+                .get(0);
+
+        stats.record(Choreographer.CALLBACK_INPUT, Runnable.class, MS);
+
+        assertEquals(1, entry.getCount());
+        assertEquals(2, stats.getEntries(Choreographer.CALLBACK_INPUT).get(0).getCount());
+    }
+
+    @SmallTest
+    public void testBucketUpperBounds_double() {
+        assertEquals(MS, CallbackTimingStats.getBucketUpperBoundNanos(0));
+        for (int i = 1; i < CallbackTimingStats.BUCKET_COUNT - 1; i++) {
+            assertEquals(2 * CallbackTimingStats.getBucketUpperBoundNanos(i - 1),
+                    CallbackTimingStats.getBucketUpperBoundNanos(i));
+        }
+        assertEquals(Long.MAX_VALUE, CallbackTimingStats.getBucketUpperBoundNanos(
+                CallbackTimingStats.BUCKET_COUNT - 1));
+    }
+
+    @SmallTest
+    public void testDumpAndReset() {
+        final CallbackTimingStats stats = new CallbackTimingStats(PHASE_NAMES);
+        stats.record(Choreographer.CALLBACK_COMMIT, Runnable.class, 20 * MS);
+
+        final StringWriter out = new StringWriter();
+        final PrintWriter pw = new PrintWriter(out);
+        stats.dump("", pw);
+        pw.flush();
+        assertTrue(out.toString(), out.toString().contains("commit:"));
+        assertTrue(out.toString(), out.toString().contains("java.lang.Runnable: 1 calls"));
+
+        stats.reset();
+        assertTrue(stats.getEntries(Choreographer.CALLBACK_COMMIT).isEmpty());
+    }
+}
@@ -0,0 +1,239 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.view;
+
+import android.content.Context;
+import android.content.ContextWrapper;
+import android.content.res.AssetManager;
+import android.content.res.Resources;
+import android.content.res.XmlResourceParser;
+import android.test.AndroidTestCase;
+import android.test.suitebuilder.annotation.SmallTest;
+import android.util.AttributeSet;
+import android.util.TypedValue;
+import android.widget.TextView;
+
+import com.android.frameworks.coretests.R;
+
+public class InflationPlanTest extends AndroidTestCase {
+    private LayoutInflater createInflater(Context context, boolean precompiled) {
+        final LayoutInflater inflater = LayoutInflater.from(context).cloneInContext(context);
+        inflater.setPrecompiledLayoutsEnabled(precompiled);
+        return inflater;
+    }
+
+    private LayoutInflater createInflater(boolean precompiled) {
+        return createInflater(getContext(), precompiled);
+    }
+
+    private LayoutInflater.CompiledLayout getCompiledLayout(int resource) {
+        return LayoutInflater.getCompiledLayout(getContext().getClassLoader(), resource);
+    }
+
+    @SmallTest
+    public void testReplay_createsSameViewsAndThemes() {
+        final View expected = createInflater(false).inflate(R.layout.inflation_plan, null);
+        final LayoutInflater inflater = createInflater(true);
+
+        final View recorded = inflater.inflate(R.layout.inflation_plan, null);
+        final LayoutInflater.CompiledLayout layout =
+                getCompiledLayout(R.layout.inflation_plan);
+        assertNotNull(layout);
+        final View replayed = inflater.inflate(R.layout.inflation_plan, null);
+
+        assertSame(layout, getCompiledLayout(R.layout.inflation_plan));
+        assertViewsMatch(expected, recorded);
+        assertViewsMatch(expected, replayed);
+    }
+
+    @SmallTest
+    public void testReplay_xmlDiffersFromPlan_dropsPlan() {
+        final LayoutInflater inflater = createInflater(true);
+        inflater.inflate(R.layout.include_button, null);
+        assertNotNull(getCompiledLayout(R.layout.include_button));
+
+        final XmlResourceParser parser = getContext().getResources().getLayout(
+                R.layout.inflation_plan);
+        final View view;
+        try {
+            view = inflater.inflate(parser, R.layout.include_button, null, false);
+        } finally {
+            parser.close();
+        }
+
+        assertNull(getCompiledLayout(R.layout.include_button));
+        assertViewsMatch(createInflater(false).inflate(R.layout.inflation_plan, null), view);
+
+        // The next inflation records the plan again.
+        inflater.inflate(R.layout.include_button, null);
+        assertNotNull(getCompiledLayout(R.layout.include_button));
+    }
+
+    @SmallTest
+    public void testReplay_assetsDiffer_recordsNewPlan() {
+        final LayoutInflater inflater = createInflater(true);
+        inflater.inflate(R.layout.include_button, null);
+        final LayoutInflater.CompiledLayout layout =
+                getCompiledLayout(R.layout.include_button);
+        assertNotNull(layout);
+
+        final Resources res = getContext().getResources();
+        final AssetManager assets = new AssetManager();
+        assets.addAssetPath(getContext().getPackageResourcePath());
+        final Resources otherRes = new Resources(assets, res.getDisplayMetrics(),
+                res.getConfiguration());
+        final Context otherContext = new ContextWrapper(getContext()) {
+            @Override
+            public Resources getResources() {
+                return otherRes;
+            }
+        };
+        final View view = createInflater(otherContext, true).inflate(R.layout.include_button,
+                null);
+
+        final LayoutInflater.CompiledLayout otherLayout =
+                getCompiledLayout(R.layout.include_button);
+        assertNotNull(otherLayout);
+        assertNotSame(layout, otherLayout);
+        assertViewsMatch(createInflater(false).inflate(R.layout.include_button, null), view);
+    }
+
+    @SmallTest
+    public void testReplay_classLoaderDiffers_keepsPlansApart() {
+        final LayoutInflater inflater = createInflater(true);
+        inflater.inflate(R.layout.include_button, null);
+        final LayoutInflater.CompiledLayout layout = getCompiledLayout(R.layout.include_button);
+        assertNotNull(layout);
+
+        final ClassLoader otherLoader = new ClassLoader(getContext().getClassLoader()) {};
+        final Context otherContext = new ContextWrapper(getContext()) {
+            @Override
+            public ClassLoader getClassLoader() {
+                return otherLoader;
+            }
+        };
+        assertNull(LayoutInflater.getCompiledLayout(otherLoader, R.layout.include_button));
+        final View view = createInflater(otherContext, true).inflate(R.layout.include_button,
+                null);
+
+        final LayoutInflater.CompiledLayout otherLayout =
+                LayoutInflater.getCompiledLayout(otherLoader, R.layout.include_button);
+        assertNotNull(otherLayout);
+        assertNotSame(layout, otherLayout);
+        assertSame(layout, getCompiledLayout(R.layout.include_button));
+        assertViewsMatch(createInflater(false).inflate(R.layout.include_button, null), view);
+    }
+
+    @SmallTest
+    public void testInclude_hasItsOwnPlan() {
+        final LayoutInflater inflater = createInflater(true);
+        final View expected = createInflater(false).inflate(R.layout.include_tag, null);
+
+        inflater.inflate(R.layout.include_tag, null);
+        assertViewsMatch(expected, inflater.inflate(R.layout.include_tag, null));
+
+        // The included elements are in the plan of the included layout only.
+        final LayoutInflater.CompiledLayout layout =
+                getCompiledLayout(R.layout.include_tag);
+        assertEquals(2, layout.mSteps.length);
+        assertEquals("LinearLayout", layout.mSteps[0].mName);
+        assertEquals("TextView", layout.mSteps[1].mName);
+        final LayoutInflater.CompiledLayout included =
+                getCompiledLayout(R.layout.include_button);
+        assertEquals(1, included.mSteps.length);
+        assertEquals("Button", included.mSteps[0].mName);
+    }
+
+    @SmallTest
+    public void testReplay_subclassOnCreateViewStillCalled() {
+        // A framework inflater records the plan, then the subclass follows it.
+        createInflater(true).inflate(R.layout.include_tag, null);
+        final SubstitutingInflater inflater = new SubstitutingInflater(getContext());
+        inflater.setPrecompiledLayoutsEnabled(true);
+
+        for (int i = 0; i < 2; i++) {
+            final ViewGroup root = (ViewGroup) inflater.inflate(R.layout.include_tag, null);
+            assertSame(SubstitutedTextView.class, root.getChildAt(0).getClass());
+        }
+        // The root, the label and four included buttons, twice.
+        assertEquals(12, inflater.mCreateCount);
+
+        // What the subclass picked does not leak into the plan.
+        final ViewGroup root = (ViewGroup) createInflater(true).inflate(R.layout.include_tag,
+                null);
+        assertSame(TextView.class, root.getChildAt(0).getClass());
+    }
+
+    private static void assertViewsMatch(View expected, View actual) {
+        assertSame(expected.getClass(), actual.getClass());
+        assertEquals(expected.getContext().getClass(), actual.getContext().getClass());
+        final TypedValue expectedValue = new TypedValue();
+        final TypedValue actualValue = new TypedValue();
+        assertEquals(expected.getContext().getTheme().resolveAttribute(
+                android.R.attr.textColorPrimary, expectedValue, true),
+                actual.getContext().getTheme().resolveAttribute(
+                        android.R.attr.textColorPrimary, actualValue, true));
+        assertEquals(expectedValue.resourceId, actualValue.resourceId);
+        assertEquals(expectedValue.data, actualValue.data);
+
+        if (expected instanceof ViewGroup) {
+            final ViewGroup expectedGroup = (ViewGroup) expected;
+            final ViewGroup actualGroup = (ViewGroup) actual;
+            assertEquals(expectedGroup.getChildCount(), actualGroup.getChildCount());
+            for (int i = 0; i < expectedGroup.getChildCount(); i++) {
+                assertViewsMatch(expectedGroup.getChildAt(i), actualGroup.getChildAt(i));
+            }
+        }
+    }
+
+    /**
+     * Inflater that creates a {@link SubstitutedTextView} for every {@code TextView}, and
+     * counts the elements it is asked for.
+     */
+    private static class SubstitutingInflater extends LayoutInflater {
+        int mCreateCount;
+
+        SubstitutingInflater(Context context) {
+            super(context);
+        }
+
+        SubstitutingInflater(LayoutInflater original, Context newContext) {
+            super(original, newContext);
+        }
+
+        @Override
+        public LayoutInflater cloneInContext(Context newContext) {
+            return new SubstitutingInflater(this, newContext);
+        }
+
+        @Override
+        protected View onCreateView(String name, AttributeSet attrs)
+                throws ClassNotFoundException {
+            mCreateCount++;
+            if ("TextView".equals(name)) {
+                return createView(SubstitutedTextView.class.getName(), null, attrs);
+            }
+            return createView(name, "android.widget.", attrs);
+        }
+    }
+
+    public static class SubstitutedTextView extends TextView {
+        public SubstitutedTextView(Context context, AttributeSet attrs) {
+            super(context, attrs);
+        }
+    }
+}
@@ -0,0 +1,169 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.view;
+
+import android.content.Context;
+import android.os.Build;
+import android.test.AndroidTestCase;
+import android.test.suitebuilder.annotation.SmallTest;
+import android.view.View.MeasureSpec;
+import android.widget.FrameLayout;
+
+public class ParallelMeasureTest extends AndroidTestCase {
+    private static final int WIDTH_SPEC = MeasureSpec.makeMeasureSpec(400, MeasureSpec.AT_MOST);
+    private static final int HEIGHT_SPEC = MeasureSpec.makeMeasureSpec(300, MeasureSpec.AT_MOST);
+
+    private FrameLayout createFrameLayout(MeasuringView... children) {
+        final FrameLayout frameLayout = new FrameLayout(getContext());
+        for (MeasuringView child : children) {
+            frameLayout.addView(child, new FrameLayout.LayoutParams(
+                    FrameLayout.LayoutParams.WRAP_CONTENT, FrameLayout.LayoutParams.WRAP_CONTENT));
+        }
+        frameLayout.setParallelMeasureEnabled(true);
+        return frameLayout;
+    }
+
+    @SmallTest
+    public void testMeasure_threadSafeChildrenMeasuredOffCallingThread() {
+        final MeasuringView[] children = new MeasuringView[4];
+        for (int i = 0; i < children.length; i++) {
+            children[i] = new MeasuringView(getContext(), 50 * (i + 1), 100 - 20 * i);
+            children[i].setMeasureThreadSafe(true);
+        }
+        final MeasuringView unsafeChild = new MeasuringView(getContext(), 10, 10);
+        final FrameLayout frameLayout = createFrameLayout(children[0], children[1], unsafeChild,
+                children[2], children[3]);
+
+        frameLayout.measure(WIDTH_SPEC, HEIGHT_SPEC);
+
+        assertEquals(200, frameLayout.getMeasuredWidth());
+        assertEquals(100, frameLayout.getMeasuredHeight());
+        int offThreadCount = 0;
+        for (MeasuringView child : children) {
+            assertEquals(1, child.mMeasureCount);
+            assertEquals(child.mWidth, child.getMeasuredWidth());
+            if (child.mMeasureThread != Thread.currentThread()) {
+                offThreadCount++;
+            }
+        }
+        assertEquals(children.length - 1, offThreadCount);
+        assertEquals(1, unsafeChild.mMeasureCount);
+        assertSame(Thread.currentThread(), unsafeChild.mMeasureThread);
+    }
+
+    @SmallTest
+    public void testMeasure_disabledMeasuresOnCallingThread() {
+        final MeasuringView first = new MeasuringView(getContext(), 10, 10);
+        final MeasuringView second = new MeasuringView(getContext(), 20, 20);
+        first.setMeasureThreadSafe(true);
+        second.setMeasureThreadSafe(true);
+        final FrameLayout frameLayout = createFrameLayout(first, second);
+        frameLayout.setParallelMeasureEnabled(false);
+
+        frameLayout.measure(WIDTH_SPEC, HEIGHT_SPEC);
+
+        assertSame(Thread.currentThread(), first.mMeasureThread);
+        assertSame(Thread.currentThread(), second.mMeasureThread);
+    }
+
+    @SmallTest
+    public void testMeasure_rethrowsFailureOfFirstChild() {
+        final MeasuringView[] children = new MeasuringView[3];
+        for (int i = 0; i < children.length; i++) {
+            children[i] = new MeasuringView(getContext(), 10, 10);
+            children[i].setMeasureThreadSafe(true);
+        }
+        children[1].mFailure = new IllegalStateException("second");
+        children[2].mFailure = new IllegalStateException("third");
+        final FrameLayout frameLayout = createFrameLayout(children);
+
+        try {
+            frameLayout.measure(WIDTH_SPEC, HEIGHT_SPEC);
+            fail("Expected the failure of a child");
+        } catch (IllegalStateException e) {
+            assertEquals("second", e.getMessage());
+        }
+        for (MeasuringView child : children) {
+            assertEquals(1, child.mMeasureCount);
+        }
+    }
+
+    @SmallTest
+    public void testMeasure_workerBreakingContractFailsInDebuggableBuilds() {
+        if (!Build.IS_DEBUGGABLE) {
+            return;
+        }
+        final MeasuringView[] children = new MeasuringView[2];
+        for (int i = 0; i < children.length; i++) {
+            children[i] = new MeasuringView(getContext(), 10, 10);
+            children[i].setMeasureThreadSafe(true);
+        }
+        final FrameLayout frameLayout = createFrameLayout(children);
+        // The first child is measured on the calling thread, the second on a worker.
+        final MeasuringView worker = children[1];
+        final Runnable[] contractBreaches = {
+                worker::requestLayout,
+                worker::invalidate,
+                () -> worker.getViewTreeObserver().addOnPreDrawListener(() -> true),
+        };
+
+        for (Runnable contractBreach : contractBreaches) {
+            worker.mMeasureAction = contractBreach;
+            try {
+                frameLayout.measure(WIDTH_SPEC, HEIGHT_SPEC);
+                fail("Expected the worker to fail");
+            } catch (IllegalStateException e) {
+                assertNotSame(Thread.currentThread(), worker.mMeasureThread);
+            }
+        }
+
+        // The calling thread may do all of this.
+        worker.mMeasureAction = null;
+        for (Runnable contractBreach : contractBreaches) {
+            contractBreach.run();
+        }
+    }
+
+    private static class MeasuringView extends View {
+        final int mWidth;
+        final int mHeight;
+        RuntimeException mFailure;
+        Runnable mMeasureAction;
+        volatile Thread mMeasureThread;
+        volatile int mMeasureCount;
+
+        MeasuringView(Context context, int width, int height) {
+            super(context);
+            mWidth = width;
+            mHeight = height;
+        }
+
+        @Override
+        protected void onMeasure(int widthMeasureSpec, int heightMeasureSpec) {
+            mMeasureThread = Thread.currentThread();
+            mMeasureCount++;
+            if (mFailure != null) {
+                throw mFailure;
+            }
+            if (mMeasureAction != null) {
+                mMeasureAction.run();
+            }
+            setMeasuredDimension(resolveSize(mWidth, widthMeasureSpec),
+                    resolveSize(mHeight, heightMeasureSpec));
+        }
+    }
+}
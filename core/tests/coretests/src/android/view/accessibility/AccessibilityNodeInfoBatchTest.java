@@ -0,0 +1,117 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.view.accessibility;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertNull;
+import static junit.framework.Assert.assertTrue;
+
+import android.graphics.Rect;
+import android.os.Parcel;
+import android.support.test.runner.AndroidJUnit4;
+import android.text.SpannableString;
+import android.text.TextUtils;
+import android.text.style.URLSpan;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.List;
+
+@RunWith(AndroidJUnit4.class)
+public class AccessibilityNodeInfoBatchTest {
+    private static final String PACKAGE_NAME = "com.android.settings";
+
+    @Test
+    public void testWriteAndRead_nodesMatchNodesWrittenOneByOne() {
+        final Parcel listParcel = Parcel.obtain();
+        final Parcel batchParcel = Parcel.obtain();
+        try {
+            listParcel.writeTypedList(createNodes());
+            listParcel.setDataPosition(0);
+            final List<AccessibilityNodeInfo> expected =
+                    listParcel.createTypedArrayList(AccessibilityNodeInfo.CREATOR);
+
+            new AccessibilityNodeInfoBatch(createNodes()).writeToParcel(batchParcel, 0);
+            batchParcel.setDataPosition(0);
+            final List<AccessibilityNodeInfo> actual =
+                    AccessibilityNodeInfoBatch.CREATOR.createFromParcel(batchParcel).getInfos();
+
+            assertEquals(expected.size(), actual.size());
+            for (int i = 0; i < expected.size(); i++) {
+                assertNodesEqual(expected.get(i), actual.get(i));
+            }
+            assertTrue(batchParcel.dataSize() < listParcel.dataSize());
+        } finally {
+            listParcel.recycle();
+            batchParcel.recycle();
+        }
+    }
+
+    private static List<AccessibilityNodeInfo> createNodes() {
+        final List<AccessibilityNodeInfo> infos = new ArrayList<>();
+        // A parent, and children that share its offset from parent to screen coordinates.
+        infos.add(createNode("android.widget.LinearLayout",
+                new Rect(0, 0, 300, 100), new Rect(0, 200, 300, 300)));
+        for (int i = 0; i < 3; i++) {
+            infos.add(createNode("android.widget.TextView",
+                    new Rect(i * 100, 0, i * 100 + 100, 100),
+                    new Rect(i * 100, 200, i * 100 + 100, 300)));
+        }
+        // A different offset, and bounds that are scaled on screen.
+        infos.add(createNode("android.widget.TextView",
+                new Rect(0, 0, 100, 50), new Rect(50, 500, 150, 550)));
+        infos.add(createNode("android.widget.ImageView",
+                new Rect(0, 0, 100, 50), new Rect(0, 0, 200, 100)));
+        // A class name that is not a String, and no node at all.
+        final SpannableString className = new SpannableString("android.widget.Custom");
+        className.setSpan(new URLSpan("http://example.com"), 0, 7, 0);
+        infos.add(createNode(className, new Rect(0, 0, 10, 10), new Rect(0, 0, 10, 10)));
+        infos.add(null);
+        return infos;
+    }
+
+    private static AccessibilityNodeInfo createNode(CharSequence className, Rect boundsInParent,
+            Rect boundsInScreen) {
+        final AccessibilityNodeInfo info = AccessibilityNodeInfo.obtain();
+        info.setPackageName(PACKAGE_NAME);
+        info.setClassName(className);
+        info.setBoundsInParent(boundsInParent);
+        info.setBoundsInScreen(boundsInScreen);
+        return info;
+    }
+
+    private static void assertNodesEqual(AccessibilityNodeInfo expected,
+            AccessibilityNodeInfo actual) {
+        if (expected == null) {
+            assertNull(actual);
+            return;
+        }
+        assertTrue(TextUtils.equals(expected.getPackageName(), actual.getPackageName()));
+        assertTrue(TextUtils.equals(expected.getClassName(), actual.getClassName()));
+        assertEquals(expected.getClassName().getClass(), actual.getClassName().getClass());
+        final Rect expectedBounds = new Rect();
+        final Rect actualBounds = new Rect();
+        expected.getBoundsInParent(expectedBounds);
+        actual.getBoundsInParent(actualBounds);
+        assertEquals(expectedBounds, actualBounds);
+        expected.getBoundsInScreen(expectedBounds);
+        actual.getBoundsInScreen(actualBounds);
+        assertEquals(expectedBounds, actualBounds);
+    }
+}
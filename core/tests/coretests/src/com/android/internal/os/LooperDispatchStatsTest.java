@@ -0,0 +1,118 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.internal.os;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Message;
+import android.support.test.filters.SmallTest;
+
+import junit.framework.TestCase;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+
+/**
+ * Tests for {@link LooperDispatchStats}.
+ */
+public class LooperDispatchStatsTest extends TestCase {
+
+    private static class FirstHandler extends Handler {
+        FirstHandler() {
+            super(Looper.getMainLooper());
+        }
+    }
+
+    private static class SecondHandler extends Handler {
+        SecondHandler() {
+            super(Looper.getMainLooper());
+        }
+    }
+
+    @SmallTest
+    public void testAttributesByHandlerAndWhat() throws Exception {
+        final LooperDispatchStats stats = new LooperDispatchStats();
+        final Handler first = new FirstHandler();
+        final Handler second = new SecondHandler();
+
+        stats.messageDispatched(Message.obtain(first, 1), 0, 100);
+        stats.messageDispatched(Message.obtain(first, 1), 5, 300);
+        stats.messageDispatched(Message.obtain(first, 2), 0, 10);
+        stats.messageDispatched(Message.obtain(second, 1), 0, 5000);
+
+        final String dump = dump(stats);
+        assertTrue(dump, dump.contains("Dispatched messages: 4"));
+        assertTrue(dump, dump.contains(FirstHandler.class.getName()
+                + " what=1: count=2 total=0ms avg=200us max=300us delay avg=2ms max=5ms"));
+        assertTrue(dump, dump.contains(FirstHandler.class.getName() + " what=2: count=1"));
+        // The most expensive message kind comes first.
+        assertTrue(dump, dump.indexOf(SecondHandler.class.getName())
+                < dump.indexOf(FirstHandler.class.getName()));
+    }
+
+    @SmallTest
+    public void testReset() throws Exception {
+        final LooperDispatchStats stats = new LooperDispatchStats();
+        stats.messageDispatched(Message.obtain(new FirstHandler(), 1), 0, 100);
+        stats.reset();
+
+        final String dump = dump(stats);
+        assertTrue(dump, dump.contains("Dispatched messages: 0"));
+        assertFalse(dump, dump.contains(FirstHandler.class.getName()));
+    }
+
+    @SmallTest
+    public void testDump_doesNotBlockDispatchWhilePrinting() throws Exception {
+        final LooperDispatchStats stats = new LooperDispatchStats();
+        final Handler handler = new FirstHandler();
+        stats.messageDispatched(Message.obtain(handler, 1), 0, 100);
+        final Thread dispatcher = new Thread(
+                () -> stats.messageDispatched(Message.obtain(handler, 1), 0, 100));
+        final StringWriter sw = new StringWriter();
+        final PrintWriter pw = new PrintWriter(sw) {
+            @Override
+            public void write(String s, int off, int len) {
+                if (dispatcher.getState() == Thread.State.NEW) {
+                    // A slow reader of the dump must not hold up the looper.
+                    dispatcher.start();
+                    try {
+                        dispatcher.join(5000);
+                    } catch (InterruptedException e) {
+                        throw new RuntimeException(e);
+                    }
+                }
+                super.write(s, off, len);
+            }
+        };
+
+        stats.dump(pw, "");
+        pw.flush();
+
+        assertFalse(dispatcher.isAlive());
+        // The dump shows the state it started from.
+        assertTrue(sw.toString(), sw.toString().contains("Dispatched messages: 1"));
+        assertTrue(dump(stats), dump(stats).contains("Dispatched messages: 2"));
+    }
+
+    private static String dump(LooperDispatchStats stats) {
+        final StringWriter sw = new StringWriter();
+        final PrintWriter pw = new PrintWriter(sw);
+        stats.dump(pw, "");
+        pw.flush();
+        return sw.toString();
+    }
+}
@@ -0,0 +1,213 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.internal.util;
+
+import static org.xmlpull.v1.XmlPullParser.END_DOCUMENT;
+import static org.xmlpull.v1.XmlPullParser.END_TAG;
+import static org.xmlpull.v1.XmlPullParser.START_TAG;
+import static org.xmlpull.v1.XmlPullParser.TEXT;
+
+import junit.framework.TestCase;
+
+import org.xmlpull.v1.XmlPullParser;
+import org.xmlpull.v1.XmlSerializer;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Tests for {@link BinaryXmlSerializer} and {@link BinaryXmlPullParser}.
+ */
+public class BinaryXmlTest extends TestCase {
+
+    public void testRoundTrip() throws Exception {
+        final ByteArrayOutputStream os = new ByteArrayOutputStream();
+        final BinaryXmlSerializer out = new BinaryXmlSerializer();
+        out.setOutput(os, StandardCharsets.UTF_8.name());
+        out.startDocument(null, true);
+        out.startTag(null, "root");
+        out.attribute(null, "name", "value");
+        out.attributeInt(null, "int", -42);
+        out.attributeLong(null, "long", 1234567890123L);
+        out.attributeBoolean(null, "bool", true);
+        out.attributeBytesHex(null, "hex", new byte[] { 1, 2, (byte) 0xff });
+        for (int i = 0; i < 3; i++) {
+            out.startTag(null, "item");
+            out.attributeInterned(null, "pkg", "com.example");
+            out.text("text" + i);
+            out.endTag(null, "item");
+        }
+        out.endTag(null, "root");
+        out.endDocument();
+
+        final BinaryXmlPullParser in = new BinaryXmlPullParser();
+        in.setInput(new ByteArrayInputStream(os.toByteArray()), null);
+        assertEquals(START_TAG, in.next());
+        assertEquals("root", in.getName());
+        assertEquals(1, in.getDepth());
+        assertEquals(5, in.getAttributeCount());
+        assertEquals("value", in.getAttributeValue(null, "name"));
+        assertEquals(-42, in.getAttributeInt(in.getAttributeIndex(null, "int")));
+        assertEquals("-42", in.getAttributeValue(null, "int"));
+        assertEquals(1234567890123L, in.getAttributeLong(in.getAttributeIndex(null, "long")));
+        assertTrue(in.getAttributeBoolean(in.getAttributeIndex(null, "bool")));
+        assertTrue(Arrays.equals(new byte[] { 1, 2, (byte) 0xff },
+                in.getAttributeBytesHex(in.getAttributeIndex(null, "hex"))));
+        assertNull(in.getAttributeValue(null, "missing"));
+
+        for (int i = 0; i < 3; i++) {
+            assertEquals(START_TAG, in.next());
+            assertEquals("item", in.getName());
+            assertEquals(2, in.getDepth());
+            assertEquals("com.example", in.getAttributeValue(null, "pkg"));
+            assertEquals(TEXT, in.next());
+            assertEquals("text" + i, in.getText());
+            assertEquals(END_TAG, in.next());
+            assertEquals("item", in.getName());
+            assertEquals(2, in.getDepth());
+        }
+        assertEquals(END_TAG, in.next());
+        assertEquals("root", in.getName());
+        assertEquals(1, in.getDepth());
+        assertEquals(END_DOCUMENT, in.next());
+    }
+
+    public void testTypedGettersParseStrings() throws Exception {
+        final ByteArrayOutputStream os = new ByteArrayOutputStream();
+        final BinaryXmlSerializer out = new BinaryXmlSerializer();
+        out.setOutput(os, StandardCharsets.UTF_8.name());
+        out.startTag(null, "tag");
+        out.attribute(null, "int", "17");
+        out.attribute(null, "bool", "false");
+        out.endTag(null, "tag");
+        out.endDocument();
+
+        final BinaryXmlPullParser in = new BinaryXmlPullParser();
+        in.setInput(new ByteArrayInputStream(os.toByteArray()), null);
+        assertEquals(START_TAG, in.next());
+        assertEquals(17, in.getAttributeInt(in.getAttributeIndex(null, "int")));
+        assertFalse(in.getAttributeBoolean(in.getAttributeIndex(null, "bool")));
+    }
+
+    public void testLongText() throws Exception {
+        final char[] chars = new char[100000];
+        Arrays.fill(chars, 'é');
+        final String text = new String(chars);
+
+        final ByteArrayOutputStream os = new ByteArrayOutputStream();
+        final BinaryXmlSerializer out = new BinaryXmlSerializer();
+        out.setOutput(os, StandardCharsets.UTF_8.name());
+        out.startTag(null, "tag");
+        out.text(text);
+        out.endTag(null, "tag");
+        out.endDocument();
+
+        final BinaryXmlPullParser in = new BinaryXmlPullParser();
+        in.setInput(new ByteArrayInputStream(os.toByteArray()), null);
+        assertEquals(START_TAG, in.next());
+        assertEquals(text, in.nextText());
+    }
+
+    public void testResolvePullParser() throws Exception {
+        final ByteArrayOutputStream text = new ByteArrayOutputStream();
+        final XmlSerializer textOut = new FastXmlSerializer();
+        textOut.setOutput(text, StandardCharsets.UTF_8.name());
+        writeSimpleDocument(textOut);
+
+        final ByteArrayOutputStream binary = new ByteArrayOutputStream();
+        final XmlSerializer binaryOut = new BinaryXmlSerializer();
+        binaryOut.setOutput(binary, StandardCharsets.UTF_8.name());
+        writeSimpleDocument(binaryOut);
+
+        XmlPullParser in = XmlUtils.resolvePullParser(
+                new ByteArrayInputStream(text.toByteArray()));
+        assertFalse(in instanceof BinaryXmlPullParser);
+        verifySimpleDocument(in);
+
+        in = XmlUtils.resolvePullParser(new ByteArrayInputStream(binary.toByteArray()));
+        assertTrue(in instanceof BinaryXmlPullParser);
+        verifySimpleDocument(in);
+    }
+
+    public void testTypedHelpers() throws Exception {
+        final ByteArrayOutputStream text = new ByteArrayOutputStream();
+        final XmlSerializer textOut = new FastXmlSerializer();
+        textOut.setOutput(text, StandardCharsets.UTF_8.name());
+        writeTypedDocument(textOut);
+        assertTrue(new String(text.toByteArray(), StandardCharsets.UTF_8).contains(
+                "min=\"" + Long.MIN_VALUE + "\""));
+
+        final ByteArrayOutputStream binary = new ByteArrayOutputStream();
+        final XmlSerializer binaryOut = new BinaryXmlSerializer();
+        binaryOut.setOutput(binary, StandardCharsets.UTF_8.name());
+        writeTypedDocument(binaryOut);
+
+        verifyTypedDocument(XmlUtils.resolvePullParser(
+                new ByteArrayInputStream(text.toByteArray())));
+        verifyTypedDocument(XmlUtils.resolvePullParser(
+                new ByteArrayInputStream(binary.toByteArray())));
+    }
+
+    private static void writeTypedDocument(XmlSerializer out) throws Exception {
+        out.startDocument(null, true);
+        out.startTag(null, "tag");
+        XmlUtils.writeIntAttribute(out, "int", -1234);
+        XmlUtils.writeIntAttribute(out, "zero", 0);
+        XmlUtils.writeLongAttribute(out, "long", Long.MAX_VALUE);
+        XmlUtils.writeLongAttribute(out, "min", Long.MIN_VALUE);
+        XmlUtils.writeBooleanAttribute(out, "bool", true);
+        XmlUtils.writeFloatAttribute(out, "float", 1.5f);
+        XmlUtils.writeByteArrayAttribute(out, "bytes", new byte[] { 4, 5, 6 });
+        out.endTag(null, "tag");
+        out.endDocument();
+    }
+
+    private static void verifyTypedDocument(XmlPullParser in) throws Exception {
+        XmlUtils.beginDocument(in, "tag");
+        assertEquals(-1234, XmlUtils.readIntAttribute(in, "int"));
+        assertEquals(0, XmlUtils.readIntAttribute(in, "zero", 7));
+        assertEquals(7, XmlUtils.readIntAttribute(in, "missing", 7));
+        assertEquals(Long.MAX_VALUE, XmlUtils.readLongAttribute(in, "long"));
+        assertEquals(Long.MIN_VALUE, XmlUtils.readLongAttribute(in, "min", 0));
+        assertTrue(XmlUtils.readBooleanAttribute(in, "bool"));
+        assertFalse(XmlUtils.readBooleanAttribute(in, "missing"));
+        assertEquals(1.5f, XmlUtils.readFloatAttribute(in, "float"));
+        assertTrue(Arrays.equals(new byte[] { 4, 5, 6 },
+                XmlUtils.readByteArrayAttribute(in, "bytes")));
+    }
+
+    private static void writeSimpleDocument(XmlSerializer out) throws Exception {
+        out.startDocument(null, true);
+        out.startTag(null, "map");
+        out.startTag(null, "int");
+        out.attribute(null, "name", "key");
+        out.attribute(null, "value", "5");
+        out.endTag(null, "int");
+        out.endTag(null, "map");
+        out.endDocument();
+    }
+
+    private static void verifySimpleDocument(XmlPullParser in) throws Exception {
+        XmlUtils.beginDocument(in, "map");
+        XmlUtils.nextElement(in);
+        assertEquals("int", in.getName());
+        assertEquals("key", in.getAttributeValue(null, "name"));
+        assertEquals(5, XmlUtils.readIntAttribute(in, "value"));
+    }
+}
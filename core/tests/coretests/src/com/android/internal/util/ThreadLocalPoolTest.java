@@ -0,0 +1,72 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.internal.util;
+
+import android.support.test.filters.SmallTest;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests for {@link ThreadLocalPool}.
+ */
+public class ThreadLocalPoolTest extends TestCase {
+
+    private static class ObjectPool extends ThreadLocalPool<Object> {
+        ObjectPool(int maxSize) {
+            super(maxSize);
+        }
+
+        @Override
+        protected Object create() {
+            return new Object();
+        }
+    }
+
+    @SmallTest
+    public void testReusesReleasedObjects() throws Exception {
+        final ObjectPool pool = new ObjectPool(2);
+        final Object a = pool.obtain();
+        final Object b = pool.obtain();
+        final Object c = pool.obtain();
+        assertEquals(3, pool.getMissCount());
+
+        assertTrue(pool.release(a));
+        assertTrue(pool.release(b));
+        assertFalse(pool.release(c));
+
+        assertSame(b, pool.obtain());
+        assertSame(a, pool.obtain());
+        assertEquals(2, pool.getHitCount());
+        assertNotSame(c, pool.obtain());
+        assertEquals(4, pool.getMissCount());
+    }
+
+    @SmallTest
+    public void testThreadsHaveSeparatePools() throws Exception {
+        final ObjectPool pool = new ObjectPool(2);
+        final Object released = new Object();
+        pool.release(released);
+
+        final Object[] obtained = new Object[1];
+        final Thread thread = new Thread(() -> obtained[0] = pool.obtain());
+        thread.start();
+        thread.join();
+
+        assertNotSame(released, obtained[0]);
+        assertSame(released, pool.obtain());
+    }
+}
@@ -639,6 +639,11 @@ public class Paint {
         }
     }
 
+    /** @hide */
+    public float getCompatibilityScaling() {
+        return mCompatScaling;
+    }
+
     /**
      * Return the pointer to the native object while ensuring that any
      * mutable objects that are attached to the paint are also up-to-date.
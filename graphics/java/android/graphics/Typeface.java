@@ -38,6 +38,7 @@ import android.os.ResultReceiver;
 import android.provider.FontRequest;
 import android.provider.FontsContract;
 import android.text.FontConfig;
+import android.util.ArraySet;
 import android.util.Base64;
 import android.util.Log;
 import android.util.LongSparseArray;
@@ -95,14 +96,22 @@ public class Typeface {
     public static final Typeface MONOSPACE;
 
     static Typeface[] sDefaults;
-    private static final LongSparseArray<SparseArray<Typeface>> sTypefaceCache =
+
+    /**
+     * Cache for the styles of a typeface, keyed by the native instance of the typeface and the
+     * style. Every styled TextView looks it up, so it is read without a lock; writers copy it
+     * under sLock and publish the copy.
+     */
+    private static volatile LongSparseArray<SparseArray<Typeface>> sTypefaceCache =
             new LongSparseArray<>(3);
 
     /**
-     * Cache for Typeface objects dynamically loaded from assets. Currently max size is 16.
+     * Cache for Typeface objects dynamically loaded from assets and resources. Lookups do not
+     * wait for fonts being loaded; loading and adding a font is serialized by
+     * sDynamicTypefaceCacheLock so that a font is not loaded twice.
      */
-    @GuardedBy("sLock")
-    private static final LruCache<String, Typeface> sDynamicTypefaceCache = new LruCache<>(16);
+    private static final DynamicTypefaceCache sDynamicTypefaceCache = new DynamicTypefaceCache();
+    private static final Object sDynamicTypefaceCacheLock = new Object();
 
     static Typeface sDefaultTypeface;
     static Map<String, Typeface> sSystemFontMap;
@@ -164,11 +173,14 @@ public class Typeface {
     @Nullable
     public static Typeface createFromResources(AssetManager mgr, String path, int cookie) {
         if (sFallbackFonts != null) {
-            synchronized (sDynamicTypefaceCache) {
-                final String key = Builder.createAssetUid(
-                        mgr, path, 0 /* ttcIndex */, null /* axes */,
-                        RESOLVE_BY_FONT_TABLE /* weight */, RESOLVE_BY_FONT_TABLE /* italic */);
-                Typeface typeface = sDynamicTypefaceCache.get(key);
+            final String key = Builder.createAssetUid(
+                    mgr, path, 0 /* ttcIndex */, null /* axes */,
+                    RESOLVE_BY_FONT_TABLE /* weight */, RESOLVE_BY_FONT_TABLE /* italic */);
+            Typeface typeface = sDynamicTypefaceCache.get(key);
+            if (typeface != null) return typeface;
+
+            synchronized (sDynamicTypefaceCacheLock) {
+                typeface = sDynamicTypefaceCache.get(key);
                 if (typeface != null) return typeface;
 
                 FontFamily fontFamily = new FontFamily();
@@ -243,12 +255,10 @@ public class Typeface {
             FontFamily[] familyChain = { fontFamily };
             typeface = createFromFamiliesWithDefault(familyChain,
                     RESOLVE_BY_FONT_TABLE, RESOLVE_BY_FONT_TABLE);
-            synchronized (sDynamicTypefaceCache) {
-                final String key = Builder.createAssetUid(mgr, path, 0 /* ttcIndex */,
-                        null /* axes */, RESOLVE_BY_FONT_TABLE /* weight */,
-                        RESOLVE_BY_FONT_TABLE /* italic */);
-                sDynamicTypefaceCache.put(key, typeface);
-            }
+            final String key = Builder.createAssetUid(mgr, path, 0 /* ttcIndex */,
+                    null /* axes */, RESOLVE_BY_FONT_TABLE /* weight */,
+                    RESOLVE_BY_FONT_TABLE /* italic */);
+            sDynamicTypefaceCache.put(key, typeface);
             return typeface;
         }
         return null;
@@ -259,15 +269,9 @@ public class Typeface {
      * @hide
      */
     public static Typeface findFromCache(AssetManager mgr, String path) {
-        synchronized (sDynamicTypefaceCache) {
-            final String key = Builder.createAssetUid(mgr, path, 0 /* ttcIndex */, null /* axes */,
-                    RESOLVE_BY_FONT_TABLE /* weight */, RESOLVE_BY_FONT_TABLE /* italic */);
-            Typeface typeface = sDynamicTypefaceCache.get(key);
-            if (typeface != null) {
-                return typeface;
-            }
-        }
-        return null;
+        final String key = Builder.createAssetUid(mgr, path, 0 /* ttcIndex */, null /* axes */,
+                RESOLVE_BY_FONT_TABLE /* weight */, RESOLVE_BY_FONT_TABLE /* italic */);
+        return sDynamicTypefaceCache.get(key);
     }
 
     /**
@@ -526,8 +530,8 @@ public class Typeface {
 
         private static final Object sLock = new Object();
         // TODO: Unify with Typeface.sTypefaceCache.
-        @GuardedBy("sLock")
-        private static final LongSparseArray<SparseArray<Typeface>> sTypefaceCache =
+        // Read without a lock and copied on write under sLock, like Typeface.sTypefaceCache.
+        private static volatile LongSparseArray<SparseArray<Typeface>> sTypefaceCache =
                 new LongSparseArray<>(3);
 
         private Typeface resolveFallbackTypeface() {
@@ -549,25 +553,21 @@ public class Typeface {
                     (mItalic == RESOLVE_BY_FONT_TABLE) ? (base.mStyle & ITALIC) != 0 : mItalic == 1;
             final int key = weight << 1 | (italic ? 1 : 0);
 
-            Typeface typeface;
+            Typeface typeface = findInStyleCache(sTypefaceCache, base.native_instance, key);
+            if (typeface != null) {
+                return typeface;
+            }
             synchronized(sLock) {
-                SparseArray<Typeface> innerCache = sTypefaceCache.get(base.native_instance);
-                if (innerCache != null) {
-                    typeface = innerCache.get(key);
-                    if (typeface != null) {
-                        return typeface;
-                    }
+                typeface = findInStyleCache(sTypefaceCache, base.native_instance, key);
+                if (typeface != null) {
+                    return typeface;
                 }
 
                 typeface = new Typeface(
                         nativeCreateFromTypefaceWithExactStyle(
                                 base.native_instance, weight, italic));
-
-                if (innerCache == null) {
-                    innerCache = new SparseArray<>(4); // [regular, bold] x [upright, italic]
-                    sTypefaceCache.put(base.native_instance, innerCache);
-                }
-                innerCache.put(key, typeface);
+                sTypefaceCache = copyStyleCacheWith(
+                        sTypefaceCache, base.native_instance, key, typeface);
             }
             return typeface;
         }
@@ -600,8 +600,10 @@ public class Typeface {
             } else if (mAssetManager != null) {  // Builder is created with asset manager.
                 final String key = createAssetUid(
                         mAssetManager, mPath, mTtcIndex, mAxes, mWeight, mItalic);
-                synchronized (sLock) {
-                    Typeface typeface = sDynamicTypefaceCache.get(key);
+                Typeface typeface = sDynamicTypefaceCache.get(key);
+                if (typeface != null) return typeface;
+                synchronized (sDynamicTypefaceCacheLock) {
+                    typeface = sDynamicTypefaceCache.get(key);
                     if (typeface != null) return typeface;
                     final FontFamily fontFamily = new FontFamily();
                     if (!fontFamily.addFontFromAssetManager(mAssetManager, mPath, mTtcIndex,
@@ -704,24 +706,47 @@ public class Typeface {
             ni = family.native_instance;
         }
 
-        Typeface typeface;
-        SparseArray<Typeface> styles = sTypefaceCache.get(ni);
+        Typeface typeface = findInStyleCache(sTypefaceCache, ni, style);
+        if (typeface != null) {
+            return typeface;
+        }
 
-        if (styles != null) {
-            typeface = styles.get(style);
+        synchronized (sLock) {
+            typeface = findInStyleCache(sTypefaceCache, ni, style);
             if (typeface != null) {
                 return typeface;
             }
+            typeface = new Typeface(nativeCreateFromTypeface(ni, style));
+            sTypefaceCache = copyStyleCacheWith(sTypefaceCache, ni, style, typeface);
         }
+        return typeface;
+    }
+
+    private static Typeface findInStyleCache(LongSparseArray<SparseArray<Typeface>> cache,
+            long nativeInstance, int key) {
+        final SparseArray<Typeface> styles = cache.get(nativeInstance);
+        return styles == null ? null : styles.get(key);
+    }
 
-        typeface = new Typeface(nativeCreateFromTypeface(ni, style));
+    /**
+     * Returns a copy of a style cache with a typeface added. The given cache is not modified, so
+     * that threads reading it without a lock see a consistent state.
+     */
+    private static LongSparseArray<SparseArray<Typeface>> copyStyleCacheWith(
+            LongSparseArray<SparseArray<Typeface>> cache, long nativeInstance, int key,
+            Typeface typeface) {
+        final SparseArray<Typeface> styles = cache.get(nativeInstance);
+        final SparseArray<Typeface> newStyles;
         if (styles == null) {
-            styles = new SparseArray<Typeface>(4);
-            sTypefaceCache.put(ni, styles);
+            newStyles = new SparseArray<>(4); // [regular, bold] x [upright, italic]
+        } else {
+            newStyles = styles.clone();
         }
-        styles.put(style, typeface);
+        newStyles.put(key, typeface);
 
-        return typeface;
+        final LongSparseArray<SparseArray<Typeface>> newCache = cache.clone();
+        newCache.put(nativeInstance, newStyles);
+        return newCache;
     }
 
     /** @hide */
@@ -752,12 +777,15 @@ public class Typeface {
             throw new NullPointerException();  // for backward compatibility
         }
         if (sFallbackFonts != null) {
-            synchronized (sLock) {
-                Typeface typeface = new Builder(mgr, path).build();
-                if (typeface != null) return typeface;
+            Typeface typeface = new Builder(mgr, path).build();
+            if (typeface != null) return typeface;
+
+            final String key = Builder.createAssetUid(mgr, path, 0 /* ttcIndex */,
+                    null /* axes */, RESOLVE_BY_FONT_TABLE, RESOLVE_BY_FONT_TABLE);
+            typeface = sDynamicTypefaceCache.get(key);
+            if (typeface != null) return typeface;
 
-                final String key = Builder.createAssetUid(mgr, path, 0 /* ttcIndex */,
-                        null /* axes */, RESOLVE_BY_FONT_TABLE, RESOLVE_BY_FONT_TABLE);
+            synchronized (sDynamicTypefaceCacheLock) {
                 typeface = sDynamicTypefaceCache.get(key);
                 if (typeface != null) return typeface;
 
@@ -1059,6 +1087,71 @@ public class Typeface {
         return Arrays.binarySearch(mSupportedAxes, axis) >= 0;
     }
 
+    /**
+     * An LRU cache of typefaces that grows when typefaces it evicted are asked for again, which
+     * happens when an app uses more fonts than fit. Each growth doubles the size, up to
+     * {@link #MAX_SIZE}.
+     */
+    static final class DynamicTypefaceCache extends LruCache<String, Typeface> {
+        static final int INITIAL_SIZE = 16;
+        static final int MAX_SIZE = 64;
+
+        // Keys evicted since the cache last grew, at most as many as fit in the cache.
+        @GuardedBy("mEvictedKeys")
+        private final ArraySet<String> mEvictedKeys = new ArraySet<>();
+        @GuardedBy("mEvictedKeys")
+        private int mGrowCount;
+
+        DynamicTypefaceCache() {
+            super(INITIAL_SIZE);
+        }
+
+        @Override
+        protected void entryRemoved(boolean evicted, String key, Typeface oldValue,
+                Typeface newValue) {
+            if (!evicted) {
+                return;
+            }
+            final int maxSize = maxSize();
+            synchronized (mEvictedKeys) {
+                if (mEvictedKeys.size() >= maxSize) {
+                    mEvictedKeys.removeAt(0);
+                }
+                mEvictedKeys.add(key);
+            }
+        }
+
+        @Override
+        protected Typeface create(String key) {
+            // Called on every miss; nothing is created here, the caller loads the font.
+            final int maxSize = maxSize();
+            if (maxSize >= MAX_SIZE) {
+                return null;
+            }
+            synchronized (mEvictedKeys) {
+                if (!mEvictedKeys.remove(key)) {
+                    return null;
+                }
+                mEvictedKeys.clear();
+                mGrowCount++;
+            }
+            final int newSize = Math.min(maxSize * 2, MAX_SIZE);
+            Log.i(TAG, "Growing the typeface cache to " + newSize + " after "
+                    + evictionCount() + " evictions");
+            resize(newSize);
+            return null;
+        }
+
+        /**
+         * Returns how many times the cache grew because an evicted typeface was asked for again.
+         */
+        int getGrowCount() {
+            synchronized (mEvictedKeys) {
+                return mGrowCount;
+            }
+        }
+    }
+
     private static native long nativeCreateFromTypeface(long native_instance, int style);
     private static native long nativeCreateFromTypefaceWithExactStyle(
             long native_instance, int weight, boolean italic);
@@ -22,6 +22,7 @@ import android.util.Slog;
 import android.view.MagnificationSpec;
 import android.view.accessibility.AccessibilityNodeInfo;
 import android.view.accessibility.AccessibilityNodeInfo.AccessibilityAction;
+import android.view.accessibility.AccessibilityNodeInfoBatch;
 import android.view.accessibility.IAccessibilityInteractionConnection;
 import android.view.accessibility.IAccessibilityInteractionConnectionCallback;
 import com.android.internal.annotations.GuardedBy;
@@ -134,6 +135,13 @@ public class ActionReplacingCallback extends IAccessibilityInteractionConnection
         }
     }
 
+    @Override
+    public void setFindAccessibilityNodeInfoBatchResult(AccessibilityNodeInfoBatch batch,
+            int interactionId) {
+        setFindAccessibilityNodeInfosResult((batch != null) ? batch.getInfos() : null,
+                interactionId);
+    }
+
     @Override
     public void setPerformAccessibilityActionResult(boolean succeeded, int interactionId)
             throws RemoteException {
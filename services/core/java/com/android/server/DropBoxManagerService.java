@@ -34,6 +34,7 @@ import android.os.Looper;
 import android.os.Message;
 import android.os.StatFs;
 import android.os.SystemClock;
+import android.os.SystemProperties;
 import android.os.UserHandle;
 import android.provider.Settings;
 import android.text.TextUtils;
@@ -48,16 +49,26 @@ import com.android.internal.os.IDropBoxManagerService;
 import com.android.internal.util.DumpUtils;
 import com.android.internal.util.ObjectUtils;
 
+import java.io.BufferedInputStream;
 import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
 import java.io.File;
 import java.io.FileDescriptor;
+import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.OutputStream;
 import java.io.PrintWriter;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
 import java.util.Objects;
 import java.util.SortedSet;
 import java.util.TreeSet;
@@ -82,9 +93,17 @@ public final class DropBoxManagerService extends SystemService {
 
     private static final boolean PROFILE_DUMP = false;
 
-    // TODO: This implementation currently uses one file per entry, which is
-    // inefficient for smallish entries -- consider using a single queue file
-    // per tag (or even globally) instead.
+    // By default this implementation uses one file per entry, which is
+    // inefficient for smallish entries.  When segment storage is enabled,
+    // entries smaller than one block are instead appended to shared segment
+    // files which are trimmed as a whole.
+    private static final String PROP_SEGMENT_STORAGE = "persist.sys.dropbox.segments";
+    private static final String SEGMENT_PREFIX = "segment";
+    private static final String SEGMENT_SUFFIX = ".seg";
+    private static final int SEGMENT_MAX_BYTES = 256 * 1024;
+    private static final int SEGMENT_RECORD_MAGIC = 0x44425347;  // "DBSG"
+    // magic, timestamp, flags, tag length, data length
+    private static final int SEGMENT_HEADER_BYTES = 4 + 8 + 4 + 4 + 4;
 
     // The cached context and derived objects
 
@@ -96,6 +115,14 @@ public final class DropBoxManagerService extends SystemService {
     private FileList mAllFiles = null;
     private ArrayMap<String, FileList> mFilesByTag = null;
 
+    // Segment files holding small entries, oldest first (set in init()).
+
+    private final boolean mUseSegments;
+    private ArrayList<SegmentFile> mSegments = null;
+    private SegmentFile mCurrentSegment = null;  // Segment new entries are appended to.
+    private int mSegmentBlocks = 0;
+    private int mNextSegmentId = 0;
+
     // Various bits of disk information
 
     private StatFs mStatFs = null;
@@ -162,7 +189,8 @@ public final class DropBoxManagerService extends SystemService {
      * @param context to use for receiving free space & gservices intents
      */
     public DropBoxManagerService(final Context context) {
-        this(context, new File("/data/system/dropbox"), FgThread.get().getLooper());
+        this(context, new File("/data/system/dropbox"), FgThread.get().getLooper(),
+                SystemProperties.getBoolean(PROP_SEGMENT_STORAGE, false));
     }
 
     /**
@@ -174,8 +202,22 @@ public final class DropBoxManagerService extends SystemService {
      */
     @VisibleForTesting
     public DropBoxManagerService(final Context context, File path, Looper looper) {
+        this(context, path, looper, false);
+    }
+
+    /**
+     * Creates an instance of managed drop box storage.
+     *
+     * @param context to use for receiving free space & gservices intents
+     * @param path to store drop box entries in
+     * @param useSegments whether to append small entries to shared segment files
+     */
+    @VisibleForTesting
+    public DropBoxManagerService(final Context context, File path, Looper looper,
+            boolean useSegments) {
         super(context);
         mDropBoxDir = path;
+        mUseSegments = useSegments;
         mContentResolver = getContext().getContentResolver();
         mHandler = new Handler(looper) {
             @Override
@@ -252,49 +294,57 @@ public final class DropBoxManagerService extends SystemService {
                 read += n;
             }
 
-            // If we have at least one block, compress it -- otherwise, just write
-            // the data in uncompressed form.
-
-            temp = new File(mDropBoxDir, "drop" + Thread.currentThread().getId() + ".tmp");
-            int bufferSize = mBlockSize;
-            if (bufferSize > 4096) bufferSize = 4096;
-            if (bufferSize < 512) bufferSize = 512;
-            FileOutputStream foutput = new FileOutputStream(temp);
-            output = new BufferedOutputStream(foutput, bufferSize);
-            if (read == buffer.length && ((flags & DropBoxManager.IS_GZIPPED) == 0)) {
-                output = new GZIPOutputStream(output);
-                flags = flags | DropBoxManager.IS_GZIPPED;
-            }
+            final long time;
+            if (mUseSegments && read < buffer.length) {
+                // The whole entry fits in less than one block, so append it to the
+                // current segment rather than giving it a file of its own.
+                time = appendToSegment(tag, flags, buffer, read);
+            } else {
+                // If we have at least one block, compress it -- otherwise, just write
+                // the data in uncompressed form.
+
+                temp = new File(mDropBoxDir, "drop" + Thread.currentThread().getId() + ".tmp");
+                int bufferSize = mBlockSize;
+                if (bufferSize > 4096) bufferSize = 4096;
+                if (bufferSize < 512) bufferSize = 512;
+                FileOutputStream foutput = new FileOutputStream(temp);
+                output = new BufferedOutputStream(foutput, bufferSize);
+                if (read == buffer.length && ((flags & DropBoxManager.IS_GZIPPED) == 0)) {
+                    output = new GZIPOutputStream(output);
+                    flags = flags | DropBoxManager.IS_GZIPPED;
+                }
 
-            do {
-                output.write(buffer, 0, read);
+                do {
+                    output.write(buffer, 0, read);
 
-                long now = System.currentTimeMillis();
-                if (now - lastTrim > 30 * 1000) {
-                    max = trimToFit();  // In case data dribbles in slowly
-                    lastTrim = now;
-                }
+                    long now = System.currentTimeMillis();
+                    if (now - lastTrim > 30 * 1000) {
+                        max = trimToFit();  // In case data dribbles in slowly
+                        lastTrim = now;
+                    }
 
-                read = input.read(buffer);
-                if (read <= 0) {
-                    FileUtils.sync(foutput);
-                    output.close();  // Get a final size measurement
-                    output = null;
-                } else {
-                    output.flush();  // So the size measurement is pseudo-reasonable
-                }
+                    read = input.read(buffer);
+                    if (read <= 0) {
+                        FileUtils.sync(foutput);
+                        output.close();  // Get a final size measurement
+                        output = null;
+                    } else {
+                        output.flush();  // So the size measurement is pseudo-reasonable
+                    }
 
-                long len = temp.length();
-                if (len > max) {
-                    Slog.w(TAG, "Dropping: " + tag + " (" + temp.length() + " > " + max + " bytes)");
-                    temp.delete();
-                    temp = null;  // Pass temp = null to createEntry() to leave a tombstone
-                    break;
-                }
-            } while (read > 0);
+                    long len = temp.length();
+                    if (len > max) {
+                        Slog.w(TAG, "Dropping: " + tag + " (" + temp.length() + " > " + max
+                                + " bytes)");
+                        temp.delete();
+                        temp = null;  // Pass temp = null to createEntry() to leave a tombstone
+                        break;
+                    }
+                } while (read > 0);
 
-            long time = createEntry(temp, tag, flags);
-            temp = null;
+                time = createEntry(temp, tag, flags);
+                temp = null;
+            }
 
             final Intent dropboxIntent = new Intent(DropBoxManager.ACTION_DROPBOX_ENTRY_ADDED);
             dropboxIntent.putExtra(DropBoxManager.EXTRA_TAG, tag);
@@ -348,12 +398,10 @@ public final class DropBoxManagerService extends SystemService {
             if ((entry.flags & DropBoxManager.IS_EMPTY) != 0) {
                 return new DropBoxManager.Entry(entry.tag, entry.timestampMillis);
             }
-            final File file = entry.getFile(mDropBoxDir);
             try {
-                return new DropBoxManager.Entry(
-                        entry.tag, entry.timestampMillis, file, entry.flags);
+                return openEntry(entry);
             } catch (IOException e) {
-                Slog.wtf(TAG, "Can't read: " + file, e);
+                Slog.wtf(TAG, "Can't read: " + entry.getFile(mDropBoxDir), e);
                 // Continue to next file
             }
         }
@@ -399,6 +447,10 @@ public final class DropBoxManagerService extends SystemService {
 
         out.append("Drop box contents: ").append(mAllFiles.contents.size()).append(" entries\n");
         out.append("Max entries: ").append(mMaxFiles).append("\n");
+        if (!mSegments.isEmpty()) {
+            out.append("Segments: ").append(mSegments.size()).append(" (")
+                    .append(mSegmentBlocks).append(" blocks)\n");
+        }
 
         if (!searchArgs.isEmpty()) {
             out.append("Searching for:");
@@ -434,20 +486,22 @@ public final class DropBoxManagerService extends SystemService {
                 out.append(" (");
                 if ((entry.flags & DropBoxManager.IS_GZIPPED) != 0) out.append("compressed ");
                 out.append((entry.flags & DropBoxManager.IS_TEXT) != 0 ? "text" : "data");
-                out.append(", ").append(file.length()).append(" bytes)\n");
+                out.append(", ").append(entry.segment != null ? entry.segmentLength : file.length())
+                        .append(" bytes)\n");
             }
 
             if (doFile || (doPrint && (entry.flags & DropBoxManager.IS_TEXT) == 0)) {
                 if (!doPrint) out.append("    ");
-                out.append(file.getPath()).append("\n");
+                out.append(file.getPath());
+                if (entry.segment != null) out.append(" @").append(entry.segmentOffset);
+                out.append("\n");
             }
 
             if ((entry.flags & DropBoxManager.IS_TEXT) != 0 && (doPrint || !doFile)) {
                 DropBoxManager.Entry dbe = null;
                 InputStreamReader isr = null;
                 try {
-                    dbe = new DropBoxManager.Entry(
-                             entry.tag, entry.timestampMillis, file, entry.flags);
+                    dbe = openEntry(entry);
 
                     if (doPrint) {
                         isr = new InputStreamReader(dbe.getInputStream());
@@ -537,6 +591,11 @@ public final class DropBoxManagerService extends SystemService {
         public final int flags;
         public final int blocks;
 
+        /** Segment holding the contents, or null if the entry has a file of its own. */
+        public final SegmentFile segment;
+        public final long segmentOffset;
+        public final int segmentLength;
+
         /** Sorts earlier EntryFile instances before later ones. */
         public final int compareTo(EntryFile o) {
             int comp = Long.compare(timestampMillis, o.timestampMillis);
@@ -570,6 +629,10 @@ public final class DropBoxManagerService extends SystemService {
             this.timestampMillis = timestampMillis;
             this.flags = flags;
 
+            this.segment = null;
+            this.segmentOffset = 0;
+            this.segmentLength = 0;
+
             final File file = this.getFile(dir);
             if (!temp.renameTo(file)) {
                 throw new IOException("Can't rename " + temp + " to " + file);
@@ -590,9 +653,34 @@ public final class DropBoxManagerService extends SystemService {
             this.timestampMillis = timestampMillis;
             this.flags = DropBoxManager.IS_EMPTY;
             this.blocks = 0;
+            this.segment = null;
+            this.segmentOffset = 0;
+            this.segmentLength = 0;
             new FileOutputStream(getFile(dir)).close();
         }
 
+        /**
+         * Describes an entry whose contents are stored in a segment file.  The space used is
+         * accounted for by the segment as a whole, so the entry itself has no blocks.
+         *
+         * @param segment holding the contents
+         * @param tag of the entry
+         * @param timestampMillis of log entry
+         * @param flags for the entry data
+         * @param segmentOffset of the contents within the segment file
+         * @param segmentLength of the contents in bytes
+         */
+        public EntryFile(SegmentFile segment, String tag, long timestampMillis, int flags,
+                long segmentOffset, int segmentLength) {
+            this.tag = TextUtils.safeIntern(tag);
+            this.timestampMillis = timestampMillis;
+            this.flags = flags;
+            this.blocks = 0;
+            this.segment = segment;
+            this.segmentOffset = segmentOffset;
+            this.segmentLength = segmentLength;
+        }
+
         /**
          * Extracts metadata from an existing on-disk log filename.
          *
@@ -603,6 +691,9 @@ public final class DropBoxManagerService extends SystemService {
          * @param blockSize to use for space accounting
          */
         public EntryFile(File file, int blockSize) {
+            this.segment = null;
+            this.segmentOffset = 0;
+            this.segmentLength = 0;
 
             boolean parseFailure = false;
 
@@ -666,6 +757,9 @@ public final class DropBoxManagerService extends SystemService {
             this.timestampMillis = millis;
             this.flags = DropBoxManager.IS_EMPTY;
             this.blocks = 0;
+            this.segment = null;
+            this.segmentOffset = 0;
+            this.segmentLength = 0;
         }
 
         /**
@@ -689,6 +783,9 @@ public final class DropBoxManagerService extends SystemService {
          * @return filename for this entry without the pathname.
          */
         public String getFilename() {
+            if (segment != null) {
+                return segment.file.getName();
+            }
             return hasFile() ? Uri.encode(tag) + "@" + timestampMillis + getExtension() : null;
         }
 
@@ -702,15 +799,36 @@ public final class DropBoxManagerService extends SystemService {
         }
 
         /**
-         * If an entry has a backing file, remove it.
+         * If an entry has a backing file of its own, remove it.  Entries stored in a segment
+         * are only removed when the whole segment is.
          */
         public void deleteFile(File dir) {
-            if (hasFile()) {
+            if (hasFile() && segment == null) {
                 getFile(dir).delete();
             }
         }
     }
 
+    /**
+     * A file holding the contents of many small entries, appended one after another.  Each
+     * record is a fixed size header (magic, timestamp, flags, tag length, data length)
+     * followed by the UTF-8 tag and the entry data.
+     */
+    @VisibleForTesting
+    static final class SegmentFile {
+        public final int id;
+        public final File file;
+        /** Entries still enrolled whose contents are stored in this segment. */
+        public final ArrayList<EntryFile> entries = new ArrayList<>();
+        public long length = 0;
+        public int blocks = 0;
+
+        public SegmentFile(File dir, int id) {
+            this.id = id;
+            this.file = new File(dir, SEGMENT_PREFIX + id + SEGMENT_SUFFIX);
+        }
+    }
+
     ///////////////////////////////////////////////////////////////////////////
 
     /** If never run before, scans disk contents to build in-memory tracking data. */
@@ -733,6 +851,9 @@ public final class DropBoxManagerService extends SystemService {
 
             mAllFiles = new FileList();
             mFilesByTag = new ArrayMap<>();
+            mSegments = new ArrayList<>();
+            mCurrentSegment = null;
+            mSegmentBlocks = 0;
 
             // Scan pre-existing files.
             for (File file : files) {
@@ -742,6 +863,11 @@ public final class DropBoxManagerService extends SystemService {
                     continue;
                 }
 
+                if (file.getName().endsWith(SEGMENT_SUFFIX)) {
+                    loadSegment(file);
+                    continue;
+                }
+
                 EntryFile entry = new EntryFile(file, mBlockSize);
 
                 if (entry.hasFile()) {
@@ -750,9 +876,166 @@ public final class DropBoxManagerService extends SystemService {
                     enrollEntry(entry);
                 }
             }
+
+            // Segments are always trimmed oldest first.
+            Collections.sort(mSegments, (a, b) -> Integer.compare(a.id, b.id));
         }
     }
 
+    /**
+     * Scans the records of an existing segment file and enrolls its entries.  Scanning stops
+     * at the first incomplete or corrupt record, which can only be the result of a failed
+     * append; new entries are never appended to segments found on disk.
+     */
+    private synchronized void loadSegment(File file) {
+        final String name = file.getName();
+        final int id;
+        try {
+            id = Integer.parseInt(name.substring(SEGMENT_PREFIX.length(),
+                    name.length() - SEGMENT_SUFFIX.length()));
+        } catch (NumberFormatException | IndexOutOfBoundsException e) {
+            Slog.wtf(TAG, "Invalid segment filename: " + file);
+            file.delete();
+            return;
+        }
+
+        final SegmentFile segment = new SegmentFile(mDropBoxDir, id);
+        final long fileLength = file.length();
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+            long offset = 0;
+            while (offset + SEGMENT_HEADER_BYTES <= fileLength) {
+                if (in.readInt() != SEGMENT_RECORD_MAGIC) break;
+                final long timestampMillis = in.readLong();
+                final int flags = in.readInt();
+                final int tagLength = in.readInt();
+                final int dataLength = in.readInt();
+                final long dataOffset = offset + SEGMENT_HEADER_BYTES + tagLength;
+                if (tagLength < 0 || dataLength < 0 || dataOffset + dataLength > fileLength) {
+                    break;
+                }
+                final byte[] tag = new byte[tagLength];
+                in.readFully(tag);
+                for (int skipped = 0; skipped < dataLength; ) {
+                    final int n = in.skipBytes(dataLength - skipped);
+                    if (n <= 0) throw new EOFException();
+                    skipped += n;
+                }
+                enrollEntry(new EntryFile(segment, new String(tag, StandardCharsets.UTF_8),
+                        timestampMillis, flags, dataOffset, dataLength));
+                offset = dataOffset + dataLength;
+            }
+            segment.length = offset;
+        } catch (IOException e) {
+            Slog.w(TAG, "Can't read segment: " + file, e);
+        } finally {
+            IoUtils.closeQuietly(in);
+        }
+
+        if (segment.entries.isEmpty()) {
+            file.delete();
+            return;
+        }
+        segment.blocks = (int) ((fileLength + mBlockSize - 1) / mBlockSize);
+        mSegments.add(segment);
+        mSegmentBlocks += segment.blocks;
+        mNextSegmentId = Math.max(mNextSegmentId, id + 1);
+    }
+
+    /** Appends a small entry to the current segment file and enrolls it. */
+    private synchronized long appendToSegment(String tag, int flags, byte[] data, int length)
+            throws IOException {
+        if (mCurrentSegment == null || mCurrentSegment.length >= SEGMENT_MAX_BYTES) {
+            mCurrentSegment = new SegmentFile(mDropBoxDir, mNextSegmentId++);
+            mSegments.add(mCurrentSegment);
+        }
+        final SegmentFile segment = mCurrentSegment;
+        final long t = nextTimestamp();
+
+        final byte[] tagBytes = tag.getBytes(StandardCharsets.UTF_8);
+        final ByteArrayOutputStream record =
+                new ByteArrayOutputStream(SEGMENT_HEADER_BYTES + tagBytes.length + length);
+        final DataOutputStream out = new DataOutputStream(record);
+        out.writeInt(SEGMENT_RECORD_MAGIC);
+        out.writeLong(t);
+        out.writeInt(flags);
+        out.writeInt(tagBytes.length);
+        out.writeInt(length);
+        out.write(tagBytes);
+        out.write(data, 0, length);
+
+        FileOutputStream output = null;
+        try {
+            output = new FileOutputStream(segment.file, true /* append */);
+            record.writeTo(output);
+            FileUtils.sync(output);
+        } catch (IOException e) {
+            // The segment may end in a partial record now; start a new one next time.
+            mCurrentSegment = null;
+            throw e;
+        } finally {
+            IoUtils.closeQuietly(output);
+        }
+
+        final long dataOffset = segment.length + SEGMENT_HEADER_BYTES + tagBytes.length;
+        segment.length += record.size();
+        final int blocks = (int) ((segment.length + mBlockSize - 1) / mBlockSize);
+        mSegmentBlocks += blocks - segment.blocks;
+        segment.blocks = blocks;
+        enrollEntry(new EntryFile(segment, tag, t, flags, dataOffset, length));
+        return t;
+    }
+
+    /** Opens the contents of an entry with a backing file or segment for reading. */
+    private synchronized DropBoxManager.Entry openEntry(EntryFile entry) throws IOException {
+        if (entry.segment == null) {
+            return new DropBoxManager.Entry(entry.tag, entry.timestampMillis,
+                    entry.getFile(mDropBoxDir), entry.flags);
+        }
+        // Segment entries are smaller than a block, so just hand out a copy of the data.
+        final byte[] data = new byte[entry.segmentLength];
+        final RandomAccessFile file = new RandomAccessFile(entry.segment.file, "r");
+        try {
+            file.seek(entry.segmentOffset);
+            file.readFully(data);
+        } finally {
+            IoUtils.closeQuietly(file);
+        }
+        return new DropBoxManager.Entry(entry.tag, entry.timestampMillis, data, entry.flags);
+    }
+
+    /**
+     * Releases the storage of an entry which has been removed from the in-memory lists.
+     * A segment is deleted once none of its entries are left.
+     */
+    private synchronized void deleteEntry(EntryFile entry) {
+        final SegmentFile segment = entry.segment;
+        if (segment == null) {
+            entry.deleteFile(mDropBoxDir);
+            return;
+        }
+        segment.entries.remove(entry);
+        if (segment.entries.isEmpty() && segment != mCurrentSegment) {
+            dropSegment(segment);
+        }
+    }
+
+    /** Removes a segment file along with all of the entries stored in it. */
+    private synchronized void dropSegment(SegmentFile segment) {
+        for (int i = 0; i < segment.entries.size(); i++) {
+            final EntryFile entry = segment.entries.get(i);
+            FileList tag = mFilesByTag.get(entry.tag);
+            if (tag != null) tag.contents.remove(entry);
+            mAllFiles.contents.remove(entry);
+        }
+        segment.entries.clear();
+        mSegments.remove(segment);
+        if (segment == mCurrentSegment) mCurrentSegment = null;
+        mSegmentBlocks -= segment.blocks;
+        segment.file.delete();
+    }
+
     /** Adds a disk log file to in-memory tracking for accounting and enumeration. */
     private synchronized void enrollEntry(EntryFile entry) {
         mAllFiles.contents.add(entry);
@@ -760,8 +1043,12 @@ public final class DropBoxManagerService extends SystemService {
 
         // mFilesByTag is used for trimming, so don't list empty files.
         // (Zero-length/lost files are trimmed by date from mAllFiles.)
+        // Segment entries are listed so they can be found by tag, but have no blocks.
 
-        if (entry.hasFile() && entry.blocks > 0) {
+        if (entry.segment != null) {
+            entry.segment.entries.add(entry);
+        }
+        if (entry.hasFile() && (entry.blocks > 0 || entry.segment != null)) {
             FileList tagFiles = mFilesByTag.get(entry.tag);
             if (tagFiles == null) {
                 tagFiles = new FileList();
@@ -774,6 +1061,17 @@ public final class DropBoxManagerService extends SystemService {
 
     /** Moves a temporary file to a final log filename and enrolls it. */
     private synchronized long createEntry(File temp, String tag, int flags) throws IOException {
+        final long t = nextTimestamp();
+        if (temp == null) {
+            enrollEntry(new EntryFile(mDropBoxDir, tag, t));
+        } else {
+            enrollEntry(new EntryFile(temp, mDropBoxDir, tag, t, flags, mBlockSize));
+        }
+        return t;
+    }
+
+    /** Returns a unique timestamp for a new entry, later than all existing ones. */
+    private synchronized long nextTimestamp() throws IOException {
         long t = System.currentTimeMillis();
 
         // Require each entry to have a unique timestamp; if there are entries
@@ -798,7 +1096,12 @@ public final class DropBoxManagerService extends SystemService {
                 if (tagFiles != null && tagFiles.contents.remove(late)) {
                     tagFiles.blocks -= late.blocks;
                 }
-                if ((late.flags & DropBoxManager.IS_EMPTY) == 0) {
+                if (late.segment != null) {
+                    // Only the in-memory timestamp moves; the segment record is left as is.
+                    late.segment.entries.remove(late);
+                    enrollEntry(new EntryFile(late.segment, late.tag, t++, late.flags,
+                            late.segmentOffset, late.segmentLength));
+                } else if ((late.flags & DropBoxManager.IS_EMPTY) == 0) {
                     enrollEntry(new EntryFile(late.getFile(mDropBoxDir), mDropBoxDir,
                             late.tag, t++, late.flags, mBlockSize));
                 } else {
@@ -806,12 +1109,6 @@ public final class DropBoxManagerService extends SystemService {
                 }
             }
         }
-
-        if (temp == null) {
-            enrollEntry(new EntryFile(mDropBoxDir, tag, t));
-        } else {
-            enrollEntry(new EntryFile(temp, mDropBoxDir, tag, t, flags, mBlockSize));
-        }
         return t;
     }
 
@@ -838,7 +1135,7 @@ public final class DropBoxManagerService extends SystemService {
             FileList tag = mFilesByTag.get(entry.tag);
             if (tag != null && tag.contents.remove(entry)) tag.blocks -= entry.blocks;
             if (mAllFiles.contents.remove(entry)) mAllFiles.blocks -= entry.blocks;
-            entry.deleteFile(mDropBoxDir);
+            deleteEntry(entry);
         }
 
         // Compute overall quota (a fraction of available free space) in blocks.
@@ -881,26 +1178,39 @@ public final class DropBoxManagerService extends SystemService {
         //
         // Deleted files are replaced with zero-length tombstones to mark what
         // was lost.  Tombstones are expunged by age (see above).
+        //
+        // Small entries stored in segments are dropped a whole segment at a time,
+        // oldest first, without tombstones.  Segments may use up to half of the
+        // quota when files are competing for space; the files share the rest.
+
+        while (mAllFiles.blocks + mSegmentBlocks > mCachedQuotaBlocks
+                && mSegmentBlocks > mCachedQuotaBlocks / 2 && !mSegments.isEmpty()) {
+            dropSegment(mSegments.get(0));
+        }
+        final int fileQuotaBlocks = mCachedQuotaBlocks - mSegmentBlocks;
 
-        if (mAllFiles.blocks > mCachedQuotaBlocks) {
+        if (mAllFiles.blocks > fileQuotaBlocks) {
             // Find a fair share amount of space to limit each tag
             int unsqueezed = mAllFiles.blocks, squeezed = 0;
             TreeSet<FileList> tags = new TreeSet<FileList>(mFilesByTag.values());
             for (FileList tag : tags) {
-                if (squeezed > 0 && tag.blocks <= (mCachedQuotaBlocks - unsqueezed) / squeezed) {
+                if (squeezed > 0 && tag.blocks <= (fileQuotaBlocks - unsqueezed) / squeezed) {
                     break;
                 }
                 unsqueezed -= tag.blocks;
                 squeezed++;
             }
-            int tagQuota = (mCachedQuotaBlocks - unsqueezed) / squeezed;
+            int tagQuota = (fileQuotaBlocks - unsqueezed) / squeezed;
 
             // Remove old items from each tag until it meets the per-tag quota.
             for (FileList tag : tags) {
-                if (mAllFiles.blocks < mCachedQuotaBlocks) break;
-                while (tag.blocks > tagQuota && !tag.contents.isEmpty()) {
-                    EntryFile entry = tag.contents.first();
-                    if (tag.contents.remove(entry)) tag.blocks -= entry.blocks;
+                if (mAllFiles.blocks < fileQuotaBlocks) break;
+                Iterator<EntryFile> it = tag.contents.iterator();
+                while (tag.blocks > tagQuota && it.hasNext()) {
+                    EntryFile entry = it.next();
+                    if (entry.segment != null) continue;  // Dropped with its segment.
+                    it.remove();
+                    tag.blocks -= entry.blocks;
                     if (mAllFiles.contents.remove(entry)) mAllFiles.blocks -= entry.blocks;
 
                     try {
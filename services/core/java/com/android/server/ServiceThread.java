@@ -21,13 +21,21 @@ import android.os.Process;
 import android.os.StrictMode;
 import android.util.Slog;
 
+import com.android.internal.os.LooperDispatchStats;
+
+import java.io.PrintWriter;
+import java.util.ArrayList;
+
 /**
  * Special handler thread that we create for system services that require their own loopers.
  */
 public class ServiceThread extends HandlerThread {
     private static final String TAG = "ServiceThread";
 
+    private static final ArrayList<ServiceThread> sRunningThreads = new ArrayList<>();
+
     private final boolean mAllowIo;
+    private final LooperDispatchStats mDispatchStats = new LooperDispatchStats();
 
     public ServiceThread(String name, int priority, boolean allowIo) {
         super(name, priority);
@@ -43,6 +51,38 @@ public class ServiceThread extends HandlerThread {
             Slog.i(TAG, "Enabled StrictMode logging for " + getName() + " looper.");
         }
 
-        super.run();
+        try {
+            super.run();
+        } finally {
+            synchronized (sRunningThreads) {
+                sRunningThreads.remove(this);
+            }
+        }
+    }
+
+    @Override
+    protected void onLooperPrepared() {
+        getLooper().setObserver(mDispatchStats);
+        synchronized (sRunningThreads) {
+            sRunningThreads.add(this);
+        }
+    }
+
+    /**
+     * Prints the message dispatch statistics of every running service thread.
+     */
+    public static void dumpDispatchStats(PrintWriter pw, String prefix, boolean reset) {
+        final ArrayList<ServiceThread> threads;
+        synchronized (sRunningThreads) {
+            threads = new ArrayList<>(sRunningThreads);
+        }
+        for (int i = 0; i < threads.size(); i++) {
+            final ServiceThread thread = threads.get(i);
+            pw.print(prefix); pw.print(thread.getName()); pw.println(":");
+            thread.mDispatchStats.dump(pw, prefix + "  ");
+            if (reset) {
+                thread.mDispatchStats.reset();
+            }
+        }
     }
 }
\ No newline at end of file
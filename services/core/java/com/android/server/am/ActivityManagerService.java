@@ -511,6 +511,10 @@ public class ActivityManagerService extends IActivityManager.Stub
     // prevent further untrusted switches from happening.
     static final long APP_SWITCH_DELAY_TIME = 5*1000;
 
+    // How many recent tasks on either side of a task whose reduced snapshot was requested
+    // should have their snapshots restored from disk ahead of time.
+    static final int TASK_SNAPSHOT_PREFETCH_DISTANCE = 2;
+
     // How long we wait for a launched process to attach to the activity manager
     // before we decide it's never going to come up for real.
     static final int PROC_START_TIMEOUT = 10*1000;
@@ -10368,6 +10372,9 @@ public class ActivityManagerService extends IActivityManager.Stub
                     Slog.w(TAG, "getTaskSnapshot: taskId=" + taskId + " not found");
                     return null;
                 }
+                if (reducedResolution) {
+                    prefetchAdjacentTaskSnapshotsLocked(task);
+                }
             }
             // Don't call this while holding the lock as this operation might hit the disk.
             return task.getSnapshot(reducedResolution);
@@ -10376,6 +10383,24 @@ public class ActivityManagerService extends IActivityManager.Stub
         }
     }
 
+    /**
+     * Recents usually asks for the snapshots of the neighbouring tasks next while scrolling, so
+     * start restoring those in the background.
+     */
+    private void prefetchAdjacentTaskSnapshotsLocked(TaskRecord task) {
+        final int index = mRecentTasks.indexOf(task);
+        if (index < 0) {
+            return;
+        }
+        final int end = Math.min(mRecentTasks.size() - 1, index + TASK_SNAPSHOT_PREFETCH_DISTANCE);
+        for (int i = Math.max(0, index - TASK_SNAPSHOT_PREFETCH_DISTANCE); i <= end; i++) {
+            final TaskRecord tr = mRecentTasks.get(i);
+            if (tr != task) {
+                mWindowManager.prefetchTaskSnapshot(tr.taskId, tr.userId);
+            }
+        }
+    }
+
     @Override
     public Bitmap getTaskDescriptionIcon(String filePath, int userId) {
         if (userId != UserHandle.getCallingUserId()) {
@@ -15240,6 +15265,10 @@ public class ActivityManagerService extends IActivityManager.Stub
                         dumpBroadcastStatsLocked(fd, pw, args, opti, true, dumpPackage);
                     }
                 }
+            } else if ("looper-stats".equals(cmd)) {
+                final boolean reset = opti < args.length && "--reset".equals(args[opti]);
+                pw.println("ACTIVITY MANAGER LOOPER STATS (dumpsys activity looper-stats)");
+                ServiceThread.dumpDispatchStats(pw, "  ", reset);
             } else if ("intents".equals(cmd) || "i".equals(cmd)) {
                 String[] newArgs;
                 String name;
@@ -15608,6 +15637,11 @@ public class ActivityManagerService extends IActivityManager.Stub
         if (!printedAnything) {
             pw.println("  (nothing)");
         }
+
+        if (mRecentTasks != null && dumpAll && dumpPackage == null) {
+            pw.println();
+            mRecentTasks.dumpPersister(pw, "  ");
+        }
     }
 
     void dumpAssociationsLocked(FileDescriptor fd, PrintWriter pw, String[] args,
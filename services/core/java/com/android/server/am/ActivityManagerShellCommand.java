@@ -2639,6 +2639,7 @@ final class ActivityManagerShellCommand extends ShellCommand {
             pw.println("    r[recents]: recent activities state");
             pw.println("    b[roadcasts] [PACKAGE_NAME] [history [-s]]: broadcast state");
             pw.println("    broadcast-stats [PACKAGE_NAME]: aggregated broadcast statistics");
+            pw.println("    looper-stats [--reset]: message dispatch statistics of system threads");
             pw.println("    i[ntents] [PACKAGE_NAME]: pending intent state");
             pw.println("    p[rocesses] [PACKAGE_NAME]: process state");
             pw.println("    o[om]: out of memory management");
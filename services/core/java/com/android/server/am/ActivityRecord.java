@@ -150,6 +150,7 @@ import android.os.storage.StorageManager;
 import android.service.voice.IVoiceInteractionSession;
 import android.util.EventLog;
 import android.util.Log;
+import android.util.LongSparseArray;
 import android.util.MergedConfiguration;
 import android.util.Slog;
 import android.util.TimeUtils;
@@ -275,6 +276,10 @@ final class ActivityRecord extends ConfigurationContainer implements AppWindowCo
     ActivityState state;    // current state we are in
     Bundle  icicle;         // last saved activity state
     PersistableBundle persistentState; // last persistently saved activity state
+    // Whether persistentState was left on disk when the activity was restored from its task
+    // file, to be read in the background or when the task is resumed. See
+    // TaskPersister#restoreDeferredStateLocked.
+    boolean persistentStateDeferred;
     boolean frontOfTask;    // is this the root activity of its task?
     boolean launchFailed;   // set if a launched failed, to abort on 2nd try
     boolean haveState;      // have we gotten the last activity state?
@@ -1760,6 +1765,8 @@ final class ActivityRecord extends ConfigurationContainer implements AppWindowCo
         }
         if (newPersistentState != null) {
             persistentState = newPersistentState;
+            // Newer than whatever was left in the task file.
+            persistentStateDeferred = false;
             service.notifyTaskPersisterLocked(task, false);
         }
         if (DEBUG_SAVED_STATE) Slog.i(TAG_SAVED_STATE, "Saving icicle of " + this + ": " + icicle);
@@ -2700,8 +2707,14 @@ final class ActivityRecord extends ConfigurationContainer implements AppWindowCo
         }
     }
 
+    /**
+     * @param deferPersistentState Whether to skip the persistent state of the activity, which
+     *        is only needed once it is launched again, and leave it to
+     *        {@link #readPersistentStateFromXml}.
+     */
     static ActivityRecord restoreFromXml(XmlPullParser in,
-            ActivityStackSupervisor stackSupervisor) throws IOException, XmlPullParserException {
+            ActivityStackSupervisor stackSupervisor, boolean deferPersistentState)
+            throws IOException, XmlPullParserException {
         Intent intent = null;
         PersistableBundle persistentState = null;
         int launchedFromUid = 0;
@@ -2712,6 +2725,7 @@ final class ActivityRecord extends ConfigurationContainer implements AppWindowCo
         long createTime = -1;
         final int outerDepth = in.getDepth();
         TaskDescription taskDescription = new TaskDescription();
+        boolean persistentStateDeferred = false;
 
         for (int attrNdx = in.getAttributeCount() - 1; attrNdx >= 0; --attrNdx) {
             final String attrName = in.getAttributeName(attrNdx);
@@ -2749,9 +2763,14 @@ final class ActivityRecord extends ConfigurationContainer implements AppWindowCo
                     if (DEBUG)
                             Slog.d(TaskPersister.TAG, "ActivityRecord: intent=" + intent);
                 } else if (TAG_PERSISTABLEBUNDLE.equals(name)) {
-                    persistentState = PersistableBundle.restoreFromXml(in);
-                    if (DEBUG) Slog.d(TaskPersister.TAG,
-                            "ActivityRecord: persistentState=" + persistentState);
+                    if (deferPersistentState) {
+                        persistentStateDeferred = true;
+                        XmlUtils.skipCurrentTag(in);
+                    } else {
+                        persistentState = PersistableBundle.restoreFromXml(in);
+                        if (DEBUG) Slog.d(TaskPersister.TAG,
+                                "ActivityRecord: persistentState=" + persistentState);
+                    }
                 } else {
                     Slog.w(TAG, "restoreActivity: unexpected name=" + name);
                     XmlUtils.skipCurrentTag(in);
@@ -2777,12 +2796,62 @@ final class ActivityRecord extends ConfigurationContainer implements AppWindowCo
                 stackSupervisor, null /* options */, null /* sourceRecord */);
 
         r.persistentState = persistentState;
+        r.persistentStateDeferred = persistentStateDeferred;
         r.taskDescription = taskDescription;
         r.createTime = createTime;
 
         return r;
     }
 
+    /**
+     * Returns the creation time an activity element written by {@link #saveToXml} identifies
+     * its activity with, or -1 if it has none.
+     */
+    static long getCreateTimeFromXml(XmlPullParser in) {
+        final String createTime = in.getAttributeValue(null, ATTR_ID);
+        return createTime != null ? Long.parseLong(createTime) : -1;
+    }
+
+    /**
+     * Reads the persistent state that {@link #restoreFromXml} deferred from the same activity
+     * element. Returns null if the element has none.
+     */
+    static PersistableBundle readPersistentStateFromXml(XmlPullParser in)
+            throws IOException, XmlPullParserException {
+        PersistableBundle persistentState = null;
+        final int outerDepth = in.getDepth();
+        int event;
+        while (((event = in.next()) != END_DOCUMENT) &&
+                (event != END_TAG || in.getDepth() >= outerDepth)) {
+            if (event == START_TAG) {
+                if (TAG_PERSISTABLEBUNDLE.equals(in.getName())) {
+                    persistentState = PersistableBundle.restoreFromXml(in);
+                    if (DEBUG) Slog.d(TaskPersister.TAG,
+                            "ActivityRecord: persistentState=" + persistentState);
+                } else {
+                    XmlUtils.skipCurrentTag(in);
+                }
+            }
+        }
+        return persistentState;
+    }
+
+    /**
+     * Takes the persistent state that {@link #restoreFromXml} deferred, unless a newer one was
+     * saved since, out of the states read by {@link TaskRecord#readDeferredActivityStatesFromXml}.
+     */
+    void restoreDeferredPersistentState(LongSparseArray<PersistableBundle> states) {
+        if (persistentStateDeferred) {
+            persistentState = states.get(createTime);
+            persistentStateDeferred = false;
+        }
+    }
+
+    @VisibleForTesting
+    void setCreateTime(long createTime) {
+        this.createTime = createTime;
+    }
+
     private static String activityTypeToString(int type) {
         switch (type) {
             case APPLICATION_ACTIVITY_TYPE: return "APPLICATION_ACTIVITY_TYPE";
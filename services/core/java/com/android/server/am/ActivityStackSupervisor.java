@@ -2882,6 +2882,9 @@ public class ActivityStackSupervisor extends ConfigurationContainer implements D
      * @return true if the task has been restored successfully.
      */
     boolean restoreRecentTaskLocked(TaskRecord task, int stackId) {
+        // The activities are about to be launched again, with their persistent state.
+        mRecentTasks.restoreDeferredStateLocked(task);
+
         if (!StackId.isStaticStack(stackId)) {
             // If stack is not static (or stack id is invalid) - use the default one.
             // This means that tasks that were on external displays will be restored on the
@@ -47,6 +47,7 @@ import android.util.SparseArray;
 import android.util.SparseBooleanArray;
 
 import java.io.File;
+import java.io.PrintWriter;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
@@ -197,6 +198,13 @@ class RecentTasks extends ArrayList<TaskRecord> {
         return mTaskPersister.getImageFromWriteQueue(path);
     }
 
+    /**
+     * Reads the state of a restored task that is not needed until it is resumed.
+     */
+    void restoreDeferredStateLocked(TaskRecord task) {
+        mTaskPersister.restoreDeferredStateLocked(task);
+    }
+
     void saveImage(Bitmap image, String path) {
         mTaskPersister.saveImage(image, path);
     }
@@ -208,6 +216,10 @@ class RecentTasks extends ArrayList<TaskRecord> {
         mTaskPersister.flush();
     }
 
+    void dumpPersister(PrintWriter pw, String prefix) {
+        mTaskPersister.dump(pw, prefix);
+    }
+
     /**
      * Returns all userIds for which recents from persistent storage are loaded into this list.
      *
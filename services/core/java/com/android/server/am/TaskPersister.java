@@ -22,10 +22,12 @@ import android.graphics.BitmapFactory;
 import android.os.Debug;
 import android.os.Environment;
 import android.os.FileUtils;
+import android.os.PersistableBundle;
 import android.os.Process;
 import android.os.SystemClock;
 import android.util.ArraySet;
 import android.util.AtomicFile;
+import android.util.LongSparseArray;
 import android.util.Slog;
 import android.util.SparseArray;
 import android.util.SparseBooleanArray;
@@ -48,6 +50,7 @@ import java.io.FileOutputStream;
 import java.io.FileReader;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.io.PrintWriter;
 import java.io.StringWriter;
 import java.util.ArrayList;
 import java.util.Collections;
@@ -105,6 +108,17 @@ public class TaskPersister {
 
     private final LazyTaskWriterThread mLazyTaskWriterThread;
 
+    // Timing counters, reported by dump(). Written by the lazy writer thread and by
+    // restoreTasksForUserLocked(), so only guarded by "this" for consistent reads.
+    private int mTasksWritten;
+    private int mTaskWriteBatches;
+    private long mTaskWriteTimeMs;
+    private int mImagesWritten;
+    private long mImageWriteTimeMs;
+    private int mTasksRestored;
+    private long mRestoreTimeMs;
+    private long mLastRestoreTimeMs;
+
     private static class WriteQueueItem {}
 
     private static class TaskWriteQueueItem extends WriteQueueItem {
@@ -115,6 +129,15 @@ public class TaskPersister {
         }
     }
 
+    /** Reads the deferred activity state of restored tasks ahead of their resumption. */
+    private static class DeferredStateQueueItem extends WriteQueueItem {
+        final ArrayList<TaskRecord> mTasks;
+
+        DeferredStateQueueItem(ArrayList<TaskRecord> tasks) {
+            mTasks = tasks;
+        }
+    }
+
     private static class ImageWriteQueueItem extends WriteQueueItem {
         final String mFilePath;
         Bitmap mImage;
@@ -195,6 +218,29 @@ public class TaskPersister {
         }
     }
 
+    /**
+     * While flushing there is no point pacing the writes, so moves every task left in the write
+     * queue to the batch about to be written, rather than taking the mService lock once per
+     * write queue item.
+     */
+    @VisibleForTesting
+    void addQueuedTasksToBatch(ArrayList<TaskRecord> tasks) {
+        synchronized (this) {
+            if (mNextWriteTime != FLUSH_QUEUE) {
+                return;
+            }
+            for (int queueNdx = 0; queueNdx < mWriteQueue.size(); ) {
+                final WriteQueueItem item = mWriteQueue.get(queueNdx);
+                if (item instanceof TaskWriteQueueItem) {
+                    tasks.add(((TaskWriteQueueItem) item).mTask);
+                    mWriteQueue.remove(queueNdx);
+                } else {
+                    queueNdx++;
+                }
+            }
+        }
+    }
+
     @NonNull
     SparseBooleanArray loadPersistedTaskIdsForUser(int userId) {
         if (mTaskIdsInFile.get(userId) != null) {
@@ -412,6 +458,7 @@ public class TaskPersister {
     }
 
     List<TaskRecord> restoreTasksForUserLocked(final int userId, SparseBooleanArray preaddedTasks) {
+        final long startTime = SystemClock.uptimeMillis();
         final ArrayList<TaskRecord> tasks = new ArrayList<TaskRecord>();
         ArraySet<Integer> recoveredTaskIds = new ArraySet<Integer>();
 
@@ -461,7 +508,10 @@ public class TaskPersister {
                     if (event == XmlPullParser.START_TAG) {
                         if (DEBUG) Slog.d(TAG, "restoreTasksForUserLocked: START_TAG name=" + name);
                         if (TAG_TASK.equals(name)) {
-                            final TaskRecord task = TaskRecord.restoreFromXml(in, mStackSupervisor);
+                            // The persistent state of the activities is only read once the
+                            // task is resumed, by restoreDeferredStateLocked().
+                            final TaskRecord task = TaskRecord.restoreFromXml(in,
+                                    mStackSupervisor, true /* deferActivityState */);
                             if (DEBUG) Slog.d(TAG, "restoreTasksForUserLocked: restored task="
                                     + task);
                             if (task != null) {
@@ -535,9 +585,121 @@ public class TaskPersister {
                 }
             }
         });
+
+        final long restoreTime = SystemClock.uptimeMillis() - startTime;
+        synchronized (this) {
+            mTasksRestored += tasks.size();
+            mRestoreTimeMs += restoreTime;
+            mLastRestoreTimeMs = restoreTime;
+            if (!tasks.isEmpty()) {
+                // Read the deferred state on the writer thread, away from the unlock path.
+                mWriteQueue.add(new DeferredStateQueueItem(new ArrayList<>(tasks)));
+                if (mNextWriteTime == 0) {
+                    mNextWriteTime = SystemClock.uptimeMillis() + PRE_TASK_DELAY_MS;
+                }
+                notifyAll();
+            }
+        }
+        Slog.i(TAG, "Restored " + tasks.size() + " tasks for user " + userId + " in "
+                + restoreTime + "ms");
         return tasks;
     }
 
+    /**
+     * Reads the persistent state of the activities of a task that
+     * {@link #restoreTasksForUserLocked} left in the task file. The writer thread normally reads
+     * it in the background; this is for a task that is resumed before it got to it. If the file
+     * cannot be read, the state stays deferred so that the task is not written back without it.
+     */
+    void restoreDeferredStateLocked(TaskRecord task) {
+        if (task.hasDeferredActivityState()) {
+            restoreDeferredStateLocked(task, getTaskFile(task));
+        }
+    }
+
+    @VisibleForTesting
+    static void restoreDeferredStateLocked(TaskRecord task, File taskFile) {
+        applyDeferredStateLocked(task, taskFile, readDeferredActivityStates(taskFile));
+    }
+
+    private static void applyDeferredStateLocked(TaskRecord task, File taskFile,
+            LongSparseArray<PersistableBundle> states) {
+        if (states != null) {
+            task.applyDeferredActivityStates(states);
+        } else {
+            Slog.e(TAG, "Keeping activity state of task #" + task.taskId + " deferred, "
+                    + taskFile + " could not be read");
+        }
+    }
+
+    /**
+     * Reads the activity states that {@link #restoreTasksForUserLocked} deferred from a task
+     * file, keyed by activity creation time. Does not need the mService lock. Returns null if
+     * the file cannot be read, and no states if it no longer exists.
+     */
+    @VisibleForTesting
+    static LongSparseArray<PersistableBundle> readDeferredActivityStates(File taskFile) {
+        BufferedReader reader = null;
+        try {
+            reader = new BufferedReader(new FileReader(taskFile));
+            final XmlPullParser in = Xml.newPullParser();
+            in.setInput(reader);
+
+            int event;
+            while (((event = in.next()) != XmlPullParser.END_DOCUMENT) &&
+                    event != XmlPullParser.END_TAG) {
+                if (event == XmlPullParser.START_TAG && TAG_TASK.equals(in.getName())) {
+                    return TaskRecord.readDeferredActivityStatesFromXml(in);
+                }
+            }
+            throw new XmlPullParserException("No task element");
+        } catch (FileNotFoundException e) {
+            // Nothing left to read.
+            return new LongSparseArray<>();
+        } catch (Exception e) {
+            Slog.e(TAG, "Unable to read activity state from " + taskFile, e);
+            return null;
+        } finally {
+            IoUtils.closeQuietly(reader);
+        }
+    }
+
+    /**
+     * Reads the deferred activity state of a task without holding the mService lock, which is
+     * only taken to hand the result to the task.
+     */
+    private void restoreDeferredState(TaskRecord task) {
+        synchronized (mService) {
+            if (!task.inRecents || !task.hasDeferredActivityState()) {
+                return;
+            }
+        }
+        final File taskFile = getTaskFile(task);
+        final LongSparseArray<PersistableBundle> states = readDeferredActivityStates(taskFile);
+        synchronized (mService) {
+            applyDeferredStateLocked(task, taskFile, states);
+        }
+    }
+
+    private static File getTaskFile(TaskRecord task) {
+        return new File(getUserTasksDir(task.userId),
+                String.valueOf(task.taskId) + TASK_FILENAME_SUFFIX);
+    }
+
+    void dump(PrintWriter pw, String prefix) {
+        synchronized (this) {
+            pw.print(prefix); pw.print("Task persister: queued="); pw.println(mWriteQueue.size());
+            pw.print(prefix); pw.print("  tasks written="); pw.print(mTasksWritten);
+                    pw.print(" in "); pw.print(mTaskWriteBatches); pw.print(" batches, ");
+                    pw.print(mTaskWriteTimeMs); pw.println("ms");
+            pw.print(prefix); pw.print("  images written="); pw.print(mImagesWritten);
+                    pw.print(", "); pw.print(mImageWriteTimeMs); pw.println("ms");
+            pw.print(prefix); pw.print("  tasks restored="); pw.print(mTasksRestored);
+                    pw.print(", "); pw.print(mRestoreTimeMs); pw.print("ms (last ");
+                    pw.print(mLastRestoreTimeMs); pw.println("ms)");
+        }
+    }
+
     private static void removeObsoleteFiles(ArraySet<Integer> persistentTaskIds, File[] files) {
         if (DEBUG) Slog.d(TAG, "removeObsoleteFiles: persistentTaskIds=" + persistentTaskIds +
                 " files=" + files);
@@ -691,6 +853,7 @@ public class TaskPersister {
 
             // If mNextWriteTime, then don't delay between each call to saveToXml().
             final WriteQueueItem item;
+            ArrayList<TaskRecord> tasks = null;
             synchronized (TaskPersister.this) {
                 if (mNextWriteTime != FLUSH_QUEUE) {
                     // The next write we don't have to wait so long.
@@ -728,6 +891,11 @@ public class TaskPersister {
                 }
 
                 // Got something to do.
+                if (item instanceof TaskWriteQueueItem) {
+                    tasks = new ArrayList<>();
+                    tasks.add(((TaskWriteQueueItem) item).mTask);
+                    addQueuedTasksToBatch(tasks);
+                }
             }
 
             if (item instanceof ImageWriteQueueItem) {
@@ -739,6 +907,7 @@ public class TaskPersister {
                 }
                 final Bitmap bitmap = imageWriteQueueItem.mImage;
                 if (DEBUG) Slog.d(TAG, "writing bitmap: filename=" + filePath);
+                final long startTime = SystemClock.uptimeMillis();
                 FileOutputStream imageFile = null;
                 try {
                     imageFile = new FileOutputStream(new File(filePath));
@@ -748,13 +917,40 @@ public class TaskPersister {
                 } finally {
                     IoUtils.closeQuietly(imageFile);
                 }
-            } else if (item instanceof TaskWriteQueueItem) {
-                // Write out one task.
-                StringWriter stringWriter = null;
-                TaskRecord task = ((TaskWriteQueueItem) item).mTask;
+                synchronized (TaskPersister.this) {
+                    mImagesWritten++;
+                    mImageWriteTimeMs += SystemClock.uptimeMillis() - startTime;
+                }
+            } else if (item instanceof DeferredStateQueueItem) {
+                final ArrayList<TaskRecord> restoredTasks = ((DeferredStateQueueItem) item).mTasks;
+                for (int taskNdx = 0; taskNdx < restoredTasks.size(); ++taskNdx) {
+                    restoreDeferredState(restoredTasks.get(taskNdx));
+                }
+            } else if (tasks != null) {
+                writeTasks(tasks);
+            }
+        }
+
+        /**
+         * Writes out a batch of tasks without pausing between them. Each task is serialized
+         * under its own mService lock acquisition, so that a large batch does not keep the
+         * lock from the rest of the system.
+         */
+        private void writeTasks(ArrayList<TaskRecord> tasks) {
+            final long startTime = SystemClock.uptimeMillis();
+            int written = 0;
+            for (int taskNdx = 0; taskNdx < tasks.size(); ++taskNdx) {
+                final TaskRecord task = tasks.get(taskNdx);
                 if (DEBUG) Slog.d(TAG, "Writing task=" + task);
+                // The file is about to be replaced, so read what was left in it first.
+                restoreDeferredState(task);
+                StringWriter stringWriter = null;
                 synchronized (mService) {
-                    if (task.inRecents) {
+                    if (task.inRecents && task.hasDeferredActivityState()) {
+                        // Writing the task now would lose that state; try again on its next
+                        // change.
+                        Slog.w(TAG, "Not saving task=" + task + " with unread activity state");
+                    } else if (task.inRecents) {
                         // Still there.
                         try {
                             if (DEBUG) Slog.d(TAG, "Saving task=" + task);
@@ -764,27 +960,32 @@ public class TaskPersister {
                         }
                     }
                 }
-                if (stringWriter != null) {
-                    // Write out xml file while not holding mService lock.
-                    FileOutputStream file = null;
-                    AtomicFile atomicFile = null;
-                    try {
-                        atomicFile = new AtomicFile(new File(
-                                getUserTasksDir(task.userId),
-                                String.valueOf(task.taskId) + TASK_FILENAME_SUFFIX));
-                        file = atomicFile.startWrite();
-                        file.write(stringWriter.toString().getBytes());
-                        file.write('\n');
-                        atomicFile.finishWrite(file);
-                    } catch (IOException e) {
-                        if (file != null) {
-                            atomicFile.failWrite(file);
-                        }
-                        Slog.e(TAG,
-                                "Unable to open " + atomicFile + " for persisting. " + e);
+                if (stringWriter == null) {
+                    continue;
+                }
+                // Write out xml file while not holding mService lock.
+                FileOutputStream file = null;
+                AtomicFile atomicFile = null;
+                try {
+                    atomicFile = new AtomicFile(getTaskFile(task));
+                    file = atomicFile.startWrite();
+                    file.write(stringWriter.toString().getBytes());
+                    file.write('\n');
+                    atomicFile.finishWrite(file);
+                    written++;
+                } catch (IOException e) {
+                    if (file != null) {
+                        atomicFile.failWrite(file);
                     }
+                    Slog.e(TAG,
+                            "Unable to open " + atomicFile + " for persisting. " + e);
                 }
             }
+            synchronized (TaskPersister.this) {
+                mTasksWritten += written;
+                mTaskWriteBatches++;
+                mTaskWriteTimeMs += SystemClock.uptimeMillis() - startTime;
+            }
         }
     }
 }
@@ -40,12 +40,14 @@ import android.graphics.Point;
 import android.graphics.Rect;
 import android.os.Debug;
 import android.os.ParcelFileDescriptor;
+import android.os.PersistableBundle;
 import android.os.RemoteException;
 import android.os.Trace;
 import android.os.UserHandle;
 import android.provider.Settings;
 import android.service.voice.IVoiceInteractionSession;
 import android.util.DisplayMetrics;
+import android.util.LongSparseArray;
 import android.util.Slog;
 
 import com.android.internal.annotations.VisibleForTesting;
@@ -1816,8 +1818,12 @@ final class TaskRecord extends ConfigurationContainer implements TaskWindowConta
         }
     }
 
-    static TaskRecord restoreFromXml(XmlPullParser in, ActivityStackSupervisor stackSupervisor)
-            throws IOException, XmlPullParserException {
+    /**
+     * @param deferActivityState Whether to leave the persistent state of the activities, which
+     *        the recents list does not need, to {@link #applyDeferredActivityStates}.
+     */
+    static TaskRecord restoreFromXml(XmlPullParser in, ActivityStackSupervisor stackSupervisor,
+            boolean deferActivityState) throws IOException, XmlPullParserException {
         Intent intent = null;
         Intent affinityIntent = null;
         ArrayList<ActivityRecord> activities = new ArrayList<>();
@@ -1946,7 +1952,8 @@ final class TaskRecord extends ConfigurationContainer implements TaskWindowConta
                 } else if (TAG_INTENT.equals(name)) {
                     intent = Intent.restoreFromXml(in);
                 } else if (TAG_ACTIVITY.equals(name)) {
-                    ActivityRecord activity = ActivityRecord.restoreFromXml(in, stackSupervisor);
+                    ActivityRecord activity = ActivityRecord.restoreFromXml(in, stackSupervisor,
+                            deferActivityState);
                     if (TaskPersister.DEBUG) Slog.d(TaskPersister.TAG, "TaskRecord: activity=" +
                             activity);
                     if (activity != null) {
@@ -2020,6 +2027,55 @@ final class TaskRecord extends ConfigurationContainer implements TaskWindowConta
         return task;
     }
 
+    /** Returns whether the persistent state of some activity is still to be read. */
+    boolean hasDeferredActivityState() {
+        for (int activityNdx = mActivities.size() - 1; activityNdx >= 0; --activityNdx) {
+            if (mActivities.get(activityNdx).persistentStateDeferred) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Reads the persistent state of the activities that {@link #restoreFromXml} deferred, from
+     * the same task element, keyed by activity creation time. Does not touch any task, so it
+     * can run without the activity manager lock.
+     */
+    static LongSparseArray<PersistableBundle> readDeferredActivityStatesFromXml(
+            XmlPullParser in) throws IOException, XmlPullParserException {
+        final LongSparseArray<PersistableBundle> states = new LongSparseArray<>();
+        final int outerDepth = in.getDepth();
+        int event;
+        while (((event = in.next()) != XmlPullParser.END_DOCUMENT) &&
+                (event != XmlPullParser.END_TAG || in.getDepth() >= outerDepth)) {
+            if (event != XmlPullParser.START_TAG) {
+                continue;
+            }
+            if (TAG_ACTIVITY.equals(in.getName())) {
+                final long createTime = ActivityRecord.getCreateTimeFromXml(in);
+                final PersistableBundle state = ActivityRecord.readPersistentStateFromXml(in);
+                if (state != null) {
+                    states.put(createTime, state);
+                }
+            } else {
+                XmlUtils.skipCurrentTag(in);
+            }
+        }
+        return states;
+    }
+
+    /**
+     * Hands the states read by {@link #readDeferredActivityStatesFromXml} to the activities
+     * that are still waiting for theirs. Activities that saved a newer state in the meantime
+     * keep it.
+     */
+    void applyDeferredActivityStates(LongSparseArray<PersistableBundle> states) {
+        for (int activityNdx = mActivities.size() - 1; activityNdx >= 0; --activityNdx) {
+            mActivities.get(activityNdx).restoreDeferredPersistentState(states);
+        }
+    }
+
     private void adjustForMinimalTaskDimensions(Rect bounds) {
         if (bounds == null) {
             return;
@@ -46,6 +46,7 @@ import android.util.*;
 import com.android.internal.annotations.VisibleForTesting;
 import com.android.internal.util.ArrayUtils;
 import com.android.internal.util.FastXmlSerializer;
+import com.android.server.IoThread;
 
 import org.xmlpull.v1.XmlPullParser;
 import org.xmlpull.v1.XmlPullParserException;
@@ -136,6 +137,16 @@ public class SyncStorageEngine extends Handler {
     private static final int MSG_WRITE_STATISTICS = 2;
     private static final long WRITE_STATISTICS_DELAY = 1000*60*30; // 1/2 hour
 
+    private static final int MSG_WRITE_DIRTY = 3;
+    @VisibleForTesting
+    static final long WRITE_DIRTY_DELAY = 1000*2; // 2 seconds
+
+    /** Flags for {@link #mDirtyFiles}, one per file that has unwritten changes. */
+    private static final int DIRTY_ACCOUNT_INFO = 1 << 0;
+    private static final int DIRTY_STATUS = 1 << 1;
+    private static final int DIRTY_STATISTICS = 1 << 2;
+    private static final int DIRTY_ALL = DIRTY_ACCOUNT_INFO | DIRTY_STATUS | DIRTY_STATISTICS;
+
     private static final boolean SYNC_ENABLED_DEFAULT = false;
 
     // the version of the accounts xml file format
@@ -453,6 +464,15 @@ public class SyncStorageEngine extends Handler {
      */
     private final AtomicFile mStatisticsFile;
 
+    /**
+     * Files whose in-memory state has changed since they were last written. Changes are
+     * coalesced and written together by {@link #MSG_WRITE_DIRTY} so that a burst of sync
+     * events results in a single write of each file. Changes to the sync settings and
+     * authorities are still written to accounts.xml as soon as they are made, so that they
+     * survive a crash; it is only left dirty on start and when accounts are removed.
+     */
+    private int mDirtyFiles;
+
     private int mNextHistoryId = 0;
     private SparseArray<Boolean> mMasterSyncAutomatically = new SparseArray<Boolean>();
     private boolean mDefaultMasterSyncAutomatically;
@@ -463,6 +483,7 @@ public class SyncStorageEngine extends Handler {
     private boolean mGrantSyncAdaptersAccountAccess;
 
     private SyncStorageEngine(Context context, File dataDir) {
+        super(IoThread.get().getLooper());
         mContext = context;
         sSyncStorageEngine = this;
 
@@ -484,10 +505,14 @@ public class SyncStorageEngine extends Handler {
         readAccountInfoLocked();
         readStatusLocked();
         readStatisticsLocked();
-        readAndDeleteLegacyAccountInfoLocked();
-        writeAccountInfoLocked();
-        writeStatusLocked();
-        writeStatisticsLocked();
+        if (readAndDeleteLegacyAccountInfoLocked()) {
+            // The legacy database is gone, so its state must reach our files right away.
+            writeAccountInfoLocked();
+            writeStatusLocked();
+            writeStatisticsLocked();
+        } else {
+            scheduleWriteLocked(DIRTY_ALL);
+        }
     }
 
     public static SyncStorageEngine newTestInstance(Context context) {
@@ -536,6 +561,38 @@ public class SyncStorageEngine extends Handler {
             synchronized (mAuthorities) {
                 writeStatisticsLocked();
             }
+        } else if (msg.what == MSG_WRITE_DIRTY) {
+            synchronized (mAuthorities) {
+                writeDirtyLocked();
+            }
+        }
+    }
+
+    /**
+     * Marks the given files as dirty and schedules a coalesced write of every dirty file
+     * shortly afterwards, so that back-to-back changes only hit the disk once.
+     */
+    private void scheduleWriteLocked(int files) {
+        mDirtyFiles |= files;
+        if (!hasMessages(MSG_WRITE_DIRTY)) {
+            sendEmptyMessageDelayed(MSG_WRITE_DIRTY, WRITE_DIRTY_DELAY);
+        }
+    }
+
+    /**
+     * Writes out every file that has been marked as dirty.
+     */
+    private void writeDirtyLocked() {
+        removeMessages(MSG_WRITE_DIRTY);
+        final int dirty = mDirtyFiles;
+        if ((dirty & DIRTY_ACCOUNT_INFO) != 0) {
+            writeAccountInfoLocked();
+        }
+        if ((dirty & DIRTY_STATUS) != 0) {
+            writeStatusLocked();
+        }
+        if ((dirty & DIRTY_STATISTICS) != 0) {
+            writeStatisticsLocked();
         }
     }
 
@@ -1005,9 +1062,7 @@ public class SyncStorageEngine extends Handler {
                         }
                     }
                 }
-                writeAccountInfoLocked();
-                writeStatusLocked();
-                writeStatisticsLocked();
+                scheduleWriteLocked(DIRTY_ALL);
             }
         }
     }
@@ -1201,14 +1256,16 @@ public class SyncStorageEngine extends Handler {
             status.addEvent(event.toString());
 
             if (writeStatusNow) {
-                writeStatusLocked();
+                scheduleWriteLocked(DIRTY_STATUS);
             } else if (!hasMessages(MSG_WRITE_STATUS)) {
+                mDirtyFiles |= DIRTY_STATUS;
                 sendMessageDelayed(obtainMessage(MSG_WRITE_STATUS),
                         WRITE_STATUS_DELAY);
             }
             if (writeStatisticsNow) {
-                writeStatisticsLocked();
+                scheduleWriteLocked(DIRTY_STATISTICS);
             } else if (!hasMessages(MSG_WRITE_STATISTICS)) {
+                mDirtyFiles |= DIRTY_STATISTICS;
                 sendMessageDelayed(obtainMessage(MSG_WRITE_STATISTICS),
                         WRITE_STATISTICS_DELAY);
             }
@@ -1474,7 +1531,10 @@ public class SyncStorageEngine extends Handler {
 
     public void writeAllState() {
         synchronized (mAuthorities) {
-            // Account info is always written so no need to do it here.
+            // Account info is only written here if it has pending changes.
+            if ((mDirtyFiles & DIRTY_ACCOUNT_INFO) != 0) {
+                writeAccountInfoLocked();
+            }
             writeStatusLocked();
             writeStatisticsLocked();
         }
@@ -1865,6 +1925,7 @@ public class SyncStorageEngine extends Handler {
         if (Log.isLoggable(TAG_FILE, Log.VERBOSE)) {
             Slog.v(TAG_FILE, "Writing new " + mAccountInfoFile.getBaseFile());
         }
+        mDirtyFiles &= ~DIRTY_ACCOUNT_INFO;
         FileOutputStream fos = null;
 
         try {
@@ -1927,12 +1988,14 @@ public class SyncStorageEngine extends Handler {
      * Load sync engine state from the old syncmanager database, and then
      * erase it.  Note that we don't deal with pending operations, active
      * sync, or history.
+     *
+     * @return Whether state was loaded from the old database.
      */
-    private void readAndDeleteLegacyAccountInfoLocked() {
+    private boolean readAndDeleteLegacyAccountInfoLocked() {
         // Look for old database to initialize from.
         File file = mContext.getDatabasePath("syncmanager.db");
         if (!file.exists()) {
-            return;
+            return false;
         }
         String path = file.getPath();
         SQLiteDatabase db = null;
@@ -2052,7 +2115,9 @@ public class SyncStorageEngine extends Handler {
             db.close();
 
             (new File(path)).delete();
+            return true;
         }
+        return false;
     }
 
     public static final int STATUS_FILE_END = 0;
@@ -2103,6 +2168,7 @@ public class SyncStorageEngine extends Handler {
         // The file is being written, so we don't need to have a scheduled
         // write until the next change.
         removeMessages(MSG_WRITE_STATUS);
+        mDirtyFiles &= ~DIRTY_STATUS;
 
         FileOutputStream fos = null;
         try {
@@ -2211,6 +2277,7 @@ public class SyncStorageEngine extends Handler {
         // The file is being written, so we don't need to have a scheduled
         // write until the next change.
         removeMessages(MSG_WRITE_STATISTICS);
+        mDirtyFiles &= ~DIRTY_STATISTICS;
 
         FileOutputStream fos = null;
         try {
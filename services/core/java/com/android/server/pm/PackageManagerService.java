@@ -198,6 +198,7 @@ import android.os.Looper;
 import android.os.Message;
 import android.os.Parcel;
 import android.os.ParcelFileDescriptor;
+import android.os.Parcelable;
 import android.os.PatternMatcher;
 import android.os.Process;
 import android.os.RemoteCallbackList;
@@ -8587,6 +8588,16 @@ public class PackageManagerService extends IPackageManager.Stub
         return resolveInfos;
     }
 
+    /**
+     * Package and application lists repeat the same package names, source paths and process
+     * names across entries, so send their strings pooled and as UTF-8.
+     */
+    private static <T extends Parcelable> ParceledListSlice<T> newPackageListSlice(List<T> list) {
+        final ParceledListSlice<T> slice = new ParceledListSlice<>(list);
+        slice.setStringSectionFlags(Parcel.STRING_SECTION_POOLED | Parcel.STRING_SECTION_UTF8);
+        return slice;
+    }
+
     @Override
     public ParceledListSlice<PackageInfo> getInstalledPackages(int flags, int userId) {
         final int callingUid = Binder.getCallingUid();
@@ -8635,7 +8646,7 @@ public class PackageManagerService extends IPackageManager.Stub
                 }
             }
 
-            return new ParceledListSlice<>(list);
+            return newPackageListSlice(list);
         }
     }
 
@@ -8707,7 +8718,7 @@ public class PackageManagerService extends IPackageManager.Stub
                 }
             }
 
-            return new ParceledListSlice<PackageInfo>(list);
+            return newPackageListSlice(list);
         }
     }
 
@@ -8775,7 +8786,7 @@ public class PackageManagerService extends IPackageManager.Stub
                 }
             }
 
-            return new ParceledListSlice<>(list);
+            return newPackageListSlice(list);
         }
     }
 
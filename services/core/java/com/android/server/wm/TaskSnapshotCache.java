@@ -17,10 +17,15 @@
 package com.android.server.wm;
 
 import android.annotation.Nullable;
+import android.app.ActivityManager;
 import android.app.ActivityManager.TaskSnapshot;
+import android.graphics.GraphicBuffer;
+import android.os.SystemClock;
 import android.util.ArrayMap;
 import android.util.LruCache;
 
+import com.android.internal.os.BackgroundThread;
+
 import java.io.PrintWriter;
 import java.util.Map;
 import java.util.Map.Entry;
@@ -28,21 +33,51 @@ import java.util.Map.Entry;
 /**
  * Caches snapshots. See {@link TaskSnapshotController}.
  * <p>
+ * Snapshots of running tasks are always kept. Snapshots restored from disk are kept in two
+ * bounded LRU tiers, one for full and one for reduced resolution, sized by the memory of their
+ * buffers.
+ * <p>
  * Access to this class should be guarded by the global window manager lock.
  */
 class TaskSnapshotCache {
 
+    /** Maximum memory used by full resolution snapshots restored from disk. */
+    private static final int RESTORED_CACHE_MAX_BYTES = 16 * 1024 * 1024;
+
+    /** Maximum memory used by reduced resolution snapshots restored from disk. */
+    private static final int REDUCED_CACHE_MAX_BYTES = 8 * 1024 * 1024;
+
     private final WindowManagerService mService;
     private final TaskSnapshotLoader mLoader;
     private final ArrayMap<AppWindowToken, Integer> mAppTaskMap = new ArrayMap<>();
     private final ArrayMap<Integer, CacheEntry> mRunningCache = new ArrayMap<>();
+    private final RestoredCache mRestoredCache;
+    private final RestoredCache mReducedCache;
+
+    /**
+     * Incremented whenever restored snapshots are invalidated, so that a load from disk which
+     * raced with the invalidation doesn't put a stale snapshot into the cache.
+     */
+    private int mRestoredGeneration;
+
+    // Statistics for dumpsys.
+    private int mRunningHits;
+    private int mRestoredHits;
+    private int mMisses;
+    private int mDiskLoads;
+    private long mDiskLoadTimeMs;
+    private long mMaxDiskLoadTimeMs;
 
     TaskSnapshotCache(WindowManagerService service, TaskSnapshotLoader loader) {
         mService = service;
         mLoader = loader;
+        final int divisor = ActivityManager.isLowRamDeviceStatic() ? 4 : 1;
+        mRestoredCache = new RestoredCache(RESTORED_CACHE_MAX_BYTES / divisor);
+        mReducedCache = new RestoredCache(REDUCED_CACHE_MAX_BYTES / divisor);
     }
 
     void putSnapshot(Task task, TaskSnapshot snapshot) {
+        invalidateRestored(task.mTaskId);
         final CacheEntry entry = mRunningCache.get(task.mTaskId);
         if (entry != null) {
             mAppTaskMap.remove(entry.topApp);
@@ -58,32 +93,69 @@ class TaskSnapshotCache {
     @Nullable TaskSnapshot getSnapshot(int taskId, int userId, boolean restoreFromDisk,
             boolean reducedResolution) {
 
+        final int generation;
         synchronized (mService.mWindowMap) {
             // Try the running cache.
             final CacheEntry entry = mRunningCache.get(taskId);
             if (entry != null) {
+                mRunningHits++;
                 return entry.snapshot;
             }
-        }
 
-        // Try to restore from disk if asked.
-        if (!restoreFromDisk) {
-            return null;
+            // Snapshots restored earlier are only handed out to callers that would otherwise
+            // restore them from disk.
+            if (!restoreFromDisk) {
+                return null;
+            }
+            final TaskSnapshot restored = getRestoredCache(reducedResolution).get(taskId);
+            if (restored != null) {
+                mRestoredHits++;
+                return restored;
+            }
+            mMisses++;
+            generation = mRestoredGeneration;
         }
-        return tryRestoreFromDisk(taskId, userId, reducedResolution);
+        return tryRestoreFromDisk(taskId, userId, reducedResolution, generation);
+    }
+
+    /**
+     * Restores the reduced resolution snapshot of a task from disk in the background, so that it
+     * is already cached when it is requested, e.g. while scrolling through recents.
+     */
+    void prefetchReducedSnapshot(int taskId, int userId) {
+        BackgroundThread.getHandler().post(() -> getSnapshot(taskId, userId,
+                true /* restoreFromDisk */, true /* reducedResolution */));
     }
 
     /**
      * DO NOT HOLD THE WINDOW MANAGER LOCK WHEN CALLING THIS METHOD!
      */
-    private TaskSnapshot tryRestoreFromDisk(int taskId, int userId, boolean reducedResolution) {
+    private TaskSnapshot tryRestoreFromDisk(int taskId, int userId, boolean reducedResolution,
+            int generation) {
+        final long startTime = SystemClock.uptimeMillis();
         final TaskSnapshot snapshot = mLoader.loadTask(taskId, userId, reducedResolution);
-        if (snapshot == null) {
-            return null;
+        final long loadTime = SystemClock.uptimeMillis() - startTime;
+        synchronized (mService.mWindowMap) {
+            mDiskLoads++;
+            mDiskLoadTimeMs += loadTime;
+            mMaxDiskLoadTimeMs = Math.max(mMaxDiskLoadTimeMs, loadTime);
+            if (snapshot != null && generation == mRestoredGeneration) {
+                getRestoredCache(reducedResolution).put(taskId, snapshot);
+            }
         }
         return snapshot;
     }
 
+    private RestoredCache getRestoredCache(boolean reducedResolution) {
+        return reducedResolution ? mReducedCache : mRestoredCache;
+    }
+
+    private void invalidateRestored(int taskId) {
+        mRestoredGeneration++;
+        mRestoredCache.remove(taskId);
+        mReducedCache.remove(taskId);
+    }
+
     /**
      * Called when an app token has been removed
      */
@@ -106,6 +178,7 @@ class TaskSnapshotCache {
 
     void onTaskRemoved(int taskId) {
         removeRunningEntry(taskId);
+        invalidateRestored(taskId);
     }
 
     private void removeRunningEntry(int taskId) {
@@ -120,6 +193,14 @@ class TaskSnapshotCache {
         final String doublePrefix = prefix + "  ";
         final String triplePrefix = doublePrefix + "  ";
         pw.println(prefix + "SnapshotCache");
+        pw.println(doublePrefix + "runningHits=" + mRunningHits + " restoredHits=" + mRestoredHits
+                + " misses=" + mMisses);
+        pw.println(doublePrefix + "diskLoads=" + mDiskLoads + " totalLoadTimeMs=" + mDiskLoadTimeMs
+                + " maxLoadTimeMs=" + mMaxDiskLoadTimeMs);
+        pw.println(doublePrefix + "restored=" + mRestoredCache.size() + "/"
+                + mRestoredCache.maxSize() + " bytes (" + mRestoredCache.evictionCount()
+                + " evicted) reduced=" + mReducedCache.size() + "/" + mReducedCache.maxSize()
+                + " bytes (" + mReducedCache.evictionCount() + " evicted)");
         for (int i = mRunningCache.size() - 1; i >= 0; i--) {
             final CacheEntry entry = mRunningCache.valueAt(i);
             pw.println(doublePrefix + "Entry taskId=" + mRunningCache.keyAt(i));
@@ -128,6 +209,20 @@ class TaskSnapshotCache {
         }
     }
 
+    /** LRU cache of restored snapshots, sized by the memory used by their buffers. */
+    private static final class RestoredCache extends LruCache<Integer, TaskSnapshot> {
+
+        RestoredCache(int maxBytes) {
+            super(maxBytes);
+        }
+
+        @Override
+        protected int sizeOf(Integer taskId, TaskSnapshot snapshot) {
+            final GraphicBuffer buffer = snapshot.getSnapshot();
+            return buffer.getWidth() * buffer.getHeight() * 4;
+        }
+    }
+
     private static final class CacheEntry {
 
         /** The snapshot. */
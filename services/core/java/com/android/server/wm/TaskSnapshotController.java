@@ -194,6 +194,13 @@ class TaskSnapshotController {
                 || DISABLE_FULL_SIZED_BITMAPS);
     }
 
+    /**
+     * See {@link TaskSnapshotCache#prefetchReducedSnapshot}
+     */
+    void prefetchReducedSnapshot(int taskId, int userId) {
+        mCache.prefetchReducedSnapshot(taskId, userId);
+    }
+
     /**
      * Creates a starting surface for {@param token} with {@param snapshot}. DO NOT HOLD THE WINDOW
      * MANAGER LOCK WHEN CALLING THIS METHOD!
@@ -4057,6 +4057,13 @@ public class WindowManagerService extends IWindowManager.Stub
                 reducedResolution);
     }
 
+    /**
+     * Starts restoring the reduced resolution snapshot of a task from disk in the background.
+     */
+    public void prefetchTaskSnapshot(int taskId, int userId) {
+        mTaskSnapshotController.prefetchReducedSnapshot(taskId, userId);
+    }
+
     /**
      * In case a task write/delete operation was lost because the system crashed, this makes sure to
      * clean up the directory to remove obsolete files.
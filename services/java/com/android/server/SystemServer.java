@@ -351,6 +351,10 @@ public final class SystemServer {
             // to avoid throwing BadParcelableException.
             BaseBundle.setShouldDefuse(true);
 
+            // Most incoming Bundles are only inspected for a key or two before being passed
+            // on, so avoid unparcelling the rest of their contents.
+            BaseBundle.setShouldLazyUnparcel(true);
+
             // Ensure binder calls into the system always run at foreground priority.
             BinderInternal.disableBackgroundScheduling(true);
 
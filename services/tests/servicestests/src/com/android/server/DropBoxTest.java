@@ -558,6 +558,44 @@ public class DropBoxTest extends AndroidTestCase {
         f2.close();
     }
 
+    public void testSegmentStorage() throws Exception {
+        File dir = getEmptyDir("testSegmentStorage");
+        DropBoxManagerService service = new DropBoxManagerService(getContext(), dir,
+                Looper.getMainLooper(), true /* useSegments */);
+        DropBoxManager dropbox = new DropBoxManager(getContext(), service.getServiceStub());
+
+        long before = System.currentTimeMillis();
+        dropbox.addText("DropBoxTest.A", "A0");
+        dropbox.addText("DropBoxTest.B", "B0");
+        dropbox.addData("DropBoxTest.A", "A1".getBytes(), 0);
+
+        // All three entries are small enough to share a single segment file.
+        assertEquals(1, dir.listFiles().length);
+        assertTrue(dir.listFiles()[0].getName().endsWith(".seg"));
+
+        // Re-create the service to make sure entries are recovered from the segment.
+        service = new DropBoxManagerService(getContext(), dir, Looper.getMainLooper(),
+                true /* useSegments */);
+        dropbox = new DropBoxManager(getContext(), service.getServiceStub());
+
+        DropBoxManager.Entry a0 = dropbox.getNextEntry("DropBoxTest.A", before);
+        DropBoxManager.Entry a1 = dropbox.getNextEntry("DropBoxTest.A", a0.getTimeMillis());
+        assertTrue(null == dropbox.getNextEntry("DropBoxTest.A", a1.getTimeMillis()));
+        DropBoxManager.Entry b0 = dropbox.getNextEntry("DropBoxTest.B", before);
+        assertTrue(null == dropbox.getNextEntry("DropBoxTest.B", b0.getTimeMillis()));
+
+        assertEquals("A0", a0.getText(80));
+        assertEquals(DropBoxManager.IS_TEXT, a0.getFlags());
+        assertEquals(0, a1.getFlags());
+        byte[] buf = new byte[80];
+        assertEquals("A1", new String(buf, 0, a1.getInputStream().read(buf)));
+        assertEquals("B0", b0.getText(80));
+
+        a0.close();
+        a1.close();
+        b0.close();
+    }
+
     public void testCreateDropBoxManagerWithInvalidDirectory() throws Exception {
         // If created with an invalid directory, the DropBoxManager should suffer quietly
         // and fail all operations (this is how it survives a full disk).
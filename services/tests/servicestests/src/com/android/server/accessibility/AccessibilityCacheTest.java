@@ -25,6 +25,7 @@ import static org.mockito.Mockito.doAnswer;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.when;
 
 import android.support.test.runner.AndroidJUnit4;
@@ -32,6 +33,7 @@ import android.view.accessibility.AccessibilityCache;
 import android.view.accessibility.AccessibilityEvent;
 import android.view.accessibility.AccessibilityInteractionClient;
 import android.view.accessibility.AccessibilityNodeInfo;
+import android.view.accessibility.AccessibilityNodeProvider;
 import android.view.accessibility.AccessibilityWindowInfo;
 import android.view.View;
 import org.junit.After;
@@ -312,6 +314,176 @@ public class AccessibilityCacheTest {
         }
     }
 
+    @Test
+    public void subTreeChangeEvent_incremental_keepsRefreshedNodes() {
+        final AccessibilityCache cache = new AccessibilityCache(mAccessibilityNodeRefresher, true);
+        doAnswer(invocation -> {
+            addParentAndChild(cache, true);
+            return true;
+        }).when(mAccessibilityNodeRefresher).refreshSubtree(anyObject());
+        AccessibilityEvent event = getSubTreeChangeEvent();
+        try {
+            addParentAndChild(cache, true);
+            cache.onAccessibilityEvent(event);
+            assertNodeInCache(cache, PARENT_VIEW_ID, true);
+            assertNodeInCache(cache, CHILD_VIEW_ID, true);
+        } finally {
+            event.recycle();
+            cache.clear();
+        }
+    }
+
+    @Test
+    public void subTreeChangeEvent_incremental_refreshesOnceWhenNextRead() {
+        final AccessibilityCache cache = new AccessibilityCache(mAccessibilityNodeRefresher, true);
+        doAnswer(invocation -> {
+            addParentAndChild(cache, true);
+            return true;
+        }).when(mAccessibilityNodeRefresher).refreshSubtree(anyObject());
+        AccessibilityEvent event = getSubTreeChangeEvent();
+        try {
+            addParentAndChild(cache, true);
+            cache.onAccessibilityEvent(event);
+            cache.onAccessibilityEvent(event);
+            verify(mAccessibilityNodeRefresher, never()).refreshSubtree(anyObject());
+
+            assertNodeInCache(cache, CHILD_VIEW_ID, true);
+            verify(mAccessibilityNodeRefresher, times(1)).refreshSubtree(anyObject());
+            assertNodeInCache(cache, PARENT_VIEW_ID, true);
+            verify(mAccessibilityNodeRefresher, times(1)).refreshSubtree(anyObject());
+        } finally {
+            event.recycle();
+            cache.clear();
+        }
+    }
+
+    @Test
+    public void subTreeChangeEvent_incremental_clearsNodesMissingFromBatch() {
+        final AccessibilityCache cache = new AccessibilityCache(mAccessibilityNodeRefresher, true);
+        doAnswer(invocation -> {
+            // The batch is full before the child.
+            addParentAndChild(cache, false);
+            return true;
+        }).when(mAccessibilityNodeRefresher).refreshSubtree(anyObject());
+        AccessibilityEvent event = getSubTreeChangeEvent();
+        try {
+            addParentAndChild(cache, true);
+            cache.onAccessibilityEvent(event);
+            assertNodeInCache(cache, PARENT_VIEW_ID, true);
+            assertNodeInCache(cache, CHILD_VIEW_ID, false);
+        } finally {
+            event.recycle();
+            cache.clear();
+        }
+    }
+
+    @Test
+    public void subTreeChangeEvent_incrementalRefreshFails_clearsNodeAndChild() {
+        final AccessibilityCache cache = new AccessibilityCache(mAccessibilityNodeRefresher, true);
+        when(mAccessibilityNodeRefresher.refreshSubtree(anyObject())).thenReturn(false);
+        AccessibilityEvent event = getSubTreeChangeEvent();
+        try {
+            addParentAndChild(cache, true);
+            cache.onAccessibilityEvent(event);
+            assertNodeInCache(cache, PARENT_VIEW_ID, false);
+            assertNodeInCache(cache, CHILD_VIEW_ID, false);
+        } finally {
+            event.recycle();
+            cache.clear();
+        }
+    }
+
+    @Test
+    public void subTreeChangeEvent_incremental_readUnderStaleRootCountsAsMiss() {
+        final AccessibilityCache cache = new AccessibilityCache(mAccessibilityNodeRefresher, true);
+        doAnswer(invocation -> {
+            addParentAndChild(cache, true);
+            return true;
+        }).when(mAccessibilityNodeRefresher).refreshSubtree(anyObject());
+        AccessibilityEvent event = getSubTreeChangeEvent();
+        try {
+            addParentAndChild(cache, true);
+            cache.onAccessibilityEvent(event);
+
+            // Found once refreshed, but it had to be fetched from the app.
+            assertNodeInCache(cache, CHILD_VIEW_ID, true);
+            assertEquals(0, cache.getNodeHitCount());
+            assertEquals(1, cache.getNodeMissCount());
+
+            assertNodeInCache(cache, CHILD_VIEW_ID, true);
+            assertEquals(1, cache.getNodeHitCount());
+            assertEquals(1, cache.getNodeMissCount());
+        } finally {
+            event.recycle();
+            cache.clear();
+        }
+    }
+
+    @Test
+    public void subTreeChangeEvent_incremental_refreshesWithoutHoldingLock() throws Exception {
+        final AccessibilityCache cache = new AccessibilityCache(mAccessibilityNodeRefresher, true);
+        final AtomicInteger otherThreadHitCount = new AtomicInteger(-1);
+        doAnswer(invocation -> {
+            Thread thread = new Thread(() -> otherThreadHitCount.set(cache.getNodeHitCount()));
+            thread.start();
+            thread.join(5000);
+            addParentAndChild(cache, true);
+            return true;
+        }).when(mAccessibilityNodeRefresher).refreshSubtree(anyObject());
+        AccessibilityEvent event = getSubTreeChangeEvent();
+        try {
+            addParentAndChild(cache, true);
+            cache.onAccessibilityEvent(event);
+            assertNodeInCache(cache, CHILD_VIEW_ID, true);
+            assertEquals(0, otherThreadHitCount.get());
+        } finally {
+            event.recycle();
+            cache.clear();
+        }
+    }
+
+    @Test
+    public void subTreeChangeEvent_incremental_changeDuringRefreshKeepsSubtreeStale() {
+        final AccessibilityCache cache = new AccessibilityCache(mAccessibilityNodeRefresher, true);
+        final AccessibilityEvent event = getSubTreeChangeEvent();
+        doAnswer(invocation -> {
+            addParentAndChild(cache, true);
+            // Changed again before the fetch returned.
+            cache.onAccessibilityEvent(event);
+            return true;
+        }).doAnswer(invocation -> {
+            addParentAndChild(cache, true);
+            return true;
+        }).when(mAccessibilityNodeRefresher).refreshSubtree(anyObject());
+        try {
+            addParentAndChild(cache, true);
+            cache.onAccessibilityEvent(event);
+            assertNodeInCache(cache, CHILD_VIEW_ID, true);
+            verify(mAccessibilityNodeRefresher, times(1)).refreshSubtree(anyObject());
+            assertNodeInCache(cache, CHILD_VIEW_ID, true);
+            verify(mAccessibilityNodeRefresher, times(2)).refreshSubtree(anyObject());
+            assertNodeInCache(cache, CHILD_VIEW_ID, true);
+            verify(mAccessibilityNodeRefresher, times(2)).refreshSubtree(anyObject());
+        } finally {
+            event.recycle();
+            cache.clear();
+        }
+    }
+
+    @Test
+    public void getNode_countsHitsAndMisses() {
+        AccessibilityNodeInfo nodeInfo = getNodeWithA11yAndWindowId(SINGLE_VIEW_ID, WINDOW_ID_1);
+        long id = nodeInfo.getSourceNodeId();
+        mAccessibilityCache.add(nodeInfo);
+        nodeInfo.recycle();
+
+        mAccessibilityCache.getNode(WINDOW_ID_1, id).recycle();
+        assertNull(mAccessibilityCache.getNode(WINDOW_ID_1, id + 1));
+        assertNull(mAccessibilityCache.getNode(WINDOW_ID_2, id));
+        assertEquals(1, mAccessibilityCache.getNodeHitCount());
+        assertEquals(2, mAccessibilityCache.getNodeMissCount());
+    }
+
     @Test
     public void reparentNode_clearsOldParent() {
         AccessibilityNodeInfo parentNodeInfo = getParentNode();
@@ -630,4 +802,40 @@ public class AccessibilityCacheTest {
             }
         }
     }
+
+    private AccessibilityEvent getSubTreeChangeEvent() {
+        AccessibilityEvent event = AccessibilityEvent
+                .obtain(AccessibilityEvent.TYPE_WINDOW_CONTENT_CHANGED);
+        event.setContentChangeTypes(AccessibilityEvent.CONTENT_CHANGE_TYPE_SUBTREE);
+        event.setSource(getMockViewWithA11yAndWindowIds(PARENT_VIEW_ID, WINDOW_ID_1));
+        return event;
+    }
+
+    private void addParentAndChild(AccessibilityCache cache, boolean addChild) {
+        AccessibilityNodeInfo parentNodeInfo = getParentNode();
+        cache.add(parentNodeInfo);
+        parentNodeInfo.recycle();
+        if (addChild) {
+            AccessibilityNodeInfo childNodeInfo = getChildNode();
+            cache.add(childNodeInfo);
+            childNodeInfo.recycle();
+        }
+    }
+
+    private void assertNodeInCache(AccessibilityCache cache, int viewId, boolean inCache) {
+        final long id = AccessibilityNodeInfo.makeNodeId(viewId,
+                AccessibilityNodeProvider.HOST_VIEW_ID);
+        AccessibilityNodeInfo nodeFromCache = cache.getNode(WINDOW_ID_1, id);
+        try {
+            if (inCache) {
+                assertNotNull(nodeFromCache);
+            } else {
+                assertNull(nodeFromCache);
+            }
+        } finally {
+            if (nodeFromCache != null) {
+                nodeFromCache.recycle();
+            }
+        }
+    }
 }
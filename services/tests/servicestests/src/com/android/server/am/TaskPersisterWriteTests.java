@@ -0,0 +1,237 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License
+ */
+
+package com.android.server.am;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import android.content.ComponentName;
+import android.graphics.Bitmap;
+import android.os.PersistableBundle;
+import android.platform.test.annotations.Presubmit;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.filters.MediumTest;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.LongSparseArray;
+
+import com.android.internal.util.FastXmlSerializer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.xmlpull.v1.XmlSerializer;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * Tests for the deferred activity state and the batched task writes of {@link TaskPersister}.
+ *
+ * Build/Install/Run:
+ *  bit FrameworksServicesTests:com.android.server.am.TaskPersisterWriteTests
+ */
+@MediumTest
+@Presubmit
+@RunWith(AndroidJUnit4.class)
+public class TaskPersisterWriteTests extends ActivityTestsBase {
+    private static final int TEST_STACK_ID = 100;
+
+    private final ComponentName testActivityComponent =
+            ComponentName.unflattenFromString("com.foo/.BarActivity");
+
+    private File mDir;
+    private File mTaskFile;
+
+    @Before
+    @Override
+    public void setUp() throws Exception {
+        super.setUp();
+        mDir = new File(InstrumentationRegistry.getContext().getCacheDir(),
+                "TaskPersisterWriteTests");
+        mDir.mkdirs();
+        mTaskFile = new File(mDir, "1_task.xml");
+    }
+
+    @After
+    @Override
+    public void tearDown() {
+        mTaskFile.delete();
+        mDir.delete();
+        super.tearDown();
+    }
+
+    @Test
+    public void testReadDeferredActivityStates() throws Exception {
+        writeTaskFile(mTaskFile, new long[] { 10, 20, 30 },
+                new PersistableBundle[] { createState("a"), null, createState("c") });
+
+        final LongSparseArray<PersistableBundle> states =
+                TaskPersister.readDeferredActivityStates(mTaskFile);
+
+        assertEquals(2, states.size());
+        assertEquals("a", states.get(10).getString("key"));
+        assertNull(states.get(20));
+        assertEquals("c", states.get(30).getString("key"));
+    }
+
+    @Test
+    public void testReadDeferredActivityStates_missingFile() {
+        final LongSparseArray<PersistableBundle> states =
+                TaskPersister.readDeferredActivityStates(mTaskFile);
+
+        assertNotNull(states);
+        assertEquals(0, states.size());
+    }
+
+    @Test
+    public void testReadDeferredActivityStates_corruptFile() throws Exception {
+        writeFile(mTaskFile, "<task><activity id=\"10\"><persistable_bundle>");
+
+        assertNull(TaskPersister.readDeferredActivityStates(mTaskFile));
+    }
+
+    @Test
+    public void testRestoreDeferredState_appliesToDeferredActivitiesOnly() throws Exception {
+        final ActivityManagerService service = createActivityManagerService();
+        final TaskRecord task = createTask(service, testActivityComponent, TEST_STACK_ID);
+        final ActivityRecord deferred = createDeferredActivity(service, task, 10);
+        final ActivityRecord deferredWithoutState = createDeferredActivity(service, task, 20);
+        final ActivityRecord stopped = createDeferredActivity(service, task, 30);
+        // Saved a newer state after the task was restored.
+        final PersistableBundle newerState = createState("newer");
+        stopped.persistentState = newerState;
+        stopped.persistentStateDeferred = false;
+        writeTaskFile(mTaskFile, new long[] { 10, 20, 30 },
+                new PersistableBundle[] { createState("a"), null, createState("c") });
+
+        assertTrue(task.hasDeferredActivityState());
+        TaskPersister.restoreDeferredStateLocked(task, mTaskFile);
+
+        assertFalse(task.hasDeferredActivityState());
+        assertEquals("a", deferred.persistentState.getString("key"));
+        assertNull(deferredWithoutState.persistentState);
+        assertSame(newerState, stopped.persistentState);
+    }
+
+    @Test
+    public void testRestoreDeferredState_keepsStateDeferredOnReadFailure() throws Exception {
+        final ActivityManagerService service = createActivityManagerService();
+        final TaskRecord task = createTask(service, testActivityComponent, TEST_STACK_ID);
+        final ActivityRecord activity = createDeferredActivity(service, task, 10);
+        writeFile(mTaskFile, "<task><activity id=\"10\"><persistable_bundle>");
+
+        TaskPersister.restoreDeferredStateLocked(task, mTaskFile);
+
+        // Still deferred, so that the task is not written back without its state.
+        assertTrue(activity.persistentStateDeferred);
+        assertTrue(task.hasDeferredActivityState());
+    }
+
+    @Test
+    public void testTaskWrites_pacedUntilFlushed() throws Exception {
+        final ActivityManagerService service = createActivityManagerService();
+        final TaskRecord first = createPersistableTask(service);
+        final TaskRecord second = createPersistableTask(service);
+        final TaskRecord third = createPersistableTask(service);
+        final Bitmap image = Bitmap.createBitmap(1, 1, Bitmap.Config.ARGB_8888);
+        final String imagePath = new File(mDir, "1_image.png").getPath();
+        final TaskPersister persister = new TaskPersister(mDir);
+
+        persister.wakeup(first, false /* flush */);
+        persister.saveImage(image, imagePath);
+        persister.wakeup(second, false /* flush */);
+        persister.wakeup(first, false /* flush */);
+        assertEquals(3, persister.mWriteQueue.size());
+
+        // Not flushing: the tasks are written one queue item at a time.
+        final ArrayList<TaskRecord> batch = new ArrayList<>();
+        persister.addQueuedTasksToBatch(batch);
+        assertTrue(batch.isEmpty());
+        assertEquals(3, persister.mWriteQueue.size());
+
+        // Flushing: all queued tasks go out in one batch, in queue order.
+        persister.wakeup(third, true /* flush */);
+        persister.addQueuedTasksToBatch(batch);
+        assertEquals(Arrays.asList(first, second, third), batch);
+        assertEquals(1, persister.mWriteQueue.size());
+        assertSame(image, persister.getImageFromWriteQueue(imagePath));
+    }
+
+    private ActivityRecord createDeferredActivity(ActivityManagerService service,
+            TaskRecord task, long createTime) {
+        final ActivityRecord activity = createActivity(service, testActivityComponent, task);
+        activity.setCreateTime(createTime);
+        activity.persistentStateDeferred = true;
+        return activity;
+    }
+
+    private TaskRecord createPersistableTask(ActivityManagerService service) {
+        final TaskRecord task = createTask(service, testActivityComponent, TEST_STACK_ID);
+        task.isPersistable = true;
+        task.inRecents = true;
+        return task;
+    }
+
+    private static PersistableBundle createState(String value) {
+        final PersistableBundle state = new PersistableBundle();
+        state.putString("key", value);
+        return state;
+    }
+
+    /** Writes a task file with one activity element for each creation time. */
+    private static void writeTaskFile(File file, long[] createTimes, PersistableBundle[] states)
+            throws Exception {
+        final FileWriter writer = new FileWriter(file);
+        try {
+            final XmlSerializer out = new FastXmlSerializer();
+            out.setOutput(writer);
+            out.startDocument(null, true);
+            out.startTag(null, "task");
+            for (int i = 0; i < createTimes.length; i++) {
+                out.startTag(null, "activity");
+                out.attribute(null, "id", String.valueOf(createTimes[i]));
+                if (states[i] != null) {
+                    out.startTag(null, "persistable_bundle");
+                    states[i].saveToXml(out);
+                    out.endTag(null, "persistable_bundle");
+                }
+                out.endTag(null, "activity");
+            }
+            out.endTag(null, "task");
+            out.endDocument();
+            out.flush();
+        } finally {
+            writer.close();
+        }
+    }
+
+    private static void writeFile(File file, String contents) throws Exception {
+        final FileWriter writer = new FileWriter(file);
+        try {
+            writer.write(contents);
+        } finally {
+            writer.close();
+        }
+    }
+}
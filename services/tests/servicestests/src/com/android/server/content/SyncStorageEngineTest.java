@@ -19,10 +19,12 @@ package com.android.server.content;
 import android.accounts.Account;
 import android.content.ComponentName;
 import android.content.ContentResolver;
+import android.content.ContentValues;
 import android.content.Context;
 import android.content.ContextWrapper;
 import android.content.Intent;
 import android.content.res.Resources;
+import android.database.sqlite.SQLiteDatabase;
 import android.os.Bundle;
 import android.test.AndroidTestCase;
 import android.test.RenamingDelegatingContext;
@@ -36,6 +38,8 @@ import com.android.internal.os.AtomicFile;
 
 import java.io.File;
 import java.io.FileOutputStream;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Test for SyncStorageEngine.
@@ -253,6 +257,116 @@ public class SyncStorageEngineTest extends AndroidTestCase {
         assertEquals(1, engine.getIsSyncable(account, 0, "other4"));
     }
 
+    /**
+     * Waits until the engine has run the coalesced write it may have scheduled.
+     */
+    private void waitForScheduledWrites() throws Exception {
+        final CountDownLatch latch = new CountDownLatch(1);
+        engine.postDelayed(latch::countDown, SyncStorageEngine.WRITE_DIRTY_DELAY);
+        assertTrue(latch.await(SyncStorageEngine.WRITE_DIRTY_DELAY + 10000,
+                TimeUnit.MILLISECONDS));
+    }
+
+    @MediumTest
+    public void testStatusChanges_writtenOnce() throws Exception {
+        final File statusFile = new File(getSyncDir(), "status.bin");
+        engine.setIsSyncable(account1, DEFAULT_USER, authority1, 1);
+        engine.writeAllState();
+        assertTrue(statusFile.delete());
+
+        // Every sync that fails after a success, or succeeds after a failure, changes the
+        // status that must be written soon.
+        for (int i = 0; i < 4; i++) {
+            final SyncOperation op = new SyncOperation(account1, DEFAULT_USER, 0, "foo",
+                    SyncOperation.REASON_PERIODIC, SyncStorageEngine.SOURCE_LOCAL, authority1,
+                    Bundle.EMPTY, true);
+            final long historyId = engine.insertStartSyncEvent(op, 1000 * (i + 1));
+            engine.stopSyncEvent(historyId, 100,
+                    i % 2 == 0 ? SyncStorageEngine.MESG_SUCCESS : "error", 0, 0);
+        }
+        assertFalse(statusFile.exists());
+
+        waitForScheduledWrites();
+        assertTrue(statusFile.exists());
+
+        // Nothing was left to write.
+        assertTrue(statusFile.delete());
+        waitForScheduledWrites();
+        assertFalse(statusFile.exists());
+    }
+
+    @SmallTest
+    public void testSettingChanges_writtenImmediately() throws Exception {
+        final File accountInfoFile = new File(getSyncDir(), "accounts.xml");
+        engine.writeAllState();
+        assertTrue(accountInfoFile.delete());
+
+        engine.setSyncAutomatically(account1, DEFAULT_USER, authority1, true);
+
+        assertTrue(accountInfoFile.exists());
+    }
+
+    @SmallTest
+    public void testWriteAllState_writesPendingAccountInfo() throws Exception {
+        final File accountInfoFile = new File(getSyncDir(), "accounts.xml");
+        // Write what the engine of setUp() has pending, so that it does not write it later.
+        engine.writeAllState();
+        accountInfoFile.delete();
+
+        // A new engine only schedules the write of the state it read.
+        engine = SyncStorageEngine.newTestInstance(new TestContext(mockResolver, getContext()));
+        assertFalse(accountInfoFile.exists());
+
+        engine.writeAllState();
+        assertTrue(accountInfoFile.exists());
+    }
+
+    @MediumTest
+    public void testLegacyAccountInfo_writtenBeforeDatabaseIsGone() throws Exception {
+        final File accountInfoFile = new File(getSyncDir(), "accounts.xml");
+        final File statusFile = new File(getSyncDir(), "status.bin");
+        engine.writeAllState();
+        accountInfoFile.delete();
+        statusFile.delete();
+
+        final TestContext testContext = new TestContext(mockResolver, getContext());
+        final File legacyDbFile = testContext.getDatabasePath("syncmanager.db");
+        legacyDbFile.getParentFile().mkdirs();
+        final SQLiteDatabase db = SQLiteDatabase.openOrCreateDatabase(legacyDbFile, null);
+        try {
+            db.setVersion(11);
+            db.execSQL("CREATE TABLE stats (_id INTEGER PRIMARY KEY, account TEXT,"
+                    + " account_type TEXT, authority TEXT)");
+            db.execSQL("CREATE TABLE status (_id INTEGER PRIMARY KEY, stats_id INTEGER,"
+                    + " totalElapsedTime INTEGER, numSyncs INTEGER, numSourceLocal INTEGER,"
+                    + " numSourcePoll INTEGER, numSourceServer INTEGER, numSourceUser INTEGER,"
+                    + " lastSuccessSource INTEGER, lastSuccessTime INTEGER,"
+                    + " lastFailureSource INTEGER, lastFailureTime INTEGER,"
+                    + " lastFailureMesg TEXT, pending INTEGER)");
+            db.execSQL("CREATE TABLE settings (name TEXT, value TEXT)");
+            final ContentValues stats = new ContentValues();
+            stats.put("_id", 1);
+            stats.put("account", account1.name);
+            stats.put("account_type", account1.type);
+            stats.put("authority", authority1);
+            db.insert("stats", null, stats);
+            final ContentValues status = new ContentValues();
+            status.put("stats_id", 1);
+            status.put("numSyncs", 7);
+            db.insert("status", null, status);
+        } finally {
+            db.close();
+        }
+
+        engine = SyncStorageEngine.newTestInstance(testContext);
+
+        // The legacy database is deleted as it is read, so its state must not wait for the
+        // coalesced write.
+        assertFalse(legacyDbFile.exists());
+        assertTrue(accountInfoFile.exists());
+        assertTrue(statusFile.exists());
+    }
+
     /**
      * Verify that the API cannot cause a run-time reboot by passing in the empty string as an
      * authority. The problem here is that
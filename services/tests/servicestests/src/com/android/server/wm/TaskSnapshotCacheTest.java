@@ -18,8 +18,11 @@ package com.android.server.wm;
 
 import static android.view.WindowManager.LayoutParams.FIRST_APPLICATION_WINDOW;
 import static junit.framework.Assert.assertNotNull;
+import static junit.framework.Assert.assertNotSame;
 import static junit.framework.Assert.assertNull;
+import static junit.framework.Assert.assertSame;
 
+import android.app.ActivityManager.TaskSnapshot;
 import android.platform.test.annotations.Presubmit;
 import android.support.test.filters.SmallTest;
 import android.support.test.runner.AndroidJUnit4;
@@ -96,6 +99,27 @@ public class TaskSnapshotCacheTest extends TaskSnapshotPersisterTestBase {
                 false /* restoreFromDisk */, false /* reducedResolution */));
     }
 
+    @Test
+    public void testReduced_cachedForRestore() throws Exception {
+        final WindowState window = createWindow(null, FIRST_APPLICATION_WINDOW, "window");
+        mPersister.persistSnapshot(window.getTask().mTaskId, sWm.mCurrentUserId, createSnapshot());
+        mPersister.waitForQueueEmpty();
+
+        // Load it from disk
+        final TaskSnapshot snapshot = mCache.getSnapshot(window.getTask().mTaskId,
+                sWm.mCurrentUserId, true /* restoreFromDisk */, true /* reducedResolution */);
+        assertNotNull(snapshot);
+
+        // The next restore is served from the reduced resolution tier.
+        assertSame(snapshot, mCache.getSnapshot(window.getTask().mTaskId, sWm.mCurrentUserId,
+                true /* restoreFromDisk */, true /* reducedResolution */));
+
+        // Until the task goes away.
+        mCache.onTaskRemoved(window.getTask().mTaskId);
+        assertNotSame(snapshot, mCache.getSnapshot(window.getTask().mTaskId, sWm.mCurrentUserId,
+                true /* restoreFromDisk */, true /* reducedResolution */));
+    }
+
     @Test
     public void testRestoreFromDisk() throws Exception {
         final WindowState window = createWindow(null, FIRST_APPLICATION_WINDOW, "window");
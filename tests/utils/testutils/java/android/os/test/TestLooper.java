@@ -40,6 +40,7 @@ public class TestLooper {
     private static final Constructor<Looper> LOOPER_CONSTRUCTOR;
     private static final Field THREAD_LOCAL_LOOPER_FIELD;
     private static final Field MESSAGE_QUEUE_MESSAGES_FIELD;
+    private static final Method MESSAGE_QUEUE_DRAIN_INTAKE_METHOD;
     private static final Field MESSAGE_NEXT_FIELD;
     private static final Field MESSAGE_WHEN_FIELD;
     private static final Method MESSAGE_MARK_IN_USE_METHOD;
@@ -55,6 +56,9 @@ public class TestLooper {
             THREAD_LOCAL_LOOPER_FIELD.setAccessible(true);
             MESSAGE_QUEUE_MESSAGES_FIELD = MessageQueue.class.getDeclaredField("mMessages");
             MESSAGE_QUEUE_MESSAGES_FIELD.setAccessible(true);
+            MESSAGE_QUEUE_DRAIN_INTAKE_METHOD =
+                    MessageQueue.class.getDeclaredMethod("drainIntake");
+            MESSAGE_QUEUE_DRAIN_INTAKE_METHOD.setAccessible(true);
             MESSAGE_NEXT_FIELD = Message.class.getDeclaredField("next");
             MESSAGE_NEXT_FIELD.setAccessible(true);
             MESSAGE_WHEN_FIELD = Message.class.getDeclaredField("when");
@@ -86,8 +90,10 @@ public class TestLooper {
     private Message getMessageLinkedList() {
         try {
             MessageQueue queue = mLooper.getQueue();
+            // Messages are only linked into mMessages once the queue drains its intake.
+            MESSAGE_QUEUE_DRAIN_INTAKE_METHOD.invoke(queue);
             return (Message) MESSAGE_QUEUE_MESSAGES_FIELD.get(queue);
-        } catch (IllegalAccessException e) {
+        } catch (IllegalAccessException | InvocationTargetException e) {
             throw new RuntimeException("Access failed in TestLooper: get - MessageQueue.mMessages",
                     e);
         }